@@ -2,6 +2,9 @@ package org.sagebionetworks.bridge.lock;
 
 public interface Lock {
 
+    /** How often the default blocking acquire retries, in milliseconds. */
+    long DEFAULT_POLL_INTERVAL_MILLIS = 100;
+
     /**
      * Tries to acquire a lock for the specified key. Returns a unique identifier for the lock
      * upon successfully acquiring the lock. Otherwise, throws LockNotAvailableException.
@@ -12,6 +15,40 @@ public interface Lock {
      */
     String acquireLock(String key, int expireInSeconds);
 
+    /**
+     * Tries to acquire a lock for the specified key, waiting up to the specified timeout for
+     * it to become available. Returns a unique identifier for the lock upon successfully
+     * acquiring the lock. Otherwise, throws LockNotAvailableException.
+     * <p>
+     * The default implementation polls {@link #acquireLock(String, int)} every
+     * {@link #DEFAULT_POLL_INTERVAL_MILLIS} milliseconds. Implementations may do better.
+     *
+     * @param key              The key to lock on.
+     * @param expireInSeconds  The lock will expire after the specified amount of time.
+     * @param timeoutMillis    How long to wait for the lock, in milliseconds.
+     * @return The unique identifier for the lock which will be needed for releasing the lock.
+     */
+    default String acquireLock(String key, int expireInSeconds, long timeoutMillis) {
+        long deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            try {
+                return acquireLock(key, expireInSeconds);
+            } catch (LockNotAvailableException ex) {
+                long remainingMillis = deadlineMillis - System.currentTimeMillis();
+                if (remainingMillis <= 0) {
+                    throw ex;
+                }
+                try {
+                    Thread.sleep(Math.min(remainingMillis, DEFAULT_POLL_INTERVAL_MILLIS));
+                } catch (InterruptedException interruptedEx) {
+                    // Restore the interrupt and give up.
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
     /**
      * Releases the lock held for the specified key. The unique lock identifier
      * must be supplied to the release the lock.
@@ -21,4 +58,16 @@ public interface Lock {
      * @return True, if the lock has been released; false, if the lock ID does not match. 
      */
     boolean releaseLock(String key, String lock);
+
+    /**
+     * Extends the expiration of the lock held for the specified key, if and only if the
+     * lock is still held with the specified ID. Used by {@link LockWatchdog} to keep locks
+     * with short expirations alive while their owners are working.
+     *
+     * @param key              The key of the lock.
+     * @param lock             The unique identifier for the lock.
+     * @param expireInSeconds  The lock will expire after the specified amount of time, from now.
+     * @return True, if the lock has been renewed; false, if the lock expired or is held by someone else.
+     */
+    boolean renewLock(String key, String lock, int expireInSeconds);
 }
@@ -0,0 +1,87 @@
+package org.sagebionetworks.bridge.lock;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A lock acquired through {@link LockWatchdog}, which is renewed in the background until the lease is closed. Closing
+ * the lease stops renewal and releases the lock. Use with try-with-resources.
+ */
+public class LockLease implements AutoCloseable {
+    private final LockWatchdog watchdog;
+    private final String key;
+    private final String lockId;
+    private final int expireInSeconds;
+
+    private volatile long lastRenewedMillis;
+    private volatile boolean lost = false;
+    private volatile boolean closed = false;
+    private ScheduledFuture<?> renewTask;
+
+    // Created by LockWatchdog.
+    LockLease(LockWatchdog watchdog, String key, String lockId, int expireInSeconds, long acquiredMillis) {
+        this.watchdog = watchdog;
+        this.key = key;
+        this.lockId = lockId;
+        this.expireInSeconds = expireInSeconds;
+        this.lastRenewedMillis = acquiredMillis;
+    }
+
+    /** The key the lock is held on. */
+    public String getKey() {
+        return key;
+    }
+
+    /** The unique identifier for the lock. */
+    public String getLockId() {
+        return lockId;
+    }
+
+    /** The lock expires this long after the last renewal. */
+    public int getExpireInSeconds() {
+        return expireInSeconds;
+    }
+
+    /**
+     * True if the lock is still held, as far as this host knows: the lease isn't closed, no renewal has found the
+     * lock held by someone else, and the lock hasn't gone a full expiration without a successful renewal.
+     */
+    public boolean isHeld() {
+        return !closed && !lost &&
+                watchdog.currentTimeMillis() < lastRenewedMillis + expireInSeconds * 1000L;
+    }
+
+    /** Stops renewal and releases the lock. Closing a lease more than once does nothing. */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        watchdog.release(this);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void setLastRenewedMillis(long lastRenewedMillis) {
+        this.lastRenewedMillis = lastRenewedMillis;
+    }
+
+    void setLost() {
+        this.lost = true;
+    }
+
+    synchronized void setRenewTask(ScheduledFuture<?> renewTask) {
+        this.renewTask = renewTask;
+    }
+
+    synchronized void cancelRenewTask() {
+        if (renewTask != null) {
+            renewTask.cancel(false);
+            renewTask = null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.sagebionetworks.bridge.lock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Acquires locks as leases, and renews them in the background while the owner holds them. Owners can use short
+ * expirations: if the owner crashes, renewal stops and the lock expires quickly, but an owner that's still working
+ * keeps its lock for as long as it needs.
+ * </p>
+ * <p>
+ * Each lease is renewed every third of its expiration, using {@link Lock#renewLock}, which only extends the lock if
+ * it's still held with the lease's lock ID. If a renewal finds the lock held by someone else (or expired), the lease is
+ * marked lost and renewal stops. Owners doing long work should check {@link LockLease#isHeld} before committing their
+ * results. If a renewal fails with an error (for example, Redis is briefly unreachable), the next renewal tries again,
+ * and the lease stops reporting itself held once its expiration passes without a successful renewal.
+ * </p>
+ * <p>
+ * Closing a lease stops renewal and releases the lock. {@link #shutdown} stops renewal for all leases, without
+ * releasing their locks, which then expire on their own. This class is thread-safe.
+ * </p>
+ */
+public class LockWatchdog {
+    private static final Logger LOG = LoggerFactory.getLogger(LockWatchdog.class);
+
+    private final Lock lock;
+    private final Set<LockLease> leaseSet = ConcurrentHashMap.newKeySet();
+
+    // Scheduler for renewals. This is lazily created if it's not set.
+    private ScheduledExecutorService scheduler;
+    private boolean ownsScheduler = false;
+    private boolean isShutdown = false;
+
+    public LockWatchdog(Lock lock) {
+        checkNotNull(lock);
+        this.lock = lock;
+    }
+
+    /**
+     * Scheduler used for renewals. This can be shared with other components. If not set, the watchdog creates its own
+     * scheduler with a single daemon thread, which is shut down by {@link #shutdown}.
+     */
+    public final synchronized void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Acquires the lock for the specified key and starts renewing it. Throws LockNotAvailableException if the lock is
+     * held by someone else.
+     *
+     * @param key              The key to lock on.
+     * @param expireInSeconds  The lock expires this long after the last renewal. Renewals happen every third of this.
+     * @return The lease, which must be closed to release the lock.
+     */
+    public LockLease acquireLease(String key, int expireInSeconds) {
+        checkNotNull(key);
+        checkArgument(expireInSeconds > 0);
+
+        // The lock's expiration starts no earlier than the call, so take the time before calling. Taking it after would
+        // make the lease think it's held for as long as the call took past the lock's actual expiration.
+        long acquiredMillis = currentTimeMillis();
+        String lockId = lock.acquireLock(key, expireInSeconds);
+        LockLease lease = new LockLease(this, key, lockId, expireInSeconds, acquiredMillis);
+        synchronized (this) {
+            if (isShutdown) {
+                lock.releaseLock(key, lockId);
+                throw new IllegalStateException("LockWatchdog is shut down");
+            }
+
+            long renewIntervalMillis = Math.max(1, expireInSeconds * 1000L / 3);
+            lease.setRenewTask(getScheduler().scheduleWithFixedDelay(() -> renew(lease), renewIntervalMillis,
+                    renewIntervalMillis, TimeUnit.MILLISECONDS));
+            leaseSet.add(lease);
+        }
+        return lease;
+    }
+
+    /** Stops renewing all leases. Their locks aren't released, and expire on their own. */
+    public void shutdown() {
+        List<LockLease> leaseList;
+        synchronized (this) {
+            isShutdown = true;
+            leaseList = new ArrayList<>(leaseSet);
+            if (ownsScheduler) {
+                scheduler.shutdownNow();
+            }
+        }
+        for (LockLease oneLease : leaseList) {
+            stopRenewal(oneLease);
+        }
+    }
+
+    // Renews the lease's lock. Package-scoped so the lease and unit tests can call it.
+    void renew(LockLease lease) {
+        if (lease.isClosed()) {
+            return;
+        }
+
+        // Like acquiring, take the time before calling, so the lease never outlives the lock.
+        long renewedMillis = currentTimeMillis();
+        boolean renewed;
+        try {
+            renewed = lock.renewLock(lease.getKey(), lease.getLockId(), lease.getExpireInSeconds());
+        } catch (RuntimeException ex) {
+            LOG.warn("Error renewing lock for " + lease.getKey() + ", will try again: " + ex.getMessage(), ex);
+            return;
+        }
+
+        if (renewed) {
+            lease.setLastRenewedMillis(renewedMillis);
+        } else {
+            LOG.warn("Lost lock for " + lease.getKey() + ", stopping renewal");
+            lease.setLost();
+            stopRenewal(lease);
+        }
+    }
+
+    // Stops renewing the lease and releases its lock. Called by LockLease.close().
+    boolean release(LockLease lease) {
+        stopRenewal(lease);
+        return lock.releaseLock(lease.getKey(), lease.getLockId());
+    }
+
+    private void stopRenewal(LockLease lease) {
+        leaseSet.remove(lease);
+        lease.cancelRenewTask();
+    }
+
+    // Gets the scheduler, creating the default one if it hasn't been set. Callers synchronize on this.
+    private ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("LockWatchdog-%d").setDaemon(true).build());
+            ownsScheduler = true;
+        }
+        return scheduler;
+    }
+
+    /** Number of leases being renewed. Package-scoped for unit tests. */
+    int getActiveLeaseCount() {
+        return leaseSet.size();
+    }
+
+    /** Gets the current time. This is a member method to enable mocking and is package-scoped for unit tests. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
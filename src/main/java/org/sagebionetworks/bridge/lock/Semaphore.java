@@ -0,0 +1,39 @@
+package org.sagebionetworks.bridge.lock;
+
+/**
+ * Distributed counting semaphore. Like {@link Lock}, but up to maxPermits holders can hold permits for the same key at
+ * once. Permits expire, so a crashed holder doesn't hold its permit forever.
+ */
+public interface Semaphore {
+
+    /**
+     * Tries to acquire a permit for the specified key. Returns a unique identifier for the permit
+     * upon successfully acquiring it. Otherwise, throws LockNotAvailableException.
+     *
+     * @param key              The key to acquire a permit for.
+     * @param maxPermits       The maximum number of permits that can be held for the key at once.
+     * @param expireInSeconds  The permit will expire after the specified amount of time.
+     * @return The unique identifier for the permit which will be needed for releasing the permit.
+     */
+    String acquirePermit(String key, int maxPermits, int expireInSeconds);
+
+    /**
+     * Releases the permit held for the specified key.
+     *
+     * @param key     The key the permit was acquired for.
+     * @param permit  The unique identifier for the permit.
+     * @return True, if the permit has been released; false, if the permit wasn't held (for example, it expired).
+     */
+    boolean releasePermit(String key, String permit);
+
+    /**
+     * Extends the expiration of the permit held for the specified key, if and only if the permit
+     * is still held.
+     *
+     * @param key              The key the permit was acquired for.
+     * @param permit           The unique identifier for the permit.
+     * @param expireInSeconds  The permit will expire after the specified amount of time, from now.
+     * @return True, if the permit has been renewed; false, if the permit expired or was released.
+     */
+    boolean renewPermit(String key, String permit, int expireInSeconds);
+}
@@ -1,9 +1,11 @@
 package org.sagebionetworks.bridge.redis;
 
+import java.util.List;
 import java.util.Set;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
 
 /**
  * A thin wrapper of <code>Jedis</code>. Provides a template
@@ -98,6 +100,34 @@ public class JedisOps {
         }.execute();
     }
 
+    /**
+     * Sets the value of the key, with a condition and an expiration, in a single
+     * atomic command.
+     *
+     * @param key
+     *            key of the key-value pair.
+     * @param value
+     *            value of the key-value pair.
+     * @param nxxx
+     *            "NX" to only set the key if it doesn't exist, or "XX" to
+     *            only set it if it already exists.
+     * @param expx
+     *            "EX" if time is in seconds, or "PX" if time is in
+     *            milliseconds.
+     * @param time
+     *            time until expiration.
+     * @return "OK" if the key was set, null if the condition wasn't met
+     */
+    public String set(final String key, final String value, final String nxxx, final String expx,
+            final long time) {
+        return new AbstractJedisTemplate<String>() {
+            @Override
+            String execute(Jedis jedis) {
+                return jedis.set(key, value, nxxx, expx, time);
+            }
+        }.execute();
+    }
+
     /**
      * Gets the value of the specified key. If the key does not exist null is
      * returned.
@@ -282,6 +312,63 @@ public class JedisOps {
         }.execute();
     }
     
+    // Scripting
+    /**
+     * Evaluates a Lua script on the server. The script runs atomically, and the whole call is a single round trip.
+     *
+     * @param script
+     *      the Lua script
+     * @param keys
+     *      keys the script accesses, available to the script as KEYS
+     * @param args
+     *      additional arguments, available to the script as ARGV
+     * @return
+     *      the script's return value, converted as per the Redis Lua conversion rules (for example, Lua numbers are
+     *      returned as Long, and Lua tables as List)
+     */
+    public Object eval(final String script, final List<String> keys, final List<String> args) {
+        return new AbstractJedisTemplate<Object>() {
+            @Override
+            Object execute(Jedis jedis) {
+                return jedis.eval(script, keys, args);
+            }
+        }.execute();
+    }
+
+    // Pub/sub
+    /**
+     * Posts a message to the given channel.
+     *
+     * @return the number of clients that received the message
+     */
+    public Long publish(final String channel, final String message) {
+        return new AbstractJedisTemplate<Long>() {
+            @Override
+            Long execute(Jedis jedis) {
+                return jedis.publish(channel, message);
+            }
+        }.execute();
+    }
+
+    /**
+     * Subscribes to the given channels. This blocks the calling thread, and holds a
+     * connection from the pool, until the listener unsubscribes or the connection is lost.
+     *
+     * @param listener
+     *      receives the messages, and is used to unsubscribe
+     * @param channels
+     *      channels to subscribe to
+     */
+    public void subscribe(final JedisPubSub listener, final String... channels) {
+        new AbstractJedisTemplate<Void>() {
+            @Override
+            Void execute(Jedis jedis) {
+                jedis.subscribe(listener, channels);
+                return null;
+            }
+        }.execute();
+    }
+
     // Transaction
     /**
      * Starts a transaction with the optional list of keys to watch.
@@ -298,6 +385,17 @@ public class JedisOps {
         return new JedisTransaction(jedis);
     }
 
+    // Pipeline
+    /**
+     * Starts a pipeline, which sends many commands on one connection in a single round trip. The pipeline holds a
+     * connection from the pool until it's closed.
+     *
+     * @return The pipeline object.
+     */
+    public JedisPipeline pipeline() {
+        return new JedisPipeline(jedisPool.getResource());
+    }
+
     /**
      * Responsible for providing template code such as closing resources.
      */
@@ -0,0 +1,92 @@
+package org.sagebionetworks.bridge.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * <p>
+ * Queues many commands on a single connection and sends them in one round trip. Each command returns a Response,
+ * whose value is available after {@link #sync} is called. Calling Response.get() before sync() throws.
+ * </p>
+ * <p>
+ * Unlike {@link JedisTransaction}, commands aren't atomic. Other clients' commands can run between them. Holds a
+ * connection from the pool until closed.
+ * </p>
+ */
+public class JedisPipeline implements AutoCloseable {
+
+    private final Jedis jedis;
+    private final Pipeline pipeline;
+    private boolean synced = true;
+
+    JedisPipeline(Jedis jedis) {
+        this.jedis = jedis;
+        this.pipeline = jedis.pipelined();
+    }
+
+    public Response<String> get(final String key) {
+        synced = false;
+        return pipeline.get(key);
+    }
+
+    public Response<String> set(final String key, final String value) {
+        synced = false;
+        return pipeline.set(key, value);
+    }
+
+    public Response<String> setex(final String key, final int seconds, final String value) {
+        synced = false;
+        return pipeline.setex(key, seconds, value);
+    }
+
+    public Response<Long> del(final String... keys) {
+        synced = false;
+        return pipeline.del(keys);
+    }
+
+    /** Increments the given key, or sets it to 1 if the key is not in Redis. The response is the new value. */
+    public Response<Long> incr(final String key) {
+        synced = false;
+        return pipeline.incr(key);
+    }
+
+    public Response<Long> zadd(final String key, final double score, final String member) {
+        synced = false;
+        return pipeline.zadd(key, score, member);
+    }
+
+    public Response<Long> sadd(final String key, final String... members) {
+        synced = false;
+        return pipeline.sadd(key, members);
+    }
+
+    public Response<Long> expire(final String key, final int seconds) {
+        synced = false;
+        return pipeline.expire(key, seconds);
+    }
+
+    /**
+     * Sends all queued commands and reads their replies, filling in the Responses. The pipeline can be reused for
+     * more commands afterwards.
+     */
+    public void sync() {
+        pipeline.sync();
+        synced = true;
+    }
+
+    /**
+     * Returns the connection to the pool. Commands that were queued but not synced may already have been sent, so
+     * this syncs them first, so the connection isn't returned with unread replies.
+     */
+    @Override
+    public void close() {
+        try {
+            if (!synced) {
+                sync();
+            }
+        } finally {
+            jedis.close();
+        }
+    }
+}
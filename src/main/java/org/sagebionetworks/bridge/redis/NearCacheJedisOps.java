@@ -0,0 +1,370 @@
+package org.sagebionetworks.bridge.redis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * <p>
+ * JedisOps with an in-process near cache in front of {@link #get}, {@link #smembers}, and {@link #zscore}. Hot keys
+ * are read from local memory instead of making a round trip to Redis. Each cache holds at most maximumSize keys, and
+ * entries expire ttlSeconds after they are loaded. Keys that don't exist are cached too. Sorted set scores are cached
+ * for at most maxScoresPerKey members of each key, including members that aren't in the set.
+ * </p>
+ * <p>
+ * Writes through this class (set, setex, setnx, del, incr, decr, zadd, zrem, sadd, and the keys of eval) invalidate
+ * the key locally, then publish the key on {@link #INVALIDATION_CHANNEL}. A daemon thread subscribed to the channel
+ * invalidates keys written by other hosts. Writes made through pipelines, transactions, or other clients aren't
+ * published. Callers making those writes should call {@link #invalidate}, or those keys are only picked up once
+ * their entries expire.
+ * </p>
+ * <p>
+ * The subscriber thread is started by the first read, and reads are only cached while the subscription is up, so
+ * invalidations can't be missed while it's down. If the subscription is lost, the caches are cleared and reads go to
+ * Redis until it's restored. The subscription holds a connection from the pool until {@link #shutdown} is called.
+ * </p>
+ */
+public class NearCacheJedisOps extends JedisOps {
+    private static final Logger LOG = LoggerFactory.getLogger(NearCacheJedisOps.class);
+
+    /** Channel that writes are published on. The message is the key that was written. */
+    public static final String INVALIDATION_CHANNEL = "NearCacheJedisOps:invalidated";
+
+    // How long to wait before re-subscribing, if the subscription fails or the connection is lost.
+    static final long RESUBSCRIBE_DELAY_MILLIS = 1000;
+
+    static final long DEFAULT_MAX_SCORES_PER_KEY = 1000;
+
+    private final Cache<String, Optional<String>> valueCache;
+    private final Cache<String, Set<String>> setCache;
+    private final Cache<String, Cache<String, Optional<Double>>> scoreCache;
+    private final long maxScoresPerKey;
+
+    // Incremented on every invalidation. A read that started before an invalidation doesn't keep what it loaded,
+    // since it may have loaded the value from before the write.
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    // Invalidation subscriber. The thread is lazily started by the first read.
+    private final JedisPubSub invalidationListener = new JedisPubSub() {
+        @Override
+        public void onMessage(String channel, String message) {
+            invalidateLocally(message);
+        }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            if (isShutdown) {
+                // In case shutdown() was called while we were subscribing.
+                unsubscribe();
+            } else {
+                subscribed = true;
+            }
+        }
+    };
+    // Volatile, so that reads can check whether the subscriber is started without taking the lock.
+    private volatile Thread subscriberThread;
+    private volatile boolean subscribed = false;
+    private volatile boolean isShutdown = false;
+
+    /**
+     * Creates a near-caching JedisOps, which caches scores for up to 1000 members of each sorted set.
+     *
+     * @param jedisPool
+     *            Redis connection pool
+     * @param maximumSize
+     *            maximum number of keys in each of the value, set, and sorted set score caches
+     * @param ttlSeconds
+     *            entries expire this long after they are loaded
+     */
+    public NearCacheJedisOps(JedisPool jedisPool, long maximumSize, int ttlSeconds) {
+        this(jedisPool, maximumSize, ttlSeconds, DEFAULT_MAX_SCORES_PER_KEY);
+    }
+
+    /**
+     * Creates a near-caching JedisOps.
+     *
+     * @param jedisPool
+     *            Redis connection pool
+     * @param maximumSize
+     *            maximum number of keys in each of the value, set, and sorted set score caches
+     * @param ttlSeconds
+     *            entries expire this long after they are loaded
+     * @param maxScoresPerKey
+     *            maximum number of members whose scores are cached for each sorted set
+     */
+    public NearCacheJedisOps(JedisPool jedisPool, long maximumSize, int ttlSeconds, long maxScoresPerKey) {
+        super(jedisPool);
+        checkArgument(maximumSize > 0, "maximumSize must be positive");
+        checkArgument(ttlSeconds > 0, "ttlSeconds must be positive");
+        checkArgument(maxScoresPerKey > 0, "maxScoresPerKey must be positive");
+        this.maxScoresPerKey = maxScoresPerKey;
+        valueCache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
+        setCache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
+        scoreCache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
+    }
+
+    @Override
+    public String get(final String key) {
+        if (!isCaching()) {
+            return super.get(key);
+        }
+
+        Optional<String> cached = valueCache.getIfPresent(key);
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+        long count = invalidationCount.get();
+        String value = super.get(key);
+        valueCache.put(key, Optional.ofNullable(value));
+        if (invalidationCount.get() != count) {
+            valueCache.invalidate(key);
+        }
+        return value;
+    }
+
+    /** Same as {@link JedisOps#smembers}. Callers get their own copy of the set, which they're free to modify. */
+    @Override
+    public Set<String> smembers(final String key) {
+        if (!isCaching()) {
+            return super.smembers(key);
+        }
+
+        Set<String> cached = setCache.getIfPresent(key);
+        if (cached != null) {
+            return new HashSet<>(cached);
+        }
+        long count = invalidationCount.get();
+        Set<String> members = super.smembers(key);
+        setCache.put(key, members != null ? ImmutableSet.copyOf(members) : ImmutableSet.of());
+        if (invalidationCount.get() != count) {
+            setCache.invalidate(key);
+        }
+        return members;
+    }
+
+    @Override
+    public Double zscore(final String key, final String member) {
+        if (!isCaching()) {
+            return super.zscore(key, member);
+        }
+
+        // Scores are cached per key, so a write to the sorted set invalidates all of its members at once. Each key's
+        // members are in their own bounded cache, so looking up many members of a large set can't grow without limit.
+        Cache<String, Optional<Double>> memberCache = scoreCache.asMap().computeIfAbsent(key,
+                k -> CacheBuilder.newBuilder().maximumSize(maxScoresPerKey).build());
+        Optional<Double> cached = memberCache.getIfPresent(member);
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+        long count = invalidationCount.get();
+        Double score = super.zscore(key, member);
+        memberCache.put(member, Optional.ofNullable(score));
+        if (invalidationCount.get() != count) {
+            memberCache.invalidate(member);
+        }
+        return score;
+    }
+
+    @Override
+    public String set(final String key, final String value) {
+        try {
+            return super.set(key, value);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public String set(final String key, final String value, final String nxxx, final String expx,
+            final long time) {
+        try {
+            return super.set(key, value, nxxx, expx, time);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public String setex(final String key, final int seconds, final String value) {
+        try {
+            return super.setex(key, seconds, value);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public Long setnx(final String key, final String value) {
+        try {
+            return super.setnx(key, value);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public Long del(final String... keys) {
+        try {
+            return super.del(keys);
+        } finally {
+            invalidate(keys);
+        }
+    }
+
+    @Override
+    public Long incr(final String key) {
+        try {
+            return super.incr(key);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public Long decr(final String key) {
+        try {
+            return super.decr(key);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public Long zadd(final String key, final double score, final String member) {
+        try {
+            return super.zadd(key, score, member);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public Long zrem(final String key, final String... members) {
+        try {
+            return super.zrem(key, members);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public Long sadd(final String key, final String... members) {
+        try {
+            return super.sadd(key, members);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    /** Same as {@link JedisOps#eval}. The script may write any of its keys, so all of them are invalidated. */
+    @Override
+    public Object eval(final String script, final List<String> keys, final List<String> args) {
+        try {
+            return super.eval(script, keys, args);
+        } finally {
+            invalidate(keys.toArray(new String[keys.size()]));
+        }
+    }
+
+    /**
+     * Invalidates the keys on this host and all other hosts. Call this after writing keys through a pipeline, a
+     * transaction, or another client. Failing to publish is logged and not thrown, since the write itself succeeded.
+     * Other hosts then pick up the write once their entries expire.
+     */
+    public void invalidate(final String... keys) {
+        for (String oneKey : keys) {
+            invalidateLocally(oneKey);
+            try {
+                publish(INVALIDATION_CHANNEL, oneKey);
+            } catch (RuntimeException ex) {
+                LOG.warn("Error publishing invalidation for " + oneKey + ": " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /** Stops the invalidation subscriber and clears the caches. Reads go to Redis afterwards. */
+    public synchronized void shutdown() {
+        isShutdown = true;
+        subscribed = false;
+        invalidateAllLocally();
+        if (invalidationListener.isSubscribed()) {
+            invalidationListener.unsubscribe();
+        }
+        subscriberThread = null;
+    }
+
+    // Reads are cached only while we're subscribed to invalidations. Starts the subscriber if it isn't running. Once
+    // it's started (or we're shut down), this doesn't take the lock, so reads don't contend on it.
+    private boolean isCaching() {
+        if (subscriberThread == null && !isShutdown) {
+            ensureSubscribed();
+        }
+        return subscribed;
+    }
+
+    // Starts the invalidation subscriber thread, if it isn't already running.
+    private synchronized void ensureSubscribed() {
+        if (subscriberThread != null || isShutdown) {
+            return;
+        }
+        subscriberThread = new Thread(this::runSubscriber, "NearCacheJedisOps-subscriber");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    // Subscribes to the invalidation channel. Subscribing blocks until unsubscribed, so if it returns or throws
+    // before shutdown, the connection was lost. Invalidations may have been missed, so we clear the caches and stop
+    // caching until we've subscribed again. Package-scoped for unit tests.
+    void runSubscriber() {
+        while (!isShutdown) {
+            try {
+                subscribe(invalidationListener, INVALIDATION_CHANNEL);
+            } catch (RuntimeException ex) {
+                LOG.warn("Lost subscription to " + INVALIDATION_CHANNEL + ", will re-subscribe: " + ex.getMessage(),
+                        ex);
+            }
+            subscribed = false;
+            invalidateAllLocally();
+            if (!isShutdown) {
+                Uninterruptibles.sleepUninterruptibly(RESUBSCRIBE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // Removes the key from this host's caches.
+    private void invalidateLocally(final String key) {
+        invalidationCount.incrementAndGet();
+        valueCache.invalidate(key);
+        setCache.invalidate(key);
+        scoreCache.invalidate(key);
+    }
+
+    private void invalidateAllLocally() {
+        invalidationCount.incrementAndGet();
+        valueCache.invalidateAll();
+        setCache.invalidateAll();
+        scoreCache.invalidateAll();
+    }
+
+    /** True if reads are being cached. Package-scoped for unit tests. */
+    boolean isSubscribed() {
+        return subscribed;
+    }
+}
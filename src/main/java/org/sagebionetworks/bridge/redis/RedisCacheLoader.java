@@ -0,0 +1,322 @@
+package org.sagebionetworks.bridge.redis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
+import org.sagebionetworks.bridge.lock.Lock;
+import org.sagebionetworks.bridge.lock.LockNotAvailableException;
+
+/**
+ * <p>
+ * Cache-aside loader for values stored in Redis as JSON, using {@link DefaultObjectMapper}. {@link #get} reads the
+ * key, and on a miss calls the loader, stores the value with {@link JedisOps#setex}, and returns it. This protects the
+ * loader's backend from recompute storms when hot keys expire, in three ways:
+ * </p>
+ * <ul>
+ * <li>Within this JVM, only one thread loads each key at a time. Other threads wait for its result.</li>
+ * <li>If a lock is set (see {@link #setLock}), only one host loads each key at a time. Other hosts wait for the lock,
+ * then read the value the first host stored. If they can't get the lock in time, they load it themselves.</li>
+ * <li>Values are refreshed early, before they expire, with a probability that rises as expiry approaches and with
+ * how long the value took to load (the XFetch algorithm). Hot keys are usually refreshed by a single caller before
+ * they expire, while everyone else keeps getting the cached value. Early refreshes never wait for the lock, and
+ * return the cached value if the refresh fails.</li>
+ * </ul>
+ * <p>
+ * Redis and JSON errors are logged and treated as misses, so a cache failure never fails a read. Errors from the
+ * loader are thrown to all callers waiting on that load. Null values aren't cached. This class is thread-safe.
+ * </p>
+ *
+ * @param <T>
+ *         type of the cached values
+ */
+public class RedisCacheLoader<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(RedisCacheLoader.class);
+
+    /** Suffix added to the cache key to get the load lock key. */
+    public static final String LOCK_KEY_SUFFIX = ":load-lock";
+
+    static final double DEFAULT_EARLY_REFRESH_BETA = 1.0;
+    static final int DEFAULT_LOCK_EXPIRE_SECONDS = 30;
+    static final long DEFAULT_LOCK_TIMEOUT_MILLIS = 5000;
+
+    // Fields of the JSON stored in Redis.
+    static final String FIELD_VALUE = "value";
+    static final String FIELD_LOAD_MILLIS = "loadMillis";
+    static final String FIELD_EXPIRES_AT = "expiresAt";
+
+    private final JedisOps ops;
+    private final JavaType valueType;
+    private final int ttlSeconds;
+
+    private double earlyRefreshBeta = DEFAULT_EARLY_REFRESH_BETA;
+    private Lock lock;
+    private int lockExpireSeconds = DEFAULT_LOCK_EXPIRE_SECONDS;
+    private long lockTimeoutMillis = DEFAULT_LOCK_TIMEOUT_MILLIS;
+
+    // Loads in progress on this host, by key.
+    private final ConcurrentHashMap<String, CompletableFuture<T>> loadsByKey = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a cache loader for a simple value class.
+     *
+     * @param ops
+     *            Redis operations
+     * @param valueClass
+     *            class of the cached values
+     * @param ttlSeconds
+     *            values expire this long after they're loaded
+     */
+    public RedisCacheLoader(JedisOps ops, Class<T> valueClass, int ttlSeconds) {
+        this(ops, DefaultObjectMapper.INSTANCE.getTypeFactory().constructType(valueClass), ttlSeconds);
+    }
+
+    /** Creates a cache loader for a generic value type, such as a list or map. */
+    public RedisCacheLoader(JedisOps ops, TypeReference<T> valueTypeRef, int ttlSeconds) {
+        this(ops, DefaultObjectMapper.INSTANCE.getTypeFactory().constructType(valueTypeRef), ttlSeconds);
+    }
+
+    private RedisCacheLoader(JedisOps ops, JavaType valueType, int ttlSeconds) {
+        checkNotNull(ops);
+        checkArgument(ttlSeconds > 0, "ttlSeconds must be positive");
+        this.ops = ops;
+        this.valueType = valueType;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * How eagerly values are refreshed before they expire. 1.0 (the default) is the XFetch paper's recommendation.
+     * Higher values refresh earlier, and 0 disables early refresh.
+     */
+    public final void setEarlyRefreshBeta(double earlyRefreshBeta) {
+        checkArgument(earlyRefreshBeta >= 0, "earlyRefreshBeta can't be negative");
+        this.earlyRefreshBeta = earlyRefreshBeta;
+    }
+
+    /**
+     * Optional lock, usually a {@link RedisLock}, so only one host loads each key at a time. The lock key is the
+     * cache key plus {@link #LOCK_KEY_SUFFIX}. If not set, each host loads on its own.
+     */
+    public final void setLock(Lock lock) {
+        this.lock = lock;
+    }
+
+    /** The load lock expires after this long, in case the host loading the value dies. Defaults to 30 seconds. */
+    public final void setLockExpireSeconds(int lockExpireSeconds) {
+        checkArgument(lockExpireSeconds > 0, "lockExpireSeconds must be positive");
+        this.lockExpireSeconds = lockExpireSeconds;
+    }
+
+    /**
+     * How long a miss waits for another host's load, before loading the value itself. Should be a bit longer than
+     * the loader usually takes. Defaults to 5 seconds.
+     */
+    public final void setLockTimeoutMillis(long lockTimeoutMillis) {
+        checkArgument(lockTimeoutMillis >= 0, "lockTimeoutMillis can't be negative");
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    /**
+     * Gets the value for the key from Redis. If the value isn't cached, or is chosen for early refresh, calls the
+     * loader and caches the result.
+     *
+     * @param key
+     *            Redis key
+     * @param loader
+     *            loads the value on a miss
+     * @return the value, or null if it isn't cached and the loader returned null
+     */
+    public T get(String key, Supplier<T> loader) {
+        checkNotNull(key);
+        checkNotNull(loader);
+
+        CacheEntry<T> cached = readEntry(key);
+        if (cached != null && !shouldRefreshEarly(cached)) {
+            return cached.value;
+        }
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> existingFuture = loadsByKey.putIfAbsent(key, future);
+        if (existingFuture != null) {
+            // Another thread is loading. If we still have a value, there's no need to wait for it.
+            if (cached != null) {
+                return cached.value;
+            }
+            try {
+                return existingFuture.join();
+            } catch (CompletionException ex) {
+                throw propagate(ex.getCause());
+            }
+        }
+
+        CacheEntry<T> current = null;
+        try {
+            // Another thread may have loaded the value after our read, but before we won the race to load it. Re-read
+            // the entry, so that only one thread in this JVM loads it.
+            current = readEntry(key);
+            if (current != null && !shouldRefreshEarly(current)) {
+                future.complete(current.value);
+                return current.value;
+            }
+
+            T value = load(key, loader, current);
+            future.complete(value);
+            return value;
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+            if (current != null) {
+                LOG.warn("Error refreshing " + key + " early, returning cached value: " + ex.getMessage(), ex);
+                return current.value;
+            }
+            throw ex;
+        } catch (Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            loadsByKey.remove(key, future);
+        }
+    }
+
+    /** Removes the key from Redis, so the next get loads it again. */
+    public void invalidate(String key) {
+        checkNotNull(key);
+        ops.del(key);
+    }
+
+    // Loads the value, holding the lock if there is one. Cached is the value being refreshed early, or null on a miss.
+    private T load(String key, Supplier<T> loader, CacheEntry<T> cached) {
+        if (lock == null) {
+            return loadAndStore(key, loader);
+        }
+
+        // Early refreshes only try once. Someone else holding the lock is already refreshing.
+        String lockKey = key + LOCK_KEY_SUFFIX;
+        String lockId;
+        try {
+            lockId = lock.acquireLock(lockKey, lockExpireSeconds, cached != null ? 0 : lockTimeoutMillis);
+        } catch (LockNotAvailableException ex) {
+            if (cached != null) {
+                return cached.value;
+            }
+            LOG.warn("Timed out waiting for another host to load " + key + ", loading it here");
+            return loadAndStore(key, loader);
+        } catch (RuntimeException ex) {
+            LOG.warn("Error acquiring load lock for " + key + ", loading without it: " + ex.getMessage(), ex);
+            return loadAndStore(key, loader);
+        }
+
+        try {
+            // Another host may have loaded the value while we were waiting for the lock.
+            CacheEntry<T> current = readEntry(key);
+            if (current != null && (cached == null || current.expiresAtMillis != cached.expiresAtMillis)) {
+                return current.value;
+            }
+            return loadAndStore(key, loader);
+        } finally {
+            try {
+                lock.releaseLock(lockKey, lockId);
+            } catch (RuntimeException ex) {
+                LOG.warn("Error releasing load lock for " + key + ", it will expire: " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    // Calls the loader, and caches the value along with how long it took to load.
+    private T loadAndStore(String key, Supplier<T> loader) {
+        long startMillis = currentTimeMillis();
+        T value = loader.get();
+        if (value == null) {
+            return null;
+        }
+        long endMillis = currentTimeMillis();
+
+        try {
+            ObjectNode entryNode = DefaultObjectMapper.INSTANCE.createObjectNode();
+            entryNode.set(FIELD_VALUE, DefaultObjectMapper.INSTANCE.valueToTree(value));
+            entryNode.put(FIELD_LOAD_MILLIS, endMillis - startMillis);
+            entryNode.put(FIELD_EXPIRES_AT, endMillis + ttlSeconds * 1000L);
+            ops.setex(key, ttlSeconds, DefaultObjectMapper.INSTANCE.writeValueAsString(entryNode));
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("Error caching " + key + ": " + ex.getMessage(), ex);
+        }
+        return value;
+    }
+
+    // Reads and parses the cached entry. Returns null on a miss, or if the entry can't be read.
+    private CacheEntry<T> readEntry(String key) {
+        try {
+            String json = ops.get(key);
+            if (json == null) {
+                return null;
+            }
+            JsonNode entryNode = DefaultObjectMapper.INSTANCE.readTree(json);
+            T value = DefaultObjectMapper.INSTANCE.convertValue(entryNode.get(FIELD_VALUE), valueType);
+            return new CacheEntry<>(value, entryNode.path(FIELD_LOAD_MILLIS).asLong(),
+                    entryNode.path(FIELD_EXPIRES_AT).asLong());
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("Error reading cached " + key + ", treating as a miss: " + ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    // XFetch: refresh if now - loadMillis * beta * ln(rand) >= expiresAt. ln(rand) is negative, so the refresh window
+    // grows with how long the value takes to load, and the chance of refreshing rises as expiry approaches.
+    private boolean shouldRefreshEarly(CacheEntry<T> entry) {
+        if (earlyRefreshBeta <= 0) {
+            return false;
+        }
+        double earlyMillis = -entry.loadMillis * earlyRefreshBeta * Math.log(random());
+        return currentTimeMillis() + earlyMillis >= entry.expiresAtMillis;
+    }
+
+    private static RuntimeException propagate(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new RuntimeException(cause);
+    }
+
+    /** Number of loads in progress on this host. Package-scoped for unit tests. */
+    int getLoadsInProgressCount() {
+        return loadsByKey.size();
+    }
+
+    /** Gets the current time. This is a member method to enable mocking and is package-scoped for unit tests. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /** Random number in (0, 1]. This is a member method to enable mocking and is package-scoped for unit tests. */
+    double random() {
+        return 1.0 - ThreadLocalRandom.current().nextDouble();
+    }
+
+    // A value read from Redis, with its XFetch metadata.
+    private static class CacheEntry<T> {
+        private final T value;
+        private final long loadMillis;
+        private final long expiresAtMillis;
+
+        CacheEntry(T value, long loadMillis, long expiresAtMillis) {
+            this.value = value;
+            this.loadMillis = loadMillis;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -3,67 +3,246 @@ package org.sagebionetworks.bridge.redis;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.JedisPubSub;
 
 import org.sagebionetworks.bridge.lock.Lock;
 import org.sagebionetworks.bridge.lock.LockNotAvailableException;
 
+/**
+ * <p>
+ * Lock backed by a Redis key, whose value is the lock ID. Acquire is a single SET NX EX, so the lock always has an
+ * expiration, even if the caller crashes right after acquiring it. Release is a single compare-and-delete script, so
+ * a caller whose lock has expired can't delete the next holder's lock. Renew is a compare-and-expire script, for the
+ * same reason.
+ * </p>
+ * <p>
+ * The blocking acquire ({@link #acquireLock(String, int, long)}) waits for releases instead of sleeping. Release
+ * publishes the key on {@link #RELEASE_CHANNEL}, and a daemon thread subscribed to the channel wakes the waiters for
+ * that key. Locks that expire instead of being released aren't published, so waiters also retry every
+ * pollIntervalMillis. The subscriber thread is started by the first blocking acquire, and runs until
+ * {@link #shutdown} is called.
+ * </p>
+ */
 public class RedisLock implements Lock {
+    private static final Logger LOG = LoggerFactory.getLogger(RedisLock.class);
+
+    /** Channel that lock releases are published on. The message is the lock key. */
+    public static final String RELEASE_CHANNEL = "RedisLock:released";
+
+    static final long DEFAULT_FALLBACK_POLL_INTERVAL_MILLIS = 1000;
+
+    // How long to wait before re-subscribing, if the subscription fails or the connection is lost.
+    static final long RESUBSCRIBE_DELAY_MILLIS = 1000;
+
+    // KEYS[1] = lock key
+    // ARGV[1] = lock ID
+    // ARGV[2] = release channel
+    // Returns 1 if the lock was released, 0 if the lock is held by someone else or doesn't exist.
+    static final String RELEASE_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n" +
+            "  redis.call('DEL', KEYS[1])\n" +
+            "  redis.call('PUBLISH', ARGV[2], KEYS[1])\n" +
+            "  return 1\n" +
+            "end\n" +
+            "return 0\n";
+
+    // KEYS[1] = lock key
+    // ARGV[1] = lock ID
+    // ARGV[2] = new expiration, in seconds
+    // Returns 1 if the lock was renewed, 0 if the lock is held by someone else or doesn't exist.
+    static final String RENEW_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n" +
+            "  return redis.call('EXPIRE', KEYS[1], ARGV[2])\n" +
+            "end\n" +
+            "return 0\n";
 
     private final JedisOps ops;
+    private long pollIntervalMillis = DEFAULT_FALLBACK_POLL_INTERVAL_MILLIS;
+
+    // Blocking acquires waiting for each key. Each waiter is a latch, which is counted down when the key is released.
+    private final ConcurrentHashMap<String, Set<CountDownLatch>> waitersByKey = new ConcurrentHashMap<>();
+
+    // Release subscriber. The thread is lazily started by the first blocking acquire.
+    private final JedisPubSub releaseListener = new JedisPubSub() {
+        @Override
+        public void onMessage(String channel, String message) {
+            wakeWaiters(message);
+        }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            // In case shutdown() was called while we were subscribing.
+            if (isShutdown) {
+                unsubscribe();
+            }
+        }
+    };
+    private Thread subscriberThread;
+    private volatile boolean isShutdown = false;
 
     public RedisLock(JedisOps ops) {
         checkNotNull(ops);
         this.ops = ops;
     }
 
+    /**
+     * How often blocking acquires retry, if they haven't been woken by a release. This bounds how long waiters take
+     * to notice locks that expire, and covers missed release messages. Defaults to 1 second.
+     */
+    public final void setPollIntervalMillis(long pollIntervalMillis) {
+        checkArgument(pollIntervalMillis > 0);
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
     @Override
     public String acquireLock(final String key, final int expireInSeconds) {
         checkNotNull(key);
         checkArgument(expireInSeconds > 0);
         final String lock = UUID.randomUUID().toString();
-        final Long result = ops.setnx(key, lock);
-        if (result != 1L) {
-            //
-            // Force to expire the lock if not already set to expire.
-            // The intention here is to avoid starvation when the lock is
-            // not available but has no associated expiration. This can
-            // happen when the code crashes after successfully calling setnx()
-            // to acquire the lock but before calling expire().
-            //
-            // According to Redis:
-            // Starting with Redis 2.8 the return value in case of error changed:
-            //    The command returns -2 if the key does not exist.
-            //    The command returns -1 if the key exists but has no associated expire.
-            //
-            if (ops.ttl(key) == -1L) {
-                expire(key, expireInSeconds);
-            }
+        // SET NX returns null if the key is already set.
+        final String result = ops.set(key, lock, "NX", "EX", expireInSeconds);
+        if (result == null) {
             throw new LockNotAvailableException(key);
         }
-        expire(key, expireInSeconds);
         return lock;
     }
 
+    /**
+     * Tries to acquire the lock, waiting up to timeoutMillis for it to be released. Waiters are woken as soon as the
+     * lock is released, and also retry every pollIntervalMillis, in case the lock expired instead. If the thread is
+     * interrupted while waiting, this restores the interrupt and throws LockNotAvailableException.
+     */
+    @Override
+    public String acquireLock(final String key, final int expireInSeconds, final long timeoutMillis) {
+        checkNotNull(key);
+        checkArgument(expireInSeconds > 0);
+        checkArgument(timeoutMillis >= 0);
+        final long deadlineMillis = currentTimeMillis() + timeoutMillis;
+        ensureSubscribed();
+        while (true) {
+            // Register before trying, so a release between the failed try and the wait still wakes us.
+            final CountDownLatch latch = new CountDownLatch(1);
+            addWaiter(key, latch);
+            try {
+                try {
+                    return acquireLock(key, expireInSeconds);
+                } catch (LockNotAvailableException ex) {
+                    final long remainingMillis = deadlineMillis - currentTimeMillis();
+                    if (remainingMillis <= 0) {
+                        throw ex;
+                    }
+                    try {
+                        latch.await(Math.min(remainingMillis, pollIntervalMillis), TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException interruptedEx) {
+                        // Restore the interrupt and give up.
+                        Thread.currentThread().interrupt();
+                        throw ex;
+                    }
+                }
+            } finally {
+                removeWaiter(key, latch);
+            }
+        }
+    }
+
     @Override
     public boolean releaseLock(final String key, final String lock) {
         checkNotNull(key);
         checkNotNull(lock);
-        final String lockId = ops.get(key);
-        if (!lock.equals(lockId)) {
-            return false;
+        final Object result = ops.eval(RELEASE_SCRIPT, ImmutableList.of(key), ImmutableList.of(lock,
+                RELEASE_CHANNEL));
+        if (!(result instanceof Long)) {
+            throw new RedisException("Unexpected result from lock release script for " + key + ": " + result);
+        }
+        return (Long) result == 1L;
+    }
+
+    @Override
+    public boolean renewLock(final String key, final String lock, final int expireInSeconds) {
+        checkNotNull(key);
+        checkNotNull(lock);
+        checkArgument(expireInSeconds > 0);
+        final Object result = ops.eval(RENEW_SCRIPT, ImmutableList.of(key), ImmutableList.of(lock,
+                String.valueOf(expireInSeconds)));
+        if (!(result instanceof Long)) {
+            throw new RedisException("Unexpected result from lock renew script for " + key + ": " + result);
+        }
+        return (Long) result == 1L;
+    }
+
+    /** Stops the release subscriber. Blocking acquires still work afterwards, by polling every pollIntervalMillis. */
+    public synchronized void shutdown() {
+        isShutdown = true;
+        if (releaseListener.isSubscribed()) {
+            releaseListener.unsubscribe();
+        }
+        subscriberThread = null;
+    }
+
+    // Starts the release subscriber thread, if it isn't already running.
+    private synchronized void ensureSubscribed() {
+        if (subscriberThread != null || isShutdown) {
+            return;
         }
-        final Long result = ops.del(key);
-        if (result == 0L) {
-            throw new RedisException("Lock not released for " + key + ".");
+        subscriberThread = new Thread(this::runSubscriber, "RedisLock-subscriber");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    // Subscribes to the release channel. Subscribing blocks until unsubscribed, so if it returns or throws before
+    // shutdown, the connection was lost, and we subscribe again. Package-scoped for unit tests.
+    void runSubscriber() {
+        while (!isShutdown) {
+            try {
+                ops.subscribe(releaseListener, RELEASE_CHANNEL);
+            } catch (RuntimeException ex) {
+                LOG.warn("Lost subscription to " + RELEASE_CHANNEL + ", will re-subscribe: " + ex.getMessage(), ex);
+            }
+            if (!isShutdown) {
+                Uninterruptibles.sleepUninterruptibly(RESUBSCRIBE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
         }
-        return true;
     }
 
-    private void expire(final String key, final int expireInSeconds) {
-        final Long result = ops.expire(key, expireInSeconds);
-        if (result != 1L) {
-            throw new RedisException("Failed to expire key " + key + ".");
+    private void addWaiter(final String key, final CountDownLatch latch) {
+        waitersByKey.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(latch);
+    }
+
+    private void removeWaiter(final String key, final CountDownLatch latch) {
+        waitersByKey.computeIfPresent(key, (k, waiterSet) -> {
+            waiterSet.remove(latch);
+            return waiterSet.isEmpty() ? null : waiterSet;
+        });
+    }
+
+    // Wakes all waiters for the key. They race for the lock, and the losers wait again. Package-scoped for unit tests.
+    void wakeWaiters(final String key) {
+        final Set<CountDownLatch> waiterSet = waitersByKey.get(key);
+        if (waiterSet != null) {
+            for (CountDownLatch oneLatch : waiterSet) {
+                oneLatch.countDown();
+            }
         }
     }
+
+    /** Number of blocking acquires waiting for the key. Package-scoped for unit tests. */
+    int getWaiterCount(final String key) {
+        final Set<CountDownLatch> waiterSet = waitersByKey.get(key);
+        return waiterSet != null ? waiterSet.size() : 0;
+    }
+
+    /** Gets the current time. This is a member method to enable mocking and is package-scoped for unit tests. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
 }
@@ -0,0 +1,114 @@
+package org.sagebionetworks.bridge.redis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.UUID;
+
+import com.google.common.collect.ImmutableList;
+
+import org.sagebionetworks.bridge.lock.LockNotAvailableException;
+import org.sagebionetworks.bridge.lock.Semaphore;
+
+/**
+ * <p>
+ * Semaphore backed by a Redis sorted set. Each member is a permit ID, and its score is when the permit expires, in
+ * epoch milliseconds. Acquire is a single script that drops expired permits, counts the rest, and adds the new permit
+ * if there's room. Release is a single ZREM. The key expires once all of its permits would have, so idle semaphores
+ * don't leave keys behind.
+ * </p>
+ * <p>
+ * Like {@link RedisTokenBucketRateLimiter}, the scripts use the caller's clock, so hosts' clocks should be
+ * synchronized. A host whose clock is ahead expires other hosts' permits early, by the amount of the skew.
+ * </p>
+ */
+public class RedisSemaphore implements Semaphore {
+
+    // KEYS[1] = semaphore key
+    // ARGV[1] = current time in epoch milliseconds
+    // ARGV[2] = max permits
+    // ARGV[3] = permit expiration, in milliseconds
+    // ARGV[4] = permit ID
+    // Returns 1 if the permit was acquired, 0 if all permits are held.
+    static final String ACQUIRE_SCRIPT =
+            "local now = tonumber(ARGV[1])\n" +
+            "local ttl = tonumber(ARGV[3])\n" +
+            "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', now)\n" +
+            "if redis.call('ZCARD', KEYS[1]) >= tonumber(ARGV[2]) then\n" +
+            "  return 0\n" +
+            "end\n" +
+            "redis.call('ZADD', KEYS[1], now + ttl, ARGV[4])\n" +
+            "if redis.call('PTTL', KEYS[1]) < ttl then\n" +
+            "  redis.call('PEXPIRE', KEYS[1], ttl)\n" +
+            "end\n" +
+            "return 1\n";
+
+    // KEYS[1] = semaphore key
+    // ARGV[1] = current time in epoch milliseconds
+    // ARGV[2] = new permit expiration, in milliseconds
+    // ARGV[3] = permit ID
+    // Returns 1 if the permit was renewed, 0 if it expired or was released.
+    static final String RENEW_SCRIPT =
+            "local now = tonumber(ARGV[1])\n" +
+            "local ttl = tonumber(ARGV[2])\n" +
+            "local expires = redis.call('ZSCORE', KEYS[1], ARGV[3])\n" +
+            "if not expires or tonumber(expires) <= now then\n" +
+            "  return 0\n" +
+            "end\n" +
+            "redis.call('ZADD', KEYS[1], now + ttl, ARGV[3])\n" +
+            "if redis.call('PTTL', KEYS[1]) < ttl then\n" +
+            "  redis.call('PEXPIRE', KEYS[1], ttl)\n" +
+            "end\n" +
+            "return 1\n";
+
+    private final JedisOps ops;
+
+    public RedisSemaphore(JedisOps ops) {
+        checkNotNull(ops);
+        this.ops = ops;
+    }
+
+    @Override
+    public String acquirePermit(final String key, final int maxPermits, final int expireInSeconds) {
+        checkNotNull(key);
+        checkArgument(maxPermits > 0);
+        checkArgument(expireInSeconds > 0);
+        final String permit = UUID.randomUUID().toString();
+        final Object result = ops.eval(ACQUIRE_SCRIPT, ImmutableList.of(key), ImmutableList.of(
+                String.valueOf(currentTimeMillis()), String.valueOf(maxPermits),
+                String.valueOf(expireInSeconds * 1000L), permit));
+        if (!(result instanceof Long)) {
+            throw new RedisException("Unexpected result from semaphore acquire script for " + key + ": " + result);
+        }
+        if ((Long) result != 1L) {
+            throw new LockNotAvailableException(key);
+        }
+        return permit;
+    }
+
+    @Override
+    public boolean releasePermit(final String key, final String permit) {
+        checkNotNull(key);
+        checkNotNull(permit);
+        final Long result = ops.zrem(key, permit);
+        return result != null && result == 1L;
+    }
+
+    @Override
+    public boolean renewPermit(final String key, final String permit, final int expireInSeconds) {
+        checkNotNull(key);
+        checkNotNull(permit);
+        checkArgument(expireInSeconds > 0);
+        final Object result = ops.eval(RENEW_SCRIPT, ImmutableList.of(key), ImmutableList.of(
+                String.valueOf(currentTimeMillis()), String.valueOf(expireInSeconds * 1000L), permit));
+        if (!(result instanceof Long)) {
+            throw new RedisException("Unexpected result from semaphore renew script for " + key + ": " + result);
+        }
+        return (Long) result == 1L;
+    }
+
+    /** Gets the current time. This is a member method to enable mocking and is package-scoped for unit tests. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,115 @@
+package org.sagebionetworks.bridge.redis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * <p>
+ * Sliding window rate limiter shared across hosts, with the window stored in Redis. Allows at most maxRequests in any
+ * windowMillis period. Unlike {@link RedisTokenBucketRateLimiter}, which smooths traffic to a steady rate, this is a
+ * hard cap per window, which matches how many downstream services enforce their quotas.
+ * </p>
+ * <p>
+ * The window is a sorted set of request timestamps. Each attempt is a single script that drops timestamps older than
+ * the window, and records the request if there's room. If there isn't, the script returns how long until the oldest
+ * request leaves the window. Rejected attempts aren't recorded, so waiting callers don't push each other out. The key
+ * expires after the window, so idle limiters don't leave keys behind. Like RedisTokenBucketRateLimiter, the script
+ * uses the caller's clock, so hosts' clocks should be synchronized.
+ * </p>
+ */
+public class RedisSlidingWindowRateLimiter {
+    // KEYS[1] = window key
+    // ARGV[1] = current time in epoch milliseconds
+    // ARGV[2] = window size, in milliseconds
+    // ARGV[3] = max requests per window
+    // ARGV[4] = unique member for this request
+    // Returns 0 if the request was allowed, or the time in milliseconds until it would be.
+    static final String ACQUIRE_SCRIPT =
+            "local now = tonumber(ARGV[1])\n" +
+            "local window = tonumber(ARGV[2])\n" +
+            "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', now - window)\n" +
+            "if redis.call('ZCARD', KEYS[1]) < tonumber(ARGV[3]) then\n" +
+            "  redis.call('ZADD', KEYS[1], now, ARGV[4])\n" +
+            "  redis.call('PEXPIRE', KEYS[1], window)\n" +
+            "  return 0\n" +
+            "end\n" +
+            "local oldest = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES')\n" +
+            "return math.max(1, tonumber(oldest[2]) + window - now)\n";
+
+    private final JedisOps ops;
+    private final String key;
+    private final int maxRequests;
+    private final long windowMillis;
+
+    /**
+     * Creates a rate limiter.
+     *
+     * @param ops
+     *            Redis operations
+     * @param key
+     *            Redis key for the window. All limiters with the same key share the same window.
+     * @param maxRequests
+     *            maximum number of requests in any window
+     * @param windowMillis
+     *            window size, in milliseconds
+     */
+    public RedisSlidingWindowRateLimiter(JedisOps ops, String key, int maxRequests, long windowMillis) {
+        checkNotNull(ops);
+        checkNotNull(key);
+        checkArgument(maxRequests > 0, "maxRequests must be positive");
+        checkArgument(windowMillis > 0, "windowMillis must be positive");
+        this.ops = ops;
+        this.key = key;
+        this.maxRequests = maxRequests;
+        this.windowMillis = windowMillis;
+    }
+
+    /** Acquires a permit if one is available right away. Returns true if acquired, false otherwise. */
+    public boolean tryAcquire() {
+        return tryAcquireOrGetWaitMillis() == 0;
+    }
+
+    /** Acquires a permit, waiting if necessary. Returns the time spent waiting, in seconds. */
+    public double acquire() {
+        long totalWaitMillis = 0;
+        long waitMillis;
+        while ((waitMillis = tryAcquireOrGetWaitMillis()) > 0) {
+            // Other hosts may take the slot first, so we try again after waiting.
+            sleepMillis(waitMillis);
+            totalWaitMillis += waitMillis;
+        }
+        return totalWaitMillis / 1000.0;
+    }
+
+    /**
+     * Tries to acquire a permit in a single round trip to Redis. Returns 0 if the permit was acquired. Otherwise,
+     * returns how long the caller should wait in milliseconds before trying again.
+     */
+    public long tryAcquireOrGetWaitMillis() {
+        // Requests can share a timestamp, so each member is made unique with a random suffix.
+        long nowMillis = currentTimeMillis();
+        String member = nowMillis + ":" + UUID.randomUUID().toString();
+        Object result = ops.eval(ACQUIRE_SCRIPT, ImmutableList.of(key), ImmutableList.of(String.valueOf(nowMillis),
+                String.valueOf(windowMillis), String.valueOf(maxRequests), member));
+        if (!(result instanceof Long)) {
+            throw new RedisException("Unexpected result from rate limiter script for " + key + ": " + result);
+        }
+        return (Long) result;
+    }
+
+    /** Gets the current time. This is a member method to enable mocking and is package-scoped for unit tests. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /** Sleeps. This is a member method to enable mocking and is package-scoped for unit tests. */
+    void sleepMillis(long millis) {
+        Uninterruptibles.sleepUninterruptibly(millis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,138 @@
+package org.sagebionetworks.bridge.redis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * <p>
+ * Token bucket rate limiter shared across hosts, with the bucket stored in Redis. The bucket refills at
+ * permitsPerSecond, up to maxBurstPermits. Like Guava's RateLimiter, acquire() reserves permits right away, even if
+ * that puts the bucket into debt, and then waits until the reserved permits would have been available. This way, each
+ * acquire is a single atomic script call, and waiting callers don't poll Redis.
+ * </p>
+ * <p>
+ * The bucket is a hash with the token count and the last refill time. The script uses the caller's clock, since Redis
+ * scripts can't write based on the server clock in older versions of Redis. Hosts' clocks should be synchronized (for
+ * example, with NTP). A host whose clock is behind the last refill time simply doesn't refill the bucket. The key
+ * expires once the bucket would be full again, so idle limiters don't leave keys behind.
+ * </p>
+ */
+public class RedisTokenBucketRateLimiter {
+    // KEYS[1] = bucket key
+    // ARGV[1] = refill rate, in permits per millisecond
+    // ARGV[2] = max burst permits
+    // ARGV[3] = current time in epoch milliseconds
+    // ARGV[4] = permits to reserve
+    // Returns the time in milliseconds to wait until the reserved permits are available.
+    static final String RESERVE_SCRIPT =
+            "local rate = tonumber(ARGV[1])\n" +
+            "local capacity = tonumber(ARGV[2])\n" +
+            "local now = tonumber(ARGV[3])\n" +
+            "local requested = tonumber(ARGV[4])\n" +
+            "local state = redis.call('HMGET', KEYS[1], 'tokens', 'ts')\n" +
+            "local tokens = tonumber(state[1])\n" +
+            "local ts = tonumber(state[2])\n" +
+            "if tokens == nil or ts == nil then\n" +
+            "  tokens = capacity\n" +
+            "  ts = now\n" +
+            "end\n" +
+            "if now > ts then\n" +
+            "  tokens = math.min(capacity, tokens + (now - ts) * rate)\n" +
+            "  ts = now\n" +
+            "end\n" +
+            "tokens = tokens - requested\n" +
+            "local wait = 0\n" +
+            "if tokens < 0 then\n" +
+            "  wait = math.ceil(-tokens / rate)\n" +
+            "end\n" +
+            "redis.call('HMSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(ts))\n" +
+            "redis.call('PEXPIRE', KEYS[1], math.ceil((capacity - tokens) / rate) + 1000)\n" +
+            "return wait\n";
+
+    private final JedisOps ops;
+    private final String key;
+    private final double permitsPerSecond;
+    private final int maxBurstPermits;
+
+    /**
+     * Creates a rate limiter that allows bursts of up to one second's worth of permits.
+     *
+     * @param ops
+     *            Redis operations
+     * @param key
+     *            Redis key for the bucket. All limiters with the same key share the same bucket.
+     * @param permitsPerSecond
+     *            refill rate
+     */
+    public RedisTokenBucketRateLimiter(JedisOps ops, String key, double permitsPerSecond) {
+        this(ops, key, permitsPerSecond, Math.max(1, (int) permitsPerSecond));
+    }
+
+    /**
+     * Creates a rate limiter.
+     *
+     * @param ops
+     *            Redis operations
+     * @param key
+     *            Redis key for the bucket. All limiters with the same key share the same bucket.
+     * @param permitsPerSecond
+     *            refill rate
+     * @param maxBurstPermits
+     *            maximum number of permits that can be saved up while the limiter is idle
+     */
+    public RedisTokenBucketRateLimiter(JedisOps ops, String key, double permitsPerSecond, int maxBurstPermits) {
+        checkNotNull(ops);
+        checkNotNull(key);
+        checkArgument(permitsPerSecond > 0.0, "permitsPerSecond must be positive");
+        checkArgument(maxBurstPermits > 0, "maxBurstPermits must be positive");
+        this.ops = ops;
+        this.key = key;
+        this.permitsPerSecond = permitsPerSecond;
+        this.maxBurstPermits = maxBurstPermits;
+    }
+
+    /** Acquires a single permit, waiting if necessary. Returns the time spent waiting, in seconds. */
+    public double acquire() {
+        return acquire(1);
+    }
+
+    /** Acquires the given number of permits, waiting if necessary. Returns the time spent waiting, in seconds. */
+    public double acquire(int permits) {
+        long waitMillis = reserve(permits);
+        if (waitMillis > 0) {
+            sleepMillis(waitMillis);
+        }
+        return waitMillis / 1000.0;
+    }
+
+    /**
+     * Reserves the given number of permits in a single round trip to Redis, without waiting. Returns how long the
+     * caller must wait in milliseconds before using the permits.
+     */
+    public long reserve(int permits) {
+        checkArgument(permits > 0, "permits must be positive");
+        List<String> args = ImmutableList.of(String.valueOf(permitsPerSecond / 1000.0),
+                String.valueOf(maxBurstPermits), String.valueOf(currentTimeMillis()), String.valueOf(permits));
+        Object result = ops.eval(RESERVE_SCRIPT, ImmutableList.of(key), args);
+        if (!(result instanceof Long)) {
+            throw new RedisException("Unexpected result from rate limiter script for " + key + ": " + result);
+        }
+        return (Long) result;
+    }
+
+    /** Gets the current time. This is a member method to enable mocking and is package-scoped for unit tests. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /** Sleeps. This is a member method to enable mocking and is package-scoped for unit tests. */
+    void sleepMillis(long millis) {
+        Uninterruptibles.sleepUninterruptibly(millis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,56 @@
+package org.sagebionetworks.bridge.retry;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>
+ * Limits retries to a fraction of overall traffic, so that retries don't pile up against a service that's already
+ * degraded. Every call deposits retryRatio tokens, up to maxTokens. Every retry withdraws one token. If there aren't
+ * enough tokens, the retry is denied and the call fails immediately.
+ * </p>
+ * <p>
+ * The budget starts full, so that short bursts of errors are retried normally. During a sustained outage, the budget
+ * drains and retries drop to roughly retryRatio of calls. A single budget can be shared across multiple
+ * {@link RetryPolicy} instances that call the same service. This class is thread-safe.
+ * </p>
+ */
+public class RetryBudget {
+    private final double retryRatio;
+    private final double maxTokens;
+    private double tokens;
+
+    /**
+     * Creates a retry budget.
+     *
+     * @param retryRatio
+     *         tokens deposited per call, for example 0.1 to allow retries on 10% of calls
+     * @param maxTokens
+     *         maximum tokens, which is the number of retries that can be made in a burst
+     */
+    public RetryBudget(double retryRatio, int maxTokens) {
+        checkArgument(retryRatio >= 0.0, "retryRatio must be non-negative");
+        checkArgument(maxTokens > 0, "maxTokens must be positive");
+        this.retryRatio = retryRatio;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    /** Records a call (first attempt). This deposits tokens into the budget. */
+    public synchronized void recordCall() {
+        tokens = Math.min(maxTokens, tokens + retryRatio);
+    }
+
+    /** Tries to withdraw a token for a retry. Returns true if the retry is allowed. */
+    public synchronized boolean tryAcquireRetry() {
+        if (tokens < 1.0) {
+            return false;
+        }
+        tokens -= 1.0;
+        return true;
+    }
+
+    /** The number of tokens currently available. Generally used for metrics and testing. */
+    public synchronized double getAvailableTokens() {
+        return tokens;
+    }
+}
@@ -0,0 +1,26 @@
+package org.sagebionetworks.bridge.retry;
+
+/**
+ * Metrics hook for {@link RetryPolicy}. All methods have no-op defaults, so implementations only need to override
+ * what they care about. Implementations are called on the calling thread and should be fast and never throw.
+ */
+public interface RetryListener {
+    /** Called when a call succeeds. Attempts is the total number of attempts, including the successful one. */
+    default void onSuccess(String operationName, int attempts, long elapsedMillis) {
+    }
+
+    /** Called when an attempt fails and will be retried after the given delay. */
+    default void onRetry(String operationName, int attempt, long delayMillis, Exception ex) {
+    }
+
+    /**
+     * Called when a call fails for good, either because the exception isn't retryable, or we've run out of attempts,
+     * time, or retry budget.
+     */
+    default void onFailure(String operationName, int attempts, Exception ex) {
+    }
+
+    /** Called when a retryable failure isn't retried because the retry budget is exhausted. */
+    default void onBudgetExhausted(String operationName, Exception ex) {
+    }
+}
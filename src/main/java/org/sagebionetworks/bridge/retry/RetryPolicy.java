@@ -0,0 +1,271 @@
+package org.sagebionetworks.bridge.retry;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Retries calls with exponential backoff and full jitter. Each retry waits a random amount of time between zero and
+ * min(maxDelay, baseDelay * 2^(attempt - 1)), which spreads out retries from many callers instead of having them all
+ * retry in lock step.
+ * </p>
+ * <p>
+ * A call is retried only if all of the following are true: the exception is retryable (as determined by the
+ * retryable predicate), we haven't used up maxAttempts, waiting for the next attempt won't go past the deadline, and
+ * the retry budget (if any) has room for another retry.
+ * </p>
+ * <p>
+ * Policies are immutable and thread-safe, so a single policy can be shared across all calls to a service. To
+ * construct, use the Builder.
+ * </p>
+ */
+public class RetryPolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(RetryPolicy.class);
+
+    private static final RetryListener NO_OP_LISTENER = new RetryListener() {};
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long deadlineMillis;
+    private final Predicate<Throwable> retryablePredicate;
+    private final RetryBudget retryBudget;
+    private final RetryListener listener;
+
+    /** Private constructor. To construct, use Builder. */
+    private RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long deadlineMillis,
+            Predicate<Throwable> retryablePredicate, RetryBudget retryBudget, RetryListener listener) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.deadlineMillis = deadlineMillis;
+        this.retryablePredicate = retryablePredicate;
+        this.retryBudget = retryBudget;
+        this.listener = listener;
+    }
+
+    /** Maximum number of attempts, including the first attempt. */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /** Base delay in milliseconds. The first retry waits up to this long. */
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    /** Maximum delay in milliseconds between attempts. */
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /** Maximum total time in milliseconds for a call, including all retries. Zero means no deadline. */
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /** Retry budget shared by calls using this policy, or null if retries aren't budgeted. */
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /** Metrics listener. Never null. */
+    public RetryListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Makes the call, retrying on failure as described in the class documentation. If the call fails for good, the
+     * last exception is re-thrown as-is.
+     *
+     * @param operationName
+     *         name of the operation, passed to the listener and used in logs
+     * @param call
+     *         call to make
+     * @return the value returned by the call
+     * @throws E
+     *         if the call fails and isn't retried
+     */
+    public <T, E extends Exception> T call(String operationName, RetryableCall<T, E> call) throws E {
+        long startMillis = currentTimeMillis();
+        if (retryBudget != null) {
+            retryBudget.recordCall();
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = call.call();
+                listener.onSuccess(operationName, attempt, currentTimeMillis() - startMillis);
+                return result;
+            } catch (Exception ex) {
+                if (!waitForRetry(operationName, attempt, startMillis, ex)) {
+                    listener.onFailure(operationName, attempt, ex);
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    // Decides whether to retry after the given failed attempt. If we should retry, this sleeps for the backoff delay
+    // and returns true. Otherwise, this returns false.
+    private boolean waitForRetry(String operationName, int attempt, long startMillis, Exception ex) {
+        if (attempt >= maxAttempts || !retryablePredicate.test(ex)) {
+            return false;
+        }
+
+        long delayMillis = computeDelayMillis(attempt);
+        if (deadlineMillis > 0 && currentTimeMillis() + delayMillis - startMillis > deadlineMillis) {
+            LOG.debug("Not retrying " + operationName + ", next attempt would pass the deadline");
+            return false;
+        }
+
+        if (retryBudget != null && !retryBudget.tryAcquireRetry()) {
+            LOG.warn("Not retrying " + operationName + ", retry budget exhausted: " + ex.getMessage());
+            listener.onBudgetExhausted(operationName, ex);
+            return false;
+        }
+
+        LOG.debug("Retrying " + operationName + " after attempt " + attempt + " in " + delayMillis + "ms: " +
+                ex.getMessage());
+        listener.onRetry(operationName, attempt, delayMillis, ex);
+        try {
+            sleep(delayMillis);
+        } catch (InterruptedException interruptedEx) {
+            // Restore the interrupt and give up.
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the full jitter delay before the next attempt: a random value between 0 and
+     * min(maxDelay, baseDelay * 2^(attempt - 1)). Package-scoped for unit tests.
+     */
+    long computeDelayMillis(int attempt) {
+        // Cap the shift so we don't overflow.
+        long exponentialDelay = baseDelayMillis << Math.min(attempt - 1, 30);
+        long cappedDelay = Math.min(maxDelayMillis, exponentialDelay);
+        if (cappedDelay <= 0) {
+            return 0;
+        }
+        return ThreadLocalRandom.current().nextLong(cappedDelay + 1);
+    }
+
+    /** Gets the current time. This is a member method to enable mocking and is package-scoped for unit tests. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /** Sleeps. This is a member method to enable mocking and is package-scoped for unit tests. */
+    void sleep(long millis) throws InterruptedException {
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    /** Creates a builder initialized with the values from this policy. */
+    public Builder toBuilder() {
+        return new Builder().withMaxAttempts(maxAttempts).withBaseDelayMillis(baseDelayMillis)
+                .withMaxDelayMillis(maxDelayMillis).withDeadlineMillis(deadlineMillis)
+                .withRetryablePredicate(retryablePredicate).withRetryBudget(retryBudget).withListener(listener);
+    }
+
+    /** Builder for a RetryPolicy. */
+    public static class Builder {
+        private int maxAttempts = 3;
+        private long baseDelayMillis = 100;
+        private Long maxDelayMillis;
+        private long deadlineMillis = 0;
+        private Predicate<Throwable> retryablePredicate = ex -> true;
+        private RetryBudget retryBudget;
+        private RetryListener listener;
+
+        /** @see RetryPolicy#getMaxAttempts */
+        public Builder withMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /** @see RetryPolicy#getBaseDelayMillis */
+        public Builder withBaseDelayMillis(long baseDelayMillis) {
+            this.baseDelayMillis = baseDelayMillis;
+            return this;
+        }
+
+        /** @see RetryPolicy#getMaxDelayMillis */
+        public Builder withMaxDelayMillis(long maxDelayMillis) {
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /** @see RetryPolicy#getDeadlineMillis */
+        public Builder withDeadlineMillis(long deadlineMillis) {
+            this.deadlineMillis = deadlineMillis;
+            return this;
+        }
+
+        /** Only exceptions matching this predicate are retried. Defaults to retrying all exceptions. */
+        public Builder withRetryablePredicate(Predicate<Throwable> retryablePredicate) {
+            this.retryablePredicate = retryablePredicate;
+            return this;
+        }
+
+        /** Convenience method to retry only exceptions that are instances of the given types. */
+        @SafeVarargs
+        public final Builder withRetryableTypes(Class<? extends Throwable>... retryableTypes) {
+            this.retryablePredicate = ex -> {
+                for (Class<? extends Throwable> oneType : retryableTypes) {
+                    if (oneType.isInstance(ex)) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+            return this;
+        }
+
+        /** @see RetryPolicy#getRetryBudget */
+        public Builder withRetryBudget(RetryBudget retryBudget) {
+            this.retryBudget = retryBudget;
+            return this;
+        }
+
+        /** @see RetryPolicy#getListener */
+        public Builder withListener(RetryListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Builds the RetryPolicy. Max delay defaults to 32 times the base delay. Listener defaults to a no-op
+         * listener.
+         */
+        public RetryPolicy build() {
+            if (maxAttempts < 1) {
+                throw new IllegalStateException("maxAttempts must be positive");
+            }
+            if (baseDelayMillis < 0) {
+                throw new IllegalStateException("baseDelayMillis can't be negative");
+            }
+            if (deadlineMillis < 0) {
+                throw new IllegalStateException("deadlineMillis can't be negative");
+            }
+            checkNotNull(retryablePredicate, "retryablePredicate must be specified");
+
+            long resolvedMaxDelayMillis = maxDelayMillis != null ? maxDelayMillis : baseDelayMillis * 32;
+            if (resolvedMaxDelayMillis < baseDelayMillis) {
+                throw new IllegalStateException("maxDelayMillis can't be less than baseDelayMillis");
+            }
+
+            RetryListener resolvedListener = listener != null ? listener : NO_OP_LISTENER;
+            return new RetryPolicy(maxAttempts, baseDelayMillis, resolvedMaxDelayMillis, deadlineMillis,
+                    retryablePredicate, retryBudget, resolvedListener);
+        }
+    }
+}
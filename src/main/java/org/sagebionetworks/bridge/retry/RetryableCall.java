@@ -0,0 +1,12 @@
+package org.sagebionetworks.bridge.retry;
+
+/**
+ * Functional interface for a call that returns a value and can throw an exception of a specific type. This is what
+ * {@link RetryPolicy} retries. The exception type is a type parameter, so that callers keep their checked exceptions
+ * instead of having to handle a generic Exception.
+ */
+@FunctionalInterface
+public interface RetryableCall<T, E extends Exception> {
+    /** Makes the call. */
+    T call() throws E;
+}
@@ -3,14 +3,19 @@ package org.sagebionetworks.bridge.s3;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.HttpMethod;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
@@ -20,20 +25,57 @@ import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
-import com.jcabi.aspects.RetryOnFailure;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.retry.RetryBudget;
+import org.sagebionetworks.bridge.retry.RetryPolicy;
 
 /**
  * Helper class that simplifies reading S3 files. This is generally created by Spring. However, we don't use the
  * Component annotation because there are multiple S3 clients, so there may be multiple S3 helpers.
  */
 public class S3Helper {
+    private static final Logger LOG = LoggerFactory.getLogger(S3Helper.class);
+
     private static final Joiner LINES_JOINER = Joiner.on('\n').useForNull("");
 
+    // Package-scoped for unit tests.
+    static final int DEFAULT_PRESIGNED_URL_REFRESH_MARGIN_SECONDS = 60;
+    static final int MAX_DOWNLOAD_RANGE_ATTEMPTS = 3;
+
+    /**
+     * User metadata key for the CRC32C checksum, written by {@link #writeBytesToS3} when checksum verification is
+     * enabled. The value is the lowercase hex string of the checksum bytes, as per Guava's HashCode.toString().
+     */
+    public static final String CRC32C_METADATA_KEY = "crc32c";
+
+    private static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+    private static final String SSE_ALGORITHM_KMS = "aws:kms";
+
     private AmazonS3 s3Client;
-    
+
+    // Caches are null (disabled) unless enableCache() is called.
+    private Cache<String, ObjectMetadata> objectMetadataCache;
+    private Cache<String, CachedPresignedUrl> presignedUrlCache;
+    private int presignedUrlRefreshMarginSeconds = DEFAULT_PRESIGNED_URL_REFRESH_MARGIN_SECONDS;
+    private boolean verifyChecksums = false;
+    private RetryPolicy retryPolicy = new RetryPolicy.Builder().withMaxAttempts(5).withBaseDelayMillis(100)
+            .withMaxDelayMillis(2000).withRetryablePredicate(S3Helper::isRetryableException)
+            .withRetryBudget(new RetryBudget(0.1, 100)).build();
+
     /**
      * S3 Client. This is configured by Spring. We don't use the Autowired annotation because there are multiple S3
      * clients.
@@ -42,6 +84,67 @@ public class S3Helper {
         this.s3Client = s3Client;
     }
 
+    /**
+     * Retry policy for S3 calls. Defaults to 5 attempts with exponential backoff and jitter, starting at 100ms, and
+     * retries client errors, throttling, and server errors, but not other 4XX errors.
+     */
+    public final void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * <p>
+     * Enables caching of object metadata and pre-signed URLs. Caching is disabled by default. Each cache holds at most
+     * maximumSize entries, and entries are evicted ttlSeconds after they are loaded. Concurrent lookups for the same
+     * key are coalesced into a single S3 call.
+     * </p>
+     * <p>
+     * Object metadata is keyed by bucket and key, and is invalidated when this helper writes or copies to that key.
+     * Writes from other hosts are only picked up once the entry expires, so ttlSeconds should be short.
+     * </p>
+     * <p>
+     * Pre-signed URLs are keyed by bucket, key, and HTTP method. A cached URL is only reused if it expires no later
+     * than the expiration passed in by the caller, and no earlier than the refresh margin before it (see
+     * {@link #setPresignedUrlRefreshMarginSeconds}). Otherwise, a new URL is signed and replaces the cached one, so
+     * callers of the same key asking for very different expirations don't benefit from the cache.
+     * </p>
+     */
+    public final void enableCache(long maximumSize, int ttlSeconds) {
+        objectMetadataCache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
+        presignedUrlCache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
+    }
+
+    /**
+     * Cached pre-signed URLs are only reused if they are valid for at least this many more seconds, and expire at most
+     * this many seconds before the requested expiration. Only applies if caching is enabled. Defaults to 60 seconds.
+     */
+    public final void setPresignedUrlRefreshMarginSeconds(int presignedUrlRefreshMarginSeconds) {
+        this.presignedUrlRefreshMarginSeconds = presignedUrlRefreshMarginSeconds;
+    }
+
+    /**
+     * <p>
+     * True if transfers should be verified end-to-end with checksums. Defaults to false.
+     * </p>
+     * <p>
+     * Downloads are checksummed while the bytes are written to disk, so no second pass over the file is needed. The
+     * download is checked against the CRC32C in the object's user metadata (see {@link #CRC32C_METADATA_KEY}) if
+     * present, or otherwise against the ETag if the ETag is a plain MD5 (single-part upload without KMS encryption).
+     * If the stream ends before Content-Length bytes, the download resumes with a ranged get for just the missing
+     * bytes. A checksum mismatch throws an AmazonClientException, which retries the download.
+     * </p>
+     * <p>
+     * Byte uploads send a Content-MD5 header, so S3 rejects corrupted uploads, and store the CRC32C in the user
+     * metadata for later downloads. File uploads are already streamed through an MD5 check against the returned ETag
+     * by the AWS SDK, and a failed check is retried like any other AmazonClientException.
+     * </p>
+     */
+    public final void setVerifyChecksums(boolean verifyChecksums) {
+        this.verifyChecksums = verifyChecksums;
+    }
+
     /**
      * Copies an S3 file from the specified source to the specified destination, optionally providing the new object
      * metadata. If the object metadata is not specified, it will be copied from the source (which is the default
@@ -58,13 +161,12 @@ public class S3Helper {
      * @param newObjectMetadata
      *         optional metadata for the new S3 file
      */
-    @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = AmazonClientException.class,
-            randomize = false)
     public void copyS3File(String sourceBucket, String sourceKey, String destinationBucket, String destinationKey,
             ObjectMetadata newObjectMetadata) {
         CopyObjectRequest request = new CopyObjectRequest(sourceBucket, sourceKey, destinationBucket, destinationKey);
         request.setNewObjectMetadata(newObjectMetadata);
-        s3Client.copyObject(request);
+        retryPolicy.call("copyS3File", () -> s3Client.copyObject(request));
+        invalidateObjectMetadata(destinationBucket, destinationKey);
     }
 
     /**
@@ -77,17 +179,104 @@ public class S3Helper {
      * @param destinationFile
      *         file to download to
      */
-    @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = AmazonClientException.class,
-            randomize = false)
     public void downloadS3File(String bucket, String key, File destinationFile) {
-        GetObjectRequest s3Request = new GetObjectRequest(bucket, key);
-        s3Client.getObject(s3Request, destinationFile);
+        retryPolicy.call("downloadS3File", () -> {
+            if (verifyChecksums) {
+                downloadS3FileWithChecksum(bucket, key, destinationFile);
+                return null;
+            }
+
+            GetObjectRequest s3Request = new GetObjectRequest(bucket, key);
+            return s3Client.getObject(s3Request, destinationFile);
+        });
+    }
+
+    // Streams the S3 file to disk, computing checksums as the bytes are written. If the stream ends early, we resume
+    // from where we left off with a ranged get. The ranged get is pinned to the original ETag, so we never splice
+    // together two different versions of the file.
+    private void downloadS3FileWithChecksum(String bucket, String key, File destinationFile) {
+        Hasher md5Hasher = Hashing.md5().newHasher();
+        Hasher crc32cHasher = Hashing.crc32c().newHasher();
+        byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+        ObjectMetadata metadata = null;
+        long bytesWritten = 0;
+
+        try (OutputStream fileStream = new FileOutputStream(destinationFile)) {
+            for (int numAttempts = 1; ; numAttempts++) {
+                GetObjectRequest s3Request = new GetObjectRequest(bucket, key);
+                if (metadata != null) {
+                    s3Request.setRange(bytesWritten, metadata.getContentLength() - 1);
+                    s3Request.setMatchingETagConstraints(ImmutableList.of(metadata.getETag()));
+                }
+
+                try (S3Object s3File = s3Client.getObject(s3Request)) {
+                    if (s3File == null) {
+                        // The S3 client returns null if the ETag constraint isn't met.
+                        throw new AmazonClientException("S3 file " + bucket + "/" + key +
+                                " changed during download");
+                    }
+                    if (metadata == null) {
+                        metadata = s3File.getObjectMetadata();
+                    }
+
+                    InputStream s3Stream = s3File.getObjectContent();
+                    int bytesRead;
+                    while ((bytesRead = s3Stream.read(buffer)) >= 0) {
+                        fileStream.write(buffer, 0, bytesRead);
+                        md5Hasher.putBytes(buffer, 0, bytesRead);
+                        crc32cHasher.putBytes(buffer, 0, bytesRead);
+                        bytesWritten += bytesRead;
+                    }
+                } catch (IOException ex) {
+                    LOG.warn("Error reading S3 file " + bucket + "/" + key + " after " + bytesWritten + " bytes: " +
+                            ex.getMessage(), ex);
+                }
+
+                if (metadata != null && bytesWritten >= metadata.getContentLength()) {
+                    break;
+                }
+                if (numAttempts >= MAX_DOWNLOAD_RANGE_ATTEMPTS) {
+                    throw new AmazonClientException("S3 file " + bucket + "/" + key + " truncated after " +
+                            bytesWritten + " bytes");
+                }
+                LOG.warn("S3 file " + bucket + "/" + key + " truncated after " + bytesWritten +
+                        " bytes, resuming download");
+            }
+        } catch (IOException ex) {
+            throw new AmazonClientException("Error writing S3 file " + bucket + "/" + key + " to disk: " +
+                    ex.getMessage(), ex);
+        }
+
+        verifyChecksum(bucket, key, metadata, md5Hasher.hash(), crc32cHasher.hash());
+    }
+
+    // Verifies the computed checksums against the stored CRC32C, or the ETag if it's an MD5. Throws if they don't
+    // match. If neither is available (multipart uploads, KMS encryption), the length check is the best we can do.
+    private static void verifyChecksum(String bucket, String key, ObjectMetadata metadata, HashCode md5,
+            HashCode crc32c) {
+        String expectedCrc32c = metadata.getUserMetaDataOf(CRC32C_METADATA_KEY);
+        if (expectedCrc32c != null) {
+            if (!expectedCrc32c.equalsIgnoreCase(crc32c.toString())) {
+                throw new AmazonClientException("CRC32C mismatch for S3 file " + bucket + "/" + key + ": expected " +
+                        expectedCrc32c + ", got " + crc32c);
+            }
+            return;
+        }
+
+        String etag = metadata.getETag();
+        boolean isMd5Etag = etag != null && etag.matches("[0-9a-fA-F]{32}") &&
+                !SSE_ALGORITHM_KMS.equals(metadata.getSSEAlgorithm()) && metadata.getSSECustomerAlgorithm() == null;
+        if (isMd5Etag && !etag.equalsIgnoreCase(md5.toString())) {
+            throw new AmazonClientException("MD5 mismatch for S3 file " + bucket + "/" + key + ": expected " + etag +
+                    ", got " + md5);
+        }
     }
 
     /**
      * Pass through to S3 generate presigned URL. This exists mainly as a convenience, so we can do all S3 operations
      * through the helper instead of using the S3 client directly for some operations. This also enables us to add
-     * retry logic later.
+     * retry logic later. If caching is enabled, this may return a previously generated URL for the same bucket, key,
+     * and HTTP method, which expires up to the refresh margin before the requested expiration.
      *
      * @param bucket
      *         bucket containing the file we want to get a pre-signed URL for
@@ -100,11 +289,28 @@ public class S3Helper {
      * @return the generated pre-signed URL
      */
     public URL generatePresignedUrl(String bucket, String key, DateTime expiration, HttpMethod httpMethod) {
-        return s3Client.generatePresignedUrl(bucket, key, expiration.toDate(), httpMethod);
+        if (presignedUrlCache == null) {
+            return s3Client.generatePresignedUrl(bucket, key, expiration.toDate(), httpMethod);
+        }
+
+        String cacheKey = httpMethod.name() + ':' + bucket + '/' + key;
+        CachedPresignedUrl cachedUrl = presignedUrlCache.getIfPresent(cacheKey);
+        if (cachedUrl != null && !cachedUrl.isUsable(expiration, presignedUrlRefreshMarginSeconds)) {
+            // Only remove the URL we looked at, in case another thread has already replaced it.
+            presignedUrlCache.asMap().remove(cacheKey, cachedUrl);
+        }
+        cachedUrl = getFromCache(presignedUrlCache, cacheKey, () -> new CachedPresignedUrl(
+                s3Client.generatePresignedUrl(bucket, key, expiration.toDate(), httpMethod), expiration));
+        if (!cachedUrl.isUsable(expiration, presignedUrlRefreshMarginSeconds)) {
+            // Another thread cached a URL for a different expiration. Sign our own, without caching it.
+            return s3Client.generatePresignedUrl(bucket, key, expiration.toDate(), httpMethod);
+        }
+        return cachedUrl.getUrl();
     }
 
     /**
-     * Get the object metadata without downloading the actual S3 file.
+     * Get the object metadata without downloading the actual S3 file. If caching is enabled, this returns a copy of
+     * the cached metadata.
      *
      * @param bucket
      *         S3 bucket to read from, must be non-null and non-empty
@@ -112,10 +318,14 @@ public class S3Helper {
      *         S3 key (filename), must be non-null and non-empty
      * @return the S3 file's metadata
      */
-    @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = AmazonClientException.class,
-            randomize = false)
     public ObjectMetadata getObjectMetadata(String bucket, String key) {
-        return s3Client.getObjectMetadata(bucket, key);
+        if (objectMetadataCache == null) {
+            return retryPolicy.call("getObjectMetadata", () -> s3Client.getObjectMetadata(bucket, key));
+        }
+
+        // ObjectMetadata is mutable. Clone it so callers can't modify the cached copy.
+        return getFromCache(objectMetadataCache, bucket + '/' + key, () -> retryPolicy.call("getObjectMetadata",
+                () -> s3Client.getObjectMetadata(bucket, key))).clone();
     }
 
     /**
@@ -129,12 +339,13 @@ public class S3Helper {
      * @throws IOException
      *         if closing the stream fails
      */
-    @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = AmazonClientException.class,
-            randomize = false)
     public byte[] readS3FileAsBytes(String bucket, String key) throws IOException {
-        try (S3Object s3File = s3Client.getObject(bucket, key); InputStream s3Stream = s3File.getObjectContent()) {
-            return ByteStreams.toByteArray(s3Stream);
-        }
+        return retryPolicy.call("readS3FileAsBytes", () -> {
+            try (S3Object s3File = s3Client.getObject(bucket, key);
+                    InputStream s3Stream = s3File.getObjectContent()) {
+                return ByteStreams.toByteArray(s3Stream);
+            }
+        });
     }
 
     /**
@@ -148,13 +359,13 @@ public class S3Helper {
      * @throws IOException
      *         if reading or closing the stream fails
      */
-    @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = AmazonClientException.class,
-            randomize = false)
     public List<String> readS3FileAsLines(String bucket, String key) throws IOException {
-        try (S3Object s3File = s3Client.getObject(bucket, key); BufferedReader recordIdReader = new BufferedReader(
-                new InputStreamReader(s3File.getObjectContent(), Charsets.UTF_8))) {
-            return CharStreams.readLines(recordIdReader);
-        }
+        return retryPolicy.call("readS3FileAsLines", () -> {
+            try (S3Object s3File = s3Client.getObject(bucket, key); BufferedReader recordIdReader =
+                    new BufferedReader(new InputStreamReader(s3File.getObjectContent(), Charsets.UTF_8))) {
+                return CharStreams.readLines(recordIdReader);
+            }
+        });
     }
 
     /**
@@ -187,17 +398,21 @@ public class S3Helper {
      * @throws IOException
      *         if uploading the byte stream fails
      */
-    @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = AmazonClientException.class,
-            randomize = false)
     public void writeBytesToS3(String bucket, String key, byte[] data, ObjectMetadata metadata) throws IOException {
-        if (metadata == null) {
-            metadata = new ObjectMetadata();
+        ObjectMetadata putMetadata = metadata != null ? metadata : new ObjectMetadata();
+        putMetadata.setContentLength(data.length);
+        if (verifyChecksums) {
+            // We already have the bytes in memory, so computing the checksums up front is cheap.
+            putMetadata.setContentMD5(BaseEncoding.base64().encode(Hashing.md5().hashBytes(data).asBytes()));
+            putMetadata.addUserMetadata(CRC32C_METADATA_KEY, Hashing.crc32c().hashBytes(data).toString());
         }
-        metadata.setContentLength(data.length);
 
-        try (InputStream dataInputStream = new ByteArrayInputStream(data)) {
-            s3Client.putObject(bucket, key, dataInputStream, metadata);
-        }
+        retryPolicy.call("writeBytesToS3", () -> {
+            try (InputStream dataInputStream = new ByteArrayInputStream(data)) {
+                return s3Client.putObject(bucket, key, dataInputStream, putMetadata);
+            }
+        });
+        invalidateObjectMetadata(bucket, key);
     }
 
     /**
@@ -228,10 +443,9 @@ public class S3Helper {
      * @param file
      *         file to upload
      */
-    @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = AmazonClientException.class,
-            randomize = false)
     public void writeFileToS3(String bucket, String key, File file) {
-        s3Client.putObject(bucket, key, file);
+        retryPolicy.call("writeFileToS3", () -> s3Client.putObject(bucket, key, file));
+        invalidateObjectMetadata(bucket, key);
     }
 
     /**
@@ -248,12 +462,11 @@ public class S3Helper {
      * @param metadata
      *         metadata to be associated with this upload (cannot be null)
      */
-    @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = AmazonClientException.class,
-            randomize = false)
     public void writeFileToS3(String bucket, String key, File file, ObjectMetadata metadata) {
         PutObjectRequest putObjectRequest = new PutObjectRequest(bucket, key, file);
         putObjectRequest.setMetadata(metadata);
-        s3Client.putObject(putObjectRequest);
+        retryPolicy.call("writeFileToS3", () -> s3Client.putObject(putObjectRequest));
+        invalidateObjectMetadata(bucket, key);
     }
     
     /**
@@ -275,4 +488,57 @@ public class S3Helper {
         byte[] linesData = joinedLines.getBytes(Charsets.UTF_8);
         writeBytesToS3(bucket, key, linesData);
     }
+
+    /**
+     * Returns true if the exception is worth retrying. Client errors (networking, checksum mismatches) are retryable.
+     * Service errors are retryable if they're throttling (429, 503) or server errors (5XX), but other 4XX errors
+     * (access denied, no such key) are deterministic and aren't retried. Package-scoped for unit tests.
+     */
+    static boolean isRetryableException(Throwable ex) {
+        if (ex instanceof AmazonServiceException) {
+            int statusCode = ((AmazonServiceException) ex).getStatusCode();
+            return statusCode == 429 || statusCode >= 500;
+        }
+        return ex instanceof AmazonClientException;
+    }
+
+    // Removes the cached metadata for the given object, if caching is enabled.
+    private void invalidateObjectMetadata(String bucket, String key) {
+        if (objectMetadataCache != null) {
+            objectMetadataCache.invalidate(bucket + '/' + key);
+        }
+    }
+
+    // Helper method which gets a value from the cache, loading it if it's not present. Concurrent loads for the same
+    // key wait on a single load. Exceptions thrown by the loader are unwrapped and re-thrown.
+    private static <T> T getFromCache(Cache<String, T> cache, String cacheKey, Callable<T> loader) {
+        try {
+            return cache.get(cacheKey, loader);
+        } catch (ExecutionException | UncheckedExecutionException ex) {
+            throw Throwables.propagate(ex.getCause());
+        }
+    }
+
+    // Pre-signed URL along with its expiration, so we know when we need to generate a new one.
+    private static class CachedPresignedUrl {
+        private final URL url;
+        private final DateTime expiration;
+
+        CachedPresignedUrl(URL url, DateTime expiration) {
+            this.url = url;
+            this.expiration = expiration;
+        }
+
+        URL getUrl() {
+            return url;
+        }
+
+        // A URL is usable if it's still valid for at least the refresh margin, and expires no later than requested and
+        // no earlier than the refresh margin before that.
+        boolean isUsable(DateTime requestedExpiration, int refreshMarginSeconds) {
+            return expiration.minusSeconds(refreshMarginSeconds).isAfterNow() &&
+                    !expiration.isAfter(requestedExpiration) &&
+                    !expiration.isBefore(requestedExpiration.minusSeconds(refreshMarginSeconds));
+        }
+    }
 }
@@ -0,0 +1,202 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Learns how long Synapse async jobs take, and schedules polls to match. For each job type, this keeps the durations
+ * of the most recent windowSize jobs. Once it has at least minSamples durations, the first poll is at the median
+ * duration, followed by polls at the 75th, 90th, 95th, and 99th percentiles. After that, polling continues on the fixed
+ * backoff plan, so the overall timeout is the same as the fixed plan's.
+ * </p>
+ * <p>
+ * Until a job type has enough samples, polls follow the fixed backoff plan. Polling only tells us that a job finished
+ * somewhere between the last poll that found it not ready and the poll that found it done, so polled jobs are recorded
+ * at the midpoint of that interval (see {@link #recordPolledDuration}). Recording the done poll's time instead would
+ * mean a job could never be recorded as shorter than the first poll, so the schedule could never move earlier. With
+ * midpoints, jobs that are done at the first poll pull the median, and so the first poll, earlier, until the polls
+ * straddle the real durations.
+ * </p>
+ * <p>
+ * This class is thread-safe and can be shared across multiple SynapseHelpers.
+ * </p>
+ */
+public class AdaptivePollScheduler {
+    /** Kinds of Synapse async jobs. Each kind has its own duration distribution. */
+    public enum JobType {
+        APPEND,
+        QUERY,
+        TRANSACTION,
+        TSV_UPLOAD,
+    }
+
+    static final int DEFAULT_WINDOW_SIZE = 100;
+    static final int DEFAULT_MIN_SAMPLES = 10;
+
+    // Quantiles of the observed durations to poll at, in order.
+    private static final double[] POLL_QUANTILES = { 0.5, 0.75, 0.9, 0.95, 0.99 };
+
+    private final int minSamples;
+    private final Map<JobType, DurationWindow> windowsByType = new EnumMap<>(JobType.class);
+
+    /** Creates a scheduler that keeps the last 100 durations per job type, and adapts after 10. */
+    public AdaptivePollScheduler() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MIN_SAMPLES);
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param windowSize
+     *         number of recent durations to keep for each job type
+     * @param minSamples
+     *         number of durations needed before polls adapt to them
+     */
+    public AdaptivePollScheduler(int windowSize, int minSamples) {
+        checkArgument(windowSize > 0, "windowSize must be positive");
+        checkArgument(minSamples > 0 && minSamples <= windowSize, "minSamples must be between 1 and windowSize");
+        this.minSamples = minSamples;
+        for (JobType jobType : JobType.values()) {
+            windowsByType.put(jobType, new DurationWindow(windowSize));
+        }
+    }
+
+    /** Records how long a job took, from the start of polling, if the exact duration is known. */
+    public void recordDuration(JobType jobType, long durationMillis) {
+        checkNotNull(jobType);
+        DurationWindow window = windowsByType.get(jobType);
+        synchronized (window) {
+            window.add(Math.max(0, durationMillis));
+        }
+    }
+
+    /**
+     * Records a job that was found done by polling. The job finished after the last poll that found it not ready, and
+     * no later than the poll that found it done, so this records the midpoint of the two.
+     *
+     * @param jobType
+     *         type of job that was polled
+     * @param lastNotReadyMillis
+     *         time of the last poll that found the job not ready, from the start of polling, or 0 if the first poll
+     *         found it done
+     * @param doneMillis
+     *         time of the poll that found the job done, from the start of polling
+     */
+    public void recordPolledDuration(JobType jobType, long lastNotReadyMillis, long doneMillis) {
+        long lowerMillis = Math.max(0, Math.min(lastNotReadyMillis, doneMillis));
+        recordDuration(jobType, lowerMillis + (doneMillis - lowerMillis) / 2);
+    }
+
+    /**
+     * Returns the poll delays for a job of the given type. Each delay is relative to the previous poll (or to the start
+     * of polling, for the first delay).
+     *
+     * @param jobType
+     *         type of job being polled
+     * @param fallbackPlanSeconds
+     *         fixed backoff plan, in seconds, used until there are enough samples, and after the adaptive polls
+     * @return poll delays, in milliseconds
+     */
+    public long[] getPollDelaysMillis(JobType jobType, int[] fallbackPlanSeconds) {
+        checkNotNull(jobType);
+        long[] sortedDurations;
+        DurationWindow window = windowsByType.get(jobType);
+        synchronized (window) {
+            if (window.size() < minSamples) {
+                return toMillis(fallbackPlanSeconds);
+            }
+            sortedDurations = window.toArray();
+        }
+        Arrays.sort(sortedDurations);
+
+        // Poll at each quantile, skipping duplicates.
+        List<Long> pollTimeList = new ArrayList<>();
+        long lastPollTime = 0;
+        for (double quantile : POLL_QUANTILES) {
+            long pollTime = getQuantile(sortedDurations, quantile);
+            if (pollTime > lastPollTime || pollTimeList.isEmpty()) {
+                pollTimeList.add(pollTime);
+                lastPollTime = pollTime;
+            }
+        }
+
+        // Then continue on the fallback plan, for the polls that come after the last adaptive poll.
+        long fallbackPollTime = 0;
+        for (int delaySeconds : fallbackPlanSeconds) {
+            fallbackPollTime += delaySeconds * 1000L;
+            if (fallbackPollTime > lastPollTime) {
+                pollTimeList.add(fallbackPollTime);
+            }
+        }
+
+        // Convert poll times to delays.
+        long[] delays = new long[pollTimeList.size()];
+        long previousPollTime = 0;
+        for (int i = 0; i < delays.length; i++) {
+            delays[i] = pollTimeList.get(i) - previousPollTime;
+            previousPollTime = pollTimeList.get(i);
+        }
+        return delays;
+    }
+
+    /** Gets the given quantile of the recorded durations, or -1 if there are none. Package-scoped for unit tests. */
+    long getDurationQuantileMillis(JobType jobType, double quantile) {
+        long[] sortedDurations;
+        DurationWindow window = windowsByType.get(jobType);
+        synchronized (window) {
+            if (window.size() == 0) {
+                return -1;
+            }
+            sortedDurations = window.toArray();
+        }
+        Arrays.sort(sortedDurations);
+        return getQuantile(sortedDurations, quantile);
+    }
+
+    // Nearest-rank quantile of a sorted, non-empty array.
+    private static long getQuantile(long[] sortedValues, double quantile) {
+        int index = (int) Math.ceil(quantile * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, Math.min(sortedValues.length - 1, index))];
+    }
+
+    // Converts a backoff plan from seconds to milliseconds. Package-scoped for use by SynapseHelper.
+    static long[] toMillis(int[] planSeconds) {
+        long[] planMillis = new long[planSeconds.length];
+        for (int i = 0; i < planSeconds.length; i++) {
+            planMillis[i] = planSeconds[i] * 1000L;
+        }
+        return planMillis;
+    }
+
+    // Ring buffer of the most recent durations. Callers synchronize on the window.
+    private static class DurationWindow {
+        private final long[] durations;
+        private int count = 0;
+        private int next = 0;
+
+        DurationWindow(int windowSize) {
+            durations = new long[windowSize];
+        }
+
+        void add(long duration) {
+            durations[next] = duration;
+            next = (next + 1) % durations.length;
+            count = Math.min(count + 1, durations.length);
+        }
+
+        int size() {
+            return count;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(durations, count);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Adjusts the rate of a Guava RateLimiter using additive increase, multiplicative decrease (AIMD). Each successful
+ * call raises the rate by additiveIncrease / currentRate, which works out to about additiveIncrease permits per second
+ * for every second of calls at full speed. Each throttling response multiplies the rate by multiplicativeDecrease.
+ * </p>
+ * <p>
+ * Calls that were already in flight when the service started throttling will all come back throttled. To avoid
+ * cutting the rate once for each of them, decreases within decreaseCooldownMillis of the last decrease are ignored.
+ * </p>
+ * <p>
+ * This class only adjusts the rate. Callers still acquire permits from the underlying RateLimiter. This class is
+ * thread-safe.
+ * </p>
+ */
+public class AdaptiveRateLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveRateLimiter.class);
+
+    static final double DEFAULT_ADDITIVE_INCREASE = 1.0;
+    static final double DEFAULT_MULTIPLICATIVE_DECREASE = 0.5;
+    static final long DEFAULT_DECREASE_COOLDOWN_MILLIS = 1000;
+
+    private final RateLimiter rateLimiter;
+    private final double minRate;
+    private final double maxRate;
+    private final double additiveIncrease;
+    private final double multiplicativeDecrease;
+    private final long decreaseCooldownMillis;
+    private long lastDecreaseMillis = Long.MIN_VALUE;
+
+    /**
+     * Creates an adaptive rate limiter with the default increase of 1 permit per second, halving the rate on
+     * throttling, with a cooldown of 1 second between decreases.
+     *
+     * @param rateLimiter
+     *         rate limiter to adjust
+     * @param minRate
+     *         rate never goes below this, in permits per second
+     * @param maxRate
+     *         rate never goes above this, in permits per second
+     */
+    public AdaptiveRateLimiter(RateLimiter rateLimiter, double minRate, double maxRate) {
+        this(rateLimiter, minRate, maxRate, DEFAULT_ADDITIVE_INCREASE, DEFAULT_MULTIPLICATIVE_DECREASE,
+                DEFAULT_DECREASE_COOLDOWN_MILLIS);
+    }
+
+    /**
+     * Creates an adaptive rate limiter.
+     *
+     * @param rateLimiter
+     *         rate limiter to adjust
+     * @param minRate
+     *         rate never goes below this, in permits per second
+     * @param maxRate
+     *         rate never goes above this, in permits per second
+     * @param additiveIncrease
+     *         how much the rate increases per second of successful calls, in permits per second
+     * @param multiplicativeDecrease
+     *         factor the rate is multiplied by on throttling, between 0 and 1
+     * @param decreaseCooldownMillis
+     *         minimum time between decreases, in milliseconds
+     */
+    public AdaptiveRateLimiter(RateLimiter rateLimiter, double minRate, double maxRate, double additiveIncrease,
+            double multiplicativeDecrease, long decreaseCooldownMillis) {
+        checkNotNull(rateLimiter, "rateLimiter must be specified");
+        checkArgument(minRate > 0.0, "minRate must be positive");
+        checkArgument(maxRate >= minRate, "maxRate can't be less than minRate");
+        checkArgument(additiveIncrease >= 0.0, "additiveIncrease can't be negative");
+        checkArgument(multiplicativeDecrease > 0.0 && multiplicativeDecrease < 1.0,
+                "multiplicativeDecrease must be between 0 and 1");
+        checkArgument(decreaseCooldownMillis >= 0, "decreaseCooldownMillis can't be negative");
+
+        this.rateLimiter = rateLimiter;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.additiveIncrease = additiveIncrease;
+        this.multiplicativeDecrease = multiplicativeDecrease;
+        this.decreaseCooldownMillis = decreaseCooldownMillis;
+
+        // Clamp the starting rate to the bounds.
+        rateLimiter.setRate(clamp(rateLimiter.getRate()));
+    }
+
+    /** Current rate, in permits per second. */
+    public double getRate() {
+        return rateLimiter.getRate();
+    }
+
+    /** Call this when a call succeeds. This increases the rate, up to the max rate. */
+    public synchronized void onSuccess() {
+        double rate = rateLimiter.getRate();
+        if (rate < maxRate) {
+            rateLimiter.setRate(clamp(rate + additiveIncrease / rate));
+        }
+    }
+
+    /** Call this when the service throttles a call. This decreases the rate, down to the min rate. */
+    public synchronized void onThrottle() {
+        long nowMillis = currentTimeMillis();
+        if (nowMillis < lastDecreaseMillis + decreaseCooldownMillis) {
+            // We've already backed off for this burst of throttling.
+            return;
+        }
+        lastDecreaseMillis = nowMillis;
+
+        double oldRate = rateLimiter.getRate();
+        double newRate = clamp(oldRate * multiplicativeDecrease);
+        rateLimiter.setRate(newRate);
+        LOG.info("Throttled, decreasing rate from " + oldRate + " to " + newRate);
+    }
+
+    // Helper method to keep the rate between min and max.
+    private double clamp(double rate) {
+        return Math.max(minRate, Math.min(maxRate, rate));
+    }
+
+    /** Gets the current time. This is a member method to enable mocking and is package-scoped for unit tests. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
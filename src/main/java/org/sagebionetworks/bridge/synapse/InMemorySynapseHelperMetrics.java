@@ -0,0 +1,294 @@
+package org.sagebionetworks.bridge.synapse;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.sagebionetworks.bridge.synapse.AdaptivePollScheduler.JobType;
+
+/**
+ * <p>
+ * {@link SynapseHelperMetrics} that keeps counts and latency histograms in memory, per operation and per async job
+ * type. Useful for tests, benchmarks, and periodic logging. Metrics accumulate until {@link #reset} is called.
+ * </p>
+ * <p>
+ * This class is thread-safe and can be shared across multiple SynapseHelpers.
+ * </p>
+ */
+public class InMemorySynapseHelperMetrics implements SynapseHelperMetrics {
+    private final Map<String, OperationStats> statsByOperation = new ConcurrentHashMap<>();
+    private final Map<JobType, JobStats> statsByJobType = new EnumMap<>(JobType.class);
+
+    public InMemorySynapseHelperMetrics() {
+        for (JobType jobType : JobType.values()) {
+            statsByJobType.put(jobType, new JobStats());
+        }
+    }
+
+    @Override
+    public void onCall(String operationName, int attempts, long elapsedMillis, Exception ex) {
+        OperationStats stats = getOrCreateStats(operationName);
+        synchronized (stats) {
+            stats.callCount++;
+            stats.retryCount += Math.max(0, attempts - 1);
+            if (ex != null) {
+                stats.failureCount++;
+            }
+            stats.callLatency.record(elapsedMillis);
+        }
+    }
+
+    @Override
+    public void onAttempt(String operationName, long latencyMillis, Exception ex) {
+        OperationStats stats = getOrCreateStats(operationName);
+        synchronized (stats) {
+            stats.attemptLatency.record(latencyMillis);
+        }
+    }
+
+    @Override
+    public void onLimiterWait(String operationName, long waitMillis) {
+        OperationStats stats = getOrCreateStats(operationName);
+        synchronized (stats) {
+            stats.limiterWait.record(waitMillis);
+        }
+    }
+
+    @Override
+    public void onAsyncJobDone(JobType jobType, int polls, long elapsedMillis, boolean succeeded) {
+        JobStats stats = statsByJobType.get(jobType);
+        synchronized (stats) {
+            stats.jobCount++;
+            stats.pollCount += polls;
+            if (!succeeded) {
+                stats.failureCount++;
+            }
+            stats.completionTime.record(elapsedMillis);
+        }
+    }
+
+    /** Names of all operations that have recorded metrics. */
+    public Set<String> getOperationNames() {
+        return ImmutableSet.copyOf(statsByOperation.keySet());
+    }
+
+    /** Number of calls to the given operation, including failed calls. */
+    public long getCallCount(String operationName) {
+        OperationStats stats = statsByOperation.get(operationName);
+        if (stats == null) {
+            return 0;
+        }
+        synchronized (stats) {
+            return stats.callCount;
+        }
+    }
+
+    /** Number of calls to the given operation that failed for good. */
+    public long getFailureCount(String operationName) {
+        OperationStats stats = statsByOperation.get(operationName);
+        if (stats == null) {
+            return 0;
+        }
+        synchronized (stats) {
+            return stats.failureCount;
+        }
+    }
+
+    /** Number of retries (attempts after the first) for the given operation. */
+    public long getRetryCount(String operationName) {
+        OperationStats stats = statsByOperation.get(operationName);
+        if (stats == null) {
+            return 0;
+        }
+        synchronized (stats) {
+            return stats.retryCount;
+        }
+    }
+
+    /** Total time per call, including retries and limiter waits. Returns an empty histogram if there's no data. */
+    public Histogram getCallLatency(String operationName) {
+        OperationStats stats = statsByOperation.get(operationName);
+        if (stats == null) {
+            return new Histogram();
+        }
+        synchronized (stats) {
+            return stats.callLatency.copy();
+        }
+    }
+
+    /** Time spent in Synapse per attempt. Returns an empty histogram if there's no data. */
+    public Histogram getAttemptLatency(String operationName) {
+        OperationStats stats = statsByOperation.get(operationName);
+        if (stats == null) {
+            return new Histogram();
+        }
+        synchronized (stats) {
+            return stats.attemptLatency.copy();
+        }
+    }
+
+    /** Time spent waiting for rate limiter permits per attempt. Returns an empty histogram if there's no data. */
+    public Histogram getLimiterWait(String operationName) {
+        OperationStats stats = statsByOperation.get(operationName);
+        if (stats == null) {
+            return new Histogram();
+        }
+        synchronized (stats) {
+            return stats.limiterWait.copy();
+        }
+    }
+
+    /** Number of async jobs of the given type that were polled, including failures and timeouts. */
+    public long getAsyncJobCount(JobType jobType) {
+        JobStats stats = statsByJobType.get(jobType);
+        synchronized (stats) {
+            return stats.jobCount;
+        }
+    }
+
+    /** Number of async jobs of the given type that failed or timed out. */
+    public long getAsyncJobFailureCount(JobType jobType) {
+        JobStats stats = statsByJobType.get(jobType);
+        synchronized (stats) {
+            return stats.failureCount;
+        }
+    }
+
+    /** Total number of polls for async jobs of the given type. */
+    public long getAsyncJobPollCount(JobType jobType) {
+        JobStats stats = statsByJobType.get(jobType);
+        synchronized (stats) {
+            return stats.pollCount;
+        }
+    }
+
+    /** Time from the start of polling to completion, for async jobs of the given type. */
+    public Histogram getAsyncJobCompletionTime(JobType jobType) {
+        JobStats stats = statsByJobType.get(jobType);
+        synchronized (stats) {
+            return stats.completionTime.copy();
+        }
+    }
+
+    /** Clears all metrics. */
+    public void reset() {
+        statsByOperation.clear();
+        for (JobStats stats : statsByJobType.values()) {
+            synchronized (stats) {
+                stats.jobCount = 0;
+                stats.failureCount = 0;
+                stats.pollCount = 0;
+                stats.completionTime = new Histogram();
+            }
+        }
+    }
+
+    private OperationStats getOrCreateStats(String operationName) {
+        return statsByOperation.computeIfAbsent(operationName, key -> new OperationStats());
+    }
+
+    /**
+     * Latency histogram with fixed, roughly logarithmic bucket bounds, from 1ms to 10 minutes. Histograms returned by
+     * {@link InMemorySynapseHelperMetrics} are snapshots and aren't updated by later calls.
+     */
+    public static class Histogram {
+        // Upper bound (inclusive) of each bucket, in milliseconds. Values over the last bound go in an overflow bucket.
+        private static final long[] BUCKET_BOUNDS_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000,
+                10000, 20000, 60000, 120000, 300000, 600000 };
+
+        private final long[] bucketCounts;
+        private long count = 0;
+        private long totalMillis = 0;
+        private long maxMillis = 0;
+
+        Histogram() {
+            bucketCounts = new long[BUCKET_BOUNDS_MILLIS.length + 1];
+        }
+
+        // Records a value. Callers synchronize on the histogram's owner.
+        void record(long millis) {
+            long value = Math.max(0, millis);
+            int index = Arrays.binarySearch(BUCKET_BOUNDS_MILLIS, value);
+            if (index < 0) {
+                // Not an exact match. binarySearch returns (-(insertion point) - 1).
+                index = -index - 1;
+            }
+            bucketCounts[index]++;
+            count++;
+            totalMillis += value;
+            maxMillis = Math.max(maxMillis, value);
+        }
+
+        // Makes a snapshot of this histogram. Callers synchronize on the histogram's owner.
+        Histogram copy() {
+            Histogram copy = new Histogram();
+            System.arraycopy(bucketCounts, 0, copy.bucketCounts, 0, bucketCounts.length);
+            copy.count = count;
+            copy.totalMillis = totalMillis;
+            copy.maxMillis = maxMillis;
+            return copy;
+        }
+
+        /** Number of recorded values. */
+        public long getCount() {
+            return count;
+        }
+
+        /** Sum of recorded values, in milliseconds. */
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        /** Largest recorded value, in milliseconds, or 0 if there are none. */
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        /** Mean of recorded values, in milliseconds, or 0 if there are none. */
+        public double getMeanMillis() {
+            return count > 0 ? (double) totalMillis / count : 0.0;
+        }
+
+        /**
+         * Upper bound of the bucket containing the given quantile (0.0 to 1.0), in milliseconds. Values in the
+         * overflow bucket report the max. Returns 0 if there are no values.
+         */
+        public long getQuantileUpperBoundMillis(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long cumulativeCount = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+                cumulativeCount += bucketCounts[i];
+                if (cumulativeCount >= rank) {
+                    return Math.min(BUCKET_BOUNDS_MILLIS[i], maxMillis);
+                }
+            }
+            return maxMillis;
+        }
+    }
+
+    // Metrics for a single operation. Synchronize on this object.
+    private static class OperationStats {
+        private long callCount = 0;
+        private long failureCount = 0;
+        private long retryCount = 0;
+        private final Histogram callLatency = new Histogram();
+        private final Histogram attemptLatency = new Histogram();
+        private final Histogram limiterWait = new Histogram();
+    }
+
+    // Metrics for a single async job type. Synchronize on this object.
+    private static class JobStats {
+        private long jobCount = 0;
+        private long failureCount = 0;
+        private long pollCount = 0;
+        private Histogram completionTime = new Histogram();
+    }
+}
@@ -0,0 +1,374 @@
+package org.sagebionetworks.bridge.synapse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.sagebionetworks.client.exceptions.SynapseException;
+import org.sagebionetworks.repo.model.table.AppendableRowSet;
+import org.sagebionetworks.repo.model.table.PartialRow;
+import org.sagebionetworks.repo.model.table.PartialRowSet;
+import org.sagebionetworks.repo.model.table.Row;
+import org.sagebionetworks.repo.model.table.RowReferenceSet;
+import org.sagebionetworks.repo.model.table.RowSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.exceptions.BridgeSynapseException;
+
+/**
+ * <p>
+ * Buffers small appends to Synapse tables and merges them into large batches, so that many callers share a single
+ * Synapse append job. A table's batch is flushed when it reaches maxRows rows or about maxBytes bytes, or
+ * maxDelayMillis after its first rows were buffered, whichever comes first. Each caller gets a future with the row
+ * references for its own rows.
+ * </p>
+ * <p>
+ * PartialRowSets for the same table are always merged. RowSets are merged only if they have the same headers and etag.
+ * When a table's batch can't be merged with the next row set, the batch is flushed first. Other kinds of
+ * AppendableRowSet are sent on their own. A single caller's row set is never split, so a batch can go over maxRows or
+ * maxBytes by up to one row set.
+ * </p>
+ * <p>
+ * Flushes are serialized per table. A table's batch isn't sent until the append job for its previous batch is done
+ * (whether or not that job succeeded), so rows are sent to Synapse in the order they were appended. Batches for
+ * different tables are sent concurrently.
+ * </p>
+ * <p>
+ * This class is thread-safe. Call {@link #flush} on shutdown to send any buffered rows.
+ * </p>
+ */
+public class SynapseAppendRowBuffer {
+    private static final Logger LOG = LoggerFactory.getLogger(SynapseAppendRowBuffer.class);
+
+    static final int DEFAULT_MAX_ROWS = 1000;
+    static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+
+    // Pending (not yet flushed) batch for each table.
+    private final Map<String, Batch> pendingBatchesByTableId = new HashMap<>();
+
+    // Future for the last flush queued for each table, which completes when its append job is done. Entries are
+    // removed once the flush is done, if no other flush was queued behind it.
+    private final Map<String, CompletableFuture<Void>> lastFlushByTableId = new HashMap<>();
+
+    private SynapseHelper synapseHelper;
+    private int maxRows = DEFAULT_MAX_ROWS;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+    private ScheduledExecutorService scheduler;
+
+    /** Synapse helper, used to append the merged batches. */
+    public final void setSynapseHelper(SynapseHelper synapseHelper) {
+        this.synapseHelper = synapseHelper;
+    }
+
+    /** A table's batch is flushed when it reaches this many rows. Defaults to 1000. */
+    public final void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * A table's batch is flushed when it reaches about this many bytes, as estimated from the lengths of the row
+     * values. Defaults to 1MB.
+     */
+    public final void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** A table's batch is flushed this long after its first rows were buffered. Defaults to 1 second. */
+    public final void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Scheduler used to flush batches when they reach the max delay. If not set, the buffer creates its own scheduler
+     * with a single daemon thread.
+     */
+    public final synchronized void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Buffers the rows to be appended to the table.
+     *
+     * @param rowSet
+     *         rows to append
+     * @param tableId
+     *         table to append to
+     * @return future for the row references for this row set's rows, in the same order as the rows; completes
+     *         exceptionally if the batch fails
+     */
+    public CompletableFuture<RowReferenceSet> append(AppendableRowSet rowSet, String tableId) {
+        CompletableFuture<RowReferenceSet> future = new CompletableFuture<>();
+        List<Runnable> flushList = new ArrayList<>();
+        synchronized (this) {
+            Batch batch = pendingBatchesByTableId.get(tableId);
+            if (batch != null && !batch.canMerge(rowSet)) {
+                // Flush the existing batch first, to preserve order.
+                pendingBatchesByTableId.remove(tableId);
+                flushList.add(queueFlush(batch));
+                batch = null;
+            }
+
+            if (batch == null) {
+                batch = new Batch(tableId, rowSet);
+                pendingBatchesByTableId.put(tableId, batch);
+                scheduleDeadlineFlush(batch);
+            }
+            batch.add(rowSet, future);
+
+            if (!batch.isMergeable() || batch.rowCount >= maxRows || batch.byteCount >= maxBytes) {
+                pendingBatchesByTableId.remove(tableId);
+                flushList.add(queueFlush(batch));
+            }
+        }
+
+        // Flush outside the lock, since starting the append job calls Synapse.
+        flushList.forEach(Runnable::run);
+        return future;
+    }
+
+    /** Flushes all buffered rows for all tables. */
+    public void flush() {
+        List<Runnable> flushList = new ArrayList<>();
+        synchronized (this) {
+            pendingBatchesByTableId.values().forEach(batch -> flushList.add(queueFlush(batch)));
+            pendingBatchesByTableId.clear();
+        }
+        flushList.forEach(Runnable::run);
+    }
+
+    // Schedules the batch to be flushed at the max delay, if it hasn't already been flushed.
+    private void scheduleDeadlineFlush(Batch batch) {
+        getScheduler().schedule(() -> {
+            Runnable flush = null;
+            synchronized (this) {
+                if (pendingBatchesByTableId.remove(batch.tableId, batch)) {
+                    flush = queueFlush(batch);
+                }
+            }
+            if (flush != null) {
+                flush.run();
+            }
+        }, maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Queues the batch behind the table's previous flush. Must be called while holding the lock, in the order the
+    // batches were removed from pendingBatchesByTableId. Returns the task that sends the batch, which the caller runs
+    // after releasing the lock, since the previous flush may already be done and starting the append calls Synapse.
+    private Runnable queueFlush(Batch batch) {
+        CompletableFuture<Void> previousFlush = lastFlushByTableId.getOrDefault(batch.tableId,
+                CompletableFuture.completedFuture(null));
+        CompletableFuture<Void> flushDone = new CompletableFuture<>();
+        lastFlushByTableId.put(batch.tableId, flushDone);
+        flushDone.whenComplete((result, ex) -> {
+            synchronized (this) {
+                lastFlushByTableId.remove(batch.tableId, flushDone);
+            }
+        });
+        return () -> previousFlush.whenComplete((result, ex) -> flushBatch(batch, flushDone));
+    }
+
+    // Sends the batch to Synapse and completes the callers' futures when the append job is done. flushDone is
+    // completed after the callers' futures, whether or not the append succeeded.
+    private void flushBatch(Batch batch, CompletableFuture<Void> flushDone) {
+        CompletableFuture<RowReferenceSet> resultFuture;
+        try {
+            resultFuture = synapseHelper.appendRowsToTableAsync(batch.merge(), batch.tableId);
+        } catch (SynapseException | RuntimeException ex) {
+            batch.completeExceptionally(ex);
+            flushDone.complete(null);
+            return;
+        }
+
+        resultFuture.whenComplete((rowReferenceSet, ex) -> {
+            try {
+                if (ex != null) {
+                    batch.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+                } else {
+                    batch.complete(rowReferenceSet);
+                }
+            } finally {
+                flushDone.complete(null);
+            }
+        });
+    }
+
+    // Gets the scheduler, creating the default one if it hasn't been set.
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("SynapseAppendRowBuffer-%d").setDaemon(true).build());
+        }
+        return scheduler;
+    }
+
+    // Number of rows in the row set.
+    private static int getRowCount(AppendableRowSet rowSet) {
+        if (rowSet instanceof PartialRowSet) {
+            List<PartialRow> rowList = ((PartialRowSet) rowSet).getRows();
+            return rowList != null ? rowList.size() : 0;
+        } else if (rowSet instanceof RowSet) {
+            List<Row> rowList = ((RowSet) rowSet).getRows();
+            return rowList != null ? rowList.size() : 0;
+        } else {
+            // We don't know how to count other row sets. Since they're never merged, this only affects logging.
+            return 0;
+        }
+    }
+
+    // Estimated size of the row set in bytes, based on the lengths of its keys and values.
+    private static long getEstimatedBytes(AppendableRowSet rowSet) {
+        long bytes = 0;
+        if (rowSet instanceof PartialRowSet && ((PartialRowSet) rowSet).getRows() != null) {
+            for (PartialRow oneRow : ((PartialRowSet) rowSet).getRows()) {
+                if (oneRow.getValues() != null) {
+                    for (Map.Entry<String, String> oneEntry : oneRow.getValues().entrySet()) {
+                        bytes += getLength(oneEntry.getKey()) + getLength(oneEntry.getValue());
+                    }
+                }
+            }
+        } else if (rowSet instanceof RowSet && ((RowSet) rowSet).getRows() != null) {
+            for (Row oneRow : ((RowSet) rowSet).getRows()) {
+                if (oneRow.getValues() != null) {
+                    for (String oneValue : oneRow.getValues()) {
+                        bytes += getLength(oneValue);
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static int getLength(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    // Rows buffered for a single table, along with the callers waiting on them.
+    private static class Batch {
+        private final String tableId;
+        private final AppendableRowSet firstRowSet;
+        private final List<AppendableRowSet> rowSetList = new ArrayList<>();
+        private final List<CompletableFuture<RowReferenceSet>> futureList = new ArrayList<>();
+        private final List<Integer> rowCountList = new ArrayList<>();
+        private int rowCount = 0;
+        private long byteCount = 0;
+
+        Batch(String tableId, AppendableRowSet firstRowSet) {
+            this.tableId = tableId;
+            this.firstRowSet = firstRowSet;
+        }
+
+        // True if other row sets can be merged into this batch.
+        boolean isMergeable() {
+            return firstRowSet instanceof PartialRowSet || firstRowSet instanceof RowSet;
+        }
+
+        // True if the given row set can be merged into this batch.
+        boolean canMerge(AppendableRowSet rowSet) {
+            if (firstRowSet instanceof PartialRowSet) {
+                return rowSet instanceof PartialRowSet;
+            } else if (firstRowSet instanceof RowSet) {
+                if (!(rowSet instanceof RowSet)) {
+                    return false;
+                }
+                RowSet first = (RowSet) firstRowSet;
+                RowSet other = (RowSet) rowSet;
+                return Objects.equals(first.getHeaders(), other.getHeaders()) &&
+                        Objects.equals(first.getEtag(), other.getEtag());
+            } else {
+                return false;
+            }
+        }
+
+        void add(AppendableRowSet rowSet, CompletableFuture<RowReferenceSet> future) {
+            int rowSetRowCount = getRowCount(rowSet);
+            rowSetList.add(rowSet);
+            futureList.add(future);
+            rowCountList.add(rowSetRowCount);
+            rowCount += rowSetRowCount;
+            byteCount += getEstimatedBytes(rowSet);
+        }
+
+        // Merges all row sets into a single row set.
+        AppendableRowSet merge() {
+            if (rowSetList.size() == 1) {
+                return firstRowSet;
+            }
+
+            if (firstRowSet instanceof PartialRowSet) {
+                List<PartialRow> mergedRowList = new ArrayList<>();
+                for (AppendableRowSet oneRowSet : rowSetList) {
+                    List<PartialRow> rowList = ((PartialRowSet) oneRowSet).getRows();
+                    if (rowList != null) {
+                        mergedRowList.addAll(rowList);
+                    }
+                }
+
+                PartialRowSet merged = new PartialRowSet();
+                merged.setTableId(tableId);
+                merged.setRows(mergedRowList);
+                return merged;
+            } else {
+                List<Row> mergedRowList = new ArrayList<>();
+                for (AppendableRowSet oneRowSet : rowSetList) {
+                    List<Row> rowList = ((RowSet) oneRowSet).getRows();
+                    if (rowList != null) {
+                        mergedRowList.addAll(rowList);
+                    }
+                }
+
+                RowSet first = (RowSet) firstRowSet;
+                RowSet merged = new RowSet();
+                merged.setTableId(tableId);
+                merged.setHeaders(first.getHeaders());
+                merged.setEtag(first.getEtag());
+                merged.setRows(mergedRowList);
+                return merged;
+            }
+        }
+
+        // Gives each caller the row references for its rows.
+        void complete(RowReferenceSet rowReferenceSet) {
+            if (futureList.size() == 1) {
+                futureList.get(0).complete(rowReferenceSet);
+                return;
+            }
+
+            if (rowReferenceSet.getRows() == null || rowReferenceSet.getRows().size() != rowCount) {
+                // Synapse should return one row reference per row. If not, we can't tell which rows are whose, so
+                // fail every caller rather than hand out row references that may not be theirs.
+                String errMsg = "Expected " + rowCount + " row references for table " + tableId + ", got " +
+                        (rowReferenceSet.getRows() != null ? rowReferenceSet.getRows().size() : null);
+                LOG.warn(errMsg);
+                completeExceptionally(new BridgeSynapseException(errMsg));
+                return;
+            }
+
+            int offset = 0;
+            for (int i = 0; i < futureList.size(); i++) {
+                int count = rowCountList.get(i);
+                RowReferenceSet slice = new RowReferenceSet();
+                slice.setTableId(rowReferenceSet.getTableId());
+                slice.setEtag(rowReferenceSet.getEtag());
+                slice.setHeaders(rowReferenceSet.getHeaders());
+                slice.setRows(new ArrayList<>(rowReferenceSet.getRows().subList(offset, offset + count)));
+                futureList.get(i).complete(slice);
+                offset += count;
+            }
+        }
+
+        void completeExceptionally(Throwable ex) {
+            futureList.forEach(future -> future.completeExceptionally(ex));
+        }
+    }
+}
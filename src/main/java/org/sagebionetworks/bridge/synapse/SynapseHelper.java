@@ -1,17 +1,42 @@
 package org.sagebionetworks.bridge.synapse;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.amazonaws.AmazonClientException;
 import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
+import com.google.common.base.Utf8;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -20,11 +45,19 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.RateLimiter;
-import com.jcabi.aspects.RetryOnFailure;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseBadRequestException;
+import org.sagebionetworks.client.exceptions.SynapseConflictingUpdateException;
 import org.sagebionetworks.client.exceptions.SynapseException;
+import org.sagebionetworks.client.exceptions.SynapseForbiddenException;
 import org.sagebionetworks.client.exceptions.SynapseNotFoundException;
 import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
+import org.sagebionetworks.client.exceptions.SynapseServiceUnavailable;
+import org.sagebionetworks.client.exceptions.SynapseTooManyRequestsException;
+import org.sagebionetworks.client.exceptions.SynapseUnauthorizedException;
+import org.sagebionetworks.client.exceptions.UnknownSynapseServerException;
 import org.sagebionetworks.repo.model.ACCESS_TYPE;
 import org.sagebionetworks.repo.model.AccessControlList;
 import org.sagebionetworks.repo.model.Entity;
@@ -47,7 +80,9 @@ import org.sagebionetworks.repo.model.table.ColumnChange;
 import org.sagebionetworks.repo.model.table.ColumnModel;
 import org.sagebionetworks.repo.model.table.ColumnType;
 import org.sagebionetworks.repo.model.table.CsvTableDescriptor;
+import org.sagebionetworks.repo.model.table.QueryResult;
 import org.sagebionetworks.repo.model.table.QueryResultBundle;
+import org.sagebionetworks.repo.model.table.Row;
 import org.sagebionetworks.repo.model.table.RowReferenceSet;
 import org.sagebionetworks.repo.model.table.TableEntity;
 import org.sagebionetworks.repo.model.table.TableSchemaChangeRequest;
@@ -56,11 +91,19 @@ import org.sagebionetworks.repo.model.table.TableUpdateRequest;
 import org.sagebionetworks.repo.model.table.TableUpdateResponse;
 import org.sagebionetworks.repo.model.table.UploadToTableResult;
 import org.sagebionetworks.repo.model.util.ModelConstants;
+import org.sagebionetworks.schema.adapter.JSONEntity;
+import org.sagebionetworks.schema.adapter.JSONObjectAdapterException;
+import org.sagebionetworks.schema.adapter.org.json.EntityFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.sagebionetworks.bridge.exceptions.BridgeSynapseException;
 import org.sagebionetworks.bridge.exceptions.BridgeSynapseNonRetryableException;
+import org.sagebionetworks.bridge.file.FileHelper;
+import org.sagebionetworks.bridge.redis.RedisTokenBucketRateLimiter;
+import org.sagebionetworks.bridge.retry.RetryBudget;
+import org.sagebionetworks.bridge.retry.RetryPolicy;
+import org.sagebionetworks.bridge.synapse.AdaptivePollScheduler.JobType;
 
 /** Synapse operations that are common across multiple workers and should be shared. */
 public class SynapseHelper {
@@ -124,6 +167,85 @@ public class SynapseHelper {
     // safety factor and rate limit to 12 per minute.
     private final RateLimiter getColumnModelsRateLimiter = RateLimiter.create(12.0 / 60.0);
 
+    // Max attempts for each chunk's import job in uploadTsvFileToTableChunked().
+    static final int TSV_CHUNK_MAX_ATTEMPTS = 3;
+
+    // Default number of threads for scheduling async job polls. Scheduler threads only hand polls off to the async get
+    // executor and never block, so a few threads can track many concurrent jobs.
+    static final int DEFAULT_ASYNC_POLL_THREAD_COUNT = 2;
+
+    // Default number of threads for running async job polls. Each poll blocks on the rate limiters, retry backoff, and
+    // the Synapse call itself, but the rate limiter bounds the overall call rate, so this only needs to be enough to
+    // keep the rate limiter busy.
+    static final int DEFAULT_ASYNC_GET_THREAD_COUNT = 4;
+
+    // Default number of threads for bulk operations, like provision() and addAnnotationsToEntities(). Each task blocks
+    // on Synapse calls, and the rate limiter still bounds the overall call rate, so this only needs to be enough to
+    // keep the rate limiter busy.
+    static final int DEFAULT_BULK_THREAD_COUNT = 4;
+
+    // Max attempts for each entity in addAnnotationsToEntities(), when the update conflicts with another update.
+    static final int ANNOTATION_CONFLICT_MAX_ATTEMPTS = 5;
+
+    // Default metrics, which does nothing.
+    private static final SynapseHelperMetrics NO_OP_METRICS = new SynapseHelperMetrics() {};
+
+    // Retry policies. Both share a retry budget, so retries stay a small fraction of traffic when Synapse is down.
+    private final RetryBudget retryBudget = new RetryBudget(0.1, 100);
+    private RetryPolicy retryPolicy = new RetryPolicy.Builder().withMaxAttempts(2).withBaseDelayMillis(100)
+            .withMaxDelayMillis(1000).withRetryablePredicate(SynapseHelper::isRetryableException)
+            .withRetryBudget(retryBudget).build();
+    private RetryPolicy longDelayRetryPolicy = new RetryPolicy.Builder().withMaxAttempts(2).withBaseDelayMillis(1000)
+            .withMaxDelayMillis(5000).withRetryablePredicate(SynapseHelper::isLongDelayRetryableException)
+            .withRetryBudget(retryBudget).build();
+
+    // Adjusts the general rate limiter based on throttling. This is null (fixed rate) unless enableAdaptiveRateLimit()
+    // is called.
+    private AdaptiveRateLimiter adaptiveRateLimiter;
+
+    // Entity, ACL, and child lookup caches. These are null (disabled) unless enableEntityCache() is called. Entities
+    // and ACLs are cached as JSON, so that callers can't modify the cached copies. Absent values are cached as
+    // Optional.empty().
+    private Cache<String, Optional<String>> entityCache;
+    private Cache<String, Optional<String>> aclCache;
+    private Cache<String, Optional<String>> childLookupCache;
+
+    // Rate limiter shared across hosts. This is null (local rate limit only) unless setGlobalRateLimiter() is called.
+    private RedisTokenBucketRateLimiter globalRateLimiter;
+
+    // Column model cache, keyed by table ID. This is null (disabled) unless enableColumnModelCache() is called.
+    private Cache<String, CachedColumnModels> columnModelCache;
+
+    // Number of times each table's column models have been invalidated. A load that started before an invalidation
+    // may have read the old columns, so it isn't kept. Only has entries for tables whose columns this helper updated.
+    private final ConcurrentHashMap<String, Long> columnModelGenerationByTable = new ConcurrentHashMap<>();
+
+    private FileHelper fileHelper = new FileHelper();
+
+    // Learns async job durations and schedules polls to match. This is null (fixed backoff plan) unless
+    // setAdaptivePollScheduler() is called.
+    private AdaptivePollScheduler adaptivePollScheduler;
+
+    // Scheduler for async polling. This is lazily created if it's not set, since most callers never use async calls.
+    private ScheduledExecutorService asyncPollExecutor;
+
+    // Executor that runs the async polls scheduled by asyncPollExecutor. This is lazily created if it's not set.
+    private ExecutorService asyncGetExecutor;
+
+    // Cached Synapse status and circuit breaker. This is null (check Synapse every time) unless setStatusMonitor() is
+    // called.
+    private SynapseStatusMonitor statusMonitor;
+
+    // If true, safeUpdateTable() only creates the column models that don't already exist in the table. Defaults to
+    // false.
+    private boolean incrementalSchemaDiff = false;
+
+    // Executor for bulk operations. This is lazily created if it's not set, since most callers never use them.
+    private ExecutorService bulkExecutor;
+
+    // Call, retry, rate limiter, and async job metrics. Never null.
+    private SynapseHelperMetrics metrics = NO_OP_METRICS;
+
     /**
      * Sets the backoff plan for polling Synapse async get calls. Each element is how long in seconds we wait before
      * making the next async get call. Default uses exponential back-off, starting at 1 second, maximum of 60 seconds.
@@ -134,6 +256,15 @@ public class SynapseHelper {
         this.asyncGetBackoffPlan = asyncGetBackoffPlan.clone();
     }
 
+    /**
+     * Adaptive poll scheduler. If set, async job polls are scheduled based on how long previous jobs of the same type
+     * took, falling back to the async get backoff plan (see {@link #setAsyncGetBackoffPlan}) until there's enough
+     * data. This can be shared across multiple helpers. If not set, polls always follow the backoff plan.
+     */
+    public final void setAdaptivePollScheduler(AdaptivePollScheduler adaptivePollScheduler) {
+        this.adaptivePollScheduler = adaptivePollScheduler;
+    }
+
     /**
      * Set the rate limiting for general traffic to Synapse. Generally used for testing or to tweak rate limits
      * without a code change. Values are per second. Default is 10.0.
@@ -142,6 +273,23 @@ public class SynapseHelper {
         rateLimiter.setRate(rateLimit);
     }
 
+    /**
+     * Current rate limit for general traffic to Synapse, in calls per second. If adaptive rate limiting is enabled,
+     * this changes over time.
+     */
+    public double getRateLimit() {
+        return rateLimiter.getRate();
+    }
+
+    /**
+     * Enables adaptive rate limiting for general traffic to Synapse. The rate limit increases gradually while calls
+     * succeed, up to maxRate, and is cut in half whenever Synapse throttles us (HTTP 429 or 503), down to minRate. The
+     * current rate limit (see {@link #setRateLimit}) is the starting rate. By default, the rate limit is fixed.
+     */
+    public final void enableAdaptiveRateLimit(double minRate, double maxRate) {
+        this.adaptiveRateLimiter = new AdaptiveRateLimiter(rateLimiter, minRate, maxRate);
+    }
+
     /**
      * Set the rate limiting for getColumnModels. Generally used for testing or to tweak rate limits without a code
      * change. Values are per second. Default is 0.2 (12 per minute).
@@ -150,6 +298,176 @@ public class SynapseHelper {
         getColumnModelsRateLimiter.setRate(rateLimit);
     }
 
+    /**
+     * <p>
+     * Enables the incremental schema diff for {@link #safeUpdateTable}. By default, safeUpdateTable() sends every
+     * column in the new schema to Synapse to create or look up its column model. With the incremental diff, columns
+     * that are identical to an existing column in the table (ignoring the column ID) reuse the existing column model,
+     * and only the remaining columns are created. This saves a large request for wide tables where only a few columns
+     * change.
+     * </p>
+     * <p>
+     * Either way, the schema change request only includes the columns that changed, and the table isn't updated if
+     * nothing changed.
+     * </p>
+     */
+    public final void setIncrementalSchemaDiff(boolean incrementalSchemaDiff) {
+        this.incrementalSchemaDiff = incrementalSchemaDiff;
+    }
+
+    /**
+     * Metrics for Synapse calls and async jobs: call counts, latency (per call and per attempt), retries, rate limiter
+     * waits, and async job completion times. This can be shared across multiple helpers. If not set (or set to null),
+     * metrics aren't recorded.
+     */
+    public final void setMetrics(SynapseHelperMetrics metrics) {
+        this.metrics = metrics != null ? metrics : NO_OP_METRICS;
+    }
+
+    /**
+     * Retry policy for Synapse calls. Default is 2 attempts with exponential backoff and jitter starting at 100ms,
+     * retrying all Synapse exceptions except deterministic 4XX errors (see {@link #isRetryableException}).
+     */
+    public final void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Retry policy for file handle uploads and folder creation, which need a longer delay between attempts. Default is
+     * 2 attempts with exponential backoff and jitter starting at 1 second. Also retries AWS client exceptions from the
+     * file upload, and conflicts (see {@link #isLongDelayRetryableException}).
+     */
+    public final void setLongDelayRetryPolicy(RetryPolicy longDelayRetryPolicy) {
+        this.longDelayRetryPolicy = longDelayRetryPolicy;
+    }
+
+    /**
+     * <p>
+     * Enables read-through caching for {@link #getEntityWithRetry}, {@link #getTableWithRetry},
+     * {@link #getAclWithRetry}, and {@link #lookupChildWithRetry}. Each cache holds at most maximumSize entries, and
+     * entries expire ttlSeconds after they are loaded. Concurrent lookups for the same key are coalesced into a single
+     * Synapse call. Lookups that find nothing are cached too.
+     * </p>
+     * <p>
+     * Entries are invalidated when this helper writes the matching object: creating an entity or folder invalidates
+     * the child lookup for its parent and name, updating an entity invalidates the entity, and creating or updating an
+     * ACL invalidates the ACL. Changes made by other hosts, or through other APIs, are only picked up once the entry
+     * expires. Updating an entity also invalidates the child lookup for its old parent and name, if the entity was
+     * cached, so that renames and moves are picked up. Updating a table's columns invalidates the table entity.
+     * </p>
+     */
+    public final void enableEntityCache(long maximumSize, int ttlSeconds) {
+        entityCache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
+        aclCache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
+        childLookupCache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
+    }
+
+    /**
+     * Optional rate limiter shared by all hosts talking to Synapse with the same account. If set, general traffic to
+     * Synapse must acquire a permit from both the local rate limiter and the global rate limiter. This keeps the total
+     * rate across all hosts under Synapse's limit, no matter how many hosts are running.
+     */
+    public final void setGlobalRateLimiter(RedisTokenBucketRateLimiter globalRateLimiter) {
+        this.globalRateLimiter = globalRateLimiter;
+    }
+
+    /**
+     * <p>
+     * Enables caching for {@link #getColumnModelsForTableWithRetry}, which is otherwise limited to a few calls per
+     * minute. The cache holds at most maximumSize tables, and entries expire ttlSeconds after they are loaded.
+     * Concurrent lookups for the same table are coalesced into a single Synapse call.
+     * </p>
+     * <p>
+     * Entries are invalidated when this helper updates the table's columns (see {@link #updateTableColumns}, which
+     * is also called by {@link #safeUpdateTable}). Schema changes made by other hosts are only picked up once the
+     * entry expires.
+     * </p>
+     */
+    public final void enableColumnModelCache(long maximumSize, int ttlSeconds) {
+        columnModelCache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
+    }
+
+    /**
+     * Scheduler used to time the polls of async jobs for the *Async methods. Polls themselves run on the async get
+     * executor (see {@link #setAsyncGetExecutor}), so scheduler threads never block. This can be shared across multiple
+     * helpers. If not set, SynapseHelper creates its own scheduler with {@link #DEFAULT_ASYNC_POLL_THREAD_COUNT} daemon
+     * threads.
+     */
+    public final synchronized void setAsyncPollExecutor(ScheduledExecutorService asyncPollExecutor) {
+        this.asyncPollExecutor = asyncPollExecutor;
+    }
+
+    // Gets the async poll scheduler, creating the default one if it hasn't been set.
+    private synchronized ScheduledExecutorService getAsyncPollExecutor() {
+        if (asyncPollExecutor == null) {
+            asyncPollExecutor = Executors.newScheduledThreadPool(DEFAULT_ASYNC_POLL_THREAD_COUNT,
+                    new ThreadFactoryBuilder().setNameFormat("SynapseHelper-async-poll-%d").setDaemon(true)
+                            .build());
+        }
+        return asyncPollExecutor;
+    }
+
+    /**
+     * <p>
+     * Executor used to run the polls of async jobs for the *Async methods. Each poll holds a thread while it waits for
+     * rate limiter permits, while it backs off between retries, and during the Synapse call itself. Since the rate
+     * limiter bounds the overall call rate, more threads than it takes to keep the rate limiter busy don't make polls
+     * any faster. Polls that are due while all threads are busy wait in the queue, so they may run later than their
+     * scheduled time.
+     * </p>
+     * <p>
+     * This can be shared across multiple helpers. If not set, SynapseHelper creates its own executor with
+     * {@link #DEFAULT_ASYNC_GET_THREAD_COUNT} daemon threads.
+     * </p>
+     */
+    public final synchronized void setAsyncGetExecutor(ExecutorService asyncGetExecutor) {
+        this.asyncGetExecutor = asyncGetExecutor;
+    }
+
+    // Gets the async get executor, creating the default one if it hasn't been set.
+    private synchronized ExecutorService getAsyncGetExecutor() {
+        if (asyncGetExecutor == null) {
+            asyncGetExecutor = Executors.newFixedThreadPool(DEFAULT_ASYNC_GET_THREAD_COUNT, new ThreadFactoryBuilder()
+                    .setNameFormat("SynapseHelper-async-get-%d").setDaemon(true).build());
+        }
+        return asyncGetExecutor;
+    }
+
+    /**
+     * Executor used to run bulk operations, like {@link #provision} and {@link #addAnnotationsToEntities}. This can
+     * be shared across multiple helpers. If not set, SynapseHelper creates its own executor with
+     * {@link #DEFAULT_BULK_THREAD_COUNT} daemon threads.
+     */
+    public final synchronized void setBulkExecutor(ExecutorService bulkExecutor) {
+        this.bulkExecutor = bulkExecutor;
+    }
+
+    // Gets the bulk executor, creating the default one if it hasn't been set.
+    private synchronized ExecutorService getBulkExecutor() {
+        if (bulkExecutor == null) {
+            bulkExecutor = Executors.newFixedThreadPool(DEFAULT_BULK_THREAD_COUNT, new ThreadFactoryBuilder()
+                    .setNameFormat("SynapseHelper-bulk-%d").setDaemon(true).build());
+        }
+        return bulkExecutor;
+    }
+
+    /**
+     * Status monitor, used by {@link #checkSynapseWritableOrThrow} to cache Synapse's writable status and fail fast
+     * while Synapse is down. The monitor itself calls {@link #isSynapseWritable}, which is never cached.
+     */
+    public final void setStatusMonitor(SynapseStatusMonitor statusMonitor) {
+        this.statusMonitor = statusMonitor;
+    }
+
+    /** File helper, used to write temporary TSV chunk files. */
+    public final void setFileHelper(FileHelper fileHelper) {
+        this.fileHelper = fileHelper;
+    }
+
     /** Synapse client. */
     public final void setSynapseClient(SynapseClient synapseClient) {
         this.synapseClient = synapseClient;
@@ -359,7 +677,12 @@ public class SynapseHelper {
         }
 
         // Make sure the columns have been created / get column IDs.
-        List<ColumnModel> createdColumnList = createColumnModelsWithRetry(newColumnList);
+        List<ColumnModel> createdColumnList;
+        if (incrementalSchemaDiff) {
+            createdColumnList = createNewColumnModels(synapseTableId, existingColumnList, newColumnList);
+        } else {
+            createdColumnList = createColumnModelsWithRetry(newColumnList);
+        }
 
         // Create list of column changes.
         List<ColumnChange> columnChangeList = new ArrayList<>();
@@ -381,6 +704,13 @@ public class SynapseHelper {
             colIdList.add(createdColumnId);
         }
 
+        // If all the columns resolved to the existing columns in the existing order, there's nothing to update.
+        List<String> existingColIdList = existingColumnList.stream().map(ColumnModel::getId).collect(
+                Collectors.toList());
+        if (columnChangeList.isEmpty() && colIdList.equals(existingColIdList)) {
+            return;
+        }
+
         // Create schema change request.
         TableSchemaChangeRequest schemaChangeRequest = new TableSchemaChangeRequest();
         schemaChangeRequest.setEntityId(synapseTableId);
@@ -391,6 +721,63 @@ public class SynapseHelper {
         updateTableColumns(schemaChangeRequest, synapseTableId);
     }
 
+    // Helper method for the incremental schema diff. Returns the column models for the new column list, in order.
+    // Columns identical to an existing column (ignoring ID) reuse the existing column. Only the remaining columns are
+    // created in Synapse. Throws if Synapse doesn't return one created column for each column we sent.
+    private List<ColumnModel> createNewColumnModels(String synapseTableId, List<ColumnModel> existingColumnList,
+            List<ColumnModel> newColumnList) throws BridgeSynapseException, SynapseException {
+        Map<String, ColumnModel> existingColumnsByContentKey = new HashMap<>();
+        for (ColumnModel oneExistingColumn : existingColumnList) {
+            existingColumnsByContentKey.putIfAbsent(getColumnContentKey(oneExistingColumn), oneExistingColumn);
+        }
+
+        // Reuse existing columns, and keep track of where the columns that need to be created go.
+        List<ColumnModel> resolvedColumnList = new ArrayList<>();
+        List<ColumnModel> columnsToCreateList = new ArrayList<>();
+        List<Integer> columnsToCreateIndexList = new ArrayList<>();
+        for (ColumnModel oneNewColumn : newColumnList) {
+            ColumnModel existingColumn = existingColumnsByContentKey.get(getColumnContentKey(oneNewColumn));
+            if (existingColumn == null) {
+                columnsToCreateIndexList.add(resolvedColumnList.size());
+                columnsToCreateList.add(oneNewColumn);
+            }
+            resolvedColumnList.add(existingColumn);
+        }
+
+        if (!columnsToCreateList.isEmpty()) {
+            // Synapse returns created columns in the same order we sent them.
+            List<ColumnModel> createdColumnList = createColumnModelsWithRetry(columnsToCreateList);
+            int numCreated = createdColumnList != null ? createdColumnList.size() : 0;
+            if (numCreated != columnsToCreateList.size()) {
+                // Otherwise, we can't tell which created column goes where, and some columns would be left unresolved.
+                throw new BridgeSynapseException("Expected " + columnsToCreateList.size() +
+                        " created columns for table " + synapseTableId + ", got " + numCreated);
+            }
+            for (int i = 0; i < createdColumnList.size(); i++) {
+                resolvedColumnList.set(columnsToCreateIndexList.get(i), createdColumnList.get(i));
+            }
+        }
+        return resolvedColumnList;
+    }
+
+    /**
+     * Returns a key for the column's content, namely its JSON without the column ID. Columns with the same key are
+     * interchangeable, which is how Synapse itself de-duplicates column models. Package-scoped for unit tests.
+     */
+    static String getColumnContentKey(ColumnModel column) {
+        try {
+            // Copy the column, so we can clear the ID without modifying the caller's column.
+            ColumnModel copy = EntityFactory.createEntityFromJSONString(EntityFactory.createJSONStringForEntity(
+                    column), ColumnModel.class);
+            copy.setId(null);
+            return EntityFactory.createJSONStringForEntity(copy);
+        } catch (JSONObjectAdapterException ex) {
+            // Column models always serialize, so this should never happen.
+            throw new IllegalStateException("Error serializing column " + column.getName() + ": " + ex.getMessage(),
+                    ex);
+        }
+    }
+
     /**
      * Updates table columns.
      *
@@ -410,18 +797,63 @@ public class SynapseHelper {
         // list. Wrap it in a list.
         List<TableUpdateRequest> changeList = ImmutableList.of(schemaChangeRequest);
 
-        // Start the table update job.
-        String jobToken = startTableTransactionWithRetry(changeList, tableId);
-
-        // Poll async get until success or timeout.
         List<TableUpdateResponse> responseList;
         try {
-            responseList = pollAsyncGet(() -> getTableTransactionResultWithRetry(jobToken,
-                    tableId));
-        } catch (BridgeSynapseException  ex) {
-            throw new BridgeSynapseException("Timed out updating table columns for table " + tableId, ex);
+            // Start the table update job.
+            String jobToken = startTableTransactionWithRetry(changeList, tableId);
+
+            // Poll async get until success or timeout.
+            try {
+                responseList = pollAsyncGet(JobType.TRANSACTION, () -> getTableTransactionResultWithRetry(
+                        jobToken, tableId));
+            } catch (BridgeSynapseException  ex) {
+                throw new BridgeSynapseException("Timed out updating table columns for table " + tableId, ex);
+            }
+        } finally {
+            // Even if the update failed, the table may or may not have changed. Always invalidate the caches.
+            invalidateTable(tableId);
+        }
+
+        return getSchemaChangeResponse(responseList, tableId);
+    }
+
+    /**
+     * Async version of {@link #updateTableColumns}. The table update job is started on the calling thread. The
+     * returned future is completed on the async poll scheduler, without blocking a thread while the job runs. If the
+     * job times out, the future completes exceptionally with a BridgeSynapseException.
+     *
+     * @param schemaChangeRequest
+     *         requested change
+     * @param tableId
+     *         table to update
+     * @return future for the table change response
+     * @throws SynapseException
+     *         if there's an error starting the job
+     */
+    public CompletableFuture<TableSchemaChangeResponse> updateTableColumnsAsync(
+            TableSchemaChangeRequest schemaChangeRequest, String tableId) throws SynapseException {
+        List<TableUpdateRequest> changeList = ImmutableList.of(schemaChangeRequest);
+        String jobToken;
+        try {
+            jobToken = startTableTransactionWithRetry(changeList, tableId);
+        } catch (SynapseException | RuntimeException ex) {
+            invalidateTable(tableId);
+            throw ex;
         }
+        return pollAsyncGetAsync(JobType.TRANSACTION, () -> getTableTransactionResultWithRetry(jobToken, tableId),
+                "Timed out updating table columns for table " + tableId).whenComplete((responseList, ex) ->
+                        invalidateTable(tableId)).thenApply(responseList -> {
+                    try {
+                        return getSchemaChangeResponse(responseList, tableId);
+                    } catch (BridgeSynapseException ex) {
+                        throw new CompletionException(ex);
+                    }
+                });
+    }
 
+    // Helper method to validate and extract the schema change response from the table transaction response list.
+    private static TableSchemaChangeResponse getSchemaChangeResponse(List<TableUpdateResponse> responseList,
+            String tableId) throws BridgeSynapseException {
         // The list should have a single response, and it should be a TableSchemaChangeResponse.
         if (responseList.size() != 1) {
             throw new BridgeSynapseException("Expected one table update response for table " + tableId + ", but got " +
@@ -458,19 +890,186 @@ public class SynapseHelper {
         String fileHandleId = tableFileHandle.getId();
 
         // start tsv import
-        CsvTableDescriptor tableDesc = new CsvTableDescriptor();
-        tableDesc.setIsFirstLineHeader(true);
-        tableDesc.setSeparator("\t");
-        String jobToken = uploadTsvStartWithRetry(tableId, fileHandleId, tableDesc);
+        String jobToken = uploadTsvStartWithRetry(tableId, fileHandleId, makeTsvTableDescriptor());
 
         // poll asyncGet until success or timeout
         UploadToTableResult uploadResult;
         try {
-            uploadResult = pollAsyncGet(() -> getUploadTsvStatus(jobToken, tableId));
+            uploadResult = pollAsyncGet(JobType.TSV_UPLOAD, () -> getUploadTsvStatus(jobToken, tableId));
         } catch (BridgeSynapseException  ex) {
             throw new BridgeSynapseException("Timed out uploading file handle " + fileHandleId, ex);
         }
 
+        return getRowsProcessed(uploadResult);
+    }
+
+    /**
+     * Async version of {@link #uploadTsvFileToTable}. The file handle upload and the start of the import job happen on
+     * the calling thread. The returned future is completed on the async poll scheduler, without blocking a thread
+     * while the import job runs.
+     *
+     * @param tableId
+     *         Synapse table ID to upload the TSV to
+     * @param file
+     *         TSV file to apply to the table
+     * @return future for the number of rows processed
+     * @throws IOException
+     *         if there's an error uploading the file handle
+     * @throws SynapseException
+     *         if there's an error calling Synapse
+     */
+    public CompletableFuture<Long> uploadTsvFileToTableAsync(String tableId, File file) throws IOException,
+            SynapseException {
+        FileHandle tableFileHandle = createFileHandleWithRetry(file);
+        return startTsvImportAsync(tableId, tableFileHandle.getId()).thenApply(uploadResult -> {
+            try {
+                return getRowsProcessed(uploadResult);
+            } catch (BridgeSynapseException ex) {
+                throw new CompletionException(ex);
+            }
+        });
+    }
+
+    /**
+     * <p>
+     * Uploads a large TSV file to a Synapse table in chunks. The file is split into chunks of about maxChunkBytes
+     * each, and each chunk repeats the header line. The chunks are pipelined: while Synapse imports one chunk, this
+     * method writes and uploads the file handle for the next chunk.
+     * </p>
+     * <p>
+     * If a chunk's import job fails with a retryable error, only that chunk is re-imported, using the file handle
+     * that's already uploaded. Chunks whose import job times out aren't retried, since the job may still complete,
+     * and re-importing would duplicate rows.
+     * </p>
+     * <p>
+     * Each row must be a single line. (Values with line breaks must be escaped.) Chunks are imported in order, and
+     * chunks that were imported before a failure stay in the table.
+     * </p>
+     *
+     * @param tableId
+     *         Synapse table ID to upload the TSV to
+     * @param file
+     *         TSV file to apply to the table, with a header line
+     * @param maxChunkBytes
+     *         approximate max size of each chunk in bytes; each chunk has at least one row
+     * @return total number of rows processed across all chunks
+     * @throws BridgeSynapseException
+     *         if there's a general error calling Synapse
+     * @throws IOException
+     *         if there's an error reading the file, writing chunks, or uploading the file handles
+     * @throws SynapseException
+     *         if there's an error calling Synapse
+     */
+    public long uploadTsvFileToTableChunked(String tableId, File file, long maxChunkBytes)
+            throws BridgeSynapseException, IOException, SynapseException {
+        if (maxChunkBytes <= 0) {
+            throw new IllegalArgumentException("maxChunkBytes must be positive");
+        }
+
+        File tmpDir = fileHelper.createTempDir();
+        try (BufferedReader reader = fileHelper.getReader(file)) {
+            String headerLine = reader.readLine();
+            if (headerLine == null) {
+                // Empty file. Nothing to upload.
+                return 0;
+            }
+
+            long totalRows = 0;
+            TsvChunk pendingChunk = null;
+            File chunkFile;
+            int chunkIndex = 0;
+            while ((chunkFile = writeTsvChunk(reader, headerLine, tmpDir, chunkIndex, maxChunkBytes)) != null) {
+                // Upload this chunk's file handle while the previous chunk's import job runs.
+                String fileHandleId = createFileHandleWithRetry(chunkFile).getId();
+
+                // Imports into the same table are serialized, so wait for the previous chunk before starting this one.
+                if (pendingChunk != null) {
+                    totalRows += finishTsvChunk(tableId, pendingChunk);
+                }
+                pendingChunk = new TsvChunk(chunkIndex, chunkFile, fileHandleId, startTsvImportAsync(tableId,
+                        fileHandleId));
+                chunkIndex++;
+            }
+            if (pendingChunk != null) {
+                totalRows += finishTsvChunk(tableId, pendingChunk);
+            }
+
+            LOG.info("Uploaded " + totalRows + " rows in " + chunkIndex + " chunks to table " + tableId);
+            return totalRows;
+        } finally {
+            // Don't let a cleanup failure hide the upload's own exception.
+            try {
+                fileHelper.deleteDirRecursively(tmpDir);
+            } catch (IOException | RuntimeException ex) {
+                LOG.error("Failed to delete temp dir " + tmpDir.getAbsolutePath() + ": " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    // Writes the next chunk of rows from the reader to a new file in tmpDir, starting with the header line. Returns
+    // null if there are no more rows.
+    private File writeTsvChunk(BufferedReader reader, String headerLine, File tmpDir, int chunkIndex,
+            long maxChunkBytes) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+
+        File chunkFile = fileHelper.newFile(tmpDir, "chunk-" + chunkIndex + ".tsv");
+        try (BufferedWriter writer = fileHelper.getWriter(chunkFile)) {
+            writer.write(headerLine);
+            writer.write('\n');
+            long chunkBytes = Utf8.encodedLength(headerLine) + 1;
+
+            // Always write at least one row, even if it's bigger than the max chunk size.
+            do {
+                writer.write(line);
+                writer.write('\n');
+                chunkBytes += Utf8.encodedLength(line) + 1;
+            } while (chunkBytes < maxChunkBytes && (line = reader.readLine()) != null);
+        }
+        return chunkFile;
+    }
+
+    // Waits for the chunk's import job to finish, re-importing the chunk on retryable failures. Returns the number of
+    // rows processed.
+    private long finishTsvChunk(String tableId, TsvChunk chunk) throws BridgeSynapseException, SynapseException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                long rowsProcessed = getRowsProcessed(waitForAsync(chunk.importFuture));
+
+                // Delete the chunk file now, so we don't use up disk space for the rest of the upload.
+                fileHelper.deleteFile(chunk.file);
+                return rowsProcessed;
+            } catch (SynapseException ex) {
+                if (attempt >= TSV_CHUNK_MAX_ATTEMPTS || !isRetryableException(ex)) {
+                    throw ex;
+                }
+                LOG.warn("Import failed for chunk " + chunk.index + " of table " + tableId + ", attempt " + attempt +
+                        ", retrying: " + ex.getMessage(), ex);
+                chunk.importFuture = startTsvImportAsync(tableId, chunk.fileHandleId);
+            }
+        }
+    }
+
+    // Starts importing the TSV file handle into the table. Returns a future that completes when the import job is done.
+    private CompletableFuture<UploadToTableResult> startTsvImportAsync(String tableId, String fileHandleId)
+            throws SynapseException {
+        String jobToken = uploadTsvStartWithRetry(tableId, fileHandleId, makeTsvTableDescriptor());
+        return pollAsyncGetAsync(JobType.TSV_UPLOAD, () -> getUploadTsvStatus(jobToken, tableId),
+                "Timed out uploading file handle " + fileHandleId);
+    }
+
+    // Table descriptor for TSVs with a header line.
+    private static CsvTableDescriptor makeTsvTableDescriptor() {
+        CsvTableDescriptor tableDesc = new CsvTableDescriptor();
+        tableDesc.setIsFirstLineHeader(true);
+        tableDesc.setSeparator("\t");
+        return tableDesc;
+    }
+
+    // Helper method to get the rows processed from the upload result.
+    private static long getRowsProcessed(UploadToTableResult uploadResult) throws BridgeSynapseException {
         Long linesProcessed = uploadResult.getRowsProcessed();
         if (linesProcessed == null) {
             // Not sure if Synapse will ever do this, but code defensively, just in case.
@@ -514,7 +1113,8 @@ public class SynapseHelper {
         acl.setId(entityId);
         acl.setResourceAccess(resourceAccessSet);
 
-        AccessControlList existingAcl = getAclWithRetry(entityId);
+        // Don't use the cache here, since we need the latest etag.
+        AccessControlList existingAcl = getAclUncached(entityId);
         if (existingAcl != null) {
             // We need to copy over the etag or else Synapse rejects the request.
             acl.setEtag(existingAcl.getEtag());
@@ -533,31 +1133,43 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public AccessControlList createAclWithRetry(AccessControlList acl) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createACL(acl);
+        try {
+            return callWithRetry("createAclWithRetry", () -> synapseClient.createACL(acl));
+        } finally {
+            invalidateCache(aclCache, acl.getId());
+        }
     }
 
-    /** Gets an ACL from Synapse. Returns null if it doesn't exist. This is a retry wrapper. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
+    /**
+     * Gets an ACL from Synapse. Returns null if it doesn't exist. This is a retry wrapper. If the entity cache is
+     * enabled (see {@link #enableEntityCache}), this may return a cached copy.
+     */
     public AccessControlList getAclWithRetry(String entityId) throws SynapseException {
-        rateLimiter.acquire();
-        try {
-            return synapseClient.getACL(entityId);
-        } catch (SynapseNotFoundException ex) {
-            return null;
+        if (aclCache == null) {
+            return getAclUncached(entityId);
         }
+        return getCachedJsonEntity(aclCache, entityId, AccessControlList.class, () -> getAclUncached(entityId));
+    }
+
+    // Helper method that always calls Synapse to get the ACL.
+    private AccessControlList getAclUncached(String entityId) throws SynapseException {
+        return callWithRetry("getAclWithRetry", () -> {
+            try {
+                return synapseClient.getACL(entityId);
+            } catch (SynapseNotFoundException ex) {
+                return null;
+            }
+        });
     }
 
     /** Updates an ACL in Synapse. This is a retry wrapper. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public AccessControlList updateAclWithRetry(AccessControlList acl) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.updateACL(acl);
+        try {
+            return callWithRetry("updateAclWithRetry", () -> synapseClient.updateACL(acl));
+        } finally {
+            invalidateCache(aclCache, acl.getId());
+        }
     }
 
     /**
@@ -571,12 +1183,60 @@ public class SynapseHelper {
         return updateAnnotationsWithRetry(entityId, annotations);
     }
 
+    /**
+     * <p>
+     * Bulk version of {@link #addAnnotationsToEntity}. Each entity's get, merge, and update runs as a separate task on
+     * the bulk executor (see {@link #setBulkExecutor}), so many entities are annotated concurrently. Each Synapse call
+     * still goes through the rate limiter.
+     * </p>
+     * <p>
+     * If an entity's annotations change between the get and the update, Synapse rejects the update because the etag
+     * doesn't match. When that happens, only that entity's get, merge, and update are retried, up to
+     * {@link #ANNOTATION_CONFLICT_MAX_ATTEMPTS} times in total.
+     * </p>
+     *
+     * @param annotationMapsByEntityId
+     *         map from entity ID to the annotations to add to that entity
+     * @return map from entity ID to a future for that entity's updated annotations, in the same order as the input;
+     *         each future completes exceptionally if that entity's update fails
+     */
+    public Map<String, CompletableFuture<Annotations>> addAnnotationsToEntities(
+            Map<String, Map<String, AnnotationsValue>> annotationMapsByEntityId) {
+        ExecutorService executor = getBulkExecutor();
+        Map<String, CompletableFuture<Annotations>> futuresByEntityId = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, AnnotationsValue>> entry : annotationMapsByEntityId.entrySet()) {
+            String entityId = entry.getKey();
+            Map<String, AnnotationsValue> annotationMap = entry.getValue();
+            futuresByEntityId.put(entityId, CompletableFuture.supplyAsync(() -> {
+                try {
+                    return addAnnotationsToEntityWithConflictRetry(entityId, annotationMap);
+                } catch (SynapseException ex) {
+                    throw new CompletionException(ex);
+                }
+            }, executor));
+        }
+        return futuresByEntityId;
+    }
+
+    // Helper method that adds annotations to an entity, redoing the get and merge if the update conflicts.
+    private Annotations addAnnotationsToEntityWithConflictRetry(String entityId,
+            Map<String, AnnotationsValue> annotationMap) throws SynapseException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return addAnnotationsToEntity(entityId, annotationMap);
+            } catch (SynapseConflictingUpdateException ex) {
+                if (attempt >= ANNOTATION_CONFLICT_MAX_ATTEMPTS) {
+                    throw ex;
+                }
+                LOG.info("Conflicting annotation update for entity " + entityId + ", attempt " + attempt +
+                        ", retrying");
+            }
+        }
+    }
+
     /** Get annotations for an entity. This is a retry wrapper. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public Annotations getAnnotationsWithRetry(String entityId) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.getAnnotationsV2(entityId);
+        return callWithRetry("getAnnotationsWithRetry", () -> synapseClient.getAnnotationsV2(entityId));
     }
 
     /**
@@ -589,23 +1249,32 @@ public class SynapseHelper {
      * {@link #addAnnotationsToEntity}.
      * </p>
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public Annotations updateAnnotationsWithRetry(String entityId, Annotations annotations) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.updateAnnotationsV2(entityId, annotations);
+        return callWithRetry("updateAnnotationsWithRetry", () -> synapseClient.updateAnnotationsV2(entityId,
+                annotations));
     }
 
-    /** Looks up child by name. Returns null if the child doesn't exist. This is a retry wrapper. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
+    /**
+     * Looks up child by name. Returns null if the child doesn't exist. This is a retry wrapper. If the entity cache is
+     * enabled (see {@link #enableEntityCache}), this may return a cached result.
+     */
     public String lookupChildWithRetry(String parentId, String childName) throws SynapseException {
-        rateLimiter.acquire();
-        try {
-            return synapseClient.lookupChild(parentId, childName);
-        } catch (SynapseNotFoundException ex) {
-            return null;
+        if (childLookupCache == null) {
+            return lookupChildUncached(parentId, childName);
         }
+        return getFromCache(childLookupCache, getChildLookupKey(parentId, childName),
+                () -> Optional.ofNullable(lookupChildUncached(parentId, childName))).orElse(null);
+    }
+
+    // Helper method that always calls Synapse to look up the child.
+    private String lookupChildUncached(String parentId, String childName) throws SynapseException {
+        return callWithRetry("lookupChildWithRetry", () -> {
+            try {
+                return synapseClient.lookupChild(parentId, childName);
+            } catch (SynapseNotFoundException ex) {
+                return null;
+            }
+        });
     }
 
     /**
@@ -617,39 +1286,70 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public List<ColumnModel> createColumnModelsWithRetry(List<ColumnModel> columnList) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createColumnModels(columnList);
+        return callWithRetry("createColumnModelsWithRetry", () -> synapseClient.createColumnModels(columnList));
     }
 
     /** Create entity in Synapse. This is a retry wrapper. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public <T extends Entity> T createEntityWithRetry(T entity) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createEntity(entity);
+        try {
+            return callWithRetry("createEntityWithRetry", () -> synapseClient.createEntity(entity));
+        } finally {
+            invalidateChildLookup(entity);
+        }
     }
 
-    /** Get entity in Synapse. Returns null if it doesn't exist. This is a retry wrapper. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
+    /**
+     * Get entity in Synapse. Returns null if it doesn't exist. This is a retry wrapper. If the entity cache is enabled
+     * (see {@link #enableEntityCache}), this may return a cached copy. Entities are cached by ID, and the cached copy
+     * is deserialized to the requested class.
+     */
     public <T extends Entity> T getEntityWithRetry(String entityId, Class<T> entityClass) throws SynapseException {
-        rateLimiter.acquire();
-        try {
-            return synapseClient.getEntity(entityId, entityClass);
-        } catch (SynapseNotFoundException ex) {
-            return null;
+        if (entityCache == null) {
+            return getEntityUncached(entityId, entityClass);
         }
+        return getCachedJsonEntity(entityCache, entityId, entityClass, () -> getEntityUncached(entityId,
+                entityClass));
+    }
+
+    // Helper method that always calls Synapse to get the entity.
+    private <T extends Entity> T getEntityUncached(String entityId, Class<T> entityClass) throws SynapseException {
+        return callWithRetry("getEntityWithRetry", () -> {
+            try {
+                return synapseClient.getEntity(entityId, entityClass);
+            } catch (SynapseNotFoundException ex) {
+                return null;
+            }
+        });
     }
 
     /** Update entity, which is a PUT in Synapse. This is a retry wrapper. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public <T extends Entity> T updateEntityWithRetry(T entity) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.putEntity(entity);
+        // If the update renames or moves the entity, the child lookup for its old parent and name is stale too. Get
+        // the old parent and name from the cached copy, if there is one.
+        Entity oldEntity = getCachedEntityIfPresent(entity.getId(), entity.getClass());
+        try {
+            return callWithRetry("updateEntityWithRetry", () -> synapseClient.putEntity(entity));
+        } finally {
+            invalidateCache(entityCache, entity.getId());
+            invalidateChildLookup(entity);
+            if (oldEntity != null) {
+                invalidateChildLookup(oldEntity);
+            }
+        }
+    }
+
+    // Returns the cached copy of the entity, without calling Synapse. Returns null if the entity cache is disabled or
+    // if the entity isn't cached.
+    private <T extends Entity> T getCachedEntityIfPresent(String entityId, Class<T> entityClass) {
+        if (entityCache == null || entityId == null) {
+            return null;
+        }
+        Optional<String> json = entityCache.getIfPresent(entityId);
+        if (json == null || !json.isPresent()) {
+            return null;
+        }
+        return deserializeCachedJson(json.get(), entityClass);
     }
 
     /**
@@ -663,11 +1363,20 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 1, unit = TimeUnit.SECONDS,
-            types = { AmazonClientException.class, SynapseException.class }, randomize = false)
     public FileHandle createFileHandleWithRetry(File file) throws IOException, SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.multipartUpload(file, null, null, null);
+        // RetryableCall only has a single exception type, so we wrap IOExceptions (which aren't retried) and unwrap
+        // them afterwards.
+        try {
+            return callWithRetry(longDelayRetryPolicy, rateLimiter, "createFileHandleWithRetry", () -> {
+                try {
+                    return synapseClient.multipartUpload(file, null, null, null);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
     }
 
     /**
@@ -678,31 +1387,38 @@ public class SynapseHelper {
             SynapseException {
         String jobId = appendRowsToTableStart(rowSet, tableId);
         try {
-            return pollAsyncGet(() -> appendRowsToTableGet(jobId, tableId));
+            return pollAsyncGet(JobType.APPEND, () -> appendRowsToTableGet(jobId, tableId));
         } catch (BridgeSynapseException  ex) {
             throw new BridgeSynapseException("Timed out appending rows to table " + tableId, ex);
         }
     }
 
+    /**
+     * Async version of {@link #appendRowsToTable}. The append job is started on the calling thread. The returned future
+     * is completed on the async poll scheduler, without blocking a thread while the job runs.
+     */
+    public CompletableFuture<RowReferenceSet> appendRowsToTableAsync(AppendableRowSet rowSet, String tableId)
+            throws SynapseException {
+        String jobId = appendRowsToTableStart(rowSet, tableId);
+        return pollAsyncGetAsync(JobType.APPEND, () -> appendRowsToTableGet(jobId, tableId),
+                "Timed out appending rows to table " + tableId);
+    }
+
     /** Starts async job to append rows to a table. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public String appendRowsToTableStart(AppendableRowSet rowSet, String tableId) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.appendRowSetToTableStart(rowSet, tableId);
+        return callWithRetry("appendRowsToTableStart", () -> synapseClient.appendRowSetToTableStart(rowSet, tableId));
     }
 
     /** Polls the result of an async job to append rows to a table. Returns null if the result is not ready. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public RowReferenceSet appendRowsToTableGet(String jobId, String tableId) throws SynapseException {
-        try {
-            rateLimiter.acquire();
-            return synapseClient.appendRowSetToTableGet(jobId, tableId);
-        } catch (SynapseResultNotReadyException ex) {
-            // catch this and return null so we don't retry on "not ready"
-            return null;
-        }
+        return callWithRetry("appendRowsToTableGet", () -> {
+            try {
+                return synapseClient.appendRowSetToTableGet(jobId, tableId);
+            } catch (SynapseResultNotReadyException ex) {
+                // catch this and return null so we don't retry on "not ready"
+                return null;
+            }
+        });
     }
 
     /**
@@ -713,64 +1429,139 @@ public class SynapseHelper {
             SynapseException {
         String jobId = queryTableEntityBundleStart(query, tableId);
         try {
-            return pollAsyncGet(() -> queryTableEntityBundleGet(jobId, tableId));
+            return pollAsyncGet(JobType.QUERY, () -> queryTableEntityBundleGet(jobId, tableId));
         } catch (BridgeSynapseException  ex) {
             throw new BridgeSynapseException("Timed out appending rows to table " + tableId, ex);
         }
     }
 
+    /**
+     * Async version of {@link #queryTableEntityBundle}. The query job is started on the calling thread. The returned
+     * future is completed on the async poll scheduler, without blocking a thread while the query runs.
+     */
+    public CompletableFuture<QueryResultBundle> queryTableEntityBundleAsync(String query, String tableId)
+            throws SynapseException {
+        String jobId = queryTableEntityBundleStart(query, tableId);
+        return pollAsyncGetAsync(JobType.QUERY, () -> queryTableEntityBundleGet(jobId, tableId),
+                "Timed out querying table " + tableId);
+    }
+
+    /**
+     * <p>
+     * Queries a table and streams the result rows, one page at a time. Each page is a separate Synapse query job,
+     * using the given page size as the limit. While the caller consumes one page, the query job for the next page is
+     * already running, so at most two pages are held in memory. Synapse may return fewer rows than the limit, even in
+     * the middle of a table, so each page starts after the rows actually returned, and the stream ends at the first
+     * empty page.
+     * </p>
+     * <p>
+     * The query must not have its own LIMIT or OFFSET. For stable results, the table shouldn't change while it's
+     * being read. Synapse errors and timeouts are thrown from the stream as a CompletionException, whose cause is the
+     * SynapseException or BridgeSynapseException. Close the stream if you stop reading early, so that the prefetched
+     * page is cancelled.
+     * </p>
+     *
+     * @param query
+     *         query to run, without LIMIT or OFFSET
+     * @param tableId
+     *         table to query
+     * @param pageSize
+     *         maximum number of rows per page
+     * @return stream of result rows
+     */
+    public Stream<Row> queryTableRows(String query, String tableId, long pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+
+        PagedRowIterator iterator = new PagedRowIterator(query, tableId, pageSize);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED |
+                Spliterator.NONNULL), false).onClose(iterator::close);
+    }
+
+    // Starts the query job for one page of results. Returns a future for the query result. If the job can't be
+    // started, the future completes exceptionally.
+    private CompletableFuture<QueryResultBundle> startQueryPageAsync(String query, String tableId, long offset,
+            long limit) {
+        String jobId;
+        try {
+            jobId = callWithRetry("queryTableEntityBundleStart", () -> synapseClient.queryTableEntityBundleAsyncStart(
+                    query, offset, limit, SynapseClient.QUERY_PARTMASK, tableId));
+        } catch (SynapseException | RuntimeException ex) {
+            CompletableFuture<QueryResultBundle> failedFuture = new CompletableFuture<>();
+            failedFuture.completeExceptionally(ex);
+            return failedFuture;
+        }
+        return pollAsyncGetAsync(JobType.QUERY, () -> queryTableEntityBundleGet(jobId, tableId),
+                "Timed out querying table " + tableId);
+    }
+
+    // Gets the rows from the query result bundle. Returns an empty list if there are no rows.
+    private static List<Row> getRows(QueryResultBundle bundle) {
+        QueryResult queryResult = bundle.getQueryResult();
+        if (queryResult == null || queryResult.getQueryResults() == null ||
+                queryResult.getQueryResults().getRows() == null) {
+            return ImmutableList.of();
+        }
+        return queryResult.getQueryResults().getRows();
+    }
+
     /** Starts an async query on a table. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public String queryTableEntityBundleStart(String query, String tableId) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.queryTableEntityBundleAsyncStart(query, null, null,
-                SynapseClient.QUERY_PARTMASK | SynapseClient.COUNT_PARTMASK, tableId);
+        return callWithRetry("queryTableEntityBundleStart", () -> synapseClient.queryTableEntityBundleAsyncStart(
+                query, null, null, SynapseClient.QUERY_PARTMASK | SynapseClient.COUNT_PARTMASK, tableId));
     }
 
     /** Polls the result of an async table query. Returns null if the result is not ready. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public QueryResultBundle queryTableEntityBundleGet(String jobId, String tableId) throws SynapseException {
-        try {
-            rateLimiter.acquire();
-            return synapseClient.queryTableEntityBundleAsyncGet(jobId, tableId);
-        } catch (SynapseResultNotReadyException ex) {
-            // catch this and return null so we don't retry on "not ready"
-            return null;
-        }
+        return callWithRetry("queryTableEntityBundleGet", () -> {
+            try {
+                return synapseClient.queryTableEntityBundleAsyncGet(jobId, tableId);
+            } catch (SynapseResultNotReadyException ex) {
+                // catch this and return null so we don't retry on "not ready"
+                return null;
+            }
+        });
     }
 
     /** Creates the S3 file handle in Synapse. This is a retry wrapper. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public S3FileHandle createS3FileHandleWithRetry(S3FileHandle s3FileHandle) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createExternalS3FileHandle(s3FileHandle);
+        return callWithRetry("createS3FileHandleWithRetry", () -> synapseClient.createExternalS3FileHandle(
+                s3FileHandle));
     }
 
     /**
      * Helper method to create a folder if the folder doesn't exist. Add a retry around this method in case of race
      * conditions between this server and another one.
      */
-    @RetryOnFailure(attempts = 2, delay = 1, unit = TimeUnit.SECONDS, types = SynapseException.class,
-            randomize = false)
     public String createFolderIfNotExists(String parentId, String folderName) throws SynapseException {
-        String folderId = lookupChildWithRetry(parentId, folderName);
-        if (folderId != null) {
-            // Folder already exists. We don't need to do anything.
-            return folderId;
-        } else {
-            Folder folder = new Folder();
-            folder.setName(folderName);
-            folder.setParentId(parentId);
-            folder = createEntityWithRetry(folder);
-            return folder.getId();
-        }
+        // No rate limiter here, since the inner calls are already rate limited.
+        return callWithRetry(longDelayRetryPolicy, null, "createFolderIfNotExists", () -> {
+            String folderId = lookupChildWithRetry(parentId, folderName);
+            if (folderId != null) {
+                // Folder already exists. We don't need to do anything.
+                return folderId;
+            } else {
+                Folder folder = new Folder();
+                folder.setName(folderName);
+                folder.setParentId(parentId);
+                folder = createEntityWithRetry(folder);
+                return folder.getId();
+            }
+        });
     }
 
-    /** Checks if Synapse is writable and throws if it isn't. */
+    /**
+     * Checks if Synapse is writable and throws if it isn't. If a status monitor is set (see
+     * {@link #setStatusMonitor}), this uses the monitor's cached status and circuit breaker instead of calling Synapse
+     * every time.
+     */
     public void checkSynapseWritableOrThrow() throws BridgeSynapseException {
+        if (statusMonitor != null) {
+            statusMonitor.checkWritableOrThrow();
+            return;
+        }
+
         boolean isSynapseWritable;
         try {
             isSynapseWritable = isSynapseWritable();
@@ -784,31 +1575,26 @@ public class SynapseHelper {
 
     /**
      * Gets the Synapse stack status and returns true if Synapse is up and in read/write state. Also includes retries.
+     * This always calls Synapse, even if a status monitor is set.
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public boolean isSynapseWritable() throws SynapseException {
-        rateLimiter.acquire();
-        StackStatus status = synapseClient.getCurrentStackStatus();
-        return status.getStatus() == StatusEnum.READ_WRITE;
+        return callWithRetry("isSynapseWritable", () -> {
+            StackStatus status = synapseClient.getCurrentStackStatus();
+            return status.getStatus() == StatusEnum.READ_WRITE;
+        });
     }
 
     /** Create a project setting. This is a retry wrapper. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public ProjectSetting createProjectSettingWithRetry(ProjectSetting projectSetting)
             throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createProjectSetting(projectSetting);
+        return callWithRetry("createProjectSettingWithRetry", () -> synapseClient.createProjectSetting(projectSetting));
     }
 
     /** Create a storage location in Synapse. This is a retry wrapper. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public <T extends StorageLocationSetting> T createStorageLocationWithRetry(T storageLocation)
             throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createStorageLocationSetting(storageLocation);
+        return callWithRetry("createStorageLocationWithRetry", () -> synapseClient.createStorageLocationSetting(
+                storageLocation));
     }
 
     /**
@@ -830,6 +1616,86 @@ public class SynapseHelper {
         return storageLocation;
     }
 
+    /**
+     * <p>
+     * Creates everything in the given plan. Each entry starts as soon as the entries it refers to are done, so
+     * independent entries (for example, sibling folders and tables) are created concurrently on the provisioning
+     * executor (see {@link #setBulkExecutor}). Each Synapse call still goes through the rate limiter and retry
+     * policy, so this never exceeds the configured rate limit.
+     * </p>
+     * <p>
+     * If any entry fails, entries that depend on it are skipped, but independent entries still run. This method waits
+     * for all running entries to finish, then throws the failure of the first failed entry in plan order. Entities
+     * created before the failure are not rolled back. Since folders are created with
+     * {@link #createFolderIfNotExists}, re-running a plan reuses existing folders.
+     * </p>
+     *
+     * @param plan
+     *         folders, tables, ACLs, and storage locations to create
+     * @return map from each ref in the plan to its Synapse ID (or storage location ID, for storage locations)
+     * @throws IllegalArgumentException
+     *         if the plan refers to an unknown ref, or if the refs form a cycle
+     * @throws BridgeSynapseException
+     *         under unexpected circumstances, like a table created with the wrong number of columns
+     * @throws SynapseException
+     *         if the underlying Synapse calls fail
+     */
+    public Map<String, String> provision(SynapseProvisioningPlan plan) throws BridgeSynapseException,
+            SynapseException {
+        // This validates the plan, so we don't start anything if the plan is invalid.
+        List<SynapseProvisioningPlan.Step> stepList = plan.getOrderedSteps();
+
+        // Steps are ordered so that each step's dependencies are already in the map.
+        ExecutorService executor = getBulkExecutor();
+        Map<String, CompletableFuture<String>> futuresByRef = new HashMap<>();
+        List<CompletableFuture<String>> futureList = new ArrayList<>();
+        for (SynapseProvisioningPlan.Step step : stepList) {
+            CompletableFuture<String> future = startProvisioningStep(step, futuresByRef, executor);
+            futureList.add(future);
+            if (step.getRef() != null) {
+                futuresByRef.put(step.getRef(), future);
+            }
+        }
+
+        // Wait for everything to finish, whether it succeeds or fails, so we don't leave steps running.
+        CompletableFuture.allOf(futureList.toArray(new CompletableFuture<?>[futureList.size()]))
+                .handle((result, ex) -> null).join();
+
+        Map<String, String> idsByRef = new LinkedHashMap<>();
+        for (int i = 0; i < stepList.size(); i++) {
+            String id = waitForAsync(futureList.get(i));
+            String ref = stepList.get(i).getRef();
+            if (ref != null) {
+                idsByRef.put(ref, id);
+            }
+        }
+        return idsByRef;
+    }
+
+    // Helper method to start a provisioning step once all of its dependencies are done.
+    private CompletableFuture<String> startProvisioningStep(SynapseProvisioningPlan.Step step,
+            Map<String, CompletableFuture<String>> futuresByRef, ExecutorService executor) {
+        List<String> dependencyRefList = step.getDependencyRefList();
+        CompletableFuture<?>[] dependencyFutures = new CompletableFuture<?>[dependencyRefList.size()];
+        for (int i = 0; i < dependencyRefList.size(); i++) {
+            dependencyFutures[i] = futuresByRef.get(dependencyRefList.get(i));
+        }
+
+        // If a dependency fails, allOf() fails, and this step is skipped.
+        return CompletableFuture.allOf(dependencyFutures).thenApplyAsync(ignored -> {
+            Map<String, String> dependencyIdMap = new HashMap<>();
+            for (String dependencyRef : dependencyRefList) {
+                dependencyIdMap.put(dependencyRef, futuresByRef.get(dependencyRef).join());
+            }
+
+            try {
+                return step.getAction().run(this, dependencyIdMap);
+            } catch (BridgeSynapseException | SynapseException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
     /**
      * <p>
      * Create table in Synapse. This is a retry wrapper.
@@ -845,15 +1711,18 @@ public class SynapseHelper {
      *         if the Synapse call fails
      */
     @Deprecated
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public TableEntity createTableWithRetry(TableEntity table) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createEntity(table);
+        try {
+            return callWithRetry("createTableWithRetry", () -> synapseClient.createEntity(table));
+        } finally {
+            invalidateChildLookup(table);
+        }
     }
 
     /**
-     * Get the column models for a Synapse table. This is a retry wrapper.
+     * Get the column models for a Synapse table. This is a retry wrapper. If the column model cache is enabled (see
+     * {@link #enableColumnModelCache}), this returns an immutable cached list, and callers must not modify the column
+     * models in it.
      *
      * @param tableId
      *         table to get column info for
@@ -861,11 +1730,48 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public List<ColumnModel> getColumnModelsForTableWithRetry(String tableId) throws SynapseException {
-        getColumnModelsRateLimiter.acquire();
-        return synapseClient.getColumnModelsForTableEntity(tableId);
+        if (columnModelCache == null) {
+            return getColumnModelsForTableUncached(tableId);
+        }
+        CachedColumnModels cached = getFromCache(columnModelCache, tableId, () -> {
+            long generation = getColumnModelGeneration(tableId);
+            return new CachedColumnModels(ImmutableList.copyOf(getColumnModelsForTableUncached(tableId)),
+                    generation);
+        });
+        if (cached.generation != getColumnModelGeneration(tableId)) {
+            // The columns were updated while this was loading. Only remove what we looked at, in case another thread
+            // has already replaced it, and read the columns again.
+            columnModelCache.asMap().remove(tableId, cached);
+            return getColumnModelsForTableUncached(tableId);
+        }
+        return cached.columnModelList;
+    }
+
+    private long getColumnModelGeneration(String tableId) {
+        return columnModelGenerationByTable.getOrDefault(tableId, 0L);
+    }
+
+    // Helper method that always calls Synapse to get column models for a table.
+    private List<ColumnModel> getColumnModelsForTableUncached(String tableId) throws SynapseException {
+        return callWithRetry(retryPolicy, getColumnModelsRateLimiter, "getColumnModelsForTableWithRetry",
+                () -> synapseClient.getColumnModelsForTableEntity(tableId));
+    }
+
+    // Removes the cached table entity and column models for the given table, if caching is enabled. Updating a
+    // table's columns also changes the table entity's column IDs and etag.
+    private void invalidateTable(String tableId) {
+        invalidateCache(entityCache, tableId);
+        invalidateColumnModels(tableId);
+    }
+
+    // Removes the cached column models for the given table, if caching is enabled.
+    private void invalidateColumnModels(String tableId) {
+        if (columnModelCache != null) {
+            // Increment first, so a load that finishes after this either sees the new generation or is invalidated.
+            columnModelGenerationByTable.merge(tableId, 1L, Long::sum);
+            columnModelCache.invalidate(tableId);
+        }
     }
 
     /**
@@ -878,11 +1784,17 @@ public class SynapseHelper {
      *         if the Synapse call fails
      */
     @Deprecated
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public TableEntity getTableWithRetry(String tableId) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.getEntity(tableId, TableEntity.class);
+        if (entityCache == null) {
+            return callWithRetry("getTableWithRetry", () -> synapseClient.getEntity(tableId, TableEntity.class));
+        }
+
+        // Unlike getEntityWithRetry(), this throws if the table doesn't exist.
+        TableEntity table = getEntityWithRetry(tableId, TableEntity.class);
+        if (table == null) {
+            throw new SynapseNotFoundException("Table " + tableId + " not found");
+        }
+        return table;
     }
 
     /**
@@ -896,12 +1808,10 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public String startTableTransactionWithRetry(List<TableUpdateRequest> changeList, String tableId)
             throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.startTableTransactionJob(changeList, tableId);
+        return callWithRetry("startTableTransactionWithRetry", () -> synapseClient.startTableTransactionJob(
+                changeList, tableId));
     }
 
     /**
@@ -917,17 +1827,16 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the job fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public List<TableUpdateResponse> getTableTransactionResultWithRetry(String jobToken, String tableId)
             throws SynapseException {
-        try {
-            rateLimiter.acquire();
-            return synapseClient.getTableTransactionJobResults(jobToken, tableId);
-        } catch (SynapseResultNotReadyException ex) {
-            // catch this and return null so we don't retry on "not ready"
-            return null;
-        }
+        return callWithRetry("getTableTransactionResultWithRetry", () -> {
+            try {
+                return synapseClient.getTableTransactionJobResults(jobToken, tableId);
+            } catch (SynapseResultNotReadyException ex) {
+                // catch this and return null so we don't retry on "not ready"
+                return null;
+            }
+        });
     }
 
     /**
@@ -943,12 +1852,10 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public String uploadTsvStartWithRetry(String tableId, String fileHandleId, CsvTableDescriptor tableDescriptor)
             throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.uploadCsvToTableAsyncStart(tableId, fileHandleId, null, null, tableDescriptor, null);
+        return callWithRetry("uploadTsvStartWithRetry", () -> synapseClient.uploadCsvToTableAsyncStart(tableId,
+                fileHandleId, null, null, tableDescriptor, null));
     }
 
     /**
@@ -964,31 +1871,25 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the job fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public UploadToTableResult getUploadTsvStatus(String jobToken, String tableId) throws SynapseException {
-        try {
-            rateLimiter.acquire();
-            return synapseClient.uploadCsvToTableAsyncGet(jobToken, tableId);
-        } catch (SynapseResultNotReadyException ex) {
-            // catch this and return null so we don't retry on "not ready"
-            return null;
-        }
+        return callWithRetry("getUploadTsvStatus", () -> {
+            try {
+                return synapseClient.uploadCsvToTableAsyncGet(jobToken, tableId);
+            } catch (SynapseResultNotReadyException ex) {
+                // catch this and return null so we don't retry on "not ready"
+                return null;
+            }
+        });
     }
 
     /** Creates a Synapse team. This is a retry wrapper. */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public Team createTeamWithRetry(Team team) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createTeam(team);
+        return callWithRetry("createTeamWithRetry", () -> synapseClient.createTeam(team));
     }
 
     /**
      * Invites a Synapse user to a Synapse team, optionally making them manager of the team. This is a retry wrapper.
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public void inviteToTeam(long teamId, long principalId, boolean isManager) throws SynapseException {
         // Synapse Java Client takes in strings, even though these are logically longs (and they are longs in Bridge
         // code). Convert these to strings.
@@ -998,9 +1899,104 @@ public class SynapseHelper {
         MembershipInvitation membershipInvitation = new MembershipInvitation();
         membershipInvitation.setTeamId(teamIdStr);
         membershipInvitation.setInviteeId(principalIdStr);
-        synapseClient.createMembershipInvitation(membershipInvitation, null, null);
-        if (isManager) {
-            synapseClient.setTeamMemberPermissions(teamIdStr, principalIdStr, true);
+        callWithRetry(retryPolicy, null, "inviteToTeam", () -> {
+            synapseClient.createMembershipInvitation(membershipInvitation, null, null);
+            if (isManager) {
+                synapseClient.setTeamMemberPermissions(teamIdStr, principalIdStr, true);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Returns true if the exception is worth retrying. All Synapse exceptions are retryable, except for deterministic
+     * 4XX errors (bad request, conflict, unauthorized, forbidden, not found). Resending an update with the same stale
+     * etag can't succeed, so conflicts aren't retried here. Package-scoped for unit tests.
+     */
+    static boolean isRetryableException(Throwable ex) {
+        return ex instanceof SynapseException && !(ex instanceof SynapseBadRequestException ||
+                ex instanceof SynapseConflictingUpdateException || ex instanceof SynapseForbiddenException ||
+                ex instanceof SynapseNotFoundException || ex instanceof SynapseUnauthorizedException);
+    }
+
+    /**
+     * Returns true if the exception is worth retrying with the long delay retry policy. In addition to
+     * {@link #isRetryableException}, this retries AWS client exceptions from file uploads, and 409 conflicts. When two
+     * servers race to create the same folder, the loser gets a 409 name conflict, and the next attempt finds the
+     * folder. Package-scoped for unit tests.
+     */
+    static boolean isLongDelayRetryableException(Throwable ex) {
+        return ex instanceof AmazonClientException || ex instanceof SynapseConflictingUpdateException ||
+                isRetryableException(ex);
+    }
+
+    /**
+     * Returns true if the exception means Synapse is throttling us, namely HTTP 429 Too Many Requests or HTTP 503
+     * Service Unavailable. Package-scoped for unit tests.
+     */
+    static boolean isThrottleException(Throwable ex) {
+        if (ex instanceof SynapseTooManyRequestsException || ex instanceof SynapseServiceUnavailable) {
+            return true;
+        }
+        if (ex instanceof UnknownSynapseServerException) {
+            int statusCode = ((UnknownSynapseServerException) ex).getStatusCode();
+            return statusCode == 429 || statusCode == 503;
+        }
+        return false;
+    }
+
+    // Helper method to get a Synapse object through a JSON cache. The loader may return null if the object doesn't
+    // exist. Each call returns a new copy of the object, so callers can modify it.
+    private static <T extends JSONEntity> T getCachedJsonEntity(Cache<String, Optional<String>> cache, String cacheKey,
+            Class<T> clazz, Callable<T> loader) throws SynapseException {
+        Optional<String> json = getFromCache(cache, cacheKey, () -> {
+            T loaded = loader.call();
+            return loaded != null ? Optional.of(EntityFactory.createJSONStringForEntity(loaded)) : Optional.empty();
+        });
+        if (!json.isPresent()) {
+            return null;
+        }
+        return deserializeCachedJson(json.get(), clazz);
+    }
+
+    // Deserializes JSON from one of our caches.
+    private static <T extends JSONEntity> T deserializeCachedJson(String json, Class<T> clazz) {
+        try {
+            return EntityFactory.createEntityFromJSONString(json, clazz);
+        } catch (JSONObjectAdapterException ex) {
+            // We wrote this JSON ourselves, so this should never happen.
+            throw new IllegalStateException("Error deserializing cached " + clazz.getSimpleName() + ": " +
+                    ex.getMessage(), ex);
+        }
+    }
+
+    // Invalidates the child lookup cache for the entity's parent and name, if caching is enabled.
+    private void invalidateChildLookup(Entity entity) {
+        if (entity.getParentId() != null && entity.getName() != null) {
+            invalidateCache(childLookupCache, getChildLookupKey(entity.getParentId(), entity.getName()));
+        }
+    }
+
+    // Removes the key from the cache, if the cache is enabled.
+    private static void invalidateCache(Cache<String, ?> cache, String cacheKey) {
+        if (cache != null && cacheKey != null) {
+            cache.invalidate(cacheKey);
+        }
+    }
+
+    private static String getChildLookupKey(String parentId, String childName) {
+        return parentId + '/' + childName;
+    }
+
+    // Helper method to get a value from a cache, loading it with the given loader if it's not present. Unwraps loader
+    // exceptions, so callers see the same exceptions as when caching is disabled.
+    private static <T> T getFromCache(Cache<String, T> cache, String cacheKey, Callable<T> loader)
+            throws SynapseException {
+        try {
+            return cache.get(cacheKey, loader);
+        } catch (ExecutionException | UncheckedExecutionException ex) {
+            Throwables.propagateIfInstanceOf(ex.getCause(), SynapseException.class);
+            throw Throwables.propagate(ex.getCause());
         }
     }
 
@@ -1009,21 +2005,93 @@ public class SynapseHelper {
         T call() throws SynapseException;
     }
 
-    // Helper function that handles polling async get calls to Synapse with exponential backoff.
-    private <T> T pollAsyncGet(SynapseCallable<T> asyncGetCall) throws BridgeSynapseException, SynapseException {
+    // Calls Synapse using the default retry policy and the default rate limiter.
+    private <T> T callWithRetry(String operationName, SynapseCallable<T> call) throws SynapseException {
+        return callWithRetry(retryPolicy, rateLimiter, operationName, call);
+    }
+
+    // Calls Synapse with the given retry policy. Each attempt acquires a permit from the given rate limiter, if it's
+    // not null. If the limiter is the general rate limiter, each attempt also acquires a permit from the global rate
+    // limiter (if set), and the result of each attempt adjusts the rate (if adaptive rate limiting is enabled).
+    private <T> T callWithRetry(RetryPolicy policy, RateLimiter limiter, String operationName,
+            SynapseCallable<T> call) throws SynapseException {
+        boolean isGeneralTraffic = limiter == rateLimiter;
+        AdaptiveRateLimiter adaptiveLimiter = isGeneralTraffic ? adaptiveRateLimiter : null;
+        RedisTokenBucketRateLimiter globalLimiter = isGeneralTraffic ? globalRateLimiter : null;
+        SynapseHelperMetrics callMetrics = metrics;
+        int[] attempts = { 0 };
+        long startMillis = System.currentTimeMillis();
+        try {
+            T result = policy.call(operationName, () -> {
+                attempts[0]++;
+
+                // Acquire the local permit first, so that a single host can't flood the global limiter.
+                double limiterWaitSeconds = 0.0;
+                if (limiter != null) {
+                    limiterWaitSeconds += limiter.acquire();
+                }
+                if (globalLimiter != null) {
+                    limiterWaitSeconds += globalLimiter.acquire();
+                }
+                if (limiter != null || globalLimiter != null) {
+                    callMetrics.onLimiterWait(operationName, (long) (limiterWaitSeconds * 1000));
+                }
+
+                T attemptResult;
+                long attemptStartMillis = System.currentTimeMillis();
+                try {
+                    attemptResult = call.call();
+                } catch (SynapseException | RuntimeException ex) {
+                    callMetrics.onAttempt(operationName, System.currentTimeMillis() - attemptStartMillis, ex);
+                    if (adaptiveLimiter != null && isThrottleException(ex)) {
+                        adaptiveLimiter.onThrottle();
+                    }
+                    throw ex;
+                }
+                callMetrics.onAttempt(operationName, System.currentTimeMillis() - attemptStartMillis, null);
+
+                if (adaptiveLimiter != null) {
+                    adaptiveLimiter.onSuccess();
+                }
+                return attemptResult;
+            });
+            callMetrics.onCall(operationName, attempts[0], System.currentTimeMillis() - startMillis, null);
+            return result;
+        } catch (SynapseException | RuntimeException ex) {
+            callMetrics.onCall(operationName, attempts[0], System.currentTimeMillis() - startMillis, ex);
+            throw ex;
+        }
+    }
+
+    // Helper function that handles polling async get calls to Synapse with exponential backoff, or with the adaptive
+    // poll scheduler, if set.
+    private <T> T pollAsyncGet(JobType jobType, SynapseCallable<T> asyncGetCall) throws BridgeSynapseException,
+            SynapseException {
+        long startMillis = System.currentTimeMillis();
+        long[] pollDelaysMillis = getPollDelaysMillis(jobType);
+        int polls = 0;
+
         // Poll async get until success or timeout.
-        for (int waitTimeSeconds : asyncGetBackoffPlan) {
-            if (waitTimeSeconds > 0) {
+        for (long waitTimeMillis : pollDelaysMillis) {
+            if (waitTimeMillis > 0) {
                 try {
-                    Thread.sleep(waitTimeSeconds * 1000L);
+                    Thread.sleep(waitTimeMillis);
                 } catch (InterruptedException ex) {
                     // noop
                 }
             }
 
             // Poll.
-            T response = asyncGetCall.call();
+            polls++;
+            T response;
+            try {
+                response = asyncGetCall.call();
+            } catch (SynapseException | RuntimeException ex) {
+                metrics.onAsyncJobDone(jobType, polls, System.currentTimeMillis() - startMillis, false);
+                throw ex;
+            }
             if (response != null) {
+                recordAsyncJobDuration(jobType, polls, startMillis, pollDelaysMillis);
                 return response;
             }
 
@@ -1031,6 +2099,191 @@ public class SynapseHelper {
         }
 
         // If we make it this far, this means we timed out.
+        metrics.onAsyncJobDone(jobType, polls, System.currentTimeMillis() - startMillis, false);
         throw new BridgeSynapseException("Timed out calling Synapse async get");
     }
+
+    // Gets the poll delays for the given job type, in milliseconds.
+    private long[] getPollDelaysMillis(JobType jobType) {
+        // Capture the poll scheduler and backoff plan, in case they're changed while we're polling.
+        AdaptivePollScheduler scheduler = adaptivePollScheduler;
+        int[] backoffPlan = asyncGetBackoffPlan;
+        if (scheduler == null) {
+            return AdaptivePollScheduler.toMillis(backoffPlan);
+        }
+        return scheduler.getPollDelaysMillis(jobType, backoffPlan);
+    }
+
+    // Records how long the job took in the metrics, and in the adaptive poll scheduler, if set. The job was found done
+    // by the given number of polls. The previous poll found it not ready, and that poll was no earlier than its
+    // scheduled time, which is the sum of the delays before it.
+    private void recordAsyncJobDuration(JobType jobType, int polls, long startMillis, long[] pollDelaysMillis) {
+        long durationMillis = System.currentTimeMillis() - startMillis;
+        metrics.onAsyncJobDone(jobType, polls, durationMillis, true);
+
+        AdaptivePollScheduler scheduler = adaptivePollScheduler;
+        if (scheduler != null) {
+            long lastNotReadyMillis = 0;
+            for (int i = 0; i < polls - 1; i++) {
+                lastNotReadyMillis += pollDelaysMillis[i];
+            }
+            scheduler.recordPolledDuration(jobType, lastNotReadyMillis, durationMillis);
+        }
+    }
+
+    // Waits for the future and unwraps its exception, so callers see the same exceptions as the blocking methods.
+    private static <T> T waitForAsync(CompletableFuture<T> future) throws BridgeSynapseException, SynapseException {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwables.propagateIfInstanceOf(ex.getCause(), BridgeSynapseException.class);
+            Throwables.propagateIfInstanceOf(ex.getCause(), SynapseException.class);
+            throw Throwables.propagate(ex.getCause());
+        }
+    }
+
+    // Non-blocking version of pollAsyncGet(). Each poll is scheduled on the async poll scheduler according to the poll
+    // delays, and runs on the async get executor, so no thread is held between polls, and polls that block on the rate
+    // limiter don't hold up the scheduler. The future completes with the response, or exceptionally with
+    // the SynapseException from the poll, or with a BridgeSynapseException with the given message if we time out.
+    private <T> CompletableFuture<T> pollAsyncGetAsync(JobType jobType, SynapseCallable<T> asyncGetCall,
+            String timeoutMessage) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        scheduleAsyncGet(jobType, asyncGetCall, timeoutMessage, future, getPollDelaysMillis(jobType), 0,
+                System.currentTimeMillis());
+        return future;
+    }
+
+    // Schedules the poll at the given index in the poll delays.
+    private <T> void scheduleAsyncGet(JobType jobType, SynapseCallable<T> asyncGetCall, String timeoutMessage,
+            CompletableFuture<T> future, long[] pollDelaysMillis, int planIndex, long startMillis) {
+        if (planIndex >= pollDelaysMillis.length) {
+            metrics.onAsyncJobDone(jobType, planIndex, System.currentTimeMillis() - startMillis, false);
+            future.completeExceptionally(new BridgeSynapseException(timeoutMessage));
+            return;
+        }
+
+        getAsyncPollExecutor().schedule(() -> {
+            try {
+                getAsyncGetExecutor().execute(() -> runAsyncGet(jobType, asyncGetCall, timeoutMessage, future,
+                        pollDelaysMillis, planIndex, startMillis));
+            } catch (RuntimeException ex) {
+                // Generally RejectedExecutionException, if the executor was shut down.
+                metrics.onAsyncJobDone(jobType, planIndex, System.currentTimeMillis() - startMillis, false);
+                future.completeExceptionally(ex);
+            }
+        }, pollDelaysMillis[planIndex], TimeUnit.MILLISECONDS);
+    }
+
+    // Runs the poll at the given index in the poll delays, and schedules the next poll if the result isn't ready.
+    private <T> void runAsyncGet(JobType jobType, SynapseCallable<T> asyncGetCall, String timeoutMessage,
+            CompletableFuture<T> future, long[] pollDelaysMillis, int planIndex, long startMillis) {
+        if (future.isDone()) {
+            // Caller cancelled the future. Stop polling.
+            return;
+        }
+
+        T response;
+        try {
+            response = asyncGetCall.call();
+        } catch (Exception ex) {
+            // Catch all exceptions, since an exception thrown from here would otherwise be silently swallowed by the
+            // executor.
+            metrics.onAsyncJobDone(jobType, planIndex + 1, System.currentTimeMillis() - startMillis, false);
+            future.completeExceptionally(ex);
+            return;
+        }
+
+        if (response != null) {
+            recordAsyncJobDuration(jobType, planIndex + 1, startMillis, pollDelaysMillis);
+            future.complete(response);
+        } else {
+            // Result not ready. Schedule the next poll.
+            scheduleAsyncGet(jobType, asyncGetCall, timeoutMessage, future, pollDelaysMillis, planIndex + 1,
+                    startMillis);
+        }
+    }
+
+    // Column models for a table, along with the generation they were loaded at.
+    private static class CachedColumnModels {
+        private final List<ColumnModel> columnModelList;
+        private final long generation;
+
+        CachedColumnModels(List<ColumnModel> columnModelList, long generation) {
+            this.columnModelList = columnModelList;
+            this.generation = generation;
+        }
+    }
+
+    // A chunk of a TSV upload. The import future is replaced if the chunk is re-imported.
+    private static class TsvChunk {
+        private final int index;
+        private final File file;
+        private final String fileHandleId;
+        private CompletableFuture<UploadToTableResult> importFuture;
+
+        TsvChunk(int index, File file, String fileHandleId, CompletableFuture<UploadToTableResult> importFuture) {
+            this.index = index;
+            this.file = file;
+            this.fileHandleId = fileHandleId;
+            this.importFuture = importFuture;
+        }
+    }
+
+    // Iterates over query results a page at a time, prefetching the next page while the current page is consumed.
+    private class PagedRowIterator implements Iterator<Row> {
+        private final String query;
+        private final String tableId;
+        private final long pageSize;
+        private long nextOffset = 0;
+        private CompletableFuture<QueryResultBundle> nextPageFuture;
+        private Iterator<Row> currentPage;
+
+        PagedRowIterator(String query, String tableId, long pageSize) {
+            this.query = query;
+            this.tableId = tableId;
+            this.pageSize = pageSize;
+            this.nextPageFuture = startNextPage();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (currentPage == null || !currentPage.hasNext()) {
+                if (nextPageFuture == null) {
+                    // No more pages.
+                    return false;
+                }
+
+                // Wait for the next page. This throws a CompletionException if the page failed.
+                List<Row> rowList = getRows(nextPageFuture.join());
+
+                // Synapse caps the number of rows per page, so a short page isn't necessarily the last. Only an empty
+                // page means we're done. Otherwise, prefetch the page after the rows we actually got.
+                nextOffset += rowList.size();
+                nextPageFuture = rowList.isEmpty() ? null : startNextPage();
+                currentPage = rowList.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Row next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentPage.next();
+        }
+
+        // Cancels the prefetched page, if any.
+        void close() {
+            if (nextPageFuture != null) {
+                nextPageFuture.cancel(false);
+                nextPageFuture = null;
+            }
+        }
+
+        private CompletableFuture<QueryResultBundle> startNextPage() {
+            return startQueryPageAsync(query, tableId, nextOffset, pageSize);
+        }
+    }
 }
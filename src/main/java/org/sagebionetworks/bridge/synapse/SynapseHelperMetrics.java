@@ -0,0 +1,53 @@
+package org.sagebionetworks.bridge.synapse;
+
+import org.sagebionetworks.bridge.synapse.AdaptivePollScheduler.JobType;
+
+/**
+ * Metrics hook for {@link SynapseHelper}. All methods have no-op defaults, so implementations only need to override
+ * what they care about. Implementations are called on the calling thread (or on an async poll thread) and should be
+ * fast and never throw.
+ */
+public interface SynapseHelperMetrics {
+    /**
+     * Called when a Synapse call finishes, successfully or not. Elapsed time includes all attempts, rate limiter waits,
+     * and retry backoff. Attempts is the total number of attempts, so retries is attempts minus one.
+     *
+     * @param operationName
+     *         name of the operation, generally the SynapseHelper method name
+     * @param attempts
+     *         total number of attempts, including the last one
+     * @param elapsedMillis
+     *         total time for the call, including retries
+     * @param ex
+     *         the exception the call failed with, or null if it succeeded
+     */
+    default void onCall(String operationName, int attempts, long elapsedMillis, Exception ex) {
+    }
+
+    /**
+     * Called after each attempt, with only the time spent in Synapse. Ex is the exception the attempt failed with, or
+     * null if it succeeded.
+     */
+    default void onAttempt(String operationName, long latencyMillis, Exception ex) {
+    }
+
+    /** Called after each attempt acquires its rate limiter permits, with the time spent waiting for them. */
+    default void onLimiterWait(String operationName, long waitMillis) {
+    }
+
+    /**
+     * Called when polling for an async job finishes. Elapsed time is from the start of polling, and includes the
+     * sleeps between polls.
+     *
+     * @param jobType
+     *         type of job polled
+     * @param polls
+     *         number of polls made
+     * @param elapsedMillis
+     *         time from the start of polling until the job finished, failed, or timed out
+     * @param succeeded
+     *         true if the job finished, false if polling failed or timed out
+     */
+    default void onAsyncJobDone(JobType jobType, int polls, long elapsedMillis, boolean succeeded) {
+    }
+}
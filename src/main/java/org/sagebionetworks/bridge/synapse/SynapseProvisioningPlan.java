@@ -0,0 +1,198 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.sagebionetworks.client.exceptions.SynapseException;
+import org.sagebionetworks.repo.model.project.StorageLocationSetting;
+import org.sagebionetworks.repo.model.table.ColumnModel;
+
+import org.sagebionetworks.bridge.exceptions.BridgeSynapseException;
+
+/**
+ * <p>
+ * Declarative set of folders, tables, ACLs, and storage locations to create in Synapse, for use with
+ * {@link SynapseHelper#provision}. Each entry has a ref, which is a name local to the plan. Entries refer to their
+ * parents (or, for ACLs and storage locations, to their target entity) by ref, so the plan can describe a whole tree
+ * before any of it exists. Entries can refer to refs added later. Existing Synapse entities, like the app's project,
+ * are added with {@link #addExistingEntity}.
+ * </p>
+ * <p>
+ * Entries run as soon as the entries they refer to are done, so independent entries run concurrently. This class is
+ * not thread-safe. Don't modify a plan while it's being provisioned.
+ * </p>
+ */
+public class SynapseProvisioningPlan {
+    private final Map<String, Step> stepsByRef = new LinkedHashMap<>();
+    private final List<Step> aclStepList = new ArrayList<>();
+
+    /** Adds an entity that already exists in Synapse, so other entries can refer to it. */
+    public SynapseProvisioningPlan addExistingEntity(String ref, String synapseId) {
+        checkNotNull(synapseId, "synapseId must be specified");
+        addStep(new Step(ref, ImmutableList.of(), (helper, ids) -> synapseId));
+        return this;
+    }
+
+    /**
+     * Adds a folder, which is created with {@link SynapseHelper#createFolderIfNotExists}. If the folder already
+     * exists, the plan uses the existing folder.
+     */
+    public SynapseProvisioningPlan addFolder(String ref, String parentRef, String folderName) {
+        checkNotNull(parentRef, "parentRef must be specified");
+        checkNotNull(folderName, "folderName must be specified");
+        addStep(new Step(ref, ImmutableList.of(parentRef), (helper, ids) -> helper.createFolderIfNotExists(
+                ids.get(parentRef), folderName)));
+        return this;
+    }
+
+    /**
+     * Adds a table, which is created with {@link SynapseHelper#createTableWithColumnsAndAcls}. Note that this always
+     * creates a new table.
+     */
+    public SynapseProvisioningPlan addTable(String ref, String parentRef, String tableName,
+            List<ColumnModel> columnList, Set<Long> readOnlyPrincipalIdSet, Set<Long> adminPrincipalIdSet) {
+        checkNotNull(parentRef, "parentRef must be specified");
+        checkNotNull(tableName, "tableName must be specified");
+        checkNotNull(columnList, "columnList must be specified");
+        List<ColumnModel> columnListCopy = ImmutableList.copyOf(columnList);
+        Set<Long> readOnlyCopy = ImmutableSet.copyOf(readOnlyPrincipalIdSet);
+        Set<Long> adminCopy = ImmutableSet.copyOf(adminPrincipalIdSet);
+        addStep(new Step(ref, ImmutableList.of(parentRef), (helper, ids) -> helper.createTableWithColumnsAndAcls(
+                columnListCopy, readOnlyCopy, adminCopy, ids.get(parentRef), tableName)));
+        return this;
+    }
+
+    /**
+     * Sets the ACL for the given entity, using {@link SynapseHelper#createAclWithRetry(String, Set, Set)}. ACLs don't
+     * have refs, since nothing can depend on them.
+     */
+    public SynapseProvisioningPlan addAcl(String entityRef, Set<Long> adminPrincipalIdSet,
+            Set<Long> readOnlyPrincipalIdSet) {
+        checkNotNull(entityRef, "entityRef must be specified");
+        Set<Long> adminCopy = ImmutableSet.copyOf(adminPrincipalIdSet);
+        Set<Long> readOnlyCopy = ImmutableSet.copyOf(readOnlyPrincipalIdSet);
+        aclStepList.add(new Step(null, ImmutableList.of(entityRef), (helper, ids) -> {
+            String entityId = ids.get(entityRef);
+            helper.createAclWithRetry(entityId, adminCopy, readOnlyCopy);
+            return entityId;
+        }));
+        return this;
+    }
+
+    /**
+     * Adds a storage location for the given entity, using {@link SynapseHelper#createStorageLocationForEntity}. The
+     * provisioned ID for this ref is the storage location ID.
+     */
+    public SynapseProvisioningPlan addStorageLocation(String ref, String entityRef,
+            StorageLocationSetting storageLocation) {
+        checkNotNull(entityRef, "entityRef must be specified");
+        checkNotNull(storageLocation, "storageLocation must be specified");
+        addStep(new Step(ref, ImmutableList.of(entityRef), (helper, ids) -> String.valueOf(
+                helper.createStorageLocationForEntity(ids.get(entityRef), storageLocation).getStorageLocationId())));
+        return this;
+    }
+
+    // Helper method to add a step with a ref, checking for duplicates.
+    private void addStep(Step step) {
+        checkArgument(step.getRef() != null && !step.getRef().isEmpty(), "ref must be specified");
+        checkArgument(!stepsByRef.containsKey(step.getRef()), "Duplicate ref " + step.getRef());
+        stepsByRef.put(step.getRef(), step);
+    }
+
+    /**
+     * Returns all steps, with each step after the steps it depends on. ACL steps come last. Package-scoped for use by
+     * SynapseHelper.
+     *
+     * @throws IllegalArgumentException
+     *         if a step refers to a ref that isn't in the plan, or if the refs form a cycle
+     */
+    List<Step> getOrderedSteps() {
+        List<Step> orderedStepList = new ArrayList<>();
+        Set<String> doneRefSet = new HashSet<>();
+        Set<String> visitingRefSet = new LinkedHashSet<>();
+        for (Step step : stepsByRef.values()) {
+            visit(step, doneRefSet, visitingRefSet, orderedStepList);
+        }
+
+        for (Step aclStep : aclStepList) {
+            checkDependencies(aclStep);
+            orderedStepList.add(aclStep);
+        }
+        return orderedStepList;
+    }
+
+    // Depth-first traversal for getOrderedSteps(). visitingRefSet holds the current path, so seeing a ref in it again
+    // means we've found a cycle.
+    private void visit(Step step, Set<String> doneRefSet, Set<String> visitingRefSet, List<Step> orderedStepList) {
+        String ref = step.getRef();
+        if (doneRefSet.contains(ref)) {
+            return;
+        }
+        if (!visitingRefSet.add(ref)) {
+            throw new IllegalArgumentException("Cycle in provisioning plan: " + String.join(" -> ", visitingRefSet) +
+                    " -> " + ref);
+        }
+
+        checkDependencies(step);
+        for (String dependencyRef : step.getDependencyRefList()) {
+            visit(stepsByRef.get(dependencyRef), doneRefSet, visitingRefSet, orderedStepList);
+        }
+
+        visitingRefSet.remove(ref);
+        doneRefSet.add(ref);
+        orderedStepList.add(step);
+    }
+
+    // Helper method to check that all of a step's dependencies are in the plan.
+    private void checkDependencies(Step step) {
+        for (String dependencyRef : step.getDependencyRefList()) {
+            if (!stepsByRef.containsKey(dependencyRef)) {
+                throw new IllegalArgumentException("Unknown ref " + dependencyRef + " in provisioning plan");
+            }
+        }
+    }
+
+    /** Creates the Synapse object for a step, given the Synapse IDs of its dependencies, and returns its ID. */
+    interface StepAction {
+        String run(SynapseHelper synapseHelper, Map<String, String> dependencyIdMap) throws BridgeSynapseException,
+                SynapseException;
+    }
+
+    /** A single entry in the plan. Package-scoped for use by SynapseHelper. */
+    static class Step {
+        private final String ref;
+        private final List<String> dependencyRefList;
+        private final StepAction action;
+
+        Step(String ref, List<String> dependencyRefList, StepAction action) {
+            this.ref = ref;
+            this.dependencyRefList = dependencyRefList;
+            this.action = action;
+        }
+
+        /** Ref for this step, or null for ACL steps. */
+        String getRef() {
+            return ref;
+        }
+
+        /** Refs this step depends on. */
+        List<String> getDependencyRefList() {
+            return dependencyRefList;
+        }
+
+        /** Action that creates this step's Synapse object. */
+        StepAction getAction() {
+            return action;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package org.sagebionetworks.bridge.synapse;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.sagebionetworks.client.exceptions.SynapseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.exceptions.BridgeSynapseException;
+
+/**
+ * <p>
+ * Caches whether Synapse is writable, and acts as a circuit breaker for Synapse availability. This lets workers check
+ * Synapse before every unit of work without paying for a status call each time.
+ * </p>
+ * <p>
+ * While the circuit is CLOSED (Synapse is writable), the status is cached for cacheTtlMillis. When the cache expires,
+ * one caller calls Synapse, and concurrent callers wait for that result. If Synapse reports that it's not writable
+ * (for example, during a read-only window), or if failureThreshold status calls in a row fail, the circuit opens.
+ * </p>
+ * <p>
+ * While the circuit is OPEN, checks fail fast without calling Synapse. Every probeIntervalMillis, a single probe calls
+ * Synapse (HALF_OPEN). If Synapse is writable, the circuit closes. Otherwise, it stays open until the next probe.
+ * Probes happen when callers check the status, or in the background if {@link #startProbing} was called. Background
+ * probing matters for workers that stop checking while Synapse is down.
+ * </p>
+ * <p>
+ * Listeners are notified when the circuit opens and when it closes, so workers can pause and resume consuming work.
+ * This class is thread-safe.
+ * </p>
+ */
+public class SynapseStatusMonitor {
+    private static final Logger LOG = LoggerFactory.getLogger(SynapseStatusMonitor.class);
+
+    static final long DEFAULT_CACHE_TTL_MILLIS = 5000;
+    static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    static final long DEFAULT_PROBE_INTERVAL_MILLIS = 30000;
+
+    /** Circuit breaker state. */
+    public enum State {
+        /** Synapse is writable. Checks use the cached status. */
+        CLOSED,
+
+        /** Synapse is down or read-only. Checks fail fast until the next probe. */
+        OPEN,
+
+        /** A probe is in progress while the circuit is open. Other checks still fail fast. */
+        HALF_OPEN,
+    }
+
+    /** Listener for changes in Synapse availability. */
+    public interface Listener {
+        /** Called when the circuit opens, because Synapse is down or not writable. */
+        void onSynapseUnavailable();
+
+        /** Called when the circuit closes, because Synapse is writable again. */
+        void onSynapseRecovered();
+    }
+
+    private final List<Listener> listenerList = new CopyOnWriteArrayList<>();
+
+    // Only one thread calls Synapse at a time. Callers in the CLOSED state wait for it, while callers in the OPEN state
+    // don't.
+    private final ReentrantLock probeLock = new ReentrantLock();
+
+    private SynapseHelper synapseHelper;
+    private long cacheTtlMillis = DEFAULT_CACHE_TTL_MILLIS;
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long probeIntervalMillis = DEFAULT_PROBE_INTERVAL_MILLIS;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> probeTask;
+
+    // State. These are only written while holding the probe lock, but are read without it.
+    private volatile State state = State.CLOSED;
+    private volatile boolean cachedWritable;
+    private volatile long cacheExpiresMillis = Long.MIN_VALUE;
+    private volatile long nextProbeMillis;
+    private volatile Throwable lastError;
+    private int consecutiveFailures = 0;
+
+    /** Synapse helper, used to get the Synapse status. */
+    public final void setSynapseHelper(SynapseHelper synapseHelper) {
+        this.synapseHelper = synapseHelper;
+    }
+
+    /** How long the writable status is cached while the circuit is closed. Defaults to 5 seconds. */
+    public final void setCacheTtlMillis(long cacheTtlMillis) {
+        this.cacheTtlMillis = cacheTtlMillis;
+    }
+
+    /**
+     * Number of status calls in a row that must fail (throw) before the circuit opens. A status call that reports
+     * Synapse isn't writable opens the circuit right away. Failed status calls below the threshold aren't cached, so
+     * the next check calls Synapse again. Defaults to 3.
+     */
+    public final void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    /** How often to probe Synapse while the circuit is open. Defaults to 30 seconds. */
+    public final void setProbeIntervalMillis(long probeIntervalMillis) {
+        this.probeIntervalMillis = probeIntervalMillis;
+    }
+
+    /**
+     * Scheduler used for background probes. If not set, the monitor creates its own scheduler with a single daemon
+     * thread when {@link #startProbing} is called.
+     */
+    public final synchronized void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /** Adds a listener, which is notified when the circuit opens or closes. */
+    public void addListener(Listener listener) {
+        listenerList.add(listener);
+    }
+
+    /** Removes a listener. */
+    public void removeListener(Listener listener) {
+        listenerList.remove(listener);
+    }
+
+    /** Current circuit breaker state. */
+    public State getState() {
+        return state;
+    }
+
+    /** Starts probing Synapse in the background every probeIntervalMillis. Probes only call Synapse when not CLOSED. */
+    public synchronized void startProbing() {
+        if (probeTask != null) {
+            return;
+        }
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("SynapseStatusMonitor-%d").setDaemon(true).build());
+        }
+        probeTask = scheduler.scheduleWithFixedDelay(this::probeIfOpen, probeIntervalMillis, probeIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops background probing. */
+    public synchronized void stopProbing() {
+        if (probeTask != null) {
+            probeTask.cancel(false);
+            probeTask = null;
+        }
+    }
+
+    /**
+     * Checks if Synapse is writable and throws if it isn't. If the last status call failed, the exception's cause is
+     * the error from that call.
+     */
+    public void checkWritableOrThrow() throws BridgeSynapseException {
+        if (!isWritable()) {
+            throw new BridgeSynapseException("Synapse not in writable state", lastError);
+        }
+    }
+
+    /**
+     * Returns true if Synapse is writable. This uses the cached status if the circuit is closed, and returns false
+     * without calling Synapse if the circuit is open and it isn't time to probe yet. This never throws. Errors calling
+     * Synapse count as not writable.
+     */
+    public boolean isWritable() {
+        if (state == State.CLOSED) {
+            if (currentTimeMillis() < cacheExpiresMillis) {
+                return cachedWritable;
+            }
+
+            probeLock.lock();
+            try {
+                // Another thread may have refreshed the status (or opened the circuit) while we were waiting.
+                if (state != State.CLOSED) {
+                    return false;
+                }
+                if (currentTimeMillis() < cacheExpiresMillis) {
+                    return cachedWritable;
+                }
+                return probe();
+            } finally {
+                probeLock.unlock();
+            }
+        } else {
+            return tryProbeIfDue();
+        }
+    }
+
+    // Background probe task.
+    private void probeIfOpen() {
+        if (state != State.CLOSED) {
+            tryProbeIfDue();
+        }
+    }
+
+    // If the circuit is open and it's time to probe, probes Synapse, unless another thread is already probing.
+    // Returns the result of the probe, or false if we didn't probe.
+    private boolean tryProbeIfDue() {
+        if (currentTimeMillis() < nextProbeMillis || !probeLock.tryLock()) {
+            return false;
+        }
+        try {
+            if (state == State.CLOSED) {
+                // Another thread closed the circuit while we were getting the lock.
+                return cachedWritable;
+            }
+            if (currentTimeMillis() < nextProbeMillis) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            return probe();
+        } finally {
+            probeLock.unlock();
+        }
+    }
+
+    // Calls Synapse and updates the state. Must be called while holding the probe lock.
+    private boolean probe() {
+        boolean writable;
+        boolean isError = false;
+        try {
+            writable = synapseHelper.isSynapseWritable();
+            lastError = null;
+        } catch (SynapseException | RuntimeException ex) {
+            LOG.warn("Error getting Synapse status: " + ex.getMessage(), ex);
+            writable = false;
+            isError = true;
+            lastError = ex;
+        }
+
+        // Only cache actual statuses. An error below the failure threshold leaves the cache expired, so the next
+        // caller calls Synapse again instead of failing for the rest of the TTL.
+        long nowMillis = currentTimeMillis();
+        if (!isError) {
+            cachedWritable = writable;
+            cacheExpiresMillis = nowMillis + cacheTtlMillis;
+        }
+
+        State oldState = state;
+        if (writable) {
+            consecutiveFailures = 0;
+            if (oldState != State.CLOSED) {
+                state = State.CLOSED;
+                LOG.info("Synapse is writable again, closing circuit");
+                notifyListeners(true);
+            }
+        } else {
+            consecutiveFailures++;
+            if (oldState != State.CLOSED || !isError || consecutiveFailures >= failureThreshold) {
+                state = State.OPEN;
+                nextProbeMillis = nowMillis + probeIntervalMillis;
+                if (oldState == State.CLOSED) {
+                    LOG.warn("Synapse is not writable, opening circuit");
+                    notifyListeners(false);
+                }
+            }
+        }
+        return writable;
+    }
+
+    // Helper method to notify listeners. A listener that throws doesn't prevent other listeners from being notified.
+    private void notifyListeners(boolean recovered) {
+        for (Listener listener : listenerList) {
+            try {
+                if (recovered) {
+                    listener.onSynapseRecovered();
+                } else {
+                    listener.onSynapseUnavailable();
+                }
+            } catch (RuntimeException ex) {
+                LOG.error("Error notifying Synapse status listener: " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /** Gets the current time. This is a member method to enable mocking and is package-scoped for unit tests. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,59 @@
+package org.sagebionetworks.bridge.lock;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import org.testng.annotations.Test;
+
+// Tests for the default methods in Lock.
+public class LockTest {
+    @Test
+    public void blockingAcquirePollsUntilAvailable() {
+        // Lock becomes available on the third try.
+        TestLock lock = new TestLock(3);
+        assertEquals(lock.acquireLock("key", 10, 5000), "lock-id");
+        assertEquals(lock.attempts, 3);
+    }
+
+    @Test
+    public void blockingAcquireTimesOut() {
+        TestLock lock = new TestLock(Integer.MAX_VALUE);
+        try {
+            lock.acquireLock("key", 10, 150);
+            fail("expected exception");
+        } catch (LockNotAvailableException ex) {
+            // expected exception
+        }
+        assertTrue(lock.attempts >= 2);
+    }
+
+    // Lock that becomes available after a number of attempts.
+    private static class TestLock implements Lock {
+        private final int availableOnAttempt;
+        private int attempts = 0;
+
+        TestLock(int availableOnAttempt) {
+            this.availableOnAttempt = availableOnAttempt;
+        }
+
+        @Override
+        public String acquireLock(String key, int expireInSeconds) {
+            attempts++;
+            if (attempts < availableOnAttempt) {
+                throw new LockNotAvailableException(key);
+            }
+            return "lock-id";
+        }
+
+        @Override
+        public boolean releaseLock(String key, String lock) {
+            return true;
+        }
+
+        @Override
+        public boolean renewLock(String key, String lock, int expireInSeconds) {
+            return true;
+        }
+    }
+}
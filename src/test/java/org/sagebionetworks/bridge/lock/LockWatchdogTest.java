@@ -0,0 +1,224 @@
+package org.sagebionetworks.bridge.lock;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class LockWatchdogTest {
+    private static final int EXPIRE_SECONDS = 30;
+    private static final String KEY = "key";
+    private static final String LOCK_ID = "lock-id";
+
+    private Lock mockLock;
+    private ScheduledExecutorService mockScheduler;
+    private ScheduledFuture mockRenewTask;
+    private LockLease lease;
+    private LockWatchdog watchdog;
+    private long nowMillis;
+
+    @BeforeMethod
+    public void setup() {
+        mockLock = mock(Lock.class);
+        when(mockLock.acquireLock(KEY, EXPIRE_SECONDS)).thenReturn(LOCK_ID);
+        when(mockLock.releaseLock(KEY, LOCK_ID)).thenReturn(true);
+
+        mockRenewTask = mock(ScheduledFuture.class);
+        mockScheduler = mock(ScheduledExecutorService.class);
+        when(mockScheduler.scheduleWithFixedDelay(any(), anyLong(), anyLong(), any())).thenReturn(mockRenewTask);
+
+        watchdog = spy(new LockWatchdog(mockLock));
+        watchdog.setScheduler(mockScheduler);
+
+        // Mock the clock.
+        nowMillis = 100000;
+        doReturn(nowMillis).when(watchdog).currentTimeMillis();
+    }
+
+    @Test
+    public void acquireSchedulesRenewal() {
+        lease = watchdog.acquireLease(KEY, EXPIRE_SECONDS);
+        assertEquals(lease.getKey(), KEY);
+        assertEquals(lease.getLockId(), LOCK_ID);
+        assertTrue(lease.isHeld());
+        assertEquals(watchdog.getActiveLeaseCount(), 1);
+
+        // Renews every third of the expiration.
+        verify(mockScheduler).scheduleWithFixedDelay(any(), eq(10000L), eq(10000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void renewalExtendsLease() {
+        when(mockLock.renewLock(KEY, LOCK_ID, EXPIRE_SECONDS)).thenReturn(true);
+        Runnable renewal = acquireAndGetRenewal();
+
+        // Renew at 10 seconds. The lease is then held until 40 seconds.
+        setNow(nowMillis + 10000);
+        renewal.run();
+        verify(mockLock).renewLock(KEY, LOCK_ID, EXPIRE_SECONDS);
+
+        setNow(nowMillis + 35000);
+        assertTrue(lease.isHeld());
+    }
+
+    @Test
+    public void slowRenewalCountsFromBeforeTheCall() {
+        Runnable renewal = acquireAndGetRenewal();
+
+        // Renew at 10 seconds. The call takes 5 seconds. The lock expires 30 seconds after the call started, so the
+        // lease is held until 40 seconds, not 45.
+        setNow(nowMillis + 10000);
+        when(mockLock.renewLock(KEY, LOCK_ID, EXPIRE_SECONDS)).thenAnswer(invocation -> {
+            setNow(nowMillis + 15000);
+            return true;
+        });
+        renewal.run();
+
+        setNow(nowMillis + 39999);
+        assertTrue(lease.isHeld());
+        setNow(nowMillis + 40000);
+        assertFalse(lease.isHeld());
+    }
+
+    @Test
+    public void slowAcquireCountsFromBeforeTheCall() {
+        // The call takes 5 seconds. The lease is held until 30 seconds after the call started.
+        when(mockLock.acquireLock(KEY, EXPIRE_SECONDS)).thenAnswer(invocation -> {
+            setNow(nowMillis + 5000);
+            return LOCK_ID;
+        });
+        lease = watchdog.acquireLease(KEY, EXPIRE_SECONDS);
+
+        setNow(nowMillis + EXPIRE_SECONDS * 1000 - 1);
+        assertTrue(lease.isHeld());
+        setNow(nowMillis + EXPIRE_SECONDS * 1000);
+        assertFalse(lease.isHeld());
+    }
+
+    @Test
+    public void lostLockStopsRenewal() {
+        Runnable renewal = acquireAndGetRenewal();
+        when(mockLock.renewLock(KEY, LOCK_ID, EXPIRE_SECONDS)).thenReturn(false);
+
+        renewal.run();
+        assertFalse(lease.isHeld());
+        verify(mockRenewTask).cancel(false);
+        assertEquals(watchdog.getActiveLeaseCount(), 0);
+    }
+
+    @Test
+    public void renewalErrorKeepsTrying() {
+        Runnable renewal = acquireAndGetRenewal();
+        when(mockLock.renewLock(KEY, LOCK_ID, EXPIRE_SECONDS)).thenThrow(new RuntimeException("test exception"));
+
+        // Errors don't stop renewal, and the lease is held until it expires.
+        setNow(nowMillis + 10000);
+        renewal.run();
+        assertTrue(lease.isHeld());
+        verify(mockRenewTask, never()).cancel(false);
+
+        setNow(nowMillis + EXPIRE_SECONDS * 1000);
+        assertFalse(lease.isHeld());
+    }
+
+    @Test
+    public void closeReleasesLock() {
+        Runnable renewal = acquireAndGetRenewal();
+
+        lease.close();
+        assertFalse(lease.isHeld());
+        verify(mockRenewTask).cancel(false);
+        verify(mockLock).releaseLock(KEY, LOCK_ID);
+        assertEquals(watchdog.getActiveLeaseCount(), 0);
+
+        // A renewal that was already running does nothing.
+        renewal.run();
+        verify(mockLock, never()).renewLock(any(), any(), anyInt());
+
+        // Closing again does nothing.
+        lease.close();
+        verify(mockLock, times(1)).releaseLock(KEY, LOCK_ID);
+    }
+
+    @Test
+    public void lockNotAvailable() {
+        when(mockLock.acquireLock(KEY, EXPIRE_SECONDS)).thenThrow(new LockNotAvailableException(KEY));
+        try {
+            watchdog.acquireLease(KEY, EXPIRE_SECONDS);
+            fail("expected exception");
+        } catch (LockNotAvailableException ex) {
+            // expected exception
+        }
+        verify(mockScheduler, never()).scheduleWithFixedDelay(any(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    public void shutdownStopsRenewal() {
+        watchdog.acquireLease(KEY, EXPIRE_SECONDS);
+        watchdog.shutdown();
+        verify(mockRenewTask).cancel(false);
+        assertEquals(watchdog.getActiveLeaseCount(), 0);
+
+        // Locks aren't released, and the scheduler isn't ours to shut down.
+        verify(mockLock, never()).releaseLock(any(), any());
+        verify(mockScheduler, never()).shutdownNow();
+
+        // Can't acquire after shutdown. The lock is released right away.
+        try {
+            watchdog.acquireLease(KEY, EXPIRE_SECONDS);
+            fail("expected exception");
+        } catch (IllegalStateException ex) {
+            // expected exception
+        }
+        verify(mockLock).releaseLock(KEY, LOCK_ID);
+    }
+
+    @Test
+    public void defaultScheduler() throws Exception {
+        LockWatchdog defaultWatchdog = new LockWatchdog(mockLock);
+        when(mockLock.renewLock(KEY, LOCK_ID, 1)).thenReturn(true);
+        when(mockLock.acquireLock(KEY, 1)).thenReturn(LOCK_ID);
+
+        // 1 second expiration renews every 333ms.
+        try (LockLease defaultLease = defaultWatchdog.acquireLease(KEY, 1)) {
+            Thread.sleep(1000);
+            assertTrue(defaultLease.isHeld());
+        } finally {
+            defaultWatchdog.shutdown();
+        }
+        verify(mockLock, atLeastOnce()).renewLock(KEY, LOCK_ID, 1);
+    }
+
+    // Acquires the lease, and returns the renewal task that was scheduled for it.
+    private Runnable acquireAndGetRenewal() {
+        lease = watchdog.acquireLease(KEY, EXPIRE_SECONDS);
+        ArgumentCaptor<Runnable> renewalCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockScheduler).scheduleWithFixedDelay(renewalCaptor.capture(), anyLong(), anyLong(), any());
+        return renewalCaptor.getValue();
+    }
+
+    private void setNow(long nowMillis) {
+        doReturn(nowMillis).when(watchdog).currentTimeMillis();
+    }
+}
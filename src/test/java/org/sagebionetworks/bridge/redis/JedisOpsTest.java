@@ -5,10 +5,13 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableList;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
 
 public class JedisOpsTest {
 
@@ -35,6 +38,12 @@ public class JedisOpsTest {
         verify(jedis, times(1)).set("key", "val");
     }
     
+    @Test
+    public void testSetWithCondition() {
+        ops.set("key", "val", "NX", "EX", 10);
+        verify(jedis, times(1)).set("key", "val", "NX", "EX", 10L);
+    }
+
     @Test
     public void testSetex() {
         ops.setex("key", 5, "val");
@@ -118,4 +127,37 @@ public class JedisOpsTest {
         ops.smembers("key");
         verify(jedis, times(1)).smembers("key");
     }
+
+    @Test
+    public void testEval() {
+        ops.eval("script", ImmutableList.of("key"), ImmutableList.of("arg1", "arg2"));
+        verify(jedis, times(1)).eval("script", ImmutableList.of("key"), ImmutableList.of("arg1", "arg2"));
+    }
+
+    @Test
+    public void testPublish() {
+        ops.publish("channel", "message");
+        verify(jedis, times(1)).publish("channel", "message");
+    }
+
+    @Test
+    public void testSubscribe() {
+        JedisPubSub listener = mock(JedisPubSub.class);
+        ops.subscribe(listener, "channel1", "channel2");
+        verify(jedis, times(1)).subscribe(listener, "channel1", "channel2");
+        verify(jedis, times(1)).close();
+    }
+
+    @Test
+    public void testPipeline() {
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+
+        try (JedisPipeline jedisPipeline = ops.pipeline()) {
+            jedisPipeline.get("key");
+            jedisPipeline.sync();
+            verify(pipeline, times(1)).get("key");
+        }
+        verify(jedis, times(1)).close();
+    }
 }
@@ -0,0 +1,109 @@
+package org.sagebionetworks.bridge.redis;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import org.mockito.InOrder;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+@SuppressWarnings("unchecked")
+public class JedisPipelineTest {
+    private Jedis jedis;
+    private Pipeline pipeline;
+
+    @BeforeMethod
+    public void before() {
+        pipeline = mock(Pipeline.class);
+        jedis = mock(Jedis.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+    }
+
+    @Test
+    public void test() {
+        InOrder inOrder = inOrder(pipeline, jedis);
+        try (JedisPipeline jp = new JedisPipeline(jedis)) {
+            jp.get("k1");
+            jp.set("k2", "v2");
+            jp.setex("k3", 10, "v3");
+            jp.del("k4", "k5");
+            jp.incr("k6");
+            jp.zadd("k7", 1.5, "m7");
+            jp.sadd("k8", "m8a", "m8b");
+            jp.expire("k9", 15);
+            jp.sync();
+        }
+        inOrder.verify(pipeline, times(1)).get("k1");
+        inOrder.verify(pipeline, times(1)).set("k2", "v2");
+        inOrder.verify(pipeline, times(1)).setex("k3", 10, "v3");
+        inOrder.verify(pipeline, times(1)).del("k4", "k5");
+        inOrder.verify(pipeline, times(1)).incr("k6");
+        inOrder.verify(pipeline, times(1)).zadd("k7", 1.5, "m7");
+        inOrder.verify(pipeline, times(1)).sadd("k8", "m8a", "m8b");
+        inOrder.verify(pipeline, times(1)).expire("k9", 15);
+        inOrder.verify(pipeline, times(1)).sync();
+        inOrder.verify(jedis, times(1)).close();
+    }
+
+    @Test
+    public void returnsResponses() {
+        Response<String> getResponse = mock(Response.class);
+        when(pipeline.get("key")).thenReturn(getResponse);
+        Response<Long> incrResponse = mock(Response.class);
+        when(pipeline.incr("key")).thenReturn(incrResponse);
+
+        try (JedisPipeline jp = new JedisPipeline(jedis)) {
+            assertSame(jp.get("key"), getResponse);
+            assertSame(jp.incr("key"), incrResponse);
+        }
+    }
+
+    @Test
+    public void closeSyncsUnsyncedCommands() {
+        try (JedisPipeline jp = new JedisPipeline(jedis)) {
+            jp.set("key", "value");
+        }
+        verify(pipeline, times(1)).sync();
+        verify(jedis, times(1)).close();
+    }
+
+    @Test
+    public void closeDoesNotResync() {
+        try (JedisPipeline jp = new JedisPipeline(jedis)) {
+            jp.set("key", "value");
+            jp.sync();
+        }
+        verify(pipeline, times(1)).sync();
+    }
+
+    @Test
+    public void closeWithNoCommands() {
+        new JedisPipeline(jedis).close();
+        verify(pipeline, never()).sync();
+        verify(jedis, times(1)).close();
+    }
+
+    @Test
+    public void closeReturnsConnectionEvenIfSyncFails() {
+        doThrow(new RuntimeException("test exception")).when(pipeline).sync();
+        JedisPipeline jp = new JedisPipeline(jedis);
+        jp.set("key", "value");
+        try {
+            jp.close();
+            fail("expected exception");
+        } catch (RuntimeException ex) {
+            // expected exception
+        }
+        verify(jedis, times(1)).close();
+    }
+}
@@ -0,0 +1,264 @@
+package org.sagebionetworks.bridge.redis;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+public class NearCacheJedisOpsTest {
+    private static final String CHANNEL = NearCacheJedisOps.INVALIDATION_CHANNEL;
+
+    private Jedis jedis;
+    private JedisPool pool;
+    private NearCacheJedisOps ops;
+    private CompletableFuture<JedisPubSub> listenerFuture;
+    private CountDownLatch connectionLost;
+
+    @BeforeMethod
+    public void before() {
+        jedis = mock(Jedis.class);
+        pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        ops = new NearCacheJedisOps(pool, 100, 60);
+
+        // Capture the invalidation listener. Subscribe blocks until the connection is "lost".
+        listenerFuture = new CompletableFuture<>();
+        connectionLost = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            listenerFuture.complete(invocation.getArgumentAt(0, JedisPubSub.class));
+            connectionLost.await();
+            return null;
+        }).when(jedis).subscribe(any(), eq(CHANNEL));
+    }
+
+    @AfterMethod
+    public void after() {
+        ops.shutdown();
+        connectionLost.countDown();
+    }
+
+    @Test
+    public void readsNotCachedUntilSubscribed() {
+        when(jedis.get("key")).thenReturn("value");
+        assertEquals(ops.get("key"), "value");
+        assertEquals(ops.get("key"), "value");
+        verify(jedis, times(2)).get("key");
+        assertFalse(ops.isSubscribed());
+    }
+
+    @Test
+    public void getCached() throws Exception {
+        subscribe();
+        when(jedis.get("key")).thenReturn("value");
+        assertEquals(ops.get("key"), "value");
+        assertEquals(ops.get("key"), "value");
+        verify(jedis, times(1)).get("key");
+    }
+
+    @Test
+    public void getCachesMissingKeys() throws Exception {
+        subscribe();
+        assertNull(ops.get("key"));
+        assertNull(ops.get("key"));
+        verify(jedis, times(1)).get("key");
+    }
+
+    @Test
+    public void smembersCached() throws Exception {
+        subscribe();
+        when(jedis.smembers("key")).thenReturn(Sets.newHashSet("a", "b"));
+        assertEquals(ops.smembers("key"), ImmutableSet.of("a", "b"));
+
+        // Callers can modify what they get, without changing the cache.
+        Set<String> members = ops.smembers("key");
+        members.add("c");
+        assertEquals(ops.smembers("key"), ImmutableSet.of("a", "b"));
+        verify(jedis, times(1)).smembers("key");
+    }
+
+    @Test
+    public void zscoreCached() throws Exception {
+        subscribe();
+        when(jedis.zscore("key", "a")).thenReturn(1.0);
+        assertEquals(ops.zscore("key", "a"), 1.0);
+        assertEquals(ops.zscore("key", "a"), 1.0);
+        assertNull(ops.zscore("key", "b"));
+        assertNull(ops.zscore("key", "b"));
+        verify(jedis, times(1)).zscore("key", "a");
+        verify(jedis, times(1)).zscore("key", "b");
+
+        // Writing the sorted set invalidates all of its members.
+        ops.zadd("key", 2.0, "b");
+        ops.zscore("key", "a");
+        verify(jedis, times(2)).zscore("key", "a");
+    }
+
+    @Test
+    public void zscoreBoundsMembersPerKey() throws Exception {
+        ops.shutdown();
+        ops = new NearCacheJedisOps(pool, 100, 60, 2);
+        subscribe();
+        ops.zscore("key", "a");
+        ops.zscore("key", "b");
+        ops.zscore("key", "c");
+
+        // Only the 2 most recent members are cached, so "a" was evicted.
+        ops.zscore("key", "a");
+        ops.zscore("key", "c");
+        verify(jedis, times(2)).zscore("key", "a");
+        verify(jedis, times(1)).zscore("key", "c");
+    }
+
+    @Test
+    public void writeInvalidatesAndPublishes() throws Exception {
+        subscribe();
+        when(jedis.get("key")).thenReturn("old", "new");
+        assertEquals(ops.get("key"), "old");
+
+        ops.set("key", "new");
+        verify(jedis).set("key", "new");
+        verify(jedis).publish(CHANNEL, "key");
+        assertEquals(ops.get("key"), "new");
+        verify(jedis, times(2)).get("key");
+    }
+
+    @Test
+    public void delInvalidatesAllKeys() throws Exception {
+        subscribe();
+        ops.get("key1");
+        ops.get("key2");
+
+        ops.del("key1", "key2");
+        verify(jedis).publish(CHANNEL, "key1");
+        verify(jedis).publish(CHANNEL, "key2");
+        ops.get("key1");
+        ops.get("key2");
+        verify(jedis, times(2)).get("key1");
+        verify(jedis, times(2)).get("key2");
+    }
+
+    @Test
+    public void saddInvalidates() throws Exception {
+        subscribe();
+        ops.smembers("key");
+        ops.sadd("key", "a");
+        verify(jedis).publish(CHANNEL, "key");
+        ops.smembers("key");
+        verify(jedis, times(2)).smembers("key");
+    }
+
+    @Test
+    public void evalInvalidatesKeys() throws Exception {
+        subscribe();
+        List<String> keys = ImmutableList.of("key");
+        List<String> args = ImmutableList.of("arg");
+        ops.get("key");
+        ops.eval("script", keys, args);
+        verify(jedis).eval("script", keys, args);
+        verify(jedis).publish(CHANNEL, "key");
+        ops.get("key");
+        verify(jedis, times(2)).get("key");
+    }
+
+    @Test
+    public void remoteInvalidation() throws Exception {
+        JedisPubSub listener = subscribe();
+        ops.get("key");
+        ops.get("other-key");
+
+        listener.onMessage(CHANNEL, "key");
+        ops.get("key");
+        ops.get("other-key");
+        verify(jedis, times(2)).get("key");
+        verify(jedis, times(1)).get("other-key");
+    }
+
+    @Test
+    public void publishFailureIsNotThrown() throws Exception {
+        subscribe();
+        when(jedis.set("key", "value")).thenReturn("OK");
+        when(jedis.publish(CHANNEL, "key")).thenThrow(new JedisConnectionException("test"));
+        ops.get("key");
+
+        assertEquals(ops.set("key", "value"), "OK");
+        // Still invalidated locally.
+        ops.get("key");
+        verify(jedis, times(2)).get("key");
+    }
+
+    @Test
+    public void lostSubscriptionClearsCacheAndStopsCaching() throws Exception {
+        subscribe();
+        ops.get("key");
+        ops.get("key");
+        verify(jedis, times(1)).get("key");
+
+        connectionLost.countDown();
+        while (ops.isSubscribed()) {
+            Thread.sleep(10);
+        }
+        ops.get("key");
+        ops.get("key");
+        verify(jedis, times(3)).get("key");
+    }
+
+    @Test
+    public void shutdownStopsCaching() throws Exception {
+        subscribe();
+        ops.get("key");
+        ops.shutdown();
+        ops.get("key");
+        ops.get("key");
+        verify(jedis, times(3)).get("key");
+        verify(jedis, times(1)).subscribe(any(), anyString());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void zeroMaximumSize() {
+        new NearCacheJedisOps(mock(JedisPool.class), 0, 60);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void zeroTtl() {
+        new NearCacheJedisOps(mock(JedisPool.class), 100, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void zeroMaxScoresPerKey() {
+        new NearCacheJedisOps(mock(JedisPool.class), 100, 60, 0);
+    }
+
+    // Starts the subscriber with a read, and confirms the subscription, as Jedis would.
+    private JedisPubSub subscribe() throws Exception {
+        ops.get("warm-up");
+        JedisPubSub listener = listenerFuture.get(5, TimeUnit.SECONDS);
+        listener.onSubscribe(CHANNEL, 1);
+        assertTrue(ops.isSubscribed());
+        return listener;
+    }
+}
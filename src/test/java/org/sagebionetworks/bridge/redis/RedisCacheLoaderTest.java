@@ -0,0 +1,289 @@
+package org.sagebionetworks.bridge.redis;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
+import org.sagebionetworks.bridge.lock.Lock;
+import org.sagebionetworks.bridge.lock.LockNotAvailableException;
+
+public class RedisCacheLoaderTest {
+    private static final String KEY = "cache-key";
+    private static final String LOCK_KEY = KEY + RedisCacheLoader.LOCK_KEY_SUFFIX;
+    private static final long NOW_MILLIS = 1500000000000L;
+    private static final int TTL_SECONDS = 60;
+
+    // With random() = 0.5, values are refreshed -ln(0.5) = 0.69 times their load time before they expire.
+    private static final double RANDOM = 0.5;
+
+    private static final Supplier<String> FAILING_LOADER = () -> {
+        fail("Loader shouldn't be called");
+        return null;
+    };
+
+    private JedisOps ops;
+    private Map<String, String> redisValues;
+    private RedisCacheLoader<String> cacheLoader;
+
+    @BeforeMethod
+    public void before() {
+        // Fake Redis, backed by a map.
+        redisValues = new ConcurrentHashMap<>();
+        ops = mock(JedisOps.class);
+        when(ops.get(anyString())).thenAnswer(invocation -> redisValues.get(invocation.getArgumentAt(0,
+                String.class)));
+        doAnswer(invocation -> {
+            redisValues.put(invocation.getArgumentAt(0, String.class), invocation.getArgumentAt(2, String.class));
+            return "OK";
+        }).when(ops).setex(anyString(), anyInt(), anyString());
+
+        cacheLoader = spy(new RedisCacheLoader<>(ops, String.class, TTL_SECONDS));
+        doReturn(NOW_MILLIS).when(cacheLoader).currentTimeMillis();
+        doReturn(RANDOM).when(cacheLoader).random();
+    }
+
+    @Test
+    public void hit() {
+        redisValues.put(KEY, makeEntryJson("cached", 100, NOW_MILLIS + 10000));
+        assertEquals(cacheLoader.get(KEY, FAILING_LOADER), "cached");
+    }
+
+    @Test
+    public void missLoadsAndStores() throws Exception {
+        assertEquals(cacheLoader.get(KEY, () -> "loaded"), "loaded");
+        verify(ops).setex(eq(KEY), eq(TTL_SECONDS), anyString());
+
+        JsonNode entryNode = DefaultObjectMapper.INSTANCE.readTree(redisValues.get(KEY));
+        assertEquals(entryNode.get(RedisCacheLoader.FIELD_VALUE).textValue(), "loaded");
+        assertEquals(entryNode.get(RedisCacheLoader.FIELD_LOAD_MILLIS).longValue(), 0L);
+        assertEquals(entryNode.get(RedisCacheLoader.FIELD_EXPIRES_AT).longValue(), NOW_MILLIS + TTL_SECONDS * 1000L);
+
+        // Next get is a hit.
+        assertEquals(cacheLoader.get(KEY, FAILING_LOADER), "loaded");
+    }
+
+    @Test
+    public void recordsLoadTime() throws Exception {
+        doReturn(NOW_MILLIS, NOW_MILLIS + 250).when(cacheLoader).currentTimeMillis();
+        cacheLoader.get(KEY, () -> "loaded");
+
+        JsonNode entryNode = DefaultObjectMapper.INSTANCE.readTree(redisValues.get(KEY));
+        assertEquals(entryNode.get(RedisCacheLoader.FIELD_LOAD_MILLIS).longValue(), 250L);
+        assertEquals(entryNode.get(RedisCacheLoader.FIELD_EXPIRES_AT).longValue(),
+                NOW_MILLIS + 250 + TTL_SECONDS * 1000L);
+    }
+
+    @Test
+    public void nullNotCached() {
+        assertNull(cacheLoader.get(KEY, () -> null));
+        verify(ops, never()).setex(anyString(), anyInt(), anyString());
+    }
+
+    @Test
+    public void genericType() {
+        RedisCacheLoader<List<String>> listLoader = new RedisCacheLoader<>(ops, new TypeReference<List<String>>() {},
+                TTL_SECONDS);
+        assertEquals(listLoader.get(KEY, () -> ImmutableList.of("a", "b")), ImmutableList.of("a", "b"));
+        assertEquals(listLoader.get(KEY, () -> {
+            fail("Loader shouldn't be called");
+            return null;
+        }), ImmutableList.of("a", "b"));
+    }
+
+    @Test
+    public void earlyRefresh() {
+        // Load time 100ms, so we refresh 69ms before expiry.
+        redisValues.put(KEY, makeEntryJson("cached", 100, NOW_MILLIS + 50));
+        assertEquals(cacheLoader.get(KEY, () -> "refreshed"), "refreshed");
+        verify(ops).setex(eq(KEY), eq(TTL_SECONDS), anyString());
+    }
+
+    @Test
+    public void noEarlyRefreshOutsideWindow() {
+        redisValues.put(KEY, makeEntryJson("cached", 100, NOW_MILLIS + 100));
+        assertEquals(cacheLoader.get(KEY, FAILING_LOADER), "cached");
+    }
+
+    @Test
+    public void earlyRefreshDisabled() {
+        cacheLoader.setEarlyRefreshBeta(0.0);
+        redisValues.put(KEY, makeEntryJson("cached", 100, NOW_MILLIS + 50));
+        assertEquals(cacheLoader.get(KEY, FAILING_LOADER), "cached");
+    }
+
+    @Test
+    public void earlyRefreshErrorReturnsCachedValue() {
+        redisValues.put(KEY, makeEntryJson("cached", 100, NOW_MILLIS + 50));
+        assertEquals(cacheLoader.get(KEY, () -> {
+            throw new IllegalStateException("test");
+        }), "cached");
+        assertEquals(cacheLoader.getLoadsInProgressCount(), 0);
+    }
+
+    @Test
+    public void loaderErrorOnMiss() {
+        try {
+            cacheLoader.get(KEY, () -> {
+                throw new IllegalStateException("test");
+            });
+            fail("expected exception");
+        } catch (IllegalStateException ex) {
+            assertEquals(ex.getMessage(), "test");
+        }
+        assertEquals(cacheLoader.getLoadsInProgressCount(), 0);
+    }
+
+    @Test
+    public void corruptEntryIsMiss() {
+        redisValues.put(KEY, "not json");
+        assertEquals(cacheLoader.get(KEY, () -> "loaded"), "loaded");
+    }
+
+    @Test
+    public void redisErrorsAreMisses() {
+        when(ops.get(KEY)).thenThrow(new RedisException("test"));
+        doThrow(new RedisException("test")).when(ops).setex(anyString(), anyInt(), anyString());
+        assertEquals(cacheLoader.get(KEY, () -> "loaded"), "loaded");
+    }
+
+    @Test
+    public void singleFlight() throws Exception {
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch finishLoad = new CountDownLatch(1);
+        AtomicInteger loadCount = new AtomicInteger();
+        Supplier<String> slowLoader = () -> {
+            loadCount.incrementAndGet();
+            loadStarted.countDown();
+            Uninterruptibles.awaitUninterruptibly(finishLoad);
+            return "loaded";
+        };
+
+        CompletableFuture<String> firstFuture = new CompletableFuture<>();
+        CompletableFuture<String> secondFuture = new CompletableFuture<>();
+        Thread firstThread = new Thread(() -> firstFuture.complete(cacheLoader.get(KEY, slowLoader)));
+        Thread secondThread = new Thread(() -> secondFuture.complete(cacheLoader.get(KEY, slowLoader)));
+        firstThread.start();
+        assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+
+        // Wait for the second get to find the load in progress and wait for it.
+        secondThread.start();
+        while (secondThread.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        finishLoad.countDown();
+
+        assertEquals(firstFuture.get(5, TimeUnit.SECONDS), "loaded");
+        assertEquals(secondFuture.get(5, TimeUnit.SECONDS), "loaded");
+        assertEquals(loadCount.get(), 1);
+        assertEquals(cacheLoader.getLoadsInProgressCount(), 0);
+    }
+
+    @Test
+    public void valueStoredBeforeWinningLoadIsNotLoadedAgain() {
+        // Another thread misses, loads, stores, and finishes its load between our first read and our putIfAbsent. We
+        // win the race to load, but re-reading finds its value, so we don't load it again.
+        when(ops.get(KEY)).thenReturn(null, makeEntryJson("other-thread", 100, NOW_MILLIS + 10000));
+        assertEquals(cacheLoader.get(KEY, FAILING_LOADER), "other-thread");
+        assertEquals(cacheLoader.getLoadsInProgressCount(), 0);
+    }
+
+    @Test
+    public void lockedLoad() {
+        Lock lock = mock(Lock.class);
+        when(lock.acquireLock(LOCK_KEY, RedisCacheLoader.DEFAULT_LOCK_EXPIRE_SECONDS,
+                RedisCacheLoader.DEFAULT_LOCK_TIMEOUT_MILLIS)).thenReturn("lock-id");
+        cacheLoader.setLock(lock);
+
+        assertEquals(cacheLoader.get(KEY, () -> "loaded"), "loaded");
+        verify(ops).setex(eq(KEY), eq(TTL_SECONDS), anyString());
+        verify(lock).releaseLock(LOCK_KEY, "lock-id");
+    }
+
+    @Test
+    public void lockedLoadUsesValueFromOtherHost() {
+        // The other host stores the value while we wait for the lock.
+        Lock lock = mock(Lock.class);
+        when(lock.acquireLock(LOCK_KEY, 10, 2000)).thenAnswer(invocation -> {
+            redisValues.put(KEY, makeEntryJson("other-host", 100, NOW_MILLIS + 10000));
+            return "lock-id";
+        });
+        cacheLoader.setLock(lock);
+        cacheLoader.setLockExpireSeconds(10);
+        cacheLoader.setLockTimeoutMillis(2000);
+
+        assertEquals(cacheLoader.get(KEY, FAILING_LOADER), "other-host");
+        verify(lock).releaseLock(LOCK_KEY, "lock-id");
+    }
+
+    @Test
+    public void lockTimeoutLoadsAnyway() {
+        Lock lock = mock(Lock.class);
+        when(lock.acquireLock(LOCK_KEY, RedisCacheLoader.DEFAULT_LOCK_EXPIRE_SECONDS,
+                RedisCacheLoader.DEFAULT_LOCK_TIMEOUT_MILLIS)).thenThrow(new LockNotAvailableException(LOCK_KEY));
+        cacheLoader.setLock(lock);
+
+        assertEquals(cacheLoader.get(KEY, () -> "loaded"), "loaded");
+        verify(lock, never()).releaseLock(anyString(), anyString());
+    }
+
+    @Test
+    public void earlyRefreshDoesNotWaitForLock() {
+        // Someone else is refreshing, so we return the cached value.
+        Lock lock = mock(Lock.class);
+        when(lock.acquireLock(LOCK_KEY, RedisCacheLoader.DEFAULT_LOCK_EXPIRE_SECONDS, 0L))
+                .thenThrow(new LockNotAvailableException(LOCK_KEY));
+        cacheLoader.setLock(lock);
+
+        redisValues.put(KEY, makeEntryJson("cached", 100, NOW_MILLIS + 50));
+        assertEquals(cacheLoader.get(KEY, FAILING_LOADER), "cached");
+    }
+
+    @Test
+    public void invalidate() {
+        cacheLoader.invalidate(KEY);
+        verify(ops).del(KEY);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void zeroTtl() {
+        new RedisCacheLoader<>(ops, String.class, 0);
+    }
+
+    private static String makeEntryJson(String value, long loadMillis, long expiresAtMillis) {
+        ObjectNode entryNode = DefaultObjectMapper.INSTANCE.createObjectNode();
+        entryNode.put(RedisCacheLoader.FIELD_VALUE, value);
+        entryNode.put(RedisCacheLoader.FIELD_LOAD_MILLIS, loadMillis);
+        entryNode.put(RedisCacheLoader.FIELD_EXPIRES_AT, expiresAtMillis);
+        return entryNode.toString();
+    }
+}
@@ -1,56 +1,60 @@
 package org.sagebionetworks.bridge.redis;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
-import org.mockito.InOrder;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import org.mockito.ArgumentCaptor;
 import org.testng.annotations.Test;
+import redis.clients.jedis.JedisPubSub;
 
 import org.sagebionetworks.bridge.lock.LockNotAvailableException;
 
 public class RedisLockTest {
+    private static final List<String> RELEASE_ARGS = ImmutableList.of("lock", RedisLock.RELEASE_CHANNEL);
+
     @Test
     public void testAcquireLock() {
         JedisOps ops = mock(JedisOps.class);
-        // 1 -- indicates lock acquired
-        when(ops.setnx(eq("key"), anyString())).thenReturn(1L);
-        when(ops.expire("key", 10)).thenReturn(1L);
+        // OK -- indicates lock acquired
+        when(ops.set(eq("key"), anyString(), eq("NX"), eq("EX"), eq(10L))).thenReturn("OK");
         RedisLock lock = new RedisLock(ops);
-        lock.acquireLock("key", 10);
-        InOrder inOrder = inOrder(ops);
-        inOrder.verify(ops, times(1)).setnx(eq("key"), anyString());
-        inOrder.verify(ops, times(1)).expire("key", 10);
-    }
+        String lockId = lock.acquireLock("key", 10);
+        assertNotNull(lockId);
 
-    @Test(expectedExceptions = RedisException.class)
-    public void testAcquireLockWithRedisException() {
-        JedisOps ops = mock(JedisOps.class);
-        // 1 -- indicates lock acquired
-        when(ops.setnx(eq("key"), anyString())).thenReturn(1L);
-        // 0 -- fails to expire the lock
-        when(ops.expire("key", 10)).thenReturn(0L);
-        RedisLock lock = new RedisLock(ops);
-        lock.acquireLock("key", 10);
+        // Acquire is a single round trip, and the lock ID is the value.
+        ArgumentCaptor<String> valueCaptor = ArgumentCaptor.forClass(String.class);
+        verify(ops, times(1)).set(eq("key"), valueCaptor.capture(), eq("NX"), eq("EX"), eq(10L));
+        assertEquals(valueCaptor.getValue(), lockId);
+        verifyNoMoreInteractions(ops);
     }
 
     @Test
     public void testAcquireLockWithLockNotAvailableException() {
         JedisOps ops = mock(JedisOps.class);
-        // 0 -- indicates lock acquiring failed
-        when(ops.setnx(eq("key"), anyString())).thenReturn(0L);
-        // -1 -- lock has no associated expire
-        when(ops.ttl("key")).thenReturn(-1L);
-        when(ops.expire("key", 10)).thenReturn(1L);
+        // null -- indicates the key is already set
+        when(ops.set(eq("key"), anyString(), eq("NX"), eq("EX"), eq(10L))).thenReturn(null);
         RedisLock lock = new RedisLock(ops);
         LockNotAvailableException expected = null;
         try {
@@ -60,39 +64,163 @@ public class RedisLockTest {
             expected = e;
         }
         assertNotNull(expected);
-        InOrder inOrder = inOrder(ops);
-        inOrder.verify(ops, times(1)).setnx(eq("key"), anyString());
-        inOrder.verify(ops, times(1)).expire("key", 10);
+        verify(ops, times(1)).set(eq("key"), anyString(), eq("NX"), eq("EX"), eq(10L));
+        verifyNoMoreInteractions(ops);
     }
 
     @Test
     public void testReleaseLockSucceeded() {
         JedisOps ops = mock(JedisOps.class);
-        when(ops.get("key")).thenReturn("lock");
-        when(ops.del("key")).thenReturn(1L);
+        when(ops.eval(RedisLock.RELEASE_SCRIPT, ImmutableList.of("key"), RELEASE_ARGS)).thenReturn(1L);
         RedisLock lock = new RedisLock(ops);
         assertTrue(lock.releaseLock("key", "lock"));
-        InOrder inOrder = inOrder(ops);
-        inOrder.verify(ops, times(1)).get("key");
-        inOrder.verify(ops, times(1)).del("key");
+        verify(ops, times(1)).eval(RedisLock.RELEASE_SCRIPT, ImmutableList.of("key"), RELEASE_ARGS);
+        verifyNoMoreInteractions(ops);
     }
 
     @Test
     public void testReleaseLockFailed() {
         JedisOps ops = mock(JedisOps.class);
-        when(ops.get("key")).thenReturn("lock");
-        when(ops.del("key")).thenReturn(1L);
+        // 0 -- lock is held by someone else, or has expired
+        when(ops.eval(RedisLock.RELEASE_SCRIPT, ImmutableList.of("key"), ImmutableList.of("lockNotOwnedByMe",
+                RedisLock.RELEASE_CHANNEL))).thenReturn(0L);
         RedisLock lock = new RedisLock(ops);
         assertFalse(lock.releaseLock("key", "lockNotOwnedByMe"));
-        verify(ops, never()).del("key");
     }
 
     @Test(expectedExceptions = RedisException.class)
     public void testReleaseLockWithRedisException() {
         JedisOps ops = mock(JedisOps.class);
-        when(ops.get("key")).thenReturn("lock");
-        when(ops.del("key")).thenReturn(0L);
+        when(ops.eval(RedisLock.RELEASE_SCRIPT, ImmutableList.of("key"), RELEASE_ARGS))
+                .thenReturn("unexpected");
         RedisLock lock = new RedisLock(ops);
         lock.releaseLock("key", "lock");
     }
+
+    @Test
+    public void testRenewLockSucceeded() {
+        JedisOps ops = mock(JedisOps.class);
+        when(ops.eval(RedisLock.RENEW_SCRIPT, ImmutableList.of("key"), ImmutableList.of("lock", "10")))
+                .thenReturn(1L);
+        RedisLock lock = new RedisLock(ops);
+        assertTrue(lock.renewLock("key", "lock", 10));
+        verify(ops, times(1)).eval(RedisLock.RENEW_SCRIPT, ImmutableList.of("key"), ImmutableList.of("lock", "10"));
+        verifyNoMoreInteractions(ops);
+    }
+
+    @Test
+    public void testRenewLockFailed() {
+        JedisOps ops = mock(JedisOps.class);
+        // 0 -- lock is held by someone else, or has expired
+        when(ops.eval(RedisLock.RENEW_SCRIPT, ImmutableList.of("key"), ImmutableList.of("lockNotOwnedByMe", "10")))
+                .thenReturn(0L);
+        RedisLock lock = new RedisLock(ops);
+        assertFalse(lock.renewLock("key", "lockNotOwnedByMe", 10));
+    }
+
+    @Test(expectedExceptions = RedisException.class)
+    public void testRenewLockWithRedisException() {
+        JedisOps ops = mock(JedisOps.class);
+        when(ops.eval(RedisLock.RENEW_SCRIPT, ImmutableList.of("key"), ImmutableList.of("lock", "10")))
+                .thenReturn("unexpected");
+        RedisLock lock = new RedisLock(ops);
+        lock.renewLock("key", "lock", 10);
+    }
+
+    @Test
+    public void testBlockingAcquireLockAvailable() {
+        JedisOps ops = mock(JedisOps.class);
+        when(ops.set(eq("key"), anyString(), eq("NX"), eq("EX"), eq(10L))).thenReturn("OK");
+        RedisLock lock = new RedisLock(ops);
+        try {
+            assertNotNull(lock.acquireLock("key", 10, 1000));
+            assertEquals(lock.getWaiterCount("key"), 0);
+        } finally {
+            lock.shutdown();
+        }
+    }
+
+    @Test
+    public void testBlockingAcquireLockWokenByRelease() throws Exception {
+        JedisOps ops = mock(JedisOps.class);
+        // Lock is held at first, then available after the release.
+        when(ops.set(eq("key"), anyString(), eq("NX"), eq("EX"), eq(10L))).thenReturn(null, "OK");
+
+        // Capture the release listener. Subscribe blocks until unsubscribed.
+        CompletableFuture<JedisPubSub> listenerFuture = new CompletableFuture<>();
+        CountDownLatch unsubscribed = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            listenerFuture.complete(invocation.getArgumentAt(0, JedisPubSub.class));
+            unsubscribed.await();
+            return null;
+        }).when(ops).subscribe(any(), eq(RedisLock.RELEASE_CHANNEL));
+
+        // Polling is slow enough that only the release can wake the waiter in time.
+        RedisLock lock = new RedisLock(ops);
+        lock.setPollIntervalMillis(60000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> acquireFuture = executor.submit(() -> lock.acquireLock("key", 10, 60000));
+
+            // Wait for the acquire to fail and start waiting, then publish the release.
+            JedisPubSub listener = listenerFuture.get(5, TimeUnit.SECONDS);
+            while (lock.getWaiterCount("key") == 0) {
+                Thread.sleep(10);
+            }
+            listener.onMessage(RedisLock.RELEASE_CHANNEL, "key");
+
+            assertNotNull(acquireFuture.get(5, TimeUnit.SECONDS));
+            verify(ops, times(2)).set(eq("key"), anyString(), eq("NX"), eq("EX"), eq(10L));
+            assertEquals(lock.getWaiterCount("key"), 0);
+        } finally {
+            unsubscribed.countDown();
+            lock.shutdown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBlockingAcquireLockPollsAndTimesOut() {
+        JedisOps ops = mock(JedisOps.class);
+        // null -- lock is never available
+        when(ops.set(eq("key"), anyString(), eq("NX"), eq("EX"), eq(10L))).thenReturn(null);
+        RedisLock lock = new RedisLock(ops);
+        lock.setPollIntervalMillis(10);
+        try {
+            lock.acquireLock("key", 10, 100);
+            fail("LockNotAvailableException expected.");
+        } catch (LockNotAvailableException e) {
+            // expected exception
+        } finally {
+            lock.shutdown();
+        }
+
+        // We polled while waiting, and cleaned up after.
+        verify(ops, atLeast(2)).set(eq("key"), anyString(), eq("NX"), eq("EX"), eq(10L));
+        assertEquals(lock.getWaiterCount("key"), 0);
+    }
+
+    @Test
+    public void testBlockingAcquireLockZeroTimeout() {
+        JedisOps ops = mock(JedisOps.class);
+        when(ops.set(eq("key"), anyString(), eq("NX"), eq("EX"), eq(10L))).thenReturn(null);
+        RedisLock lock = new RedisLock(ops);
+        try {
+            lock.acquireLock("key", 10, 0);
+            fail("LockNotAvailableException expected.");
+        } catch (LockNotAvailableException e) {
+            // expected exception
+        } finally {
+            lock.shutdown();
+        }
+        verify(ops, times(1)).set(eq("key"), anyString(), eq("NX"), eq("EX"), eq(10L));
+    }
+
+    @Test
+    public void testWakeWaitersWithNoWaiters() {
+        // Releases of keys nobody is waiting for are ignored.
+        RedisLock lock = new RedisLock(mock(JedisOps.class));
+        lock.wakeWaiters("key");
+        assertEquals(lock.getWaiterCount("key"), 0);
+    }
 }
@@ -0,0 +1,107 @@
+package org.sagebionetworks.bridge.redis;
+
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.lock.LockNotAvailableException;
+
+public class RedisSemaphoreTest {
+    private static final String KEY = "semaphore-key";
+    private static final String PERMIT = "permit-id";
+    private static final long NOW_MILLIS = 1500000000000L;
+    private static final List<String> KEYS = ImmutableList.of(KEY);
+
+    private JedisOps ops;
+    private RedisSemaphore semaphore;
+
+    @BeforeMethod
+    public void before() {
+        ops = mock(JedisOps.class);
+        semaphore = spy(new RedisSemaphore(ops));
+        doReturn(NOW_MILLIS).when(semaphore).currentTimeMillis();
+    }
+
+    @Test
+    public void acquire() {
+        when(ops.eval(eq(RedisSemaphore.ACQUIRE_SCRIPT), eq(KEYS), anyListOf(String.class))).thenReturn(1L);
+
+        String permit = semaphore.acquirePermit(KEY, 3, 60);
+        assertNotNull(permit);
+
+        List<String> args = captureEvalArgs(RedisSemaphore.ACQUIRE_SCRIPT);
+        assertEquals(args, ImmutableList.of(String.valueOf(NOW_MILLIS), "3", "60000", permit));
+    }
+
+    @Test(expectedExceptions = LockNotAvailableException.class)
+    public void acquireAllPermitsHeld() {
+        when(ops.eval(eq(RedisSemaphore.ACQUIRE_SCRIPT), eq(KEYS), anyListOf(String.class))).thenReturn(0L);
+        semaphore.acquirePermit(KEY, 3, 60);
+    }
+
+    @Test(expectedExceptions = RedisException.class)
+    public void acquireUnexpectedResult() {
+        when(ops.eval(eq(RedisSemaphore.ACQUIRE_SCRIPT), eq(KEYS), anyListOf(String.class))).thenReturn(null);
+        semaphore.acquirePermit(KEY, 3, 60);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void acquireZeroPermits() {
+        semaphore.acquirePermit(KEY, 0, 60);
+    }
+
+    @Test
+    public void release() {
+        when(ops.zrem(KEY, PERMIT)).thenReturn(1L);
+        assertTrue(semaphore.releasePermit(KEY, PERMIT));
+    }
+
+    @Test
+    public void releaseNotHeld() {
+        when(ops.zrem(KEY, PERMIT)).thenReturn(0L);
+        assertFalse(semaphore.releasePermit(KEY, PERMIT));
+    }
+
+    @Test
+    public void renew() {
+        when(ops.eval(RedisSemaphore.RENEW_SCRIPT, KEYS, ImmutableList.of(String.valueOf(NOW_MILLIS), "30000",
+                PERMIT))).thenReturn(1L);
+        assertTrue(semaphore.renewPermit(KEY, PERMIT, 30));
+    }
+
+    @Test
+    public void renewNotHeld() {
+        when(ops.eval(RedisSemaphore.RENEW_SCRIPT, KEYS, ImmutableList.of(String.valueOf(NOW_MILLIS), "30000",
+                PERMIT))).thenReturn(0L);
+        assertFalse(semaphore.renewPermit(KEY, PERMIT, 30));
+    }
+
+    @Test(expectedExceptions = RedisException.class)
+    public void renewUnexpectedResult() {
+        when(ops.eval(RedisSemaphore.RENEW_SCRIPT, KEYS, ImmutableList.of(String.valueOf(NOW_MILLIS), "30000",
+                PERMIT))).thenReturn("OK");
+        semaphore.renewPermit(KEY, PERMIT, 30);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> captureEvalArgs(String script) {
+        ArgumentCaptor<List> argsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(ops).eval(eq(script), eq(KEYS), argsCaptor.capture());
+        return argsCaptor.getValue();
+    }
+}
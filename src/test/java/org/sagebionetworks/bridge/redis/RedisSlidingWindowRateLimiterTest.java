@@ -0,0 +1,99 @@
+package org.sagebionetworks.bridge.redis;
+
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class RedisSlidingWindowRateLimiterTest {
+    private static final String KEY = "rate-limiter-key";
+    private static final long NOW_MILLIS = 1500000000000L;
+    private static final List<String> KEYS = ImmutableList.of(KEY);
+
+    private JedisOps ops;
+    private RedisSlidingWindowRateLimiter limiter;
+
+    @BeforeMethod
+    public void before() {
+        ops = mock(JedisOps.class);
+        limiter = spy(new RedisSlidingWindowRateLimiter(ops, KEY, 5, 1000));
+        doReturn(NOW_MILLIS).when(limiter).currentTimeMillis();
+        doNothing().when(limiter).sleepMillis(anyLong());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void tryAcquire() {
+        when(ops.eval(eq(RedisSlidingWindowRateLimiter.ACQUIRE_SCRIPT), eq(KEYS), anyListOf(String.class)))
+                .thenReturn(0L);
+        assertTrue(limiter.tryAcquire());
+
+        ArgumentCaptor<List> argsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(ops).eval(eq(RedisSlidingWindowRateLimiter.ACQUIRE_SCRIPT), eq(KEYS), argsCaptor.capture());
+        List<String> args = argsCaptor.getValue();
+        assertEquals(args.subList(0, 3), ImmutableList.of(String.valueOf(NOW_MILLIS), "1000", "5"));
+        assertTrue(args.get(3).startsWith(NOW_MILLIS + ":"));
+    }
+
+    @Test
+    public void tryAcquireWindowFull() {
+        when(ops.eval(eq(RedisSlidingWindowRateLimiter.ACQUIRE_SCRIPT), eq(KEYS), anyListOf(String.class)))
+                .thenReturn(300L);
+        assertFalse(limiter.tryAcquire());
+        verify(limiter, never()).sleepMillis(anyLong());
+    }
+
+    @Test
+    public void acquireWithoutWaiting() {
+        when(ops.eval(eq(RedisSlidingWindowRateLimiter.ACQUIRE_SCRIPT), eq(KEYS), anyListOf(String.class)))
+                .thenReturn(0L);
+        assertEquals(limiter.acquire(), 0.0, 0.001);
+        verify(limiter, never()).sleepMillis(anyLong());
+    }
+
+    @Test
+    public void acquireWaitsUntilWindowHasRoom() {
+        // Another host takes the first free slot, so we wait twice.
+        when(ops.eval(eq(RedisSlidingWindowRateLimiter.ACQUIRE_SCRIPT), eq(KEYS), anyListOf(String.class)))
+                .thenReturn(300L, 50L, 0L);
+        assertEquals(limiter.acquire(), 0.35, 0.001);
+        verify(limiter).sleepMillis(300L);
+        verify(limiter).sleepMillis(50L);
+        verify(ops, times(3)).eval(eq(RedisSlidingWindowRateLimiter.ACQUIRE_SCRIPT), eq(KEYS),
+                anyListOf(String.class));
+    }
+
+    @Test(expectedExceptions = RedisException.class)
+    public void unexpectedResult() {
+        when(ops.eval(eq(RedisSlidingWindowRateLimiter.ACQUIRE_SCRIPT), eq(KEYS), anyListOf(String.class)))
+                .thenReturn(null);
+        limiter.tryAcquire();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void zeroMaxRequests() {
+        new RedisSlidingWindowRateLimiter(ops, KEY, 0, 1000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void zeroWindow() {
+        new RedisSlidingWindowRateLimiter(ops, KEY, 5, 0);
+    }
+}
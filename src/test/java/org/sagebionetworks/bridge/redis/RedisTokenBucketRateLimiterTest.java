@@ -0,0 +1,70 @@
+package org.sagebionetworks.bridge.redis;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class RedisTokenBucketRateLimiterTest {
+    private static final String KEY = "rate-limiter-key";
+    private static final long NOW_MILLIS = 1500000000000L;
+
+    private JedisOps ops;
+    private RedisTokenBucketRateLimiter limiter;
+
+    @BeforeMethod
+    public void before() {
+        ops = mock(JedisOps.class);
+        limiter = spy(new RedisTokenBucketRateLimiter(ops, KEY, 10.0, 20));
+        doReturn(NOW_MILLIS).when(limiter).currentTimeMillis();
+        doNothing().when(limiter).sleepMillis(anyLong());
+    }
+
+    @Test
+    public void acquireWithoutWaiting() {
+        List<String> expectedArgs = ImmutableList.of("0.01", "20", String.valueOf(NOW_MILLIS), "1");
+        when(ops.eval(RedisTokenBucketRateLimiter.RESERVE_SCRIPT, ImmutableList.of(KEY), expectedArgs))
+                .thenReturn(0L);
+
+        assertEquals(limiter.acquire(), 0.0, 0.001);
+        verify(limiter, never()).sleepMillis(anyLong());
+    }
+
+    @Test
+    public void acquireWaits() {
+        List<String> expectedArgs = ImmutableList.of("0.01", "20", String.valueOf(NOW_MILLIS), "3");
+        when(ops.eval(RedisTokenBucketRateLimiter.RESERVE_SCRIPT, ImmutableList.of(KEY), expectedArgs))
+                .thenReturn(250L);
+
+        assertEquals(limiter.acquire(3), 0.25, 0.001);
+        verify(limiter).sleepMillis(250L);
+    }
+
+    @Test(expectedExceptions = RedisException.class)
+    public void unexpectedResult() {
+        when(ops.eval(RedisTokenBucketRateLimiter.RESERVE_SCRIPT, ImmutableList.of(KEY), ImmutableList.of("0.01",
+                "20", String.valueOf(NOW_MILLIS), "1"))).thenReturn(null);
+        limiter.acquire();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void zeroPermits() {
+        limiter.reserve(0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void zeroRate() {
+        new RedisTokenBucketRateLimiter(ops, KEY, 0.0);
+    }
+}
@@ -0,0 +1,44 @@
+package org.sagebionetworks.bridge.retry;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class RetryBudgetTest {
+    @Test
+    public void budget() {
+        // Budget starts full.
+        RetryBudget budget = new RetryBudget(0.5, 2);
+        assertEquals(budget.getAvailableTokens(), 2.0, 0.001);
+        assertTrue(budget.tryAcquireRetry());
+        assertTrue(budget.tryAcquireRetry());
+        assertFalse(budget.tryAcquireRetry());
+
+        // Two calls deposit enough for one more retry.
+        budget.recordCall();
+        assertFalse(budget.tryAcquireRetry());
+        budget.recordCall();
+        assertTrue(budget.tryAcquireRetry());
+    }
+
+    @Test
+    public void depositsAreCapped() {
+        RetryBudget budget = new RetryBudget(1.0, 2);
+        for (int i = 0; i < 10; i++) {
+            budget.recordCall();
+        }
+        assertEquals(budget.getAvailableTokens(), 2.0, 0.001);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void negativeRatio() {
+        new RetryBudget(-1.0, 2);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void zeroMaxTokens() {
+        new RetryBudget(0.1, 0);
+    }
+}
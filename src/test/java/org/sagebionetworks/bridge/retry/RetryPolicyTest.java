@@ -0,0 +1,177 @@
+package org.sagebionetworks.bridge.retry;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+public class RetryPolicyTest {
+    private static final String OPERATION_NAME = "test-operation";
+
+    // Simple call that fails a given number of times before succeeding.
+    private static class FailingCall implements RetryableCall<String, IOException> {
+        private final int numFailures;
+        private final IOException exception;
+        int timesCalled = 0;
+
+        FailingCall(int numFailures, IOException exception) {
+            this.numFailures = numFailures;
+            this.exception = exception;
+        }
+
+        @Override
+        public String call() throws IOException {
+            if (++timesCalled <= numFailures) {
+                throw exception;
+            }
+            return "success";
+        }
+    }
+
+    @Test
+    public void succeedsAfterRetries() throws Exception {
+        RetryListener mockListener = mock(RetryListener.class);
+        RetryPolicy policy = spyPolicy(new RetryPolicy.Builder().withMaxAttempts(5).withListener(mockListener));
+
+        IOException exception = new IOException("test exception");
+        FailingCall call = new FailingCall(4, exception);
+        assertEquals(policy.call(OPERATION_NAME, call), "success");
+        assertEquals(call.timesCalled, 5);
+
+        verify(policy, times(4)).sleep(anyLong());
+        verify(mockListener, times(4)).onRetry(eq(OPERATION_NAME), anyInt(), anyLong(), same(exception));
+        verify(mockListener).onSuccess(eq(OPERATION_NAME), eq(5), anyLong());
+        verify(mockListener, never()).onFailure(any(), anyInt(), any());
+    }
+
+    @Test
+    public void throwsAfterMaxAttempts() throws Exception {
+        RetryListener mockListener = mock(RetryListener.class);
+        RetryPolicy policy = spyPolicy(new RetryPolicy.Builder().withMaxAttempts(3).withListener(mockListener));
+
+        IOException exception = new IOException("test exception");
+        FailingCall call = new FailingCall(10, exception);
+        try {
+            policy.call(OPERATION_NAME, call);
+            fail("expected exception");
+        } catch (IOException ex) {
+            assertSame(ex, exception);
+        }
+        assertEquals(call.timesCalled, 3);
+        verify(mockListener).onFailure(OPERATION_NAME, 3, exception);
+    }
+
+    @Test
+    public void nonRetryableExceptionIsNotRetried() throws Exception {
+        RetryPolicy policy = spyPolicy(new RetryPolicy.Builder().withMaxAttempts(5).withRetryableTypes(
+                IllegalStateException.class));
+
+        FailingCall call = new FailingCall(10, new IOException("not retryable"));
+        try {
+            policy.call(OPERATION_NAME, call);
+            fail("expected exception");
+        } catch (IOException ex) {
+            // expected exception
+        }
+        assertEquals(call.timesCalled, 1);
+        verify(policy, never()).sleep(anyLong());
+    }
+
+    @Test
+    public void deadlineStopsRetries() throws Exception {
+        RetryPolicy policy = spyPolicy(new RetryPolicy.Builder().withMaxAttempts(5).withDeadlineMillis(1000));
+
+        // Time jumps forward 2 seconds after the first call. The next retry would be past the deadline.
+        doReturn(0L).doReturn(2000L).when(policy).currentTimeMillis();
+
+        FailingCall call = new FailingCall(10, new IOException("test exception"));
+        try {
+            policy.call(OPERATION_NAME, call);
+            fail("expected exception");
+        } catch (IOException ex) {
+            // expected exception
+        }
+        assertEquals(call.timesCalled, 1);
+    }
+
+    @Test
+    public void retryBudgetStopsRetries() throws Exception {
+        // Budget only has room for one retry, and calls don't deposit anything.
+        RetryBudget budget = new RetryBudget(0.0, 1);
+        RetryListener mockListener = mock(RetryListener.class);
+        RetryPolicy policy = spyPolicy(new RetryPolicy.Builder().withMaxAttempts(5).withRetryBudget(budget)
+                .withListener(mockListener));
+
+        IOException exception = new IOException("test exception");
+        FailingCall call = new FailingCall(10, exception);
+        try {
+            policy.call(OPERATION_NAME, call);
+            fail("expected exception");
+        } catch (IOException ex) {
+            // expected exception
+        }
+        assertEquals(call.timesCalled, 2);
+        verify(mockListener).onBudgetExhausted(OPERATION_NAME, exception);
+    }
+
+    @Test
+    public void fullJitterDelay() {
+        RetryPolicy policy = new RetryPolicy.Builder().withBaseDelayMillis(100).withMaxDelayMillis(500).build();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.computeDelayMillis(1) <= 100);
+            assertTrue(policy.computeDelayMillis(2) <= 200);
+            assertTrue(policy.computeDelayMillis(3) <= 400);
+
+            // Capped at max delay.
+            long delay = policy.computeDelayMillis(10);
+            assertTrue(delay >= 0 && delay <= 500);
+        }
+    }
+
+    @Test
+    public void toBuilder() {
+        RetryBudget budget = new RetryBudget(0.1, 10);
+        RetryPolicy policy = new RetryPolicy.Builder().withMaxAttempts(4).withBaseDelayMillis(10)
+                .withMaxDelayMillis(20).withDeadlineMillis(30).withRetryBudget(budget).build();
+        RetryPolicy copy = policy.toBuilder().withMaxAttempts(7).build();
+        assertEquals(copy.getMaxAttempts(), 7);
+        assertEquals(copy.getBaseDelayMillis(), 10);
+        assertEquals(copy.getMaxDelayMillis(), 20);
+        assertEquals(copy.getDeadlineMillis(), 30);
+        assertSame(copy.getRetryBudget(), budget);
+        assertSame(copy.getListener(), policy.getListener());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void zeroMaxAttempts() {
+        new RetryPolicy.Builder().withMaxAttempts(0).build();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void maxDelayLessThanBaseDelay() {
+        new RetryPolicy.Builder().withBaseDelayMillis(100).withMaxDelayMillis(10).build();
+    }
+
+    // Spy the policy so tests don't actually sleep.
+    private static RetryPolicy spyPolicy(RetryPolicy.Builder builder) throws Exception {
+        RetryPolicy policy = spy(builder.build());
+        doNothing().when(policy).sleep(anyLong());
+        return policy;
+    }
+}
@@ -1,21 +1,31 @@
 package org.sagebionetworks.bridge.s3;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.List;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.HttpMethod;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
@@ -26,6 +36,8 @@ import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
 import com.google.common.io.ByteStreams;
 import org.joda.time.DateTime;
 import org.mockito.ArgumentCaptor;
@@ -35,6 +47,8 @@ import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.retry.RetryPolicy;
+
 public class S3HelperTest {
     // Test strategy is that given a mock input stream from a mock S3 object, the S3Helper can still turn that
     // input stream into a byte array or a string.
@@ -85,6 +99,87 @@ public class S3HelperTest {
         assertEquals(request.getKey(), "test-key");
     }
 
+    @Test
+    public void downloadS3FileWithChecksum() throws Exception {
+        // Mock S3 client. ETag is the MD5 of the content.
+        String content = "checksummed content";
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length());
+        metadata.setHeader("ETag", Hashing.md5().hashString(content, Charsets.UTF_8).toString());
+        when(mockS3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> makeS3Object(content,
+                metadata));
+
+        // Execute and validate.
+        File destinationFile = Files.createTempFile("downloadS3FileWithChecksum", ".txt").toFile();
+        try {
+            s3Helper.setVerifyChecksums(true);
+            s3Helper.downloadS3File("test-bucket", "test-key", destinationFile);
+            assertEquals(new String(Files.readAllBytes(destinationFile.toPath()), Charsets.UTF_8), content);
+        } finally {
+            destinationFile.delete();
+        }
+    }
+
+    @Test
+    public void downloadS3FileResumesTruncatedDownload() throws Exception {
+        // Mock S3 client. First call only returns part of the file. Second call returns the rest.
+        String content = "0123456789";
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length());
+        metadata.setHeader("ETag", "dummy-etag");
+        metadata.addUserMetadata(S3Helper.CRC32C_METADATA_KEY, Hashing.crc32c().hashString(content,
+                Charsets.UTF_8).toString());
+        ArgumentCaptor<GetObjectRequest> requestCaptor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        when(mockS3Client.getObject(requestCaptor.capture())).thenReturn(makeS3Object("0123", metadata),
+                makeS3Object("456789", metadata));
+
+        // Execute and validate.
+        File destinationFile = Files.createTempFile("downloadS3FileResumesTruncatedDownload", ".txt").toFile();
+        try {
+            s3Helper.setVerifyChecksums(true);
+            s3Helper.downloadS3File("test-bucket", "test-key", destinationFile);
+            assertEquals(new String(Files.readAllBytes(destinationFile.toPath()), Charsets.UTF_8), content);
+        } finally {
+            destinationFile.delete();
+        }
+
+        // First request is for the whole file. Second request is only for the missing range, pinned to the ETag.
+        List<GetObjectRequest> requestList = requestCaptor.getAllValues();
+        assertEquals(requestList.size(), 2);
+        assertNull(requestList.get(0).getRange());
+        long[] range = requestList.get(1).getRange();
+        assertEquals(range[0], 4);
+        assertEquals(range[1], 9);
+        assertEquals(requestList.get(1).getMatchingETagConstraints(), ImmutableList.of("dummy-etag"));
+    }
+
+    @Test(expectedExceptions = AmazonClientException.class, expectedExceptionsMessageRegExp =
+            "CRC32C mismatch for S3 file test-bucket/test-key.*")
+    public void downloadS3FileChecksumMismatch() throws Exception {
+        // Mock S3 client. Stored checksum doesn't match the content.
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(7);
+        metadata.addUserMetadata(S3Helper.CRC32C_METADATA_KEY, "00000000");
+        when(mockS3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> makeS3Object("content",
+                metadata));
+
+        // Execute - throws.
+        File destinationFile = Files.createTempFile("downloadS3FileChecksumMismatch", ".txt").toFile();
+        try {
+            s3Helper.setVerifyChecksums(true);
+            s3Helper.downloadS3File("test-bucket", "test-key", destinationFile);
+        } finally {
+            destinationFile.delete();
+        }
+    }
+
+    private static S3Object makeS3Object(String content, ObjectMetadata metadata) {
+        S3Object s3Object = new S3Object();
+        s3Object.setObjectContent(new ByteArrayInputStream(content.getBytes(Charsets.UTF_8)));
+        s3Object.setObjectMetadata(metadata);
+        return s3Object;
+    }
+
     @Test
     public void generatePresignedUrl() throws Exception {
         // mock S3 client
@@ -107,6 +202,106 @@ public class S3HelperTest {
         assertSame(retval, objectMetadata);
     }
 
+    @Test
+    public void getObjectMetadataCached() {
+        // Mock S3 client.
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+        objectMetadata.setContentLength(42L);
+        when(mockS3Client.getObjectMetadata("test-bucket", "test-key")).thenReturn(objectMetadata);
+
+        // Execute twice. S3 is only called once. Returned metadata is a copy of what's in the cache.
+        s3Helper.enableCache(10, 60);
+        ObjectMetadata retval1 = s3Helper.getObjectMetadata("test-bucket", "test-key");
+        ObjectMetadata retval2 = s3Helper.getObjectMetadata("test-bucket", "test-key");
+        assertEquals(retval1.getContentLength(), 42L);
+        assertEquals(retval2.getContentLength(), 42L);
+        assertNotSame(retval1, objectMetadata);
+        assertNotSame(retval1, retval2);
+        verify(mockS3Client, times(1)).getObjectMetadata("test-bucket", "test-key");
+
+        // Writing the file invalidates the cache.
+        s3Helper.writeFileToS3("test-bucket", "test-key", mock(File.class));
+        s3Helper.getObjectMetadata("test-bucket", "test-key");
+        verify(mockS3Client, times(2)).getObjectMetadata("test-bucket", "test-key");
+    }
+
+    @Test
+    public void generatePresignedUrlCached() throws Exception {
+        // Mock S3 client.
+        DateTime expiration = DateTime.now().plusHours(1);
+        when(mockS3Client.generatePresignedUrl("test-bucket", "test-key", expiration.toDate(), HttpMethod.GET))
+                .thenReturn(new URL("http://www.example.com/"));
+
+        // Execute twice. Second call reuses the URL, even though it asks for a later expiration.
+        s3Helper.enableCache(10, 60);
+        URL retval1 = s3Helper.generatePresignedUrl("test-bucket", "test-key", expiration, HttpMethod.GET);
+        URL retval2 = s3Helper.generatePresignedUrl("test-bucket", "test-key", expiration.plusMinutes(1),
+                HttpMethod.GET);
+        assertEquals(retval1.toString(), "http://www.example.com/");
+        assertSame(retval2, retval1);
+        verify(mockS3Client, times(1)).generatePresignedUrl(eq("test-bucket"), eq("test-key"), any(),
+                eq(HttpMethod.GET));
+    }
+
+    @Test
+    public void generatePresignedUrlCachedLongerExpirationRequested() throws Exception {
+        // Mock S3 client.
+        DateTime shortExpiration = DateTime.now().plusMinutes(5);
+        DateTime longExpiration = DateTime.now().plusHours(24);
+        when(mockS3Client.generatePresignedUrl("test-bucket", "test-key", shortExpiration.toDate(), HttpMethod.GET))
+                .thenReturn(new URL("http://www.example.com/short"));
+        when(mockS3Client.generatePresignedUrl("test-bucket", "test-key", longExpiration.toDate(), HttpMethod.GET))
+                .thenReturn(new URL("http://www.example.com/long"));
+
+        // The cached URL expires too early for the second caller, so we sign a new one.
+        s3Helper.enableCache(10, 60);
+        URL retval1 = s3Helper.generatePresignedUrl("test-bucket", "test-key", shortExpiration, HttpMethod.GET);
+        URL retval2 = s3Helper.generatePresignedUrl("test-bucket", "test-key", longExpiration, HttpMethod.GET);
+        assertEquals(retval1.toString(), "http://www.example.com/short");
+        assertEquals(retval2.toString(), "http://www.example.com/long");
+
+        // The new URL replaces the old one in the cache.
+        URL retval3 = s3Helper.generatePresignedUrl("test-bucket", "test-key", longExpiration, HttpMethod.GET);
+        assertSame(retval3, retval2);
+        verify(mockS3Client, times(1)).generatePresignedUrl("test-bucket", "test-key", longExpiration.toDate(),
+                HttpMethod.GET);
+    }
+
+    @Test
+    public void generatePresignedUrlCachedShorterExpirationRequested() throws Exception {
+        // Mock S3 client.
+        DateTime longExpiration = DateTime.now().plusHours(24);
+        DateTime shortExpiration = DateTime.now().plusMinutes(5);
+        when(mockS3Client.generatePresignedUrl("test-bucket", "test-key", longExpiration.toDate(), HttpMethod.GET))
+                .thenReturn(new URL("http://www.example.com/long"));
+        when(mockS3Client.generatePresignedUrl("test-bucket", "test-key", shortExpiration.toDate(), HttpMethod.GET))
+                .thenReturn(new URL("http://www.example.com/short"));
+
+        // The cached URL is valid for longer than the second caller asked for, so we sign a new one.
+        s3Helper.enableCache(10, 60);
+        URL retval1 = s3Helper.generatePresignedUrl("test-bucket", "test-key", longExpiration, HttpMethod.GET);
+        URL retval2 = s3Helper.generatePresignedUrl("test-bucket", "test-key", shortExpiration, HttpMethod.GET);
+        assertEquals(retval1.toString(), "http://www.example.com/long");
+        assertEquals(retval2.toString(), "http://www.example.com/short");
+        verify(mockS3Client, times(1)).generatePresignedUrl("test-bucket", "test-key", shortExpiration.toDate(),
+                HttpMethod.GET);
+    }
+
+    @Test
+    public void generatePresignedUrlCachedNearExpiration() throws Exception {
+        // Mock S3 client. The first URL expires within the refresh margin, so we always sign a new one.
+        DateTime expiration = DateTime.now().plusSeconds(S3Helper.DEFAULT_PRESIGNED_URL_REFRESH_MARGIN_SECONDS / 2);
+        when(mockS3Client.generatePresignedUrl("test-bucket", "test-key", expiration.toDate(), HttpMethod.PUT))
+                .thenReturn(new URL("http://www.example.com/"));
+
+        // Execute and validate.
+        s3Helper.enableCache(10, 60);
+        s3Helper.generatePresignedUrl("test-bucket", "test-key", expiration, HttpMethod.PUT);
+        s3Helper.generatePresignedUrl("test-bucket", "test-key", expiration, HttpMethod.PUT);
+        verify(mockS3Client, times(2)).generatePresignedUrl("test-bucket", "test-key", expiration.toDate(),
+                HttpMethod.PUT);
+    }
+
     @Test
     public void readAsBytes() throws Exception {
         String bucket = "bucket-with-bytes";
@@ -185,6 +380,25 @@ public class S3HelperTest {
         assertEquals(metadata.getContentLength(), content.length);
     }
 
+    @Test
+    public void writeBytesWithChecksum() throws Exception {
+        // execute
+        byte[] content = "test write bytes".getBytes(Charsets.UTF_8);
+        s3Helper.setVerifyChecksums(true);
+        s3Helper.writeBytesToS3("write-bucket", "write-bytes-key", content);
+
+        // validate checksums in metadata
+        ArgumentCaptor<ObjectMetadata> metadataCaptor = ArgumentCaptor.forClass(ObjectMetadata.class);
+        verify(mockS3Client).putObject(eq("write-bucket"), eq("write-bytes-key"), any(InputStream.class),
+                metadataCaptor.capture());
+
+        ObjectMetadata metadata = metadataCaptor.getValue();
+        assertEquals(metadata.getContentMD5(), BaseEncoding.base64().encode(Hashing.md5().hashBytes(content)
+                .asBytes()));
+        assertEquals(metadata.getUserMetaDataOf(S3Helper.CRC32C_METADATA_KEY), Hashing.crc32c().hashBytes(content)
+                .toString());
+    }
+
     @Test
     public void writeFile() {
         // execute and validate
@@ -251,5 +465,56 @@ public class S3HelperTest {
 
         assertEquals(metadata.getContentLength(), data.length);
     }
-    
+
+    @Test
+    public void retriesServerErrors() throws Exception {
+        // No delay between retries, so the test runs fast.
+        s3Helper.setRetryPolicy(new RetryPolicy.Builder().withMaxAttempts(3).withBaseDelayMillis(0)
+                .withRetryablePredicate(S3Helper::isRetryableException).build());
+
+        AmazonServiceException serverException = new AmazonServiceException("test exception");
+        serverException.setStatusCode(503);
+        when(mockS3Client.getObject("test-bucket", "test-key")).thenThrow(serverException).thenReturn(
+                makeS3Object("test content", new ObjectMetadata()));
+
+        byte[] retVal = s3Helper.readS3FileAsBytes("test-bucket", "test-key");
+        assertEquals(new String(retVal, Charsets.UTF_8), "test content");
+        verify(mockS3Client, times(2)).getObject("test-bucket", "test-key");
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() throws Exception {
+        s3Helper.setRetryPolicy(new RetryPolicy.Builder().withMaxAttempts(3).withBaseDelayMillis(0)
+                .withRetryablePredicate(S3Helper::isRetryableException).build());
+
+        AmazonServiceException notFoundException = new AmazonServiceException("test exception");
+        notFoundException.setStatusCode(404);
+        when(mockS3Client.getObject("test-bucket", "test-key")).thenThrow(notFoundException);
+
+        try {
+            s3Helper.readS3FileAsBytes("test-bucket", "test-key");
+            fail("expected exception");
+        } catch (AmazonServiceException ex) {
+            assertSame(ex, notFoundException);
+        }
+        verify(mockS3Client, times(1)).getObject("test-bucket", "test-key");
+    }
+
+    @Test
+    public void isRetryableException() {
+        AmazonServiceException throttledException = new AmazonServiceException("test exception");
+        throttledException.setStatusCode(429);
+        assertTrue(S3Helper.isRetryableException(throttledException));
+
+        AmazonServiceException serverException = new AmazonServiceException("test exception");
+        serverException.setStatusCode(500);
+        assertTrue(S3Helper.isRetryableException(serverException));
+
+        AmazonServiceException badRequestException = new AmazonServiceException("test exception");
+        badRequestException.setStatusCode(400);
+        assertFalse(S3Helper.isRetryableException(badRequestException));
+
+        assertTrue(S3Helper.isRetryableException(new AmazonClientException("test exception")));
+        assertFalse(S3Helper.isRetryableException(new IllegalArgumentException()));
+    }
 }
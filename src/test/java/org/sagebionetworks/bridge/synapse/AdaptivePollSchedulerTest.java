@@ -0,0 +1,122 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.synapse.AdaptivePollScheduler.JobType;
+
+public class AdaptivePollSchedulerTest {
+    private static final int[] FALLBACK_PLAN = { 1, 2, 4, 8 };
+
+    @Test
+    public void notEnoughSamplesUsesFallbackPlan() {
+        AdaptivePollScheduler scheduler = new AdaptivePollScheduler(10, 3);
+        scheduler.recordDuration(JobType.APPEND, 500);
+        scheduler.recordDuration(JobType.APPEND, 500);
+
+        assertEquals(scheduler.getPollDelaysMillis(JobType.APPEND, FALLBACK_PLAN),
+                new long[] { 1000, 2000, 4000, 8000 });
+    }
+
+    @Test
+    public void adaptsToDurations() {
+        // Durations are 100, 200, ..., 1000 ms.
+        AdaptivePollScheduler scheduler = new AdaptivePollScheduler(10, 10);
+        for (int i = 1; i <= 10; i++) {
+            scheduler.recordDuration(JobType.TSV_UPLOAD, i * 100);
+        }
+
+        // Polls at p50 (500), p75 (800), p90 (900), and p95/p99 (1000, deduped). Then the fallback plan resumes after
+        // the last adaptive poll, at 3000, 7000, and 15000.
+        assertEquals(scheduler.getPollDelaysMillis(JobType.TSV_UPLOAD, FALLBACK_PLAN),
+                new long[] { 500, 300, 100, 100, 2000, 4000, 8000 });
+    }
+
+    @Test
+    public void polledDurationIsMidpoint() {
+        AdaptivePollScheduler scheduler = new AdaptivePollScheduler(10, 1);
+        scheduler.recordPolledDuration(JobType.APPEND, 1000, 3000);
+        assertEquals(scheduler.getDurationQuantileMillis(JobType.APPEND, 0.5), 2000);
+    }
+
+    @Test
+    public void shortJobsMoveScheduleEarlier() {
+        // Jobs used to take 1 second, so the first poll is at 1 second.
+        AdaptivePollScheduler scheduler = new AdaptivePollScheduler(10, 10);
+        for (int i = 0; i < 10; i++) {
+            scheduler.recordDuration(JobType.APPEND, 1000);
+        }
+        assertEquals(scheduler.getPollDelaysMillis(JobType.APPEND, FALLBACK_PLAN)[0], 1000);
+
+        // Jobs now take 200ms, so they're always done by the first poll. The schedule still moves earlier.
+        long previousFirstPollMillis = 1000;
+        for (int i = 0; i < 10; i++) {
+            pollJob(scheduler, 200);
+            long firstPollMillis = scheduler.getPollDelaysMillis(JobType.APPEND, FALLBACK_PLAN)[0];
+            assertTrue(firstPollMillis <= previousFirstPollMillis);
+            previousFirstPollMillis = firstPollMillis;
+        }
+        assertEquals(previousFirstPollMillis, 250);
+
+        // Once the first poll is earlier than the jobs, it settles near the real duration.
+        for (int i = 0; i < 10; i++) {
+            pollJob(scheduler, 200);
+        }
+        long firstPollMillis = scheduler.getPollDelaysMillis(JobType.APPEND, FALLBACK_PLAN)[0];
+        assertTrue(firstPollMillis >= 100 && firstPollMillis <= 250, "first poll at " + firstPollMillis);
+    }
+
+    @Test
+    public void jobTypesAreSeparate() {
+        AdaptivePollScheduler scheduler = new AdaptivePollScheduler(10, 1);
+        scheduler.recordDuration(JobType.QUERY, 300);
+        scheduler.recordDuration(JobType.TRANSACTION, 5000);
+
+        assertEquals(scheduler.getPollDelaysMillis(JobType.QUERY, FALLBACK_PLAN),
+                new long[] { 300, 700, 2000, 4000, 8000 });
+        assertEquals(scheduler.getPollDelaysMillis(JobType.TRANSACTION, FALLBACK_PLAN),
+                new long[] { 5000, 2000, 8000 });
+        assertEquals(scheduler.getPollDelaysMillis(JobType.APPEND, FALLBACK_PLAN),
+                new long[] { 1000, 2000, 4000, 8000 });
+    }
+
+    @Test
+    public void windowKeepsMostRecentDurations() {
+        AdaptivePollScheduler scheduler = new AdaptivePollScheduler(3, 1);
+        scheduler.recordDuration(JobType.APPEND, 10000);
+        scheduler.recordDuration(JobType.APPEND, 100);
+        scheduler.recordDuration(JobType.APPEND, 100);
+        scheduler.recordDuration(JobType.APPEND, 100);
+
+        // The 10 second duration fell out of the window.
+        assertEquals(scheduler.getDurationQuantileMillis(JobType.APPEND, 0.99), 100);
+    }
+
+    @Test
+    public void noDurations() {
+        AdaptivePollScheduler scheduler = new AdaptivePollScheduler();
+        assertEquals(scheduler.getDurationQuantileMillis(JobType.APPEND, 0.5), -1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void minSamplesLargerThanWindow() {
+        new AdaptivePollScheduler(5, 6);
+    }
+
+    // Polls a job that takes the given time on the scheduler's current schedule, and records it the way SynapseHelper
+    // does.
+    private static void pollJob(AdaptivePollScheduler scheduler, long jobMillis) {
+        long lastNotReadyMillis = 0;
+        long pollMillis = 0;
+        for (long delayMillis : scheduler.getPollDelaysMillis(JobType.APPEND, FALLBACK_PLAN)) {
+            pollMillis += delayMillis;
+            if (pollMillis >= jobMillis) {
+                break;
+            }
+            lastNotReadyMillis = pollMillis;
+        }
+        scheduler.recordPolledDuration(JobType.APPEND, lastNotReadyMillis, pollMillis);
+    }
+}
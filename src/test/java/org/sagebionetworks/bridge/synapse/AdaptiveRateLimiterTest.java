@@ -0,0 +1,82 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.testng.Assert.assertEquals;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.testng.annotations.Test;
+
+public class AdaptiveRateLimiterTest {
+    private static final double DELTA = 0.001;
+
+    @Test
+    public void additiveIncrease() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(RateLimiter.create(10.0), 1.0, 20.0);
+
+        // Each success increases the rate by 1/rate.
+        limiter.onSuccess();
+        assertEquals(limiter.getRate(), 10.1, DELTA);
+
+        // 10 successes at about 10/sec increases the rate by about 1.
+        for (int i = 0; i < 9; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(limiter.getRate(), 11.0, 0.01);
+    }
+
+    @Test
+    public void increaseCappedAtMaxRate() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(RateLimiter.create(10.0), 1.0, 10.5);
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(limiter.getRate(), 10.5, DELTA);
+    }
+
+    @Test
+    public void multiplicativeDecrease() {
+        AdaptiveRateLimiter limiter = spy(new AdaptiveRateLimiter(RateLimiter.create(10.0), 1.0, 20.0));
+
+        doReturn(1000L).when(limiter).currentTimeMillis();
+        limiter.onThrottle();
+        assertEquals(limiter.getRate(), 5.0, DELTA);
+
+        // Within cooldown. Rate doesn't change.
+        doReturn(1500L).when(limiter).currentTimeMillis();
+        limiter.onThrottle();
+        assertEquals(limiter.getRate(), 5.0, DELTA);
+
+        // After cooldown, rate decreases again.
+        doReturn(2000L).when(limiter).currentTimeMillis();
+        limiter.onThrottle();
+        assertEquals(limiter.getRate(), 2.5, DELTA);
+
+        // Rate is capped at min rate.
+        doReturn(3000L).when(limiter).currentTimeMillis();
+        limiter.onThrottle();
+        assertEquals(limiter.getRate(), 1.25, DELTA);
+
+        doReturn(4000L).when(limiter).currentTimeMillis();
+        limiter.onThrottle();
+        assertEquals(limiter.getRate(), 1.0, DELTA);
+    }
+
+    @Test
+    public void initialRateIsClamped() {
+        RateLimiter rateLimiter = RateLimiter.create(100.0);
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(rateLimiter, 1.0, 20.0);
+        assertEquals(limiter.getRate(), 20.0, DELTA);
+        assertEquals(rateLimiter.getRate(), 20.0, DELTA);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void maxRateLessThanMinRate() {
+        new AdaptiveRateLimiter(RateLimiter.create(10.0), 5.0, 1.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidMultiplicativeDecrease() {
+        new AdaptiveRateLimiter(RateLimiter.create(10.0), 1.0, 20.0, 1.0, 1.5, 1000);
+    }
+}
@@ -0,0 +1,250 @@
+package org.sagebionetworks.bridge.synapse;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
+import org.sagebionetworks.client.exceptions.SynapseTooManyRequestsException;
+import org.sagebionetworks.repo.model.file.S3FileHandle;
+import org.sagebionetworks.repo.model.status.StackStatus;
+import org.sagebionetworks.repo.model.status.StatusEnum;
+import org.sagebionetworks.repo.model.table.AppendableRowSet;
+import org.sagebionetworks.repo.model.table.PartialRowSet;
+import org.sagebionetworks.repo.model.table.RowReference;
+import org.sagebionetworks.repo.model.table.RowReferenceSet;
+import org.sagebionetworks.repo.model.table.RowSet;
+import org.sagebionetworks.repo.model.table.TableSchemaChangeResponse;
+import org.sagebionetworks.repo.model.table.TableUpdateRequest;
+import org.sagebionetworks.repo.model.table.TableUpdateResponse;
+import org.sagebionetworks.repo.model.table.UploadToTableResult;
+
+/**
+ * <p>
+ * In-memory stand-in for SynapseClient, for benchmarks and tests that need more than a mock. SynapseClient has
+ * hundreds of methods, so this is a dynamic proxy that implements only the calls SynapseHelper makes for appends, TSV
+ * uploads, and schema updates. Other calls throw UnsupportedOperationException.
+ * </p>
+ * <p>
+ * Every call takes callLatencyMillis. Calls over throttleRatePerSecond (a token bucket with one second of burst) throw
+ * SynapseTooManyRequestsException, like Synapse's own throttling. Async jobs finish jobBaseMillis plus
+ * jobMillisPerRow for each row after they start. Until then, their get calls throw SynapseResultNotReadyException.
+ * </p>
+ */
+public class FakeSynapseClient implements InvocationHandler {
+    private final Map<String, Job> jobsByToken = new ConcurrentHashMap<>();
+    private final Map<String, Long> rowCountsByFileHandleId = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    private final AtomicLong callCount = new AtomicLong();
+    private final AtomicLong throttledCallCount = new AtomicLong();
+    private final AtomicLong notReadyCount = new AtomicLong();
+
+    private long callLatencyMillis = 0;
+    private double throttleRatePerSecond = 0;
+    private long jobBaseMillis = 0;
+    private double jobMillisPerRow = 0;
+
+    // Throttling token bucket.
+    private double throttleTokens;
+    private long throttleLastRefillNanos = System.nanoTime();
+
+    /** How long each call takes. Defaults to 0. */
+    public void setCallLatencyMillis(long callLatencyMillis) {
+        this.callLatencyMillis = callLatencyMillis;
+    }
+
+    /** Calls over this rate are throttled. Defaults to 0, which means no throttling. */
+    public synchronized void setThrottleRatePerSecond(double throttleRatePerSecond) {
+        this.throttleRatePerSecond = throttleRatePerSecond;
+        this.throttleTokens = throttleRatePerSecond;
+    }
+
+    /** Fixed part of async job duration. Defaults to 0. */
+    public void setJobBaseMillis(long jobBaseMillis) {
+        this.jobBaseMillis = jobBaseMillis;
+    }
+
+    /** Per-row part of async job duration. Defaults to 0. */
+    public void setJobMillisPerRow(double jobMillisPerRow) {
+        this.jobMillisPerRow = jobMillisPerRow;
+    }
+
+    /** Creates a SynapseClient backed by this fake. */
+    public SynapseClient getClient() {
+        return (SynapseClient) Proxy.newProxyInstance(SynapseClient.class.getClassLoader(),
+                new Class<?>[] { SynapseClient.class }, this);
+    }
+
+    /** Total calls, including throttled calls. */
+    public long getCallCount() {
+        return callCount.get();
+    }
+
+    /** Calls that were throttled. */
+    public long getThrottledCallCount() {
+        return throttledCallCount.get();
+    }
+
+    /** Async job gets that found the job not ready yet. */
+    public long getNotReadyCount() {
+        return notReadyCount.get();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            // equals(), hashCode(), toString()
+            try {
+                return method.invoke(this, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+
+        callCount.incrementAndGet();
+        if (callLatencyMillis > 0) {
+            Uninterruptibles.sleepUninterruptibly(callLatencyMillis, TimeUnit.MILLISECONDS);
+        }
+        if (!tryAcquireThrottlePermit()) {
+            throttledCallCount.incrementAndGet();
+            throw new SynapseTooManyRequestsException("Throttled by FakeSynapseClient");
+        }
+
+        switch (method.getName()) {
+            case "appendRowSetToTableStart":
+                return startJob(appendRows((AppendableRowSet) args[0]), getRowCount((AppendableRowSet) args[0]));
+            case "appendRowSetToTableGet":
+            case "getTableTransactionJobResults":
+            case "uploadCsvToTableAsyncGet":
+                return getJobResult((String) args[0]);
+            case "getCurrentStackStatus":
+                StackStatus status = new StackStatus();
+                status.setStatus(StatusEnum.READ_WRITE);
+                return status;
+            case "multipartUpload":
+                return uploadFile((File) args[0]);
+            case "startTableTransactionJob":
+                return startTransaction((List<?>) args[0]);
+            case "uploadCsvToTableAsyncStart":
+                return startUpload((String) args[1]);
+            default:
+                throw new UnsupportedOperationException("FakeSynapseClient doesn't support " + method.getName());
+        }
+    }
+
+    // Helper method that checks the throttling token bucket.
+    private synchronized boolean tryAcquireThrottlePermit() {
+        if (throttleRatePerSecond <= 0) {
+            return true;
+        }
+
+        long nowNanos = System.nanoTime();
+        double elapsedSeconds = (nowNanos - throttleLastRefillNanos) / 1e9;
+        throttleLastRefillNanos = nowNanos;
+        throttleTokens = Math.min(throttleRatePerSecond, throttleTokens + elapsedSeconds * throttleRatePerSecond);
+        if (throttleTokens < 1.0) {
+            return false;
+        }
+        throttleTokens -= 1.0;
+        return true;
+    }
+
+    private static long getRowCount(AppendableRowSet rowSet) {
+        if (rowSet instanceof PartialRowSet) {
+            return ((PartialRowSet) rowSet).getRows().size();
+        } else if (rowSet instanceof RowSet) {
+            return ((RowSet) rowSet).getRows().size();
+        } else {
+            return 0;
+        }
+    }
+
+    private RowReferenceSet appendRows(AppendableRowSet rowSet) {
+        List<RowReference> rowReferenceList = new ArrayList<>();
+        for (long i = 0; i < getRowCount(rowSet); i++) {
+            RowReference rowReference = new RowReference();
+            rowReference.setRowId(nextId.incrementAndGet());
+            rowReferenceList.add(rowReference);
+        }
+
+        RowReferenceSet rowReferenceSet = new RowReferenceSet();
+        rowReferenceSet.setRows(rowReferenceList);
+        return rowReferenceSet;
+    }
+
+    private S3FileHandle uploadFile(File file) throws IOException {
+        // Subtract 1 for the header line.
+        long rowCount = Math.max(0, Files.readAllLines(file.toPath(), Charsets.UTF_8).size() - 1);
+
+        S3FileHandle fileHandle = new S3FileHandle();
+        fileHandle.setId("fh-" + nextId.incrementAndGet());
+        rowCountsByFileHandleId.put(fileHandle.getId(), rowCount);
+        return fileHandle;
+    }
+
+    private String startUpload(String fileHandleId) {
+        long rowCount = rowCountsByFileHandleId.getOrDefault(fileHandleId, 0L);
+        UploadToTableResult result = new UploadToTableResult();
+        result.setRowsProcessed(rowCount);
+        return startJob(result, rowCount);
+    }
+
+    private String startTransaction(List<?> changeList) {
+        // We don't apply the changes, but we do return a response for each.
+        List<TableUpdateResponse> responseList = new ArrayList<>();
+        for (Object oneChange : changeList) {
+            if (!(oneChange instanceof TableUpdateRequest)) {
+                throw new IllegalArgumentException("Unexpected change " + oneChange);
+            }
+            TableSchemaChangeResponse response = new TableSchemaChangeResponse();
+            response.setSchema(new ArrayList<>());
+            responseList.add(response);
+        }
+        return startJob(responseList, 0);
+    }
+
+    private String startJob(Object result, long rowCount) {
+        long durationMillis = jobBaseMillis + (long) (jobMillisPerRow * rowCount);
+        String token = "job-" + nextId.incrementAndGet();
+        jobsByToken.put(token, new Job(result, System.currentTimeMillis() + durationMillis));
+        return token;
+    }
+
+    private Object getJobResult(String token) throws SynapseResultNotReadyException {
+        Job job = jobsByToken.get(token);
+        if (job == null) {
+            throw new IllegalArgumentException("Unknown job " + token);
+        }
+        if (System.currentTimeMillis() < job.doneMillis) {
+            notReadyCount.incrementAndGet();
+            throw new SynapseResultNotReadyException();
+        }
+        jobsByToken.remove(token);
+        return job.result;
+    }
+
+    // An async job, with its result and when it's done.
+    private static class Job {
+        private final Object result;
+        private final long doneMillis;
+
+        Job(Object result, long doneMillis) {
+            this.result = result;
+            this.doneMillis = doneMillis;
+        }
+    }
+}
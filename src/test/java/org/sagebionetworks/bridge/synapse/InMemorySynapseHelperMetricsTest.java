@@ -0,0 +1,116 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.synapse.AdaptivePollScheduler.JobType;
+
+public class InMemorySynapseHelperMetricsTest {
+    private static final String OPERATION_NAME = "getEntityWithRetry";
+
+    @Test
+    public void calls() {
+        InMemorySynapseHelperMetrics metrics = new InMemorySynapseHelperMetrics();
+        metrics.onCall(OPERATION_NAME, 1, 10, null);
+        metrics.onCall(OPERATION_NAME, 3, 300, new RuntimeException("test exception"));
+        metrics.onCall("other", 1, 5, null);
+
+        assertEquals(metrics.getOperationNames(), ImmutableSet.of(OPERATION_NAME, "other"));
+        assertEquals(metrics.getCallCount(OPERATION_NAME), 2);
+        assertEquals(metrics.getRetryCount(OPERATION_NAME), 2);
+        assertEquals(metrics.getFailureCount(OPERATION_NAME), 1);
+
+        InMemorySynapseHelperMetrics.Histogram latency = metrics.getCallLatency(OPERATION_NAME);
+        assertEquals(latency.getCount(), 2);
+        assertEquals(latency.getTotalMillis(), 310);
+        assertEquals(latency.getMaxMillis(), 300);
+        assertEquals(latency.getMeanMillis(), 155.0, 0.001);
+    }
+
+    @Test
+    public void attemptsAndLimiterWaits() {
+        InMemorySynapseHelperMetrics metrics = new InMemorySynapseHelperMetrics();
+        metrics.onAttempt(OPERATION_NAME, 40, null);
+        metrics.onAttempt(OPERATION_NAME, 60, new RuntimeException("test exception"));
+        metrics.onLimiterWait(OPERATION_NAME, 0);
+        metrics.onLimiterWait(OPERATION_NAME, 100);
+
+        assertEquals(metrics.getAttemptLatency(OPERATION_NAME).getTotalMillis(), 100);
+        assertEquals(metrics.getLimiterWait(OPERATION_NAME).getCount(), 2);
+        assertEquals(metrics.getLimiterWait(OPERATION_NAME).getMaxMillis(), 100);
+
+        // Attempts and limiter waits aren't calls.
+        assertEquals(metrics.getCallCount(OPERATION_NAME), 0);
+    }
+
+    @Test
+    public void asyncJobs() {
+        InMemorySynapseHelperMetrics metrics = new InMemorySynapseHelperMetrics();
+        metrics.onAsyncJobDone(JobType.APPEND, 2, 1500, true);
+        metrics.onAsyncJobDone(JobType.APPEND, 10, 300000, false);
+        metrics.onAsyncJobDone(JobType.QUERY, 1, 800, true);
+
+        assertEquals(metrics.getAsyncJobCount(JobType.APPEND), 2);
+        assertEquals(metrics.getAsyncJobFailureCount(JobType.APPEND), 1);
+        assertEquals(metrics.getAsyncJobPollCount(JobType.APPEND), 12);
+        assertEquals(metrics.getAsyncJobCompletionTime(JobType.APPEND).getMaxMillis(), 300000);
+        assertEquals(metrics.getAsyncJobCount(JobType.QUERY), 1);
+        assertEquals(metrics.getAsyncJobCount(JobType.TSV_UPLOAD), 0);
+    }
+
+    @Test
+    public void histogramQuantiles() {
+        InMemorySynapseHelperMetrics metrics = new InMemorySynapseHelperMetrics();
+        for (int i = 1; i <= 100; i++) {
+            metrics.onCall(OPERATION_NAME, 1, i * 10, null);
+        }
+
+        // Values are 10, 20, ..., 1000. p50 is 500, which is a bucket bound. p90 is 900, which is in the 1000 bucket.
+        InMemorySynapseHelperMetrics.Histogram latency = metrics.getCallLatency(OPERATION_NAME);
+        assertEquals(latency.getQuantileUpperBoundMillis(0.5), 500);
+        assertEquals(latency.getQuantileUpperBoundMillis(0.9), 1000);
+        assertEquals(latency.getQuantileUpperBoundMillis(0.01), 10);
+    }
+
+    @Test
+    public void histogramOverflow() {
+        InMemorySynapseHelperMetrics metrics = new InMemorySynapseHelperMetrics();
+        metrics.onCall(OPERATION_NAME, 1, 900000, null);
+        assertEquals(metrics.getCallLatency(OPERATION_NAME).getQuantileUpperBoundMillis(0.99), 900000);
+    }
+
+    @Test
+    public void histogramIsSnapshot() {
+        InMemorySynapseHelperMetrics metrics = new InMemorySynapseHelperMetrics();
+        metrics.onCall(OPERATION_NAME, 1, 10, null);
+        InMemorySynapseHelperMetrics.Histogram latency = metrics.getCallLatency(OPERATION_NAME);
+
+        metrics.onCall(OPERATION_NAME, 1, 10, null);
+        assertEquals(latency.getCount(), 1);
+    }
+
+    @Test
+    public void noData() {
+        InMemorySynapseHelperMetrics metrics = new InMemorySynapseHelperMetrics();
+        assertEquals(metrics.getCallCount(OPERATION_NAME), 0);
+        assertEquals(metrics.getCallLatency(OPERATION_NAME).getCount(), 0);
+        assertEquals(metrics.getCallLatency(OPERATION_NAME).getQuantileUpperBoundMillis(0.5), 0);
+        assertEquals(metrics.getCallLatency(OPERATION_NAME).getMeanMillis(), 0.0, 0.001);
+        assertTrue(metrics.getOperationNames().isEmpty());
+    }
+
+    @Test
+    public void reset() {
+        InMemorySynapseHelperMetrics metrics = new InMemorySynapseHelperMetrics();
+        metrics.onCall(OPERATION_NAME, 1, 10, null);
+        metrics.onAsyncJobDone(JobType.APPEND, 1, 10, true);
+
+        metrics.reset();
+        assertEquals(metrics.getCallCount(OPERATION_NAME), 0);
+        assertEquals(metrics.getAsyncJobCount(JobType.APPEND), 0);
+        assertEquals(metrics.getAsyncJobCompletionTime(JobType.APPEND).getCount(), 0);
+    }
+}
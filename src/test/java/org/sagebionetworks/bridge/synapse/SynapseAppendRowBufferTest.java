@@ -0,0 +1,303 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.mockito.ArgumentCaptor;
+import org.sagebionetworks.client.exceptions.SynapseBadRequestException;
+import org.sagebionetworks.repo.model.table.AppendableRowSet;
+import org.sagebionetworks.repo.model.table.PartialRow;
+import org.sagebionetworks.repo.model.table.PartialRowSet;
+import org.sagebionetworks.repo.model.table.Row;
+import org.sagebionetworks.repo.model.table.RowReference;
+import org.sagebionetworks.repo.model.table.RowReferenceSet;
+import org.sagebionetworks.repo.model.table.RowSet;
+import org.sagebionetworks.repo.model.table.SelectColumn;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.exceptions.BridgeSynapseException;
+
+public class SynapseAppendRowBufferTest {
+    private static final String TABLE_ID = "table-id";
+
+    private SynapseAppendRowBuffer buffer;
+    private SynapseHelper mockSynapseHelper;
+
+    @BeforeMethod
+    public void before() {
+        mockSynapseHelper = mock(SynapseHelper.class);
+
+        buffer = new SynapseAppendRowBuffer();
+        buffer.setSynapseHelper(mockSynapseHelper);
+        buffer.setMaxRows(3);
+        buffer.setMaxBytes(1000);
+
+        // Long delay, so that tests control flushing, unless the test says otherwise.
+        buffer.setMaxDelayMillis(60000);
+    }
+
+    @Test
+    public void mergesAndSlicesPartialRowSets() throws Exception {
+        mockAppendReturnsReferences(3);
+
+        // First append is buffered. Second append fills the batch.
+        CompletableFuture<RowReferenceSet> future1 = buffer.append(makePartialRowSet("a"), TABLE_ID);
+        assertFalse(future1.isDone());
+        verify(mockSynapseHelper, never()).appendRowsToTableAsync(any(), any());
+
+        CompletableFuture<RowReferenceSet> future2 = buffer.append(makePartialRowSet("b", "c"), TABLE_ID);
+
+        // Validate merged row set.
+        ArgumentCaptor<AppendableRowSet> rowSetCaptor = ArgumentCaptor.forClass(AppendableRowSet.class);
+        verify(mockSynapseHelper, times(1)).appendRowsToTableAsync(rowSetCaptor.capture(), eq(TABLE_ID));
+        PartialRowSet mergedRowSet = (PartialRowSet) rowSetCaptor.getValue();
+        assertEquals(mergedRowSet.getTableId(), TABLE_ID);
+        assertEquals(mergedRowSet.getRows().size(), 3);
+        assertEquals(mergedRowSet.getRows().get(0).getValues().get("foo"), "a");
+        assertEquals(mergedRowSet.getRows().get(2).getValues().get("foo"), "c");
+
+        // Each caller gets its own row references.
+        assertRowIds(future1.join(), 0L);
+        assertRowIds(future2.join(), 1L, 2L);
+    }
+
+    @Test
+    public void flushOnMaxBytes() throws Exception {
+        mockAppendReturnsReferences(1);
+        buffer.setMaxBytes(10);
+
+        // "foo" + "long value" is more than 10 bytes.
+        CompletableFuture<RowReferenceSet> future = buffer.append(makePartialRowSet("long value"), TABLE_ID);
+        assertRowIds(future.join(), 0L);
+    }
+
+    @Test
+    public void flushOnDeadline() throws Exception {
+        mockAppendReturnsReferences(1);
+        buffer.setMaxDelayMillis(10);
+
+        CompletableFuture<RowReferenceSet> future = buffer.append(makePartialRowSet("a"), TABLE_ID);
+        assertRowIds(future.join(), 0L);
+    }
+
+    @Test
+    public void explicitFlush() throws Exception {
+        mockAppendReturnsReferences(2);
+
+        CompletableFuture<RowReferenceSet> future1 = buffer.append(makePartialRowSet("a"), TABLE_ID);
+        CompletableFuture<RowReferenceSet> future2 = buffer.append(makePartialRowSet("b"), TABLE_ID);
+        buffer.flush();
+
+        assertRowIds(future1.join(), 0L);
+        assertRowIds(future2.join(), 1L);
+    }
+
+    @Test
+    public void rowSetsWithDifferentHeadersAreNotMerged() throws Exception {
+        mockAppendReturnsReferences(1);
+
+        SelectColumn fooColumn = new SelectColumn();
+        fooColumn.setName("foo");
+        SelectColumn barColumn = new SelectColumn();
+        barColumn.setName("bar");
+
+        // Second row set has different headers. This flushes the first batch.
+        CompletableFuture<RowReferenceSet> future1 = buffer.append(makeRowSet(fooColumn), TABLE_ID);
+        CompletableFuture<RowReferenceSet> future2 = buffer.append(makeRowSet(barColumn), TABLE_ID);
+        assertTrue(future1.isDone());
+        assertFalse(future2.isDone());
+
+        // Flush the second batch.
+        buffer.flush();
+        assertTrue(future2.isDone());
+        verify(mockSynapseHelper, times(2)).appendRowsToTableAsync(any(), eq(TABLE_ID));
+    }
+
+    @Test
+    public void failureCompletesAllCallers() throws Exception {
+        CompletableFuture<RowReferenceSet> failedFuture = new CompletableFuture<>();
+        failedFuture.completeExceptionally(new SynapseBadRequestException());
+        when(mockSynapseHelper.appendRowsToTableAsync(any(), eq(TABLE_ID))).thenReturn(failedFuture);
+
+        CompletableFuture<RowReferenceSet> future1 = buffer.append(makePartialRowSet("a"), TABLE_ID);
+        CompletableFuture<RowReferenceSet> future2 = buffer.append(makePartialRowSet("b"), TABLE_ID);
+        buffer.flush();
+
+        assertFailed(future1);
+        assertFailed(future2);
+    }
+
+    @Test
+    public void startFailureCompletesAllCallers() throws Exception {
+        when(mockSynapseHelper.appendRowsToTableAsync(any(), eq(TABLE_ID))).thenThrow(
+                SynapseBadRequestException.class);
+
+        CompletableFuture<RowReferenceSet> future = buffer.append(makePartialRowSet("a"), TABLE_ID);
+        buffer.flush();
+        assertFailed(future);
+    }
+
+    @Test
+    public void singleCallerGetsFullResult() throws Exception {
+        RowReferenceSet rowReferenceSet = makeRowReferenceSet(1);
+        when(mockSynapseHelper.appendRowsToTableAsync(any(), eq(TABLE_ID))).thenReturn(
+                CompletableFuture.completedFuture(rowReferenceSet));
+
+        CompletableFuture<RowReferenceSet> future = buffer.append(makePartialRowSet("a"), TABLE_ID);
+        buffer.flush();
+        assertSame(future.join(), rowReferenceSet);
+    }
+
+    @Test
+    public void rowReferenceCountMismatchFailsAllCallers() throws Exception {
+        // Two rows appended, but Synapse returns only one row reference.
+        mockAppendReturnsReferences(1);
+
+        CompletableFuture<RowReferenceSet> future1 = buffer.append(makePartialRowSet("a"), TABLE_ID);
+        CompletableFuture<RowReferenceSet> future2 = buffer.append(makePartialRowSet("b"), TABLE_ID);
+        buffer.flush();
+
+        for (CompletableFuture<RowReferenceSet> oneFuture : ImmutableList.of(future1, future2)) {
+            try {
+                oneFuture.join();
+                fail("expected exception");
+            } catch (CompletionException ex) {
+                assertTrue(ex.getCause() instanceof BridgeSynapseException);
+            }
+        }
+    }
+
+    @Test
+    public void flushWaitsForTablesPreviousFlush() throws Exception {
+        CompletableFuture<RowReferenceSet> firstAppendFuture = new CompletableFuture<>();
+        when(mockSynapseHelper.appendRowsToTableAsync(any(), eq(TABLE_ID))).thenReturn(firstAppendFuture,
+                CompletableFuture.completedFuture(makeRowReferenceSet(1)));
+
+        // First batch is sent. Second batch waits for the first batch's append job.
+        CompletableFuture<RowReferenceSet> future1 = buffer.append(makePartialRowSet("a"), TABLE_ID);
+        buffer.flush();
+        CompletableFuture<RowReferenceSet> future2 = buffer.append(makePartialRowSet("b"), TABLE_ID);
+        buffer.flush();
+        verify(mockSynapseHelper, times(1)).appendRowsToTableAsync(any(), eq(TABLE_ID));
+        assertFalse(future2.isDone());
+
+        // Finishing the first append job sends the second batch.
+        firstAppendFuture.complete(makeRowReferenceSet(1));
+        assertRowIds(future1.join(), 0L);
+        assertRowIds(future2.join(), 0L);
+
+        ArgumentCaptor<AppendableRowSet> rowSetCaptor = ArgumentCaptor.forClass(AppendableRowSet.class);
+        verify(mockSynapseHelper, times(2)).appendRowsToTableAsync(rowSetCaptor.capture(), eq(TABLE_ID));
+        assertEquals(((PartialRowSet) rowSetCaptor.getAllValues().get(0)).getRows().get(0).getValues().get("foo"),
+                "a");
+        assertEquals(((PartialRowSet) rowSetCaptor.getAllValues().get(1)).getRows().get(0).getValues().get("foo"),
+                "b");
+    }
+
+    @Test
+    public void failedFlushDoesNotBlockNextFlush() throws Exception {
+        CompletableFuture<RowReferenceSet> firstAppendFuture = new CompletableFuture<>();
+        when(mockSynapseHelper.appendRowsToTableAsync(any(), eq(TABLE_ID))).thenReturn(firstAppendFuture,
+                CompletableFuture.completedFuture(makeRowReferenceSet(1)));
+
+        CompletableFuture<RowReferenceSet> future1 = buffer.append(makePartialRowSet("a"), TABLE_ID);
+        buffer.flush();
+        CompletableFuture<RowReferenceSet> future2 = buffer.append(makePartialRowSet("b"), TABLE_ID);
+        buffer.flush();
+
+        firstAppendFuture.completeExceptionally(new SynapseBadRequestException());
+        assertFailed(future1);
+        assertRowIds(future2.join(), 0L);
+    }
+
+    @Test
+    public void flushesForDifferentTablesAreNotSerialized() throws Exception {
+        when(mockSynapseHelper.appendRowsToTableAsync(any(), eq(TABLE_ID))).thenReturn(new CompletableFuture<>());
+        when(mockSynapseHelper.appendRowsToTableAsync(any(), eq("other-table"))).thenReturn(
+                CompletableFuture.completedFuture(makeRowReferenceSet(1)));
+
+        buffer.append(makePartialRowSet("a"), TABLE_ID);
+        buffer.flush();
+        CompletableFuture<RowReferenceSet> otherFuture = buffer.append(makePartialRowSet("b"), "other-table");
+        buffer.flush();
+        assertRowIds(otherFuture.join(), 0L);
+    }
+
+    private void mockAppendReturnsReferences(int numRows) throws Exception {
+        when(mockSynapseHelper.appendRowsToTableAsync(any(), eq(TABLE_ID))).thenAnswer(invocation ->
+                CompletableFuture.completedFuture(makeRowReferenceSet(numRows)));
+    }
+
+    private static PartialRowSet makePartialRowSet(String... values) {
+        List<PartialRow> rowList = new ArrayList<>();
+        for (String oneValue : values) {
+            PartialRow row = new PartialRow();
+            row.setValues(ImmutableMap.of("foo", oneValue));
+            rowList.add(row);
+        }
+
+        PartialRowSet rowSet = new PartialRowSet();
+        rowSet.setTableId(TABLE_ID);
+        rowSet.setRows(rowList);
+        return rowSet;
+    }
+
+    private static RowSet makeRowSet(SelectColumn header) {
+        Row row = new Row();
+        row.setValues(ImmutableList.of("value"));
+
+        RowSet rowSet = new RowSet();
+        rowSet.setTableId(TABLE_ID);
+        rowSet.setHeaders(ImmutableList.of(header));
+        rowSet.setRows(ImmutableList.of(row));
+        return rowSet;
+    }
+
+    private static RowReferenceSet makeRowReferenceSet(int numRows) {
+        List<RowReference> rowReferenceList = new ArrayList<>();
+        for (long i = 0; i < numRows; i++) {
+            RowReference rowReference = new RowReference();
+            rowReference.setRowId(i);
+            rowReferenceList.add(rowReference);
+        }
+
+        RowReferenceSet rowReferenceSet = new RowReferenceSet();
+        rowReferenceSet.setTableId(TABLE_ID);
+        rowReferenceSet.setRows(rowReferenceList);
+        return rowReferenceSet;
+    }
+
+    private static void assertRowIds(RowReferenceSet rowReferenceSet, Long... expectedRowIds) {
+        assertEquals(rowReferenceSet.getRows().size(), expectedRowIds.length);
+        for (int i = 0; i < expectedRowIds.length; i++) {
+            assertEquals(rowReferenceSet.getRows().get(i).getRowId(), expectedRowIds[i]);
+        }
+    }
+
+    private static void assertFailed(CompletableFuture<RowReferenceSet> future) {
+        try {
+            future.join();
+            fail("expected exception");
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof SynapseBadRequestException);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.mockito.ArgumentCaptor;
+import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseConflictingUpdateException;
+import org.sagebionetworks.client.exceptions.SynapseForbiddenException;
+import org.sagebionetworks.repo.model.annotation.v2.Annotations;
+import org.sagebionetworks.repo.model.annotation.v2.AnnotationsValue;
+import org.sagebionetworks.repo.model.annotation.v2.AnnotationsValueType;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+// Tests for SynapseHelper.addAnnotationsToEntities().
+public class SynapseHelperAddAnnotationsTest {
+    private static final String ENTITY_ID_1 = "syn1111";
+    private static final String ENTITY_ID_2 = "syn2222";
+    private static final String ENTITY_ID_3 = "syn3333";
+
+    private SynapseClient mockSynapseClient;
+    private SynapseHelper synapseHelper;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        mockSynapseClient = mock(SynapseClient.class);
+
+        synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+        synapseHelper.setRateLimit(1000);
+
+        // Run tasks in the calling thread, to make tests deterministic.
+        synapseHelper.setBulkExecutor(MoreExecutors.newDirectExecutorService());
+
+        // Each get returns fresh annotations with an existing value. The etag is the entity ID.
+        doAnswer(invocation -> {
+            String entityId = invocation.getArgumentAt(0, String.class);
+            Map<String, AnnotationsValue> annotationMap = new HashMap<>();
+            annotationMap.put("existing", makeAnnotationsValue("existing value"));
+
+            Annotations annotations = new Annotations();
+            annotations.setEtag(entityId + "-etag");
+            annotations.setId(entityId);
+            annotations.setAnnotations(annotationMap);
+            return annotations;
+        }).when(mockSynapseClient).getAnnotationsV2(anyString());
+
+        // By default, updates succeed and return the annotations that were sent.
+        doAnswer(invocation -> invocation.getArgumentAt(1, Annotations.class)).when(mockSynapseClient)
+                .updateAnnotationsV2(anyString(), any());
+    }
+
+    @Test
+    public void multipleEntities() throws Exception {
+        Map<String, Map<String, AnnotationsValue>> inputMap = new LinkedHashMap<>();
+        inputMap.put(ENTITY_ID_1, ImmutableMap.of("added", makeAnnotationsValue("value 1")));
+        inputMap.put(ENTITY_ID_2, ImmutableMap.of("added", makeAnnotationsValue("value 2")));
+
+        Map<String, CompletableFuture<Annotations>> resultMap = synapseHelper.addAnnotationsToEntities(inputMap);
+        assertEquals(ImmutableList.copyOf(resultMap.keySet()), ImmutableList.of(ENTITY_ID_1, ENTITY_ID_2));
+
+        Annotations annotations1 = resultMap.get(ENTITY_ID_1).get();
+        assertEquals(annotations1.getEtag(), ENTITY_ID_1 + "-etag");
+        assertEquals(annotations1.getAnnotations().size(), 2);
+        assertEquals(annotations1.getAnnotations().get("existing").getValue(), ImmutableList.of("existing value"));
+        assertEquals(annotations1.getAnnotations().get("added").getValue(), ImmutableList.of("value 1"));
+
+        Annotations annotations2 = resultMap.get(ENTITY_ID_2).get();
+        assertEquals(annotations2.getEtag(), ENTITY_ID_2 + "-etag");
+        assertEquals(annotations2.getAnnotations().get("added").getValue(), ImmutableList.of("value 2"));
+    }
+
+    @Test
+    public void conflictRetriesOnlyThatEntity() throws Exception {
+        when(mockSynapseClient.updateAnnotationsV2(eq(ENTITY_ID_1), any()))
+                .thenThrow(new SynapseConflictingUpdateException())
+                .thenAnswer(invocation -> invocation.getArgumentAt(1, Annotations.class));
+
+        Map<String, Map<String, AnnotationsValue>> inputMap = new LinkedHashMap<>();
+        inputMap.put(ENTITY_ID_1, ImmutableMap.of("added", makeAnnotationsValue("value 1")));
+        inputMap.put(ENTITY_ID_2, ImmutableMap.of("added", makeAnnotationsValue("value 2")));
+
+        Map<String, CompletableFuture<Annotations>> resultMap = synapseHelper.addAnnotationsToEntities(inputMap);
+        assertEquals(resultMap.get(ENTITY_ID_1).get().getAnnotations().get("added").getValue(),
+                ImmutableList.of("value 1"));
+        assertEquals(resultMap.get(ENTITY_ID_2).get().getAnnotations().get("added").getValue(),
+                ImmutableList.of("value 2"));
+
+        // Entity 1 was re-fetched and re-merged. Entity 2 was only done once.
+        verify(mockSynapseClient, times(2)).getAnnotationsV2(ENTITY_ID_1);
+        ArgumentCaptor<Annotations> annotationsCaptor = ArgumentCaptor.forClass(Annotations.class);
+        verify(mockSynapseClient, times(2)).updateAnnotationsV2(eq(ENTITY_ID_1), annotationsCaptor.capture());
+        assertEquals(annotationsCaptor.getAllValues().get(1).getAnnotations().size(), 2);
+
+        verify(mockSynapseClient, times(1)).getAnnotationsV2(ENTITY_ID_2);
+        verify(mockSynapseClient, times(1)).updateAnnotationsV2(eq(ENTITY_ID_2), any());
+    }
+
+    @Test
+    public void conflictsExhaustAttempts() throws Exception {
+        when(mockSynapseClient.updateAnnotationsV2(eq(ENTITY_ID_1), any()))
+                .thenThrow(new SynapseConflictingUpdateException());
+
+        Map<String, CompletableFuture<Annotations>> resultMap = synapseHelper.addAnnotationsToEntities(
+                ImmutableMap.of(ENTITY_ID_1, ImmutableMap.of("added", makeAnnotationsValue("value 1"))));
+        try {
+            resultMap.get(ENTITY_ID_1).get();
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof SynapseConflictingUpdateException);
+        }
+
+        // Conflicts aren't retried by the retry policy, only by re-fetching.
+        verify(mockSynapseClient, times(SynapseHelper.ANNOTATION_CONFLICT_MAX_ATTEMPTS)).getAnnotationsV2(
+                ENTITY_ID_1);
+        verify(mockSynapseClient, times(SynapseHelper.ANNOTATION_CONFLICT_MAX_ATTEMPTS)).updateAnnotationsV2(
+                eq(ENTITY_ID_1), any());
+    }
+
+    @Test
+    public void failureDoesNotAffectOtherEntities() throws Exception {
+        when(mockSynapseClient.getAnnotationsV2(ENTITY_ID_2)).thenThrow(new SynapseForbiddenException());
+
+        Map<String, Map<String, AnnotationsValue>> inputMap = new LinkedHashMap<>();
+        inputMap.put(ENTITY_ID_1, ImmutableMap.of("added", makeAnnotationsValue("value 1")));
+        inputMap.put(ENTITY_ID_2, ImmutableMap.of("added", makeAnnotationsValue("value 2")));
+        inputMap.put(ENTITY_ID_3, ImmutableMap.of("added", makeAnnotationsValue("value 3")));
+
+        Map<String, CompletableFuture<Annotations>> resultMap = synapseHelper.addAnnotationsToEntities(inputMap);
+        assertEquals(resultMap.get(ENTITY_ID_1).get().getId(), ENTITY_ID_1);
+        assertEquals(resultMap.get(ENTITY_ID_3).get().getId(), ENTITY_ID_3);
+        try {
+            resultMap.get(ENTITY_ID_2).get();
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof SynapseForbiddenException);
+        }
+    }
+
+    @Test
+    public void emptyInput() {
+        assertTrue(synapseHelper.addAnnotationsToEntities(ImmutableMap.of()).isEmpty());
+    }
+
+    private static AnnotationsValue makeAnnotationsValue(String value) {
+        AnnotationsValue annotationsValue = new AnnotationsValue();
+        annotationsValue.setType(AnnotationsValueType.STRING);
+        annotationsValue.setValue(ImmutableList.of(value));
+        return annotationsValue;
+    }
+}
@@ -1,16 +1,35 @@
 package org.sagebionetworks.bridge.synapse;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNull;
 import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseBadRequestException;
 import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
 import org.sagebionetworks.repo.model.table.AppendableRowSet;
 import org.sagebionetworks.repo.model.table.PartialRowSet;
@@ -92,4 +111,173 @@ public class SynapseHelperAppendRowsTest {
         // Execute - throws.
         synapseHelper.queryTableEntityBundle(QUERY, TABLE_ID);
     }
+
+    @Test
+    public void appendRowsAsync_normalCase() throws Exception {
+        // Mock Synapse Client. First loop not ready. Second loop has results.
+        when(mockSynapseClient.appendRowSetToTableGet(JOB_TOKEN, TABLE_ID))
+                .thenThrow(SynapseResultNotReadyException.class).thenReturn(ROW_REFERENCE_SET);
+
+        // Execute and validate.
+        RowReferenceSet result = synapseHelper.appendRowsToTableAsync(APPENDABLE_ROW_SET, TABLE_ID).join();
+        assertSame(result, ROW_REFERENCE_SET);
+    }
+
+    @Test
+    public void appendRowsAsync_timeout() throws Exception {
+        // Mock Synapse Client. Result is always not ready.
+        when(mockSynapseClient.appendRowSetToTableGet(JOB_TOKEN, TABLE_ID))
+                .thenThrow(SynapseResultNotReadyException.class);
+
+        // Execute and validate.
+        try {
+            synapseHelper.appendRowsToTableAsync(APPENDABLE_ROW_SET, TABLE_ID).join();
+            fail("expected exception");
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof BridgeSynapseException);
+        }
+    }
+
+    @Test
+    public void appendRowsAsync_error() throws Exception {
+        // Mock Synapse Client. Job fails.
+        when(mockSynapseClient.appendRowSetToTableGet(JOB_TOKEN, TABLE_ID))
+                .thenThrow(SynapseBadRequestException.class);
+
+        // Execute and validate.
+        try {
+            synapseHelper.appendRowsToTableAsync(APPENDABLE_ROW_SET, TABLE_ID).join();
+            fail("expected exception");
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof SynapseBadRequestException);
+        }
+    }
+
+    @Test
+    public void appendRowsAsync_pollsRunOnAsyncGetExecutor() throws Exception {
+        ExecutorService asyncGetExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("test-async-get-%d").build());
+        synapseHelper.setAsyncGetExecutor(asyncGetExecutor);
+        try {
+            // Mock Synapse Client. Record which threads the polls run on.
+            List<String> pollThreadNameList = new CopyOnWriteArrayList<>();
+            when(mockSynapseClient.appendRowSetToTableGet(JOB_TOKEN, TABLE_ID)).thenAnswer(invocation -> {
+                pollThreadNameList.add(Thread.currentThread().getName());
+                if (pollThreadNameList.size() < 2) {
+                    throw new SynapseResultNotReadyException();
+                }
+                return ROW_REFERENCE_SET;
+            });
+
+            // Execute and validate. Polls run on the async get executor, not on the scheduler.
+            RowReferenceSet result = synapseHelper.appendRowsToTableAsync(APPENDABLE_ROW_SET, TABLE_ID).join();
+            assertSame(result, ROW_REFERENCE_SET);
+            assertEquals(pollThreadNameList, ImmutableList.of("test-async-get-0", "test-async-get-0"));
+        } finally {
+            asyncGetExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void appendRowsAsync_asyncGetExecutorShutDown() throws Exception {
+        ExecutorService asyncGetExecutor = Executors.newSingleThreadExecutor();
+        asyncGetExecutor.shutdown();
+        synapseHelper.setAsyncGetExecutor(asyncGetExecutor);
+
+        // Execute and validate. The future fails instead of hanging.
+        try {
+            synapseHelper.appendRowsToTableAsync(APPENDABLE_ROW_SET, TABLE_ID).join();
+            fail("expected exception");
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+        verify(mockSynapseClient, never()).appendRowSetToTableGet(any(), any());
+    }
+
+    @Test
+    public void queryTableAsync_normalCase() throws Exception {
+        // Mock Synapse Client. First loop not ready. Second loop has results.
+        when(mockSynapseClient.queryTableEntityBundleAsyncGet(JOB_TOKEN, TABLE_ID))
+                .thenThrow(SynapseResultNotReadyException.class).thenReturn(QUERY_RESULT_BUNDLE);
+
+        // Execute and validate.
+        QueryResultBundle result = synapseHelper.queryTableEntityBundleAsync(QUERY, TABLE_ID).join();
+        assertSame(result, QUERY_RESULT_BUNDLE);
+    }
+
+    @Test
+    public void appendRows_adaptivePollScheduler() throws Exception {
+        // Adaptive scheduler polls three times, in quick succession.
+        AdaptivePollScheduler mockScheduler = mock(AdaptivePollScheduler.class);
+        when(mockScheduler.getPollDelaysMillis(eq(AdaptivePollScheduler.JobType.APPEND), any())).thenReturn(
+                new long[] { 0, 10, 20 });
+        synapseHelper.setAdaptivePollScheduler(mockScheduler);
+
+        // Mock Synapse Client. First two loops not ready. Third loop has results. This would time out with the
+        // backoff plan, which only has 2 polls.
+        when(mockSynapseClient.appendRowSetToTableGet(JOB_TOKEN, TABLE_ID))
+                .thenThrow(SynapseResultNotReadyException.class).thenThrow(SynapseResultNotReadyException.class)
+                .thenReturn(ROW_REFERENCE_SET);
+
+        // Execute and validate.
+        RowReferenceSet result = synapseHelper.appendRowsToTable(APPENDABLE_ROW_SET, TABLE_ID);
+        assertSame(result, ROW_REFERENCE_SET);
+        // The second poll, scheduled at 10ms, was the last one that found the job not ready.
+        verify(mockScheduler).recordPolledDuration(eq(AdaptivePollScheduler.JobType.APPEND), eq(10L), anyLong());
+    }
+
+    @Test
+    public void queryTableAsync_adaptivePollScheduler() throws Exception {
+        AdaptivePollScheduler mockScheduler = mock(AdaptivePollScheduler.class);
+        when(mockScheduler.getPollDelaysMillis(eq(AdaptivePollScheduler.JobType.QUERY), any())).thenReturn(
+                new long[] { 0, 0, 0 });
+        synapseHelper.setAdaptivePollScheduler(mockScheduler);
+
+        // Mock Synapse Client. Result is always not ready.
+        when(mockSynapseClient.queryTableEntityBundleAsyncGet(JOB_TOKEN, TABLE_ID))
+                .thenThrow(SynapseResultNotReadyException.class);
+
+        // Execute and validate. Timed out jobs aren't recorded.
+        try {
+            synapseHelper.queryTableEntityBundleAsync(QUERY, TABLE_ID).join();
+            fail("expected exception");
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof BridgeSynapseException);
+        }
+        verify(mockSynapseClient, times(3)).queryTableEntityBundleAsyncGet(JOB_TOKEN, TABLE_ID);
+        verify(mockScheduler, never()).recordPolledDuration(any(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void appendRows_metrics() throws Exception {
+        SynapseHelperMetrics mockMetrics = mock(SynapseHelperMetrics.class);
+        synapseHelper.setMetrics(mockMetrics);
+
+        // Mock Synapse Client. First loop not ready. Second loop has results.
+        when(mockSynapseClient.appendRowSetToTableGet(JOB_TOKEN, TABLE_ID))
+                .thenThrow(SynapseResultNotReadyException.class).thenReturn(ROW_REFERENCE_SET);
+
+        // Execute and validate.
+        synapseHelper.appendRowsToTable(APPENDABLE_ROW_SET, TABLE_ID);
+        verify(mockMetrics).onAsyncJobDone(eq(AdaptivePollScheduler.JobType.APPEND), eq(2), anyLong(), eq(true));
+    }
+
+    @Test
+    public void queryTableAsync_timeoutMetrics() throws Exception {
+        SynapseHelperMetrics mockMetrics = mock(SynapseHelperMetrics.class);
+        synapseHelper.setMetrics(mockMetrics);
+
+        // Mock Synapse Client. Result is always not ready.
+        when(mockSynapseClient.queryTableEntityBundleAsyncGet(JOB_TOKEN, TABLE_ID))
+                .thenThrow(SynapseResultNotReadyException.class);
+
+        // Execute and validate.
+        try {
+            synapseHelper.queryTableEntityBundleAsync(QUERY, TABLE_ID).join();
+            fail("expected exception");
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof BridgeSynapseException);
+        }
+        verify(mockMetrics).onAsyncJobDone(eq(AdaptivePollScheduler.JobType.QUERY), eq(2), anyLong(), eq(false));
+    }
 }
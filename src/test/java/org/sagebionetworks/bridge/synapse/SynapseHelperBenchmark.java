@@ -0,0 +1,203 @@
+package org.sagebionetworks.bridge.synapse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+import org.sagebionetworks.repo.model.table.PartialRow;
+import org.sagebionetworks.repo.model.table.PartialRowSet;
+import org.sagebionetworks.repo.model.table.TableSchemaChangeRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * <p>
+ * Throughput and latency benchmarks for SynapseHelper against {@link FakeSynapseClient}, under different rate limits
+ * and async backoff plans. The fake models Synapse's throttling (10 calls per second) and async job latency, so
+ * results show how the limiter and backoff settings trade off against each other.
+ * </p>
+ * <p>
+ * These take minutes, so they don't match the default surefire includes. Run them with "mvn test -Pbenchmark".
+ * Results are logged.
+ * </p>
+ */
+public class SynapseHelperBenchmark {
+    private static final Logger LOG = LoggerFactory.getLogger(SynapseHelperBenchmark.class);
+
+    private static final int[] DEFAULT_BACKOFF_PLAN = { 1, 2, 4, 8, 16, 32, 60, 60, 60, 60 };
+    private static final int[] FLAT_BACKOFF_PLAN = { 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1 };
+
+    // Synapse's throttling limit, and how long its calls and jobs take.
+    private static final double SYNAPSE_THROTTLE_RATE = 10.0;
+    private static final long CALL_LATENCY_MILLIS = 50;
+    private static final long JOB_BASE_MILLIS = 1200;
+    private static final double JOB_MILLIS_PER_ROW = 0.5;
+
+    private static final int THREAD_COUNT = 8;
+    private static final int APPEND_COUNT = 40;
+    private static final int ROWS_PER_APPEND = 100;
+    private static final int TSV_FILE_COUNT = 8;
+    private static final int ROWS_PER_TSV_FILE = 5000;
+    private static final int SCHEMA_UPDATE_COUNT = 8;
+
+    @DataProvider(name = "settings")
+    public Object[][] settings() {
+        return new Object[][] {
+                { 10.0, DEFAULT_BACKOFF_PLAN },
+                { 10.0, FLAT_BACKOFF_PLAN },
+                { 5.0, DEFAULT_BACKOFF_PLAN },
+                { 20.0, DEFAULT_BACKOFF_PLAN },
+        };
+    }
+
+    @Test(dataProvider = "settings")
+    public void appendRowsToTable(double rateLimit, int[] backoffPlan) throws Exception {
+        FakeSynapseClient fakeClient = makeFakeClient();
+        SynapseHelper synapseHelper = makeSynapseHelper(fakeClient, rateLimit, backoffPlan);
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        List<Long> latencyMillisList = runConcurrently(APPEND_COUNT, () -> synapseHelper.appendRowsToTable(
+                makeRowSet(ROWS_PER_APPEND), "table-id"));
+        logResult("appendRowsToTable", rateLimit, backoffPlan, fakeClient, stopwatch, APPEND_COUNT,
+                latencyMillisList.size(), ROWS_PER_APPEND);
+    }
+
+    @Test(dataProvider = "settings")
+    public void uploadTsvFileToTable(double rateLimit, int[] backoffPlan) throws Exception {
+        FakeSynapseClient fakeClient = makeFakeClient();
+        SynapseHelper synapseHelper = makeSynapseHelper(fakeClient, rateLimit, backoffPlan);
+        File tsvFile = makeTsvFile(ROWS_PER_TSV_FILE);
+
+        try {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            List<Long> latencyMillisList = runConcurrently(TSV_FILE_COUNT, () -> synapseHelper.uploadTsvFileToTable(
+                    "table-id", tsvFile));
+            logResult("uploadTsvFileToTable", rateLimit, backoffPlan, fakeClient, stopwatch, TSV_FILE_COUNT,
+                    latencyMillisList.size(), ROWS_PER_TSV_FILE);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            tsvFile.delete();
+        }
+    }
+
+    @Test(dataProvider = "settings")
+    public void updateTableColumns(double rateLimit, int[] backoffPlan) throws Exception {
+        FakeSynapseClient fakeClient = makeFakeClient();
+        SynapseHelper synapseHelper = makeSynapseHelper(fakeClient, rateLimit, backoffPlan);
+
+        List<Long> latencyMillisList = runConcurrently(SCHEMA_UPDATE_COUNT, () -> synapseHelper.updateTableColumns(
+                new TableSchemaChangeRequest(), "table-id"));
+        long totalLatencyMillis = 0;
+        long maxLatencyMillis = 0;
+        for (long latencyMillis : latencyMillisList) {
+            totalLatencyMillis += latencyMillis;
+            maxLatencyMillis = Math.max(maxLatencyMillis, latencyMillis);
+        }
+        LOG.info(String.format("updateTableColumns: rateLimit=%.1f, backoffPlan=%s, avgLatency=%dms, " +
+                        "maxLatency=%dms, failed=%d, calls=%d, throttled=%d, notReady=%d", rateLimit,
+                describePlan(backoffPlan), totalLatencyMillis / Math.max(1, latencyMillisList.size()),
+                maxLatencyMillis, SCHEMA_UPDATE_COUNT - latencyMillisList.size(), fakeClient.getCallCount(),
+                fakeClient.getThrottledCallCount(), fakeClient.getNotReadyCount()));
+    }
+
+    private static FakeSynapseClient makeFakeClient() {
+        FakeSynapseClient fakeClient = new FakeSynapseClient();
+        fakeClient.setCallLatencyMillis(CALL_LATENCY_MILLIS);
+        fakeClient.setThrottleRatePerSecond(SYNAPSE_THROTTLE_RATE);
+        fakeClient.setJobBaseMillis(JOB_BASE_MILLIS);
+        fakeClient.setJobMillisPerRow(JOB_MILLIS_PER_ROW);
+        return fakeClient;
+    }
+
+    private static SynapseHelper makeSynapseHelper(FakeSynapseClient fakeClient, double rateLimit,
+            int[] backoffPlan) {
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(fakeClient.getClient());
+        synapseHelper.setRateLimit(rateLimit);
+        synapseHelper.setAsyncGetBackoffPlan(backoffPlan);
+        return synapseHelper;
+    }
+
+    private static PartialRowSet makeRowSet(int rowCount) {
+        List<PartialRow> rowList = new ArrayList<>();
+        for (int i = 0; i < rowCount; i++) {
+            rowList.add(new PartialRow());
+        }
+
+        PartialRowSet rowSet = new PartialRowSet();
+        rowSet.setRows(rowList);
+        rowSet.setTableId("table-id");
+        return rowSet;
+    }
+
+    private static File makeTsvFile(int rowCount) throws IOException {
+        File tsvFile = File.createTempFile("benchmark", ".tsv");
+        try (PrintWriter writer = new PrintWriter(tsvFile, "UTF-8")) {
+            writer.println("foo\tbar");
+            for (int i = 0; i < rowCount; i++) {
+                writer.println("foo-" + i + "\tbar-" + i);
+            }
+        }
+        return tsvFile;
+    }
+
+    // Runs the task the given number of times, on THREAD_COUNT threads, and waits for them all to finish. Returns the
+    // latency of each successful run, in milliseconds. Failures (for example, when the rate limit is above Synapse's
+    // throttling limit and retries run out) are logged and left out.
+    private static List<Long> runConcurrently(int count, BenchmarkTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<Long>> futureList = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                futureList.add(executor.submit(() -> {
+                    Stopwatch stopwatch = Stopwatch.createStarted();
+                    try {
+                        task.run();
+                    } catch (Exception ex) {
+                        LOG.warn("Benchmark task failed: " + ex.getMessage());
+                        return null;
+                    }
+                    return stopwatch.elapsed(TimeUnit.MILLISECONDS);
+                }));
+            }
+
+            List<Long> latencyMillisList = new ArrayList<>();
+            for (Future<Long> future : futureList) {
+                Long latencyMillis = future.get();
+                if (latencyMillis != null) {
+                    latencyMillisList.add(latencyMillis);
+                }
+            }
+            return latencyMillisList;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void logResult(String name, double rateLimit, int[] backoffPlan, FakeSynapseClient fakeClient,
+            Stopwatch stopwatch, int runCount, int successCount, int rowsPerRun) {
+        long elapsedMillis = Math.max(1, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        LOG.info(String.format("%s: rateLimit=%.1f, backoffPlan=%s, rows/sec=%.1f, elapsed=%dms, failed=%d, " +
+                        "calls=%d, throttled=%d, notReady=%d", name, rateLimit, describePlan(backoffPlan),
+                (long) successCount * rowsPerRun * 1000.0 / elapsedMillis, elapsedMillis, runCount - successCount,
+                fakeClient.getCallCount(), fakeClient.getThrottledCallCount(), fakeClient.getNotReadyCount()));
+    }
+
+    private static String describePlan(int[] backoffPlan) {
+        return backoffPlan == DEFAULT_BACKOFF_PLAN ? "default" : "flat";
+    }
+
+    // Like Callable, but we don't care about the result.
+    private interface BenchmarkTask {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,177 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.ImmutableList;
+import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseNotFoundException;
+import org.sagebionetworks.repo.model.table.ColumnModel;
+import org.sagebionetworks.repo.model.table.TableSchemaChangeRequest;
+import org.sagebionetworks.repo.model.table.TableSchemaChangeResponse;
+import org.sagebionetworks.repo.model.table.TableUpdateResponse;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+// Tests for SynapseHelper.getColumnModelsForTableWithRetry() with the column model cache.
+@SuppressWarnings("unchecked")
+public class SynapseHelperColumnModelCacheTest {
+    private static final String JOB_TOKEN = "job-token";
+    private static final String TABLE_ID = "table-id";
+
+    private SynapseClient mockSynapseClient;
+    private SynapseHelper synapseHelper;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        mockSynapseClient = mock(SynapseClient.class);
+
+        synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+
+        // Set async loop and rate limits to make tests more reasonable.
+        synapseHelper.setAsyncGetBackoffPlan(new int[] { 0, 0 });
+        synapseHelper.setRateLimit(1000);
+        synapseHelper.setGetColumnModelsRateLimit(1000);
+    }
+
+    @Test
+    public void cacheDisabled() throws Exception {
+        when(mockSynapseClient.getColumnModelsForTableEntity(TABLE_ID)).thenReturn(makeColumnList("foo"));
+
+        synapseHelper.getColumnModelsForTableWithRetry(TABLE_ID);
+        synapseHelper.getColumnModelsForTableWithRetry(TABLE_ID);
+        verify(mockSynapseClient, times(2)).getColumnModelsForTableEntity(TABLE_ID);
+    }
+
+    @Test
+    public void cacheEnabled() throws Exception {
+        synapseHelper.enableColumnModelCache(10, 60);
+        when(mockSynapseClient.getColumnModelsForTableEntity(TABLE_ID)).thenReturn(makeColumnList("foo"));
+
+        List<ColumnModel> result1 = synapseHelper.getColumnModelsForTableWithRetry(TABLE_ID);
+        List<ColumnModel> result2 = synapseHelper.getColumnModelsForTableWithRetry(TABLE_ID);
+        assertColumnNames(result1, "foo");
+        assertColumnNames(result2, "foo");
+        verify(mockSynapseClient, times(1)).getColumnModelsForTableEntity(TABLE_ID);
+    }
+
+    @Test
+    public void updateTableColumnsInvalidatesCache() throws Exception {
+        synapseHelper.enableColumnModelCache(10, 60);
+        when(mockSynapseClient.getColumnModelsForTableEntity(TABLE_ID)).thenReturn(makeColumnList("foo"),
+                makeColumnList("foo", "bar"));
+
+        List<TableUpdateResponse> responseList = ImmutableList.of(new TableSchemaChangeResponse());
+        when(mockSynapseClient.startTableTransactionJob(ImmutableList.of(new TableSchemaChangeRequest()), TABLE_ID))
+                .thenReturn(JOB_TOKEN);
+        when(mockSynapseClient.getTableTransactionJobResults(JOB_TOKEN, TABLE_ID)).thenReturn(responseList);
+
+        // Get columns, then update table, then get columns again.
+        assertColumnNames(synapseHelper.getColumnModelsForTableWithRetry(TABLE_ID), "foo");
+        synapseHelper.updateTableColumns(new TableSchemaChangeRequest(), TABLE_ID);
+        assertColumnNames(synapseHelper.getColumnModelsForTableWithRetry(TABLE_ID), "foo", "bar");
+        verify(mockSynapseClient, times(2)).getColumnModelsForTableEntity(TABLE_ID);
+    }
+
+    @Test
+    public void updateDuringLoadIsNotCached() throws Exception {
+        synapseHelper.enableColumnModelCache(10, 60);
+
+        List<TableUpdateResponse> responseList = ImmutableList.of(new TableSchemaChangeResponse());
+        when(mockSynapseClient.startTableTransactionJob(ImmutableList.of(new TableSchemaChangeRequest()), TABLE_ID))
+                .thenReturn(JOB_TOKEN);
+        when(mockSynapseClient.getTableTransactionJobResults(JOB_TOKEN, TABLE_ID)).thenReturn(responseList);
+
+        // The table is updated while the first load is in flight, so the first load reads the old columns.
+        when(mockSynapseClient.getColumnModelsForTableEntity(TABLE_ID)).thenAnswer(invocation -> {
+            synapseHelper.updateTableColumns(new TableSchemaChangeRequest(), TABLE_ID);
+            return makeColumnList("foo");
+        }).thenReturn(makeColumnList("foo", "bar"));
+
+        // The old columns are neither returned nor cached.
+        assertColumnNames(synapseHelper.getColumnModelsForTableWithRetry(TABLE_ID), "foo", "bar");
+        assertColumnNames(synapseHelper.getColumnModelsForTableWithRetry(TABLE_ID), "foo", "bar");
+        verify(mockSynapseClient, times(3)).getColumnModelsForTableEntity(TABLE_ID);
+    }
+
+    @Test
+    public void exceptionsNotCached() throws Exception {
+        synapseHelper.enableColumnModelCache(10, 60);
+        when(mockSynapseClient.getColumnModelsForTableEntity(TABLE_ID)).thenThrow(SynapseNotFoundException.class)
+                .thenReturn(makeColumnList("foo"));
+
+        // First call throws the original exception.
+        try {
+            synapseHelper.getColumnModelsForTableWithRetry(TABLE_ID);
+            fail("expected exception");
+        } catch (SynapseNotFoundException ex) {
+            // expected exception
+        }
+
+        // Second call succeeds.
+        assertColumnNames(synapseHelper.getColumnModelsForTableWithRetry(TABLE_ID), "foo");
+    }
+
+    @Test
+    public void concurrentCallsAreCoalesced() throws Exception {
+        synapseHelper.enableColumnModelCache(10, 60);
+
+        // The Synapse call blocks until all threads have started, so the calls overlap.
+        int numThreads = 4;
+        CountDownLatch startLatch = new CountDownLatch(numThreads);
+        CountDownLatch loadLatch = new CountDownLatch(1);
+        when(mockSynapseClient.getColumnModelsForTableEntity(TABLE_ID)).thenAnswer(invocation -> {
+            loadLatch.await();
+            return makeColumnList("foo");
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<List<ColumnModel>>> futureList = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                futureList.add(executor.submit(() -> {
+                    startLatch.countDown();
+                    return synapseHelper.getColumnModelsForTableWithRetry(TABLE_ID);
+                }));
+            }
+            startLatch.await();
+            loadLatch.countDown();
+
+            for (Future<List<ColumnModel>> oneFuture : futureList) {
+                assertColumnNames(oneFuture.get(), "foo");
+            }
+        } finally {
+            executor.shutdown();
+        }
+        verify(mockSynapseClient, times(1)).getColumnModelsForTableEntity(TABLE_ID);
+    }
+
+    private static List<ColumnModel> makeColumnList(String... names) {
+        ImmutableList.Builder<ColumnModel> columnListBuilder = ImmutableList.builder();
+        for (String oneName : names) {
+            ColumnModel column = new ColumnModel();
+            column.setName(oneName);
+            columnListBuilder.add(column);
+        }
+        return columnListBuilder.build();
+    }
+
+    private static void assertColumnNames(List<ColumnModel> columnList, String... expectedNames) {
+        assertEquals(columnList.size(), expectedNames.length);
+        for (int i = 0; i < expectedNames.length; i++) {
+            assertEquals(columnList.get(i).getName(), expectedNames[i]);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseNotFoundException;
+import org.sagebionetworks.repo.model.AccessControlList;
+import org.sagebionetworks.repo.model.Folder;
+import org.sagebionetworks.repo.model.table.TableEntity;
+import org.sagebionetworks.repo.model.table.TableSchemaChangeRequest;
+import org.sagebionetworks.repo.model.table.TableSchemaChangeResponse;
+import org.sagebionetworks.repo.model.table.TableUpdateResponse;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+// Tests for SynapseHelper with the entity, ACL, and child lookup caches.
+public class SynapseHelperEntityCacheTest {
+    private static final String CHILD_NAME = "child-name";
+    private static final String ENTITY_ID = "syn1111";
+    private static final String ETAG = "etag";
+    private static final String PARENT_ID = "syn2222";
+    private static final String TABLE_NAME = "table-name";
+
+    private SynapseClient mockSynapseClient;
+    private SynapseHelper synapseHelper;
+
+    @BeforeMethod
+    public void setup() {
+        mockSynapseClient = mock(SynapseClient.class);
+
+        synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+        synapseHelper.setAsyncGetBackoffPlan(new int[] { 0, 0 });
+        synapseHelper.setRateLimit(1000);
+        synapseHelper.enableEntityCache(10, 60);
+    }
+
+    @Test
+    public void cacheDisabled() throws Exception {
+        synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+        synapseHelper.setRateLimit(1000);
+
+        when(mockSynapseClient.getEntity(ENTITY_ID, TableEntity.class)).thenReturn(makeTable());
+        when(mockSynapseClient.lookupChild(PARENT_ID, CHILD_NAME)).thenReturn(ENTITY_ID);
+
+        synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class);
+        synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class);
+        verify(mockSynapseClient, times(2)).getEntity(ENTITY_ID, TableEntity.class);
+
+        synapseHelper.lookupChildWithRetry(PARENT_ID, CHILD_NAME);
+        synapseHelper.lookupChildWithRetry(PARENT_ID, CHILD_NAME);
+        verify(mockSynapseClient, times(2)).lookupChild(PARENT_ID, CHILD_NAME);
+    }
+
+    @Test
+    public void getEntityCached() throws Exception {
+        when(mockSynapseClient.getEntity(ENTITY_ID, TableEntity.class)).thenReturn(makeTable());
+
+        TableEntity result1 = synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class);
+        TableEntity result2 = synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class);
+        assertEquals(result1.getName(), TABLE_NAME);
+        assertEquals(result2, result1);
+        verify(mockSynapseClient, times(1)).getEntity(ENTITY_ID, TableEntity.class);
+
+        // Each call returns its own copy, so callers can't modify the cached entity.
+        assertNotSame(result2, result1);
+        result1.setName("modified-name");
+        TableEntity result3 = synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class);
+        assertEquals(result3.getName(), TABLE_NAME);
+    }
+
+    @Test
+    public void getEntityNotFoundCached() throws Exception {
+        when(mockSynapseClient.getEntity(ENTITY_ID, TableEntity.class)).thenThrow(new SynapseNotFoundException());
+
+        assertNull(synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class));
+        assertNull(synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class));
+        verify(mockSynapseClient, times(1)).getEntity(ENTITY_ID, TableEntity.class);
+    }
+
+    @Test
+    public void updateEntityInvalidatesCache() throws Exception {
+        TableEntity updatedTable = makeTable();
+        updatedTable.setEtag("updated-etag");
+        when(mockSynapseClient.getEntity(ENTITY_ID, TableEntity.class)).thenReturn(makeTable(), updatedTable);
+        when(mockSynapseClient.putEntity(any(TableEntity.class))).thenReturn(updatedTable);
+
+        synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class);
+        synapseHelper.updateEntityWithRetry(makeTable());
+        TableEntity result = synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class);
+        assertEquals(result.getEtag(), "updated-etag");
+        verify(mockSynapseClient, times(2)).getEntity(ENTITY_ID, TableEntity.class);
+    }
+
+    @Test
+    public void updateEntityInvalidatesOldChildLookup() throws Exception {
+        // Cache the table and the lookup for its old name.
+        when(mockSynapseClient.getEntity(ENTITY_ID, TableEntity.class)).thenReturn(makeTable());
+        when(mockSynapseClient.lookupChild(PARENT_ID, TABLE_NAME)).thenReturn(ENTITY_ID).thenThrow(
+                new SynapseNotFoundException());
+        synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class);
+        assertEquals(synapseHelper.lookupChildWithRetry(PARENT_ID, TABLE_NAME), ENTITY_ID);
+
+        // Rename the table. The lookup for the old name is invalidated.
+        TableEntity renamedTable = makeTable();
+        renamedTable.setName("new-name");
+        when(mockSynapseClient.putEntity(any(TableEntity.class))).thenReturn(renamedTable);
+        synapseHelper.updateEntityWithRetry(renamedTable);
+
+        assertNull(synapseHelper.lookupChildWithRetry(PARENT_ID, TABLE_NAME));
+        verify(mockSynapseClient, times(2)).lookupChild(PARENT_ID, TABLE_NAME);
+    }
+
+    @Test
+    public void updateTableColumnsInvalidatesTable() throws Exception {
+        TableEntity updatedTable = makeTable();
+        updatedTable.setEtag("updated-etag");
+        when(mockSynapseClient.getEntity(ENTITY_ID, TableEntity.class)).thenReturn(makeTable(), updatedTable);
+        when(mockSynapseClient.startTableTransactionJob(any(), eq(ENTITY_ID))).thenReturn("job-token");
+        when(mockSynapseClient.getTableTransactionJobResults("job-token", ENTITY_ID)).thenReturn(
+                ImmutableList.<TableUpdateResponse>of(new TableSchemaChangeResponse()));
+
+        synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class);
+        synapseHelper.updateTableColumns(new TableSchemaChangeRequest(), ENTITY_ID);
+        assertEquals(synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class).getEtag(), "updated-etag");
+        verify(mockSynapseClient, times(2)).getEntity(ENTITY_ID, TableEntity.class);
+    }
+
+    @Test
+    public void updateTableColumnsAsyncInvalidatesTable() throws Exception {
+        TableEntity updatedTable = makeTable();
+        updatedTable.setEtag("updated-etag");
+        when(mockSynapseClient.getEntity(ENTITY_ID, TableEntity.class)).thenReturn(makeTable(), updatedTable);
+        when(mockSynapseClient.startTableTransactionJob(any(), eq(ENTITY_ID))).thenReturn("job-token");
+        when(mockSynapseClient.getTableTransactionJobResults("job-token", ENTITY_ID)).thenReturn(
+                ImmutableList.<TableUpdateResponse>of(new TableSchemaChangeResponse()));
+
+        synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class);
+        synapseHelper.updateTableColumnsAsync(new TableSchemaChangeRequest(), ENTITY_ID).join();
+        assertEquals(synapseHelper.getEntityWithRetry(ENTITY_ID, TableEntity.class).getEtag(), "updated-etag");
+        verify(mockSynapseClient, times(2)).getEntity(ENTITY_ID, TableEntity.class);
+    }
+
+    @Test
+    public void getTableCached() throws Exception {
+        when(mockSynapseClient.getEntity(ENTITY_ID, TableEntity.class)).thenReturn(makeTable());
+
+        assertEquals(synapseHelper.getTableWithRetry(ENTITY_ID).getName(), TABLE_NAME);
+        assertEquals(synapseHelper.getTableWithRetry(ENTITY_ID).getName(), TABLE_NAME);
+        verify(mockSynapseClient, times(1)).getEntity(ENTITY_ID, TableEntity.class);
+    }
+
+    @Test
+    public void getTableNotFound() throws Exception {
+        when(mockSynapseClient.getEntity(ENTITY_ID, TableEntity.class)).thenThrow(new SynapseNotFoundException());
+
+        try {
+            synapseHelper.getTableWithRetry(ENTITY_ID);
+            fail("expected exception");
+        } catch (SynapseNotFoundException ex) {
+            // expected exception
+        }
+    }
+
+    @Test
+    public void getAclCached() throws Exception {
+        when(mockSynapseClient.getACL(ENTITY_ID)).thenReturn(makeAcl());
+
+        AccessControlList result1 = synapseHelper.getAclWithRetry(ENTITY_ID);
+        AccessControlList result2 = synapseHelper.getAclWithRetry(ENTITY_ID);
+        assertEquals(result1.getEtag(), ETAG);
+        assertEquals(result2, result1);
+        assertNotSame(result2, result1);
+        verify(mockSynapseClient, times(1)).getACL(ENTITY_ID);
+    }
+
+    @Test
+    public void updateAclInvalidatesCache() throws Exception {
+        AccessControlList updatedAcl = makeAcl();
+        updatedAcl.setEtag("updated-etag");
+        when(mockSynapseClient.getACL(ENTITY_ID)).thenReturn(makeAcl(), updatedAcl);
+        when(mockSynapseClient.updateACL(any())).thenReturn(updatedAcl);
+
+        synapseHelper.getAclWithRetry(ENTITY_ID);
+        synapseHelper.updateAclWithRetry(makeAcl());
+        assertEquals(synapseHelper.getAclWithRetry(ENTITY_ID).getEtag(), "updated-etag");
+        verify(mockSynapseClient, times(2)).getACL(ENTITY_ID);
+    }
+
+    @Test
+    public void createAclInvalidatesCache() throws Exception {
+        when(mockSynapseClient.getACL(ENTITY_ID)).thenThrow(new SynapseNotFoundException()).thenReturn(makeAcl());
+        when(mockSynapseClient.createACL(any())).thenReturn(makeAcl());
+
+        assertNull(synapseHelper.getAclWithRetry(ENTITY_ID));
+        synapseHelper.createAclWithRetry(makeAcl());
+        assertEquals(synapseHelper.getAclWithRetry(ENTITY_ID).getEtag(), ETAG);
+        verify(mockSynapseClient, times(2)).getACL(ENTITY_ID);
+    }
+
+    @Test
+    public void lookupChildCached() throws Exception {
+        when(mockSynapseClient.lookupChild(PARENT_ID, CHILD_NAME)).thenReturn(ENTITY_ID);
+
+        assertEquals(synapseHelper.lookupChildWithRetry(PARENT_ID, CHILD_NAME), ENTITY_ID);
+        assertEquals(synapseHelper.lookupChildWithRetry(PARENT_ID, CHILD_NAME), ENTITY_ID);
+        verify(mockSynapseClient, times(1)).lookupChild(PARENT_ID, CHILD_NAME);
+    }
+
+    @Test
+    public void createFolderInvalidatesChildLookup() throws Exception {
+        Folder createdFolder = new Folder();
+        createdFolder.setId(ENTITY_ID);
+        createdFolder.setName(CHILD_NAME);
+        createdFolder.setParentId(PARENT_ID);
+
+        when(mockSynapseClient.lookupChild(PARENT_ID, CHILD_NAME)).thenThrow(new SynapseNotFoundException())
+                .thenReturn(ENTITY_ID);
+        when(mockSynapseClient.createEntity(any(Folder.class))).thenReturn(createdFolder);
+
+        // The first lookup caches the miss, and creating the folder invalidates it.
+        assertEquals(synapseHelper.createFolderIfNotExists(PARENT_ID, CHILD_NAME), ENTITY_ID);
+        assertEquals(synapseHelper.lookupChildWithRetry(PARENT_ID, CHILD_NAME), ENTITY_ID);
+        assertEquals(synapseHelper.createFolderIfNotExists(PARENT_ID, CHILD_NAME), ENTITY_ID);
+        verify(mockSynapseClient, times(2)).lookupChild(PARENT_ID, CHILD_NAME);
+        verify(mockSynapseClient, times(1)).createEntity(any(Folder.class));
+    }
+
+    private static TableEntity makeTable() {
+        TableEntity table = new TableEntity();
+        table.setId(ENTITY_ID);
+        table.setName(TABLE_NAME);
+        table.setParentId(PARENT_ID);
+        table.setEtag(ETAG);
+        return table;
+    }
+
+    private static AccessControlList makeAcl() {
+        AccessControlList acl = new AccessControlList();
+        acl.setId(ENTITY_ID);
+        acl.setEtag(ETAG);
+        return acl;
+    }
+}
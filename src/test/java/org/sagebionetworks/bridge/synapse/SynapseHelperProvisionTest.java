@@ -0,0 +1,203 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.mockito.ArgumentCaptor;
+import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseBadRequestException;
+import org.sagebionetworks.client.exceptions.SynapseNotFoundException;
+import org.sagebionetworks.repo.model.AccessControlList;
+import org.sagebionetworks.repo.model.Entity;
+import org.sagebionetworks.repo.model.Folder;
+import org.sagebionetworks.repo.model.project.ExternalS3StorageLocationSetting;
+import org.sagebionetworks.repo.model.project.UploadDestinationListSetting;
+import org.sagebionetworks.repo.model.table.ColumnModel;
+import org.sagebionetworks.repo.model.table.ColumnType;
+import org.sagebionetworks.repo.model.table.TableEntity;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+// Tests for SynapseHelper.provision().
+public class SynapseHelperProvisionTest {
+    private static final Set<Long> ADMIN_PRINCIPAL_ID_SET = ImmutableSet.of(1111L);
+    private static final List<ColumnModel> COLUMN_LIST;
+    private static final String PROJECT_ID = "syn-project";
+    private static final Set<Long> READ_ONLY_PRINCIPAL_ID_SET = ImmutableSet.of(2222L);
+    private static final long STORAGE_LOCATION_ID = 3333L;
+
+    static {
+        ColumnModel column = new ColumnModel();
+        column.setName("foo");
+        column.setColumnType(ColumnType.STRING);
+        COLUMN_LIST = ImmutableList.of(column);
+    }
+
+    private ExecutorService executor;
+    private SynapseClient mockSynapseClient;
+    private SynapseHelper synapseHelper;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        mockSynapseClient = mock(SynapseClient.class);
+
+        synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+        synapseHelper.setRateLimit(1000);
+
+        // Run steps in the calling thread by default, to make tests deterministic.
+        executor = MoreExecutors.newDirectExecutorService();
+        synapseHelper.setBulkExecutor(executor);
+
+        // Nothing exists yet. Created entities get IDs based on their names.
+        when(mockSynapseClient.lookupChild(anyString(), anyString())).thenThrow(new SynapseNotFoundException());
+        when(mockSynapseClient.getACL(anyString())).thenThrow(new SynapseNotFoundException());
+        doAnswer(invocation -> {
+            Entity entity = invocation.getArgumentAt(0, Entity.class);
+            entity.setId("syn-" + entity.getName());
+            return entity;
+        }).when(mockSynapseClient).createEntity(any());
+        doAnswer(invocation -> {
+            ColumnModel createdColumn = new ColumnModel();
+            createdColumn.setId("column-id");
+            return ImmutableList.of(createdColumn);
+        }).when(mockSynapseClient).createColumnModels(any());
+    }
+
+    @AfterMethod
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void provisionTree() throws Exception {
+        // Set up storage location.
+        ExternalS3StorageLocationSetting createdStorageLocation = new ExternalS3StorageLocationSetting();
+        createdStorageLocation.setStorageLocationId(STORAGE_LOCATION_ID);
+        when(mockSynapseClient.createStorageLocationSetting(any())).thenReturn(createdStorageLocation);
+
+        // Refs are added out of order, to make sure we resolve dependencies.
+        SynapseProvisioningPlan plan = new SynapseProvisioningPlan()
+                .addTable("table", "folder", "my-table", COLUMN_LIST, READ_ONLY_PRINCIPAL_ID_SET,
+                        ADMIN_PRINCIPAL_ID_SET)
+                .addAcl("folder", ADMIN_PRINCIPAL_ID_SET, READ_ONLY_PRINCIPAL_ID_SET)
+                .addStorageLocation("storage", "folder", new ExternalS3StorageLocationSetting())
+                .addFolder("folder", "project", "my-folder")
+                .addExistingEntity("project", PROJECT_ID);
+
+        // Execute and validate.
+        Map<String, String> idsByRef = synapseHelper.provision(plan);
+        assertEquals(idsByRef.size(), 4);
+        assertEquals(idsByRef.get("project"), PROJECT_ID);
+        assertEquals(idsByRef.get("folder"), "syn-my-folder");
+        assertEquals(idsByRef.get("table"), "syn-my-table");
+        assertEquals(idsByRef.get("storage"), String.valueOf(STORAGE_LOCATION_ID));
+
+        // Verify the folder and table were created in the right parents.
+        verify(mockSynapseClient).lookupChild(PROJECT_ID, "my-folder");
+
+        ArgumentCaptor<Entity> entityCaptor = ArgumentCaptor.forClass(Entity.class);
+        verify(mockSynapseClient, times(2)).createEntity(entityCaptor.capture());
+        TableEntity createdTable = null;
+        for (Entity oneEntity : entityCaptor.getAllValues()) {
+            if (oneEntity instanceof TableEntity) {
+                createdTable = (TableEntity) oneEntity;
+            }
+        }
+        assertEquals(createdTable.getParentId(), "syn-my-folder");
+        assertEquals(createdTable.getColumnIds(), ImmutableList.of("column-id"));
+
+        // Verify ACLs for both the table and the folder.
+        ArgumentCaptor<AccessControlList> aclCaptor = ArgumentCaptor.forClass(AccessControlList.class);
+        verify(mockSynapseClient, times(2)).createACL(aclCaptor.capture());
+        Set<String> aclEntityIdSet = ImmutableSet.of(aclCaptor.getAllValues().get(0).getId(),
+                aclCaptor.getAllValues().get(1).getId());
+        assertEquals(aclEntityIdSet, ImmutableSet.of("syn-my-folder", "syn-my-table"));
+
+        // Verify the storage location was applied to the folder.
+        ArgumentCaptor<UploadDestinationListSetting> settingCaptor = ArgumentCaptor.forClass(
+                UploadDestinationListSetting.class);
+        verify(mockSynapseClient).createProjectSetting(settingCaptor.capture());
+        assertEquals(settingCaptor.getValue().getProjectId(), "syn-my-folder");
+    }
+
+    @Test
+    public void independentStepsRunConcurrently() throws Exception {
+        executor = Executors.newFixedThreadPool(2);
+        synapseHelper.setBulkExecutor(executor);
+
+        // Each folder create waits for the other one to start. This only finishes if both run at the same time.
+        CountDownLatch latch = new CountDownLatch(2);
+        doAnswer(invocation -> {
+            latch.countDown();
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            Folder folder = invocation.getArgumentAt(0, Folder.class);
+            folder.setId("syn-" + folder.getName());
+            return folder;
+        }).when(mockSynapseClient).createEntity(any());
+
+        SynapseProvisioningPlan plan = new SynapseProvisioningPlan().addExistingEntity("project", PROJECT_ID)
+                .addFolder("foo", "project", "foo-folder").addFolder("bar", "project", "bar-folder");
+
+        Map<String, String> idsByRef = synapseHelper.provision(plan);
+        assertEquals(idsByRef.get("foo"), "syn-foo-folder");
+        assertEquals(idsByRef.get("bar"), "syn-bar-folder");
+    }
+
+    @Test
+    public void failureSkipsDependents() throws Exception {
+        when(mockSynapseClient.createEntity(any())).thenThrow(new SynapseBadRequestException("test exception"));
+
+        SynapseProvisioningPlan plan = new SynapseProvisioningPlan().addExistingEntity("project", PROJECT_ID)
+                .addFolder("folder", "project", "my-folder")
+                .addAcl("folder", ADMIN_PRINCIPAL_ID_SET, READ_ONLY_PRINCIPAL_ID_SET)
+                .addStorageLocation("storage", "folder", new ExternalS3StorageLocationSetting());
+
+        try {
+            synapseHelper.provision(plan);
+            fail("expected exception");
+        } catch (SynapseBadRequestException ex) {
+            assertEquals(ex.getMessage(), "test exception");
+        }
+
+        verify(mockSynapseClient, never()).createACL(any());
+        verify(mockSynapseClient, never()).createStorageLocationSetting(any());
+    }
+
+    @Test
+    public void invalidPlanStartsNothing() throws Exception {
+        SynapseProvisioningPlan plan = new SynapseProvisioningPlan().addExistingEntity("project", PROJECT_ID)
+                .addFolder("folder", "no-such-ref", "my-folder");
+
+        try {
+            synapseHelper.provision(plan);
+            fail("expected exception");
+        } catch (IllegalArgumentException ex) {
+            // expected exception
+        }
+
+        verify(mockSynapseClient, never()).lookupChild(anyString(), eq("my-folder"));
+    }
+}
@@ -0,0 +1,171 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.collect.ImmutableList;
+import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseBadRequestException;
+import org.sagebionetworks.repo.model.table.QueryResult;
+import org.sagebionetworks.repo.model.table.QueryResultBundle;
+import org.sagebionetworks.repo.model.table.Row;
+import org.sagebionetworks.repo.model.table.RowSet;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+// Tests for SynapseHelper.queryTableRows().
+public class SynapseHelperQueryTableRowsTest {
+    private static final String QUERY = "SELECT * FROM syn123";
+    private static final String TABLE_ID = "table-id";
+
+    private SynapseClient mockSynapseClient;
+    private SynapseHelper synapseHelper;
+
+    @BeforeMethod
+    public void setup() {
+        mockSynapseClient = mock(SynapseClient.class);
+
+        synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+
+        // Set async loop and rate limits to make tests more reasonable.
+        synapseHelper.setAsyncGetBackoffPlan(new int[] { 0, 0 });
+        synapseHelper.setRateLimit(1000);
+    }
+
+    @Test
+    public void multiplePages() throws Exception {
+        // Page size 2. 5 rows total, so 3 pages, plus the empty page that ends the stream.
+        mockPage(0, "a", "b");
+        mockPage(2, "c", "d");
+        mockPage(4, "e");
+        mockPage(5);
+
+        List<String> valueList;
+        try (Stream<Row> rowStream = synapseHelper.queryTableRows(QUERY, TABLE_ID, 2)) {
+            valueList = rowStream.map(row -> row.getValues().get(0)).collect(Collectors.toList());
+        }
+        assertEquals(valueList, ImmutableList.of("a", "b", "c", "d", "e"));
+    }
+
+    @Test
+    public void shortPageMidTable() throws Exception {
+        // Synapse returns fewer rows than the page size, even though there are more rows. The next page starts after
+        // the rows that were returned.
+        mockPage(0, "a");
+        mockPage(1, "b", "c");
+        mockPage(3, "d");
+        mockPage(4);
+
+        List<String> valueList = synapseHelper.queryTableRows(QUERY, TABLE_ID, 2)
+                .map(row -> row.getValues().get(0)).collect(Collectors.toList());
+        assertEquals(valueList, ImmutableList.of("a", "b", "c", "d"));
+        verify(mockSynapseClient, times(4)).queryTableEntityBundleAsyncStart(eq(QUERY), anyLong(), anyLong(),
+                eq(SynapseClient.QUERY_PARTMASK), anyString());
+    }
+
+    @Test
+    public void lastPageIsFull() throws Exception {
+        // We need to fetch an empty page to know we're done.
+        mockPage(0, "a", "b");
+        mockPage(2);
+
+        List<String> valueList = synapseHelper.queryTableRows(QUERY, TABLE_ID, 2)
+                .map(row -> row.getValues().get(0)).collect(Collectors.toList());
+        assertEquals(valueList, ImmutableList.of("a", "b"));
+    }
+
+    @Test
+    public void noRows() throws Exception {
+        mockPage(0);
+        assertEquals(synapseHelper.queryTableRows(QUERY, TABLE_ID, 2).count(), 0);
+    }
+
+    @Test
+    public void prefetchesNextPage() throws Exception {
+        mockPage(0, "a", "b");
+        mockPage(2, "c");
+
+        // Reading the first row starts the job for the second page.
+        Iterator<Row> rowIterator = synapseHelper.queryTableRows(QUERY, TABLE_ID, 2).iterator();
+        assertEquals(rowIterator.next().getValues().get(0), "a");
+        verify(mockSynapseClient, times(1)).queryTableEntityBundleAsyncStart(QUERY, 2L, 2L,
+                SynapseClient.QUERY_PARTMASK, TABLE_ID);
+
+        // But not the third page.
+        verify(mockSynapseClient, never()).queryTableEntityBundleAsyncStart(QUERY, 4L, 2L,
+                SynapseClient.QUERY_PARTMASK, TABLE_ID);
+    }
+
+    @Test
+    public void pageFails() throws Exception {
+        mockPage(0, "a", "b");
+        when(mockSynapseClient.queryTableEntityBundleAsyncStart(QUERY, 2L, 2L, SynapseClient.QUERY_PARTMASK,
+                TABLE_ID)).thenReturn("job-2");
+        when(mockSynapseClient.queryTableEntityBundleAsyncGet("job-2", TABLE_ID)).thenThrow(
+                SynapseBadRequestException.class);
+
+        Iterator<Row> rowIterator = synapseHelper.queryTableRows(QUERY, TABLE_ID, 2).iterator();
+        rowIterator.next();
+        rowIterator.next();
+        try {
+            rowIterator.hasNext();
+            fail("expected exception");
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof SynapseBadRequestException);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidPageSize() {
+        synapseHelper.queryTableRows(QUERY, TABLE_ID, 0);
+    }
+
+    @Test
+    public void closeWithoutReading() throws Exception {
+        mockPage(0, "a");
+        synapseHelper.queryTableRows(QUERY, TABLE_ID, 2).close();
+        verify(mockSynapseClient, times(1)).queryTableEntityBundleAsyncStart(eq(QUERY), anyLong(), anyLong(),
+                eq(SynapseClient.QUERY_PARTMASK), anyString());
+    }
+
+    // Mocks the page at the given offset with the given values, one column per row.
+    private void mockPage(long offset, String... values) throws Exception {
+        String jobId = "job-" + offset;
+        when(mockSynapseClient.queryTableEntityBundleAsyncStart(QUERY, offset, 2L, SynapseClient.QUERY_PARTMASK,
+                TABLE_ID)).thenReturn(jobId);
+
+        List<Row> rowList = new ArrayList<>();
+        for (String oneValue : values) {
+            Row row = new Row();
+            row.setValues(ImmutableList.of(oneValue));
+            rowList.add(row);
+        }
+
+        RowSet rowSet = new RowSet();
+        rowSet.setRows(rowList);
+
+        QueryResult queryResult = new QueryResult();
+        queryResult.setQueryResults(rowSet);
+
+        QueryResultBundle bundle = new QueryResultBundle();
+        bundle.setQueryResult(queryResult);
+        when(mockSynapseClient.queryTableEntityBundleAsyncGet(jobId, TABLE_ID)).thenReturn(bundle);
+    }
+}
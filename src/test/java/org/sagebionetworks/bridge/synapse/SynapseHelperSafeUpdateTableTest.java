@@ -7,7 +7,9 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -21,6 +23,7 @@ import org.sagebionetworks.repo.model.table.TableSchemaChangeRequest;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.exceptions.BridgeSynapseException;
 import org.sagebionetworks.bridge.exceptions.BridgeSynapseNonRetryableException;
 
 @SuppressWarnings({ "rawtypes", "unchecked" })
@@ -253,6 +256,155 @@ public class SynapseHelperSafeUpdateTableTest {
         assertEquals(changeList.get(0).getNewColumnId(), "new-col-id");
     }
 
+    @Test
+    public void incrementalAddColumn() throws Exception {
+        synapseHelper.setIncrementalSchemaDiff(true);
+
+        // Swap foo and bar, and insert baz. Only baz is created.
+        List<ColumnModel> newColumnList = ImmutableList.of(makeColumn("bar", null),
+                makeColumn("foo", null), makeColumn("baz", null));
+        doReturn(ImmutableList.of(makeColumn("baz", "baz-id"))).when(synapseHelper).createColumnModelsWithRetry(
+                any());
+
+        // Execute
+        synapseHelper.safeUpdateTable(SYNAPSE_TABLE_ID, newColumnList, false);
+
+        ArgumentCaptor<List> columnsToCreateCaptor = ArgumentCaptor.forClass(List.class);
+        verify(synapseHelper).createColumnModelsWithRetry(columnsToCreateCaptor.capture());
+        List<ColumnModel> columnsToCreateList = columnsToCreateCaptor.getValue();
+        assertEquals(columnsToCreateList.size(), 1);
+        assertEquals(columnsToCreateList.get(0).getName(), "baz");
+
+        // Verify update table call.
+        ArgumentCaptor<TableSchemaChangeRequest> requestCaptor = ArgumentCaptor.forClass(
+                TableSchemaChangeRequest.class);
+        verify(synapseHelper).updateTableColumns(requestCaptor.capture(), eq(SYNAPSE_TABLE_ID));
+
+        TableSchemaChangeRequest request = requestCaptor.getValue();
+        assertEquals(request.getEntityId(), SYNAPSE_TABLE_ID);
+        assertEquals(request.getOrderedColumnIds(), ImmutableList.of("bar-id", "foo-id", "baz-id"));
+
+        List<ColumnChange> changeList = request.getChanges();
+        assertEquals(changeList.size(), 1);
+        assertNull(changeList.get(0).getOldColumnId());
+        assertEquals(changeList.get(0).getNewColumnId(), "baz-id");
+    }
+
+    @Test
+    public void incrementalCreatedColumnCountMismatch() throws Exception {
+        synapseHelper.setIncrementalSchemaDiff(true);
+
+        // Add baz and qux, but Synapse only returns one created column.
+        List<ColumnModel> newColumnList = ImmutableList.of(makeColumn("foo", null), makeColumn("bar", null),
+                makeColumn("baz", null), makeColumn("qux", null));
+        doReturn(ImmutableList.of(makeColumn("baz", "baz-id"))).when(synapseHelper).createColumnModelsWithRetry(
+                any());
+
+        // Execute
+        try {
+            synapseHelper.safeUpdateTable(SYNAPSE_TABLE_ID, newColumnList, false);
+            fail("expected exception");
+        } catch (BridgeSynapseException ex) {
+            assertEquals(ex.getMessage(), "Expected 2 created columns for table " + SYNAPSE_TABLE_ID + ", got 1");
+        }
+        verify(synapseHelper, never()).updateTableColumns(any(), any());
+    }
+
+    @Test
+    public void incrementalDeleteAndAddFieldsWithMergeFlag() throws Exception {
+        synapseHelper.setIncrementalSchemaDiff(true);
+
+        // Delete foo, add baz. Foo is merged back in from the existing columns, so only baz is created.
+        List<ColumnModel> newColumnList = ImmutableList.of(makeColumn("bar", null),
+                makeColumn("baz", null));
+        doReturn(ImmutableList.of(makeColumn("baz", "baz-id"))).when(synapseHelper).createColumnModelsWithRetry(
+                any());
+
+        // Execute
+        synapseHelper.safeUpdateTable(SYNAPSE_TABLE_ID, newColumnList, true);
+
+        ArgumentCaptor<List> columnsToCreateCaptor = ArgumentCaptor.forClass(List.class);
+        verify(synapseHelper).createColumnModelsWithRetry(columnsToCreateCaptor.capture());
+        List<ColumnModel> columnsToCreateList = columnsToCreateCaptor.getValue();
+        assertEquals(columnsToCreateList.size(), 1);
+        assertEquals(columnsToCreateList.get(0).getName(), "baz");
+
+        ArgumentCaptor<TableSchemaChangeRequest> requestCaptor = ArgumentCaptor.forClass(
+                TableSchemaChangeRequest.class);
+        verify(synapseHelper).updateTableColumns(requestCaptor.capture(), eq(SYNAPSE_TABLE_ID));
+        assertEquals(requestCaptor.getValue().getOrderedColumnIds(), ImmutableList.of("bar-id", "baz-id",
+                "foo-id"));
+        assertEquals(requestCaptor.getValue().getChanges().size(), 1);
+    }
+
+    @Test
+    public void incrementalCompatibleLengthChange() throws Exception {
+        synapseHelper.setIncrementalSchemaDiff(true);
+
+        // Old column is a string of length 24, which will be increased to 100. The other column is unchanged.
+        ColumnModel oldColumn = new ColumnModel();
+        oldColumn.setName("my-col");
+        oldColumn.setId("old-col-id");
+        oldColumn.setColumnType(ColumnType.STRING);
+        oldColumn.setMaximumSize(24L);
+        List<ColumnModel> oldColumnList = ImmutableList.of(oldColumn, makeColumn("other-col", "other-col-id"));
+        doReturn(oldColumnList).when(synapseHelper).getColumnModelsForTableWithRetry(SYNAPSE_TABLE_ID);
+
+        List<ColumnModel> newColumnList = ImmutableList.of(makeColumn("my-col", null), makeColumn("other-col",
+                null));
+        doReturn(ImmutableList.of(makeColumn("my-col", "new-col-id"))).when(synapseHelper)
+                .createColumnModelsWithRetry(any());
+
+        // Execute
+        synapseHelper.safeUpdateTable(SYNAPSE_TABLE_ID, newColumnList, false);
+
+        // Only the modified column is created.
+        ArgumentCaptor<List> columnsToCreateCaptor = ArgumentCaptor.forClass(List.class);
+        verify(synapseHelper).createColumnModelsWithRetry(columnsToCreateCaptor.capture());
+        assertEquals(columnsToCreateCaptor.getValue().size(), 1);
+
+        ArgumentCaptor<TableSchemaChangeRequest> requestCaptor = ArgumentCaptor.forClass(
+                TableSchemaChangeRequest.class);
+        verify(synapseHelper).updateTableColumns(requestCaptor.capture(), eq(SYNAPSE_TABLE_ID));
+
+        TableSchemaChangeRequest request = requestCaptor.getValue();
+        assertEquals(request.getOrderedColumnIds(), ImmutableList.of("new-col-id", "other-col-id"));
+
+        List<ColumnChange> changeList = request.getChanges();
+        assertEquals(changeList.size(), 1);
+        assertEquals(changeList.get(0).getOldColumnId(), "old-col-id");
+        assertEquals(changeList.get(0).getNewColumnId(), "new-col-id");
+    }
+
+    @Test
+    public void dontUpdateIfColumnsResolveToExistingColumns() throws Exception {
+        // Max length changed, but Synapse resolves it to the same column anyway. (For example, if Synapse
+        // normalizes the column.) Nothing changed, so we don't update the table.
+        List<ColumnModel> newColumnList = ImmutableList.of(makeColumn("foo", null), makeColumn("bar", null));
+        newColumnList.get(1).setMaximumSize(200L);
+        doReturn(ImmutableList.of(makeColumn("foo", "foo-id"), makeColumn("bar", "bar-id"))).when(synapseHelper)
+                .createColumnModelsWithRetry(any());
+
+        // Execute
+        synapseHelper.safeUpdateTable(SYNAPSE_TABLE_ID, newColumnList, false);
+        verify(synapseHelper, never()).updateTableColumns(any(), any());
+    }
+
+    @Test
+    public void columnContentKey() {
+        ColumnModel column = makeColumn("foo", "foo-id");
+        String key = SynapseHelper.getColumnContentKey(column);
+
+        // ID is ignored, and the caller's column isn't modified.
+        assertEquals(SynapseHelper.getColumnContentKey(makeColumn("foo", null)), key);
+        assertEquals(column.getId(), "foo-id");
+
+        // Content changes change the key.
+        ColumnModel otherColumn = makeColumn("foo", "foo-id");
+        otherColumn.setMaximumSize(200L);
+        assertNotEquals(SynapseHelper.getColumnContentKey(otherColumn), key);
+    }
+
     private static ColumnModel makeColumn(String name, String id) {
         ColumnModel col = new ColumnModel();
         col.setName(name);
@@ -8,8 +8,10 @@ import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
@@ -23,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.amazonaws.AmazonClientException;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
@@ -32,8 +35,14 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseBadRequestException;
+import org.sagebionetworks.client.exceptions.SynapseConflictingUpdateException;
+import org.sagebionetworks.client.exceptions.SynapseForbiddenException;
 import org.sagebionetworks.client.exceptions.SynapseNotFoundException;
 import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
+import org.sagebionetworks.client.exceptions.SynapseServiceUnavailable;
+import org.sagebionetworks.client.exceptions.SynapseTooManyRequestsException;
+import org.sagebionetworks.client.exceptions.SynapseUnauthorizedException;
 import org.sagebionetworks.client.exceptions.UnknownSynapseServerException;
 import org.sagebionetworks.repo.model.AccessControlList;
 import org.sagebionetworks.repo.model.Folder;
@@ -65,6 +74,7 @@ import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.exceptions.BridgeSynapseException;
 import org.sagebionetworks.bridge.exceptions.BridgeSynapseNonRetryableException;
+import org.sagebionetworks.bridge.redis.RedisTokenBucketRateLimiter;
 
 @SuppressWarnings("unchecked")
 public class SynapseHelperTest {
@@ -581,6 +591,22 @@ public class SynapseHelperTest {
         assertEquals(createdFolder.getName(), ENTITY_NAME_CHILD);
     }
 
+    @Test
+    public void createFolderRecoversFromConflict() throws Exception {
+        // Another server creates the folder between our lookup and our create. Our create gets a 409, and the retry
+        // finds the folder.
+        when(mockSynapseClient.lookupChild(SYNAPSE_PARENT_ID, ENTITY_NAME_CHILD)).thenReturn(null)
+                .thenReturn(SYNAPSE_CHILD_ID);
+        when(mockSynapseClient.createEntity(any(Folder.class))).thenThrow(new SynapseConflictingUpdateException());
+
+        // Execute and validate.
+        String folderId = synapseHelper.createFolderIfNotExists(SYNAPSE_PARENT_ID, ENTITY_NAME_CHILD);
+        assertEquals(folderId, SYNAPSE_CHILD_ID);
+
+        verify(mockSynapseClient, times(2)).lookupChild(SYNAPSE_PARENT_ID, ENTITY_NAME_CHILD);
+        verify(mockSynapseClient, times(1)).createEntity(any(Folder.class));
+    }
+
     @DataProvider(name = "isSynapseWritableProvider")
     public Object[][] isSynapseWritableProvider() {
         // { status, expected }
@@ -824,4 +850,126 @@ public class SynapseHelperTest {
         verify(mockSynapseClient).setTeamMemberPermissions(String.valueOf(TEAM_ID), String.valueOf(SYNAPSE_USER_ID),
                 true);
     }
+
+    @Test
+    public void isRetryableException() {
+        assertTrue(SynapseHelper.isRetryableException(new UnknownSynapseServerException(500, "test exception")));
+        assertTrue(SynapseHelper.isRetryableException(new SynapseResultNotReadyException()));
+
+        assertFalse(SynapseHelper.isRetryableException(new SynapseBadRequestException()));
+        assertFalse(SynapseHelper.isRetryableException(new SynapseConflictingUpdateException()));
+        assertFalse(SynapseHelper.isRetryableException(new SynapseForbiddenException()));
+        assertFalse(SynapseHelper.isRetryableException(new SynapseNotFoundException()));
+        assertFalse(SynapseHelper.isRetryableException(new SynapseUnauthorizedException()));
+        assertFalse(SynapseHelper.isRetryableException(new IllegalStateException()));
+    }
+
+    @Test
+    public void isLongDelayRetryableException() {
+        assertTrue(SynapseHelper.isLongDelayRetryableException(new UnknownSynapseServerException(500,
+                "test exception")));
+        assertTrue(SynapseHelper.isLongDelayRetryableException(new AmazonClientException("test exception")));
+        assertTrue(SynapseHelper.isLongDelayRetryableException(new SynapseConflictingUpdateException()));
+
+        assertFalse(SynapseHelper.isLongDelayRetryableException(new SynapseBadRequestException()));
+        assertFalse(SynapseHelper.isLongDelayRetryableException(new SynapseNotFoundException()));
+        assertFalse(SynapseHelper.isLongDelayRetryableException(new IllegalStateException()));
+    }
+
+    @Test
+    public void isThrottleException() {
+        assertTrue(SynapseHelper.isThrottleException(new SynapseTooManyRequestsException("test exception")));
+        assertTrue(SynapseHelper.isThrottleException(new SynapseServiceUnavailable("test exception")));
+        assertTrue(SynapseHelper.isThrottleException(new UnknownSynapseServerException(429, "test exception")));
+        assertTrue(SynapseHelper.isThrottleException(new UnknownSynapseServerException(503, "test exception")));
+
+        assertFalse(SynapseHelper.isThrottleException(new UnknownSynapseServerException(500, "test exception")));
+        assertFalse(SynapseHelper.isThrottleException(new SynapseNotFoundException()));
+    }
+
+    @Test
+    public void adaptiveRateLimit() throws Exception {
+        synapseHelper.setRateLimit(10.0);
+        synapseHelper.enableAdaptiveRateLimit(1.0, 20.0);
+
+        // First call is throttled and retried. Second call succeeds.
+        Team team = new Team();
+        when(mockSynapseClient.createTeam(team)).thenThrow(SynapseTooManyRequestsException.class).thenReturn(team);
+        synapseHelper.createTeamWithRetry(team);
+
+        // Rate is halved by the throttle, then increased by 1/rate by the success.
+        assertEquals(synapseHelper.getRateLimit(), 5.2, 0.001);
+    }
+
+    @Test
+    public void globalRateLimiter() throws Exception {
+        RedisTokenBucketRateLimiter mockGlobalRateLimiter = mock(RedisTokenBucketRateLimiter.class);
+        synapseHelper.setGlobalRateLimiter(mockGlobalRateLimiter);
+
+        // General traffic acquires a global permit.
+        Team team = new Team();
+        when(mockSynapseClient.createTeam(team)).thenReturn(team);
+        synapseHelper.createTeamWithRetry(team);
+        verify(mockGlobalRateLimiter).acquire();
+    }
+
+    @Test
+    public void globalRateLimiterNotUsedForGetColumnModels() throws Exception {
+        RedisTokenBucketRateLimiter mockGlobalRateLimiter = mock(RedisTokenBucketRateLimiter.class);
+        synapseHelper.setGlobalRateLimiter(mockGlobalRateLimiter);
+
+        // Get column models has its own rate limiter.
+        when(mockSynapseClient.getColumnModelsForTableEntity(SYNAPSE_ENTITY_ID)).thenReturn(ImmutableList.of());
+        synapseHelper.getColumnModelsForTableWithRetry(SYNAPSE_ENTITY_ID);
+        verify(mockGlobalRateLimiter, never()).acquire();
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        InMemorySynapseHelperMetrics metrics = new InMemorySynapseHelperMetrics();
+        synapseHelper.setMetrics(metrics);
+
+        // First attempt fails and is retried. Second attempt succeeds.
+        Team team = new Team();
+        when(mockSynapseClient.createTeam(team)).thenThrow(new UnknownSynapseServerException(500, "test exception"))
+                .thenReturn(team);
+        synapseHelper.createTeamWithRetry(team);
+
+        assertEquals(metrics.getCallCount("createTeamWithRetry"), 1);
+        assertEquals(metrics.getRetryCount("createTeamWithRetry"), 1);
+        assertEquals(metrics.getFailureCount("createTeamWithRetry"), 0);
+        assertEquals(metrics.getCallLatency("createTeamWithRetry").getCount(), 1);
+        assertEquals(metrics.getAttemptLatency("createTeamWithRetry").getCount(), 2);
+        assertEquals(metrics.getLimiterWait("createTeamWithRetry").getCount(), 2);
+    }
+
+    @Test
+    public void metricsFailedCall() throws Exception {
+        InMemorySynapseHelperMetrics metrics = new InMemorySynapseHelperMetrics();
+        synapseHelper.setMetrics(metrics);
+
+        when(mockSynapseClient.getEntity(SYNAPSE_ENTITY_ID, Folder.class)).thenThrow(SynapseForbiddenException.class);
+        try {
+            synapseHelper.getEntityWithRetry(SYNAPSE_ENTITY_ID, Folder.class);
+            fail("expected exception");
+        } catch (SynapseForbiddenException ex) {
+            // expected exception
+        }
+
+        assertEquals(metrics.getCallCount("getEntityWithRetry"), 1);
+        assertEquals(metrics.getRetryCount("getEntityWithRetry"), 0);
+        assertEquals(metrics.getFailureCount("getEntityWithRetry"), 1);
+    }
+
+    @Test
+    public void metricsNotUsedAfterSetToNull() throws Exception {
+        SynapseHelperMetrics mockMetrics = mock(SynapseHelperMetrics.class);
+        synapseHelper.setMetrics(mockMetrics);
+        synapseHelper.setMetrics(null);
+
+        Team team = new Team();
+        when(mockSynapseClient.createTeam(team)).thenReturn(team);
+        synapseHelper.createTeamWithRetry(team);
+        verifyZeroInteractions(mockMetrics);
+    }
 }
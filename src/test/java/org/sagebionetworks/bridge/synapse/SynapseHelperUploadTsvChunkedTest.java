@@ -0,0 +1,234 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseBadRequestException;
+import org.sagebionetworks.client.exceptions.UnknownSynapseServerException;
+import org.sagebionetworks.repo.model.file.S3FileHandle;
+import org.sagebionetworks.repo.model.table.CsvTableDescriptor;
+import org.sagebionetworks.repo.model.table.UploadToTableResult;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.file.FileHelper;
+
+// Tests for SynapseHelper.uploadTsvFileToTableChunked().
+@SuppressWarnings("unchecked")
+public class SynapseHelperUploadTsvChunkedTest {
+    private static final String HEADER = "a\tb";
+    private static final String TABLE_ID = "table-id";
+
+    // Header is 4 bytes and each row is 6 bytes, so this fits 2 rows per chunk.
+    private static final long MAX_CHUNK_BYTES = 16;
+
+    private List<String> chunkContentList;
+    private List<File> chunkFileList;
+    private File inputFile;
+    private SynapseClient mockSynapseClient;
+    private SynapseHelper synapseHelper;
+
+    @BeforeMethod
+    public void before() throws Exception {
+        mockSynapseClient = mock(SynapseClient.class);
+
+        synapseHelper = spy(new SynapseHelper());
+        synapseHelper.setSynapseClient(mockSynapseClient);
+        synapseHelper.setFileHelper(new FileHelper());
+
+        // Set async loop and rate limits to make tests more reasonable.
+        synapseHelper.setAsyncGetBackoffPlan(new int[] { 0, 0 });
+        synapseHelper.setRateLimit(1000);
+
+        // Spy createFileHandle. Record the chunk contents, since the chunks are deleted at the end. File handle IDs
+        // are fh-0, fh-1, etc.
+        chunkContentList = new ArrayList<>();
+        chunkFileList = new ArrayList<>();
+        doAnswer(invocation -> {
+            File chunkFile = invocation.getArgumentAt(0, File.class);
+            chunkFileList.add(chunkFile);
+            chunkContentList.add(new String(Files.readAllBytes(chunkFile.toPath()), Charsets.UTF_8));
+
+            S3FileHandle fileHandle = new S3FileHandle();
+            fileHandle.setId("fh-" + (chunkContentList.size() - 1));
+            return fileHandle;
+        }).when(synapseHelper).createFileHandleWithRetry(any());
+
+        // Mock import start. Job token is based on the file handle ID.
+        when(mockSynapseClient.uploadCsvToTableAsyncStart(eq(TABLE_ID), anyString(), isNull(String.class),
+                isNull(Long.class), any(CsvTableDescriptor.class), isNull(List.class))).thenAnswer(invocation ->
+                "job-" + invocation.getArgumentAt(1, String.class));
+
+        inputFile = File.createTempFile("input", ".tsv");
+    }
+
+    @AfterMethod
+    public void after() {
+        assertTrue(inputFile.delete());
+    }
+
+    @Test
+    public void multipleChunks() throws Exception {
+        writeInputFile(HEADER, "1\tfoo", "2\tbar", "3\tbaz", "4\tqux", "5\tquu");
+        mockImportResult("job-fh-0", 2);
+        mockImportResult("job-fh-1", 2);
+        mockImportResult("job-fh-2", 1);
+
+        // Execute and validate.
+        long rows = synapseHelper.uploadTsvFileToTableChunked(TABLE_ID, inputFile, MAX_CHUNK_BYTES);
+        assertEquals(rows, 5);
+
+        // Each chunk has the header.
+        assertEquals(chunkContentList, ImmutableList.of(HEADER + "\n1\tfoo\n2\tbar\n", HEADER + "\n3\tbaz\n4\tqux\n",
+                HEADER + "\n5\tquu\n"));
+
+        // Chunks are cleaned up.
+        for (File oneChunkFile : chunkFileList) {
+            assertFalse(oneChunkFile.exists());
+            assertFalse(oneChunkFile.getParentFile().exists());
+        }
+    }
+
+    @Test
+    public void oversizedRow() throws Exception {
+        // Row is bigger than the max chunk size, but still gets its own chunk.
+        writeInputFile(HEADER, "1\tthis row is longer than the max chunk size", "2\tbar");
+        mockImportResult("job-fh-0", 1);
+        mockImportResult("job-fh-1", 1);
+
+        long rows = synapseHelper.uploadTsvFileToTableChunked(TABLE_ID, inputFile, MAX_CHUNK_BYTES);
+        assertEquals(rows, 2);
+        assertEquals(chunkContentList.size(), 2);
+    }
+
+    @Test
+    public void retriesOnlyFailedChunk() throws Exception {
+        writeInputFile(HEADER, "1\tfoo", "2\tbar", "3\tbaz", "4\tqux");
+        mockImportResult("job-fh-0", 2);
+
+        // Second chunk fails once, then succeeds.
+        UploadToTableResult result = new UploadToTableResult();
+        result.setRowsProcessed(2L);
+        when(mockSynapseClient.uploadCsvToTableAsyncGet("job-fh-1", TABLE_ID)).thenThrow(
+                new UnknownSynapseServerException(500, "test exception")).thenThrow(
+                new UnknownSynapseServerException(500, "test exception")).thenReturn(result);
+
+        // Execute and validate.
+        long rows = synapseHelper.uploadTsvFileToTableChunked(TABLE_ID, inputFile, MAX_CHUNK_BYTES);
+        assertEquals(rows, 4);
+
+        // File handles are only uploaded once. Only the failed chunk is re-imported.
+        verify(synapseHelper, times(2)).createFileHandleWithRetry(any());
+        verify(mockSynapseClient, times(1)).uploadCsvToTableAsyncStart(eq(TABLE_ID), eq("fh-0"),
+                isNull(String.class), isNull(Long.class), any(CsvTableDescriptor.class), isNull(List.class));
+        verify(mockSynapseClient, times(2)).uploadCsvToTableAsyncStart(eq(TABLE_ID), eq("fh-1"),
+                isNull(String.class), isNull(Long.class), any(CsvTableDescriptor.class), isNull(List.class));
+    }
+
+    @Test
+    public void nonRetryableFailure() throws Exception {
+        writeInputFile(HEADER, "1\tfoo", "2\tbar", "3\tbaz");
+        when(mockSynapseClient.uploadCsvToTableAsyncGet("job-fh-0", TABLE_ID)).thenThrow(
+                SynapseBadRequestException.class);
+
+        // Execute.
+        try {
+            synapseHelper.uploadTsvFileToTableChunked(TABLE_ID, inputFile, MAX_CHUNK_BYTES);
+            fail("expected exception");
+        } catch (SynapseBadRequestException ex) {
+            // expected exception
+        }
+
+        // We never start the second chunk's import.
+        verify(mockSynapseClient, never()).uploadCsvToTableAsyncStart(eq(TABLE_ID), eq("fh-1"),
+                isNull(String.class), isNull(Long.class), any(CsvTableDescriptor.class), isNull(List.class));
+
+        // Chunks are cleaned up.
+        for (File oneChunkFile : chunkFileList) {
+            assertFalse(oneChunkFile.exists());
+        }
+    }
+
+    @Test
+    public void cleanupFailureDoesNotHideUploadFailure() throws Exception {
+        FileHelper fileHelper = spy(new FileHelper());
+        doThrow(IOException.class).when(fileHelper).deleteDirRecursively(any());
+        synapseHelper.setFileHelper(fileHelper);
+
+        writeInputFile(HEADER, "1\tfoo");
+        when(mockSynapseClient.uploadCsvToTableAsyncGet("job-fh-0", TABLE_ID)).thenThrow(
+                SynapseBadRequestException.class);
+
+        // The import's exception is thrown, not the cleanup's.
+        try {
+            synapseHelper.uploadTsvFileToTableChunked(TABLE_ID, inputFile, MAX_CHUNK_BYTES);
+            fail("expected exception");
+        } catch (SynapseBadRequestException ex) {
+            // expected exception
+        }
+        verify(fileHelper).deleteDirRecursively(any());
+    }
+
+    @Test
+    public void cleanupFailureAfterSuccess() throws Exception {
+        FileHelper fileHelper = spy(new FileHelper());
+        doThrow(IOException.class).when(fileHelper).deleteDirRecursively(any());
+        synapseHelper.setFileHelper(fileHelper);
+
+        writeInputFile(HEADER, "1\tfoo");
+        mockImportResult("job-fh-0", 1);
+
+        // The upload succeeded, so the cleanup failure is only logged.
+        assertEquals(synapseHelper.uploadTsvFileToTableChunked(TABLE_ID, inputFile, MAX_CHUNK_BYTES), 1);
+    }
+
+    @Test
+    public void emptyFile() throws Exception {
+        writeInputFile();
+        long rows = synapseHelper.uploadTsvFileToTableChunked(TABLE_ID, inputFile, MAX_CHUNK_BYTES);
+        assertEquals(rows, 0);
+        verify(synapseHelper, never()).createFileHandleWithRetry(any());
+    }
+
+    @Test
+    public void headerOnly() throws Exception {
+        writeInputFile(HEADER);
+        long rows = synapseHelper.uploadTsvFileToTableChunked(TABLE_ID, inputFile, MAX_CHUNK_BYTES);
+        assertEquals(rows, 0);
+        verify(synapseHelper, never()).createFileHandleWithRetry(any());
+    }
+
+    private void writeInputFile(String... lines) throws Exception {
+        Files.write(inputFile.toPath(), ImmutableList.copyOf(lines), Charsets.UTF_8);
+    }
+
+    private void mockImportResult(String jobToken, long rows) throws Exception {
+        UploadToTableResult result = new UploadToTableResult();
+        result.setRowsProcessed(rows);
+        when(mockSynapseClient.uploadCsvToTableAsyncGet(jobToken, TABLE_ID)).thenReturn(result);
+    }
+}
@@ -8,9 +8,11 @@ import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 
 import org.mockito.ArgumentCaptor;
 import org.sagebionetworks.client.SynapseClient;
@@ -102,4 +104,50 @@ public class SynapseHelperUploadTsvToTableTest {
         // execute
         synapseHelper.uploadTsvFileToTable(TEST_TABLE_ID, mockTsvFile);
     }
+
+    @Test
+    public void asyncNormalCase() throws Exception {
+        // mock synapseClient.uploadCsvToTableAsyncGet() - first loop not ready, second loop has results
+        UploadToTableResult uploadTsvStatus = new UploadToTableResult();
+        uploadTsvStatus.setRowsProcessed(42L);
+        when(mockSynapseClient.uploadCsvToTableAsyncGet(TEST_JOB_TOKEN, TEST_TABLE_ID)).thenThrow(
+                SynapseResultNotReadyException.class).thenReturn(uploadTsvStatus);
+
+        // execute and validate
+        long linesProcessed = synapseHelper.uploadTsvFileToTableAsync(TEST_TABLE_ID, mockTsvFile).join();
+        assertEquals(linesProcessed, 42);
+    }
+
+    @Test
+    public void asyncTimeout() throws Exception {
+        // mock synapseClient.uploadCsvToTableAsyncGet() to throw
+        when(mockSynapseClient.uploadCsvToTableAsyncGet(TEST_JOB_TOKEN, TEST_TABLE_ID)).thenThrow(
+                SynapseResultNotReadyException.class);
+
+        // execute and validate
+        try {
+            synapseHelper.uploadTsvFileToTableAsync(TEST_TABLE_ID, mockTsvFile).join();
+            fail("expected exception");
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof BridgeSynapseException);
+            assertEquals(ex.getCause().getMessage(), "Timed out uploading file handle " + TEST_FILE_HANDLE_ID);
+        }
+    }
+
+    @Test
+    public void asyncNullGetRowsProcessed() throws Exception {
+        // mock synapseClient.uploadCsvToTableAsyncGet()
+        UploadToTableResult uploadTsvStatus = new UploadToTableResult();
+        uploadTsvStatus.setRowsProcessed(null);
+        when(mockSynapseClient.uploadCsvToTableAsyncGet(TEST_JOB_TOKEN, TEST_TABLE_ID)).thenReturn(uploadTsvStatus);
+
+        // execute and validate
+        try {
+            synapseHelper.uploadTsvFileToTableAsync(TEST_TABLE_ID, mockTsvFile).join();
+            fail("expected exception");
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof BridgeSynapseException);
+            assertEquals(ex.getCause().getMessage(), "Null rows processed");
+        }
+    }
 }
@@ -0,0 +1,71 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+public class SynapseProvisioningPlanTest {
+    @Test
+    public void orderedSteps() {
+        SynapseProvisioningPlan plan = new SynapseProvisioningPlan()
+                .addAcl("child", ImmutableSet.of(1L), ImmutableSet.of(2L))
+                .addFolder("grandchild", "child", "grandchild-name")
+                .addFolder("child", "root", "child-name")
+                .addExistingEntity("root", "syn-root");
+
+        List<String> refList = new ArrayList<>();
+        List<SynapseProvisioningPlan.Step> stepList = plan.getOrderedSteps();
+        for (SynapseProvisioningPlan.Step step : stepList) {
+            refList.add(step.getRef());
+        }
+
+        // Dependencies come first, and the ACL comes last.
+        assertEquals(refList.subList(0, 3), ImmutableList.of("root", "child", "grandchild"));
+        assertNull(refList.get(3));
+        assertEquals(stepList.get(3).getDependencyRefList(), ImmutableList.of("child"));
+    }
+
+    @Test
+    public void cycle() {
+        SynapseProvisioningPlan plan = new SynapseProvisioningPlan().addFolder("foo", "bar", "foo-name")
+                .addFolder("bar", "baz", "bar-name").addFolder("baz", "foo", "baz-name");
+        try {
+            plan.getOrderedSteps();
+            fail("expected exception");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().startsWith("Cycle in provisioning plan"));
+        }
+    }
+
+    @Test
+    public void selfReference() {
+        SynapseProvisioningPlan plan = new SynapseProvisioningPlan().addFolder("foo", "foo", "foo-name");
+        try {
+            plan.getOrderedSteps();
+            fail("expected exception");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().startsWith("Cycle in provisioning plan"));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp =
+            "Unknown ref no-such-ref in provisioning plan")
+    public void unknownRef() {
+        new SynapseProvisioningPlan().addAcl("no-such-ref", ImmutableSet.of(1L), ImmutableSet.of(2L))
+                .getOrderedSteps();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp =
+            "Duplicate ref foo")
+    public void duplicateRef() {
+        new SynapseProvisioningPlan().addExistingEntity("foo", "syn-foo").addExistingEntity("foo", "syn-bar");
+    }
+}
@@ -0,0 +1,193 @@
+package org.sagebionetworks.bridge.synapse;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import org.sagebionetworks.client.exceptions.UnknownSynapseServerException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.exceptions.BridgeSynapseException;
+
+public class SynapseStatusMonitorTest {
+    private static final long CACHE_TTL_MILLIS = 1000;
+    private static final long PROBE_INTERVAL_MILLIS = 10000;
+
+    private SynapseStatusMonitor.Listener mockListener;
+    private SynapseHelper mockSynapseHelper;
+    private SynapseStatusMonitor monitor;
+    private long nowMillis;
+
+    @BeforeMethod
+    public void setup() {
+        nowMillis = 100000;
+        mockListener = mock(SynapseStatusMonitor.Listener.class);
+        mockSynapseHelper = mock(SynapseHelper.class);
+
+        monitor = spy(new SynapseStatusMonitor());
+        monitor.setSynapseHelper(mockSynapseHelper);
+        monitor.setCacheTtlMillis(CACHE_TTL_MILLIS);
+        monitor.setFailureThreshold(2);
+        monitor.setProbeIntervalMillis(PROBE_INTERVAL_MILLIS);
+        monitor.addListener(mockListener);
+
+        // Mock the clock.
+        doReturn(nowMillis).when(monitor).currentTimeMillis();
+    }
+
+    @Test
+    public void cachesStatus() throws Exception {
+        when(mockSynapseHelper.isSynapseWritable()).thenReturn(true);
+
+        assertTrue(monitor.isWritable());
+        assertTrue(monitor.isWritable());
+        verify(mockSynapseHelper, times(1)).isSynapseWritable();
+
+        // After the cache expires, we call Synapse again.
+        setNow(nowMillis + CACHE_TTL_MILLIS);
+        assertTrue(monitor.isWritable());
+        verify(mockSynapseHelper, times(2)).isSynapseWritable();
+        assertEquals(monitor.getState(), SynapseStatusMonitor.State.CLOSED);
+        verifyZeroInteractions(mockListener);
+    }
+
+    @Test
+    public void notWritableOpensCircuit() throws Exception {
+        when(mockSynapseHelper.isSynapseWritable()).thenReturn(false);
+
+        assertFalse(monitor.isWritable());
+        assertEquals(monitor.getState(), SynapseStatusMonitor.State.OPEN);
+        verify(mockListener).onSynapseUnavailable();
+
+        // Fails fast, even after the cache expires, until it's time to probe.
+        setNow(nowMillis + PROBE_INTERVAL_MILLIS - 1);
+        assertFalse(monitor.isWritable());
+        try {
+            monitor.checkWritableOrThrow();
+            fail("expected exception");
+        } catch (BridgeSynapseException ex) {
+            assertEquals(ex.getMessage(), "Synapse not in writable state");
+        }
+        verify(mockSynapseHelper, times(1)).isSynapseWritable();
+    }
+
+    @Test
+    public void errorsOpenCircuitAtThreshold() throws Exception {
+        when(mockSynapseHelper.isSynapseWritable()).thenThrow(new UnknownSynapseServerException(500,
+                "test exception"));
+
+        assertFalse(monitor.isWritable());
+        assertEquals(monitor.getState(), SynapseStatusMonitor.State.CLOSED);
+        verify(mockListener, never()).onSynapseUnavailable();
+
+        setNow(nowMillis + CACHE_TTL_MILLIS);
+        assertFalse(monitor.isWritable());
+        assertEquals(monitor.getState(), SynapseStatusMonitor.State.OPEN);
+        verify(mockListener).onSynapseUnavailable();
+    }
+
+    @Test
+    public void errorBelowThresholdIsNotCached() throws Exception {
+        when(mockSynapseHelper.isSynapseWritable()).thenThrow(new UnknownSynapseServerException(500,
+                "test exception")).thenReturn(true);
+
+        // The error isn't cached, so the next check calls Synapse again, even though the TTL hasn't passed.
+        assertFalse(monitor.isWritable());
+        assertTrue(monitor.isWritable());
+        verify(mockSynapseHelper, times(2)).isSynapseWritable();
+
+        // The success is cached.
+        assertTrue(monitor.isWritable());
+        verify(mockSynapseHelper, times(2)).isSynapseWritable();
+        assertEquals(monitor.getState(), SynapseStatusMonitor.State.CLOSED);
+    }
+
+    @Test
+    public void checkWritableOrThrowKeepsCause() throws Exception {
+        UnknownSynapseServerException synapseEx = new UnknownSynapseServerException(500, "test exception");
+        when(mockSynapseHelper.isSynapseWritable()).thenThrow(synapseEx);
+
+        for (int i = 0; i < 3; i++) {
+            // Below the threshold, then at the threshold, then failing fast while the circuit is open.
+            try {
+                monitor.checkWritableOrThrow();
+                fail("expected exception");
+            } catch (BridgeSynapseException ex) {
+                assertSame(ex.getCause(), synapseEx);
+            }
+        }
+        assertEquals(monitor.getState(), SynapseStatusMonitor.State.OPEN);
+    }
+
+    @Test
+    public void probeRecovers() throws Exception {
+        when(mockSynapseHelper.isSynapseWritable()).thenReturn(false, false, true);
+
+        // Open the circuit.
+        assertFalse(monitor.isWritable());
+
+        // First probe fails. Circuit stays open, and listeners aren't notified again.
+        setNow(nowMillis + PROBE_INTERVAL_MILLIS);
+        assertFalse(monitor.isWritable());
+        assertEquals(monitor.getState(), SynapseStatusMonitor.State.OPEN);
+        verify(mockListener, times(1)).onSynapseUnavailable();
+
+        // Second probe succeeds.
+        setNow(nowMillis + PROBE_INTERVAL_MILLIS);
+        assertTrue(monitor.isWritable());
+        assertEquals(monitor.getState(), SynapseStatusMonitor.State.CLOSED);
+        verify(mockListener).onSynapseRecovered();
+        verify(mockSynapseHelper, times(3)).isSynapseWritable();
+
+        // Status is cached again.
+        assertTrue(monitor.isWritable());
+        monitor.checkWritableOrThrow();
+        verify(mockSynapseHelper, times(3)).isSynapseWritable();
+    }
+
+    @Test
+    public void listenerExceptionDoesNotBreakOtherListeners() throws Exception {
+        SynapseStatusMonitor.Listener badListener = mock(SynapseStatusMonitor.Listener.class);
+        doThrow(RuntimeException.class).when(badListener).onSynapseUnavailable();
+        monitor.removeListener(mockListener);
+        monitor.addListener(badListener);
+        monitor.addListener(mockListener);
+
+        when(mockSynapseHelper.isSynapseWritable()).thenReturn(false);
+        assertFalse(monitor.isWritable());
+        verify(mockListener).onSynapseUnavailable();
+    }
+
+    @Test
+    public void helperUsesMonitor() throws Exception {
+        SynapseStatusMonitor mockMonitor = mock(SynapseStatusMonitor.class);
+        doThrow(new BridgeSynapseException("test exception")).when(mockMonitor).checkWritableOrThrow();
+
+        SynapseHelper synapseHelper = spy(new SynapseHelper());
+        synapseHelper.setStatusMonitor(mockMonitor);
+        try {
+            synapseHelper.checkSynapseWritableOrThrow();
+            fail("expected exception");
+        } catch (BridgeSynapseException ex) {
+            assertEquals(ex.getMessage(), "test exception");
+        }
+        verify(synapseHelper, never()).isSynapseWritable();
+    }
+
+    private void setNow(long nowMillis) {
+        this.nowMillis = nowMillis;
+        doReturn(nowMillis).when(monitor).currentTimeMillis();
+    }
+}